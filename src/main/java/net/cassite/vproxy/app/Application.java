@@ -18,8 +18,10 @@ public class Application {
     public final ServerGroupHolder serverGroupHolder;
     public final ServerGroupsHolder serverGroupsHolder;
     public final TcpLBHolder tcpLBHolder;
+    public final RedisLBHolder redisLBHolder;
     public final EventLoopWrapper controlEventLoop;
     public final RESPControllerHolder respControllerHolder;
+    public final MetricsServerHolder metricsServerHolder;
     public final String appVersion;
 
     private Application() throws IOException {
@@ -27,9 +29,11 @@ public class Application {
         this.serverGroupHolder = new ServerGroupHolder();
         this.serverGroupsHolder = new ServerGroupsHolder();
         this.tcpLBHolder = new TcpLBHolder();
+        this.redisLBHolder = new RedisLBHolder();
         SelectorEventLoop _controlEventLoop = SelectorEventLoop.open();
         this.controlEventLoop = new EventLoopWrapper("ControlEventLoop", _controlEventLoop);
         this.respControllerHolder = new RESPControllerHolder();
+        this.metricsServerHolder = new MetricsServerHolder();
         this.appVersion = getVersion();
     }
 
@@ -4,6 +4,7 @@ import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
 import net.cassite.vproxy.component.app.Shutdown;
 import net.cassite.vproxy.component.app.StdIOController;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.util.BufferPool;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.Utils;
 
@@ -19,6 +20,12 @@ public class Main {
         "\n" +
         "\n\t\tresp-controller ${address} ${password}       start the resp-controller, will" +
         "\n\t\t                                             be named as `resp-controller`" +
+        "\n" +
+        "\n\t\tmetrics-server ${address}                    start the metrics server, will" +
+        "\n\t\t                                             be named as `metrics-server`" +
+        "\n" +
+        "\n\t\tbuffer-pool-cap ${bytes}                     max direct memory held by buffer pools," +
+        "\n\t\t                                             heap buffers are used when reached" +
         "";
 
     public static void main(String[] args) {
@@ -33,7 +40,14 @@ public class Main {
         // init signal hooks
         Shutdown.init();
         // start ControlEventLoop
-        Application.get().controlEventLoop.loop();
+        try {
+            Application.get().controlEventLoop.loop();
+        } catch (IOException e) {
+            System.err.println("start control event loop failed! " + e);
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
 
         // every other thing should start after the loop
 
@@ -91,6 +105,50 @@ public class Main {
                         return;
                     }
                     break;
+                case "metrics-server":
+                    if (next == null) {
+                        System.err.println("invalid system call for `metrics-server`: should specify an address");
+                        System.exit(1);
+                        return;
+                    }
+                    // handle metrics-server, so increase the cursor
+                    ++i;
+                    InetSocketAddress metricsAddr;
+                    try {
+                        metricsAddr = AddrHandle.get(next);
+                    } catch (Exception e) {
+                        System.err.println("invalid address: " + next);
+                        System.exit(1);
+                        return;
+                    }
+                    try {
+                        Application.get().metricsServerHolder.add("metrics-server", metricsAddr);
+                    } catch (AlreadyExistException e) {
+                        System.err.println("metrics-server is specified more than once");
+                        System.exit(1);
+                        return;
+                    } catch (IOException e) {
+                        System.err.println("start metrics-server failed");
+                        System.exit(1);
+                        return;
+                    }
+                    break;
+                case "buffer-pool-cap":
+                    if (next == null) {
+                        System.err.println("invalid system call for `buffer-pool-cap`: should specify the max bytes");
+                        System.exit(1);
+                        return;
+                    }
+                    // handle buffer-pool-cap, so increase the cursor
+                    ++i;
+                    try {
+                        BufferPool.setMaxDirectBytes(Long.parseLong(next));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("invalid buffer pool cap: " + next);
+                        System.exit(1);
+                        return;
+                    }
+                    break;
                 default:
                     System.err.println("unknown argument `" + arg + "`");
                     System.exit(1);
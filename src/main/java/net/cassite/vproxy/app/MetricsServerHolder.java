@@ -0,0 +1,43 @@
+package net.cassite.vproxy.app;
+
+import net.cassite.vproxy.component.app.MetricsServer;
+import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.component.exception.NotFoundException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsServerHolder {
+    private final Map<String, MetricsServer> map = new HashMap<>();
+
+    public List<String> names() {
+        return new ArrayList<>(map.keySet());
+    }
+
+    public MetricsServer add(String alias,
+                             InetSocketAddress address) throws AlreadyExistException, IOException {
+        if (map.containsKey(alias))
+            throw new AlreadyExistException();
+        MetricsServer ms = new MetricsServer(alias, address);
+        map.put(alias, ms);
+        return ms;
+    }
+
+    public MetricsServer get(String alias) throws NotFoundException {
+        MetricsServer ms = map.get(alias);
+        if (ms == null)
+            throw new NotFoundException();
+        return ms;
+    }
+
+    public void removeAndStop(String alias) throws NotFoundException {
+        MetricsServer g = map.remove(alias);
+        if (g == null)
+            throw new NotFoundException();
+        g.stop();
+    }
+}
@@ -0,0 +1,52 @@
+package net.cassite.vproxy.app;
+
+import net.cassite.vproxy.component.app.RedisLB;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.component.exception.ClosedException;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RedisLBHolder {
+    private final Map<String, RedisLB> map = new HashMap<>();
+
+    public List<String> names() {
+        return new ArrayList<>(map.keySet());
+    }
+
+    public void add(String alias,
+                    EventLoopGroup acceptorEventLoopGroup,
+                    EventLoopGroup workerEventLoopGroup,
+                    InetSocketAddress bindAddress,
+                    ServerGroups backends,
+                    int inBufferSize,
+                    int outBufferSize,
+                    RedisLB.KeyHash keyHash) throws AlreadyExistException, IOException, ClosedException {
+        if (map.containsKey(alias))
+            throw new AlreadyExistException();
+        RedisLB redisLB = new RedisLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize, keyHash);
+        map.put(alias, redisLB);
+        redisLB.start();
+    }
+
+    public RedisLB get(String alias) throws NotFoundException {
+        RedisLB redisLB = map.get(alias);
+        if (redisLB == null)
+            throw new NotFoundException();
+        return redisLB;
+    }
+
+    public void removeAndStop(String alias) throws NotFoundException {
+        RedisLB rl = map.remove(alias);
+        if (rl == null)
+            throw new NotFoundException();
+        rl.destroy();
+    }
+}
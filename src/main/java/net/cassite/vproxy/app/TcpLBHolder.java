@@ -27,10 +27,12 @@ public class TcpLBHolder {
                     InetSocketAddress bindAddress,
                     ServerGroups backends,
                     int inBufferSize,
-                    int outBufferSize) throws AlreadyExistException, IOException, ClosedException {
+                    int outBufferSize,
+                    boolean reusePort,
+                    int maxAcceptsPerWakeup) throws AlreadyExistException, IOException, ClosedException {
         if (map.containsKey(alias))
             throw new AlreadyExistException();
-        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize);
+        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize, reusePort, maxAcceptsPerWakeup);
         map.put(alias, tcpLB);
         tcpLB.start();
     }
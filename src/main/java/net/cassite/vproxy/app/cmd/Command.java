@@ -39,7 +39,13 @@ public class Command {
             "\n                               password ${password}" +
             "\n        System call: remove resp-controller        stop resp controller" +
             "\n                               ${name}" +
-            "\n        System call: list-detail resp-controller   check resp controller" +
+            "\n        System call: list-detail resp-controller   check resp controller and its command statistics" +
+            "\n        System call: add metrics-server            start metrics server, serving prometheus text format over http" +
+            "\n                               ${alias}" +
+            "\n                               address  ${bind addr}" +
+            "\n        System call: remove metrics-server         stop metrics server" +
+            "\n                               ${name}" +
+            "\n        System call: list-detail metrics-server    check metrics servers" +
             "\n    (System commands can only be executed via StdIOController)" +
             "\n    Operate a resource:" +
             "\n        list                 | l                   list resources' names" +
@@ -55,6 +61,7 @@ public class Command {
             "\n        for sub level resources: ${resource-type} ${resource-name} in ${resource-type} ${resource-name} in ..." +
             "\n        Available resource types:" +
             "\n            tcp-lb           | tl                  tcp loadbalancer" +
+            "\n            redis-lb         | rl                  redis proxy, commands are routed to server groups by key" +
             "\n            event-loop-group | elg                 event loop group" +
             "\n            server-groups    | sgs                 server groups" +
             "\n            server-group     | sg                  server group" +
@@ -66,25 +73,44 @@ public class Command {
             "\n            bytes-in         | bin                 input bytes (net flow from remote to local), is inside bind-server|connection|server" +
             "\n            bytes-out        | bout                output bytes(net flow from local to remote), is inside bind-server|connection|server" +
             "\n            accepted-conn-count                    accepted connections count, is inside bind-server" +
+            "\n            accept-budget-exhausted-count          how many times the accept budget of a wakeup ran out, is inside bind-server" +
+            "\n            buffer-pool                            direct buffer pool statistics, on top level" +
+            "\n            buffer-bytes                           memory held by the session buffers, is inside tcp-lb" +
+            "\n    Flags:" +
+            "\n        reuse-port                                 bind a server for each acceptor event loop with SO_REUSEPORT, available when (creating tcp-lb)" +
             "\n    Parameters:" +
             "\n        timeout                                    health check timeout     , required when (creating|updating server group) or (updating server group health check)" +
             "\n        period                                     health check period      , required when (creating|updating server group) or (updating server group health check)" +
             "\n        up                                         health check up times    , required when (creating|updating server group) or (updating server group health check)" +
             "\n        down                                       health check down times  , required when (creating|updating server group) or (updating server group health check)" +
-            "\n        method               | meth                method to retrieve       , required when (creating|updating server group)" +
+            "\n        method               | meth                method to retrieve       , required when (creating|updating server group), optional when (creating redis-lb: crc16(default)|maglev) or (creating|updating event-loop-group: rr(default)|leastconn|leastbusy|p2c)" +
             "\n        weight               | w                   weight                   , required when (adding|updating server in server group)" +
-            "\n        event-loop-group     | elg                 event loop group         , required when (creating server group) or (creating tcp-lb as the worker group)" +
-            "\n        acceptor-elg         | aelg                acceptor event loop group, required when (creating tcp-lb)" +
-            "\n        address              | addr                ip address or ip:port    , required when (creating tcp-lb) or (adding server into server group)" +
+            "\n        pool-min-idle                              idle connections to keep , optional when (creating|updating server group: set together with pool-max-idle and pool-idle-timeout to enable the backend connection pool, 0 for both min and max idle to disable it)" +
+            "\n        pool-max-idle                              max idle connections     , optional when (creating|updating server group: per server per event loop)" +
+            "\n        pool-idle-timeout                          idle timeout of pool     , optional when (creating|updating server group: idle connections above min idle are closed after this many milliseconds)" +
+            "\n        cpu                                        cpus to pin to           , optional when (creating|updating event-loop: cpu list like 0-3,8, or node1 for cpus of numa node 1)" +
+            "\n        read-spin                                  reads per readable event , optional when (creating|updating event-loop: keep reading until the socket is drained or this many reads are done, default 1)" +
+            "\n        read-spin-bytes                            bytes per readable event , optional when (creating|updating event-loop: stop reading in one readable event after this many bytes, default 0 for no limit)" +
+            "\n        event-loop-group     | elg                 event loop group         , required when (creating server group) or (creating tcp-lb|redis-lb as the worker group)" +
+            "\n        acceptor-elg         | aelg                acceptor event loop group, required when (creating tcp-lb|redis-lb)" +
+            "\n        address              | addr                ip address or ip:port    , required when (creating tcp-lb|redis-lb) or (adding server into server group)" +
             "\n        ip                   | via                 ip address               , required when (adding server into server group as the local ip)" +
-            "\n        server-groups        | sgs                 server groups            , required when (creating tcp-lb)" +
-            "\n        in-buffer-size                             in buffer size           , required when (creating tcp-lb)" +
-            "\n        out-buffer-size                            out buffer size          , required when (creating tcp-lb)" +
+            "\n        server-groups        | sgs                 server groups            , required when (creating tcp-lb|redis-lb)" +
+            "\n        in-buffer-size                             in buffer size           , required when (creating tcp-lb|redis-lb)" +
+            "\n        out-buffer-size                            out buffer size          , required when (creating tcp-lb|redis-lb)" +
+            "\n        max-accepts-per-wakeup                     accepts per wakeup       , optional when (creating tcp-lb: connections to accept in one wakeup of the acceptor event loop, default 64)" +
             "\n    Usages:" +
             "\n        add event-loop-group elg0                  // creates a new event loop group named elg0" +
             "\n        add event-loop el00 to elg0                // creates a new event loop named el00 in elg0" +
+            "\n        add event-loop el01 to elg0 cpu node1      // creates a new event loop named el01 in elg0, running on cpus of numa node 1, the session buffers of the loop are allocated on that node" +
+            "\n        update event-loop el01 in elg elg0 cpu 2-3 // pins event loop el01 to cpu 2 and 3" +
+            "\n        update event-loop el01 in elg elg0 read-spin 4 read-spin-bytes 262144 // reads a socket up to 4 times or 256k bytes in one readable event" +
+            "\n        remove event-loop el00 from elg0           // established tcp-lb sessions on el00 are moved to other event loops in elg0" +
+            "\n        update event-loop-group elg0 method p2c    // new sessions go to the less busy one of two random event loops in elg0" +
             "\n        add server-group g0 timeout 500 period 800 up 4 down 5 method wrr elg elg0     // creates a server group named g0 with these arguments" +
+            "\n        update server-group g0 pool-min-idle 2 pool-max-idle 8 pool-idle-timeout 60000 // keeps 2 to 8 idle connections to each server of g0 on each event loop of its elg, used by redis-lb" +
             "\n        list-detail tcp-lb                         // list detailed info about all tcp lbs" +
+            "\n        list-detail event-loop in elg elg0         // list load statistics of the event loops in elg0 in last 5 seconds" +
             ""
             ;
     }
@@ -510,6 +536,7 @@ public class Command {
                 }
                 break;
             case acceptedconncount: // accepted-connections
+            case acceptbudgetexhaustedcount: // accept-budget-exhausted-count
                 switch (cmd.action) {
                     case a:
                     case r:
@@ -527,6 +554,38 @@ public class Command {
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
                 break;
+            case bufferbytes: // buffer-bytes
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                        // modification not supported for statistic resources
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case L:
+                    case l:
+                        // can be found in tcp-lb
+                        if (targetResource == null)
+                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
+                        if (targetResource.type != ResourceType.tl)
+                            throw new Exception(targetResource.type.fullname + " does not contain " + cmd.resource.type.fullname);
+                        TcpLBHandle.checkTcpLB(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
+            case bufferpool: // buffer-pool
+                switch (cmd.action) {
+                    case L:
+                    case l:
+                        // only exists on top level
+                        if (targetResource != null)
+                            throw new Exception(cmd.resource.type.fullname + " is on top level");
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
             case el: // event loop
                 switch (cmd.action) {
                     case a:
@@ -541,8 +600,18 @@ public class Command {
                             throw new Exception(targetResource.type.fullname + " does not contain " + cmd.resource.type.fullname);
                         // also should check event loop group
                         EventLoopGroupHandle.checkEventLoopGroup(targetResource);
-                        // no need to check for creation
-                        // no param required
+                        // check for creation
+                        if (cmd.action == Action.a) {
+                            EventLoopHandle.checkCreateEventLoop(cmd);
+                        }
+                        break;
+                    case u:
+                        if (targetResource == null)
+                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
+                        if (targetResource.type != ResourceType.elg)
+                            throw new Exception(targetResource.type.fullname + " does not contain " + cmd.resource.type.fullname);
+                        EventLoopGroupHandle.checkEventLoopGroup(targetResource);
+                        EventLoopHandle.checkUpdateEventLoop(cmd);
                         break;
                     default:
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
@@ -612,8 +681,9 @@ public class Command {
                 break;
             case sgs: // server groups
             case tl: // tcp lb
+            case rl: // redis lb
             case elg: // event loog group
-                // these three are only exist on top level
+                // these are only exist on top level
                 // so bring them together
                 switch (cmd.action) {
                     case a:
@@ -623,14 +693,26 @@ public class Command {
                     case l:
                         if (targetResource != null)
                             throw new Exception(cmd.resource.type.fullname + " is on top level");
-                        // only check creation for tcp lb
+                        // only check creation for lbs
                         // the other two does not have creation param
                         if (cmd.action == Action.a) {
                             if (cmd.resource.type == ResourceType.tl) {
                                 TcpLBHandle.checkCreateTcpLB(cmd);
-                            } // the other two does not need check
+                            } else if (cmd.resource.type == ResourceType.rl) {
+                                RedisLBHandle.checkCreateRedisLB(cmd);
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkCreateEventLoopGroup(cmd);
+                            } // server-groups does not need check
                         }
                         break;
+                    case u:
+                        // only the select method of event loop group can be updated
+                        if (cmd.resource.type != ResourceType.elg)
+                            throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                        if (targetResource != null)
+                            throw new Exception(cmd.resource.type.fullname + " is on top level");
+                        EventLoopGroupHandle.checkUpdateEventLoopGroup(cmd);
+                        break;
                     default:
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
@@ -727,6 +809,27 @@ public class Command {
                         long acc = StatisticHandle.acceptedConnCount(targetResource);
                         return new CmdResult(acc, acc, "" + acc);
                 }
+            case acceptbudgetexhaustedcount:
+                switch (action) {
+                    case l:
+                    case L:
+                        long exhausted = StatisticHandle.acceptBudgetExhaustedCount(targetResource);
+                        return new CmdResult(exhausted, exhausted, "" + exhausted);
+                }
+            case bufferbytes:
+                switch (action) {
+                    case l:
+                    case L:
+                        long bufferBytes = StatisticHandle.bufferBytes(targetResource);
+                        return new CmdResult(bufferBytes, bufferBytes, "" + bufferBytes);
+                }
+            case bufferpool: // top level
+                switch (action) {
+                    case l:
+                    case L:
+                        List<String> poolStat = StatisticHandle.bufferPool();
+                        return new CmdResult(poolStat, poolStat, utilJoinList(poolStat));
+                }
             case svr: // can only be retrieved from server group
                 switch (action) {
                     case l:
@@ -765,12 +868,18 @@ public class Command {
             case elg: // top level
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elgNames = EventLoopGroupHandle.names();
                         return new CmdResult(elgNames, elgNames, utilJoinList(elgNames));
+                    case L:
+                        List<EventLoopGroupHandle.EventLoopGroupRef> elgRefList = EventLoopGroupHandle.details();
+                        List<String> elgRefStrList = elgRefList.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(elgRefList, elgRefStrList, utilJoinList(elgRefList));
                     case a:
                         EventLoopGroupHandle.add(this);
                         return new CmdResult();
+                    case u:
+                        EventLoopGroupHandle.update(this);
+                        return new CmdResult();
                     case r:
                         EventLoopGroupHandle.preCheck(this);
                     case R:
@@ -780,12 +889,18 @@ public class Command {
             case el: // can only be retrieved from event loop group
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elNames = EventLoopHandle.names(targetResource);
                         return new CmdResult(elNames, elNames, utilJoinList(elNames));
+                    case L:
+                        List<EventLoopHandle.EventLoopRef> elRefList = EventLoopHandle.detail(targetResource);
+                        List<String> elRefStrList = elRefList.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(elRefList, elRefStrList, utilJoinList(elRefList));
                     case a:
                         EventLoopHandle.add(this);
                         return new CmdResult();
+                    case u:
+                        EventLoopHandle.update(this);
+                        return new CmdResult();
                     case r:
                     case R:
                         EventLoopHandle.forceRemove(this);
@@ -794,9 +909,12 @@ public class Command {
             case sg: // top level or retrieved from serverGroups
                 switch (action) {
                     case l:
-                    case L:
                         List<String> sgNames = ServerGroupHandle.names(targetResource);
                         return new CmdResult(sgNames, sgNames, utilJoinList(sgNames));
+                    case L:
+                        List<ServerGroupHandle.ServerGroupRef> sgRefList = ServerGroupHandle.details(targetResource);
+                        List<String> sgRefStrList = sgRefList.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(sgRefList, sgRefStrList, utilJoinList(sgRefList));
                     case a:
                         ServerGroupHandle.add(this);
                         return new CmdResult();
@@ -826,6 +944,24 @@ public class Command {
                         TcpLBHandle.forceRemove(this);
                 }
                 throw new Exception("cannot run " + action.fullname + " on " + resource.type.fullname);
+            case rl: // redis loadbalancer on top level
+                switch (action) {
+                    case l:
+                        List<String> rlNames = RedisLBHandle.names();
+                        return new CmdResult(rlNames, rlNames, utilJoinList(rlNames));
+                    case L:
+                        List<RedisLBHandle.RedisLBRef> rlRefList = RedisLBHandle.details();
+                        List<String> rlRefStrList = rlRefList.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(rlRefList, rlRefStrList, utilJoinList(rlRefList));
+                    case a:
+                        RedisLBHandle.add(this);
+                        return new CmdResult();
+                    case r:
+                    case R:
+                        RedisLBHandle.forceRemove(this);
+                        return new CmdResult();
+                }
+                throw new Exception("cannot run " + action.fullname + " on " + resource.type.fullname);
             default:
                 throw new Exception("unknown resource type " + resource.type.fullname);
         }
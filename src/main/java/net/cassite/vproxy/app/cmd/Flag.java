@@ -1,7 +1,7 @@
 package net.cassite.vproxy.app.cmd;
 
 public enum Flag {
-    // not used for now
+    reuseport("reuse-port"),
     ;
     public final String fullname;
 
@@ -12,8 +12,15 @@ public enum Param {
     sgs("server-groups"),
     inbuffersize("in-buffer-size"),
     outbuffersize("out-buffer-size"),
+    maxaccepts("max-accepts-per-wakeup"),
     meth("method"),
     w("weight"),
+    cpu("cpu"),
+    readspin("read-spin"),
+    readspinbytes("read-spin-bytes"),
+    poolminidle("pool-min-idle"),
+    poolmaxidle("pool-max-idle"),
+    poolidletimeout("pool-idle-timeout"),
 
     pass("password"),
     ;
@@ -2,6 +2,7 @@ package net.cassite.vproxy.app.cmd;
 
 public enum ResourceType {
     tl("tcp-lb"),
+    rl("redis-lb"),
     elg("event-loop-group"),
     sgs("server-groups"),
     sg("server-group"),
@@ -13,8 +14,12 @@ public enum ResourceType {
     bin("bytes-in"),
     bout("bytes-out"),
     acceptedconncount("accepted-conn-count"),
+    acceptbudgetexhaustedcount("accept-budget-exhausted-count"),
+    bufferpool("buffer-pool"),
+    bufferbytes("buffer-bytes"),
 
     respcontroller("resp-controller"),
+    metricsserver("metrics-server"),
     ;
     public final String fullname;
 
@@ -0,0 +1,46 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+import net.cassite.vproxy.component.svrgroup.ConnectionPoolConfig;
+
+public class ConnectionPoolHandle {
+    private static final int BUFFER_SIZE = 16384;
+
+    private ConnectionPoolHandle() {
+    }
+
+    public static boolean present(Command cmd) {
+        return cmd.args.containsKey(Param.poolminidle)
+            || cmd.args.containsKey(Param.poolmaxidle)
+            || cmd.args.containsKey(Param.poolidletimeout);
+    }
+
+    public static void check(Command cmd) throws Exception {
+        if (!cmd.args.containsKey(Param.poolminidle)
+            || !cmd.args.containsKey(Param.poolmaxidle)
+            || !cmd.args.containsKey(Param.poolidletimeout))
+            throw new Exception("missing connection pool argument, " + Param.poolminidle.fullname
+                + ", " + Param.poolmaxidle.fullname + " and " + Param.poolidletimeout.fullname + " should be set together");
+        try {
+            getConnectionPoolConfig(cmd, 1);
+        } catch (Exception e) {
+            throw new Exception("invalid connection pool config");
+        }
+    }
+
+    /**
+     * @param connectTimeout timeout of connecting the pooled connections
+     * @return null if the pool should be disabled, i.e. max idle is 0
+     */
+    public static ConnectionPoolConfig getConnectionPoolConfig(Command cmd, int connectTimeout) throws Exception {
+        int minIdle = Integer.parseInt(cmd.args.get(Param.poolminidle));
+        int maxIdle = Integer.parseInt(cmd.args.get(Param.poolmaxidle));
+        int idleTimeout = Integer.parseInt(cmd.args.get(Param.poolidletimeout));
+        if (maxIdle == 0 && minIdle == 0)
+            return null;
+        if (connectTimeout <= 0)
+            connectTimeout = 1; // the health check timeout may be 0
+        return new ConnectionPoolConfig(minIdle, maxIdle, idleTimeout, connectTimeout, BUFFER_SIZE);
+    }
+}
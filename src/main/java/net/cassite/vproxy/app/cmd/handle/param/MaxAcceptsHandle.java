@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class MaxAcceptsHandle {
+    private MaxAcceptsHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int maxAccepts;
+        try {
+            maxAccepts = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.maxaccepts.fullname);
+        }
+        if (maxAccepts <= 0)
+            throw new Exception("invalid " + Param.maxaccepts.fullname);
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.maxaccepts));
+    }
+}
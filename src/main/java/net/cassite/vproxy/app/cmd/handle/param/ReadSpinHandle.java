@@ -0,0 +1,49 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class ReadSpinHandle {
+    private ReadSpinHandle() {
+    }
+
+    public static boolean present(Command cmd) {
+        return cmd.args.containsKey(Param.readspin) || cmd.args.containsKey(Param.readspinbytes);
+    }
+
+    public static void check(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.readspin)) {
+            int iterations;
+            try {
+                iterations = Integer.parseInt(cmd.args.get(Param.readspin));
+            } catch (Exception e) {
+                throw new Exception("invalid " + Param.readspin.fullname);
+            }
+            if (iterations < 1)
+                throw new Exception("invalid " + Param.readspin.fullname);
+        }
+        if (cmd.args.containsKey(Param.readspinbytes)) {
+            int bytes;
+            try {
+                bytes = Integer.parseInt(cmd.args.get(Param.readspinbytes));
+            } catch (Exception e) {
+                throw new Exception("invalid " + Param.readspinbytes.fullname);
+            }
+            if (bytes < 0)
+                throw new Exception("invalid " + Param.readspinbytes.fullname);
+        }
+    }
+
+    // the missing one keeps the current value
+    public static int getIterations(Command cmd, int current) {
+        if (!cmd.args.containsKey(Param.readspin))
+            return current;
+        return Integer.parseInt(cmd.args.get(Param.readspin));
+    }
+
+    public static int getBytes(Command cmd, int current) {
+        if (!cmd.args.containsKey(Param.readspinbytes))
+            return current;
+        return Integer.parseInt(cmd.args.get(Param.readspinbytes));
+    }
+}
@@ -2,11 +2,14 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.component.app.RedisLB;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class EventLoopGroupHandle {
@@ -26,12 +29,48 @@ public class EventLoopGroupHandle {
         return Application.get().eventLoopGroupHolder.get(resource);
     }
 
+    public static void checkCreateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.meth)) {
+            getSelectMethod(cmd);
+        }
+    }
+
+    public static void checkUpdateEventLoopGroup(Command cmd) throws Exception {
+        if (!cmd.args.containsKey(Param.meth))
+            throw new Exception("missing argument " + Param.meth.fullname);
+        getSelectMethod(cmd);
+    }
+
+    private static EventLoopGroup.SelectMethod getSelectMethod(Command cmd) throws Exception {
+        String meth = cmd.args.get(Param.meth);
+        if (meth == null)
+            return EventLoopGroup.SelectMethod.rr;
+        try {
+            return EventLoopGroup.SelectMethod.valueOf(meth);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.meth.fullname);
+        }
+    }
+
     public static List<String> names() {
         return Application.get().eventLoopGroupHolder.names();
     }
 
+    public static List<EventLoopGroupRef> details() throws Exception {
+        List<EventLoopGroupRef> result = new ArrayList<>();
+        for (String name : names()) {
+            result.add(new EventLoopGroupRef(get(name)));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         Application.get().eventLoopGroupHolder.add(cmd.resource.alias);
+        get(cmd.resource).setSelectMethod(getSelectMethod(cmd));
+    }
+
+    public static void update(Command cmd) throws Exception {
+        get(cmd.resource).setSelectMethod(getSelectMethod(cmd));
     }
 
     public static void preCheck(Command cmd) throws Exception {
@@ -44,6 +83,12 @@ public class EventLoopGroupHandle {
             if (tcpLB.acceptorGroup.equals(g) || tcpLB.workerGroup.equals(g))
                 throw new Exception(ResourceType.elg + " " + toRemoveName + " is used by " + ResourceType.tl + " " + tcpLB.alias);
         }
+        // check redis lb
+        for (String name : Application.get().redisLBHolder.names()) {
+            RedisLB redisLB = Application.get().redisLBHolder.get(name);
+            if (redisLB.acceptorGroup.equals(g) || redisLB.workerGroup.equals(g))
+                throw new Exception(ResourceType.elg + " " + toRemoveName + " is used by " + ResourceType.rl + " " + redisLB.alias);
+        }
     }
 
     public static void forceRemvoe(Command cmd) throws Exception {
@@ -61,7 +106,7 @@ public class EventLoopGroupHandle {
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
-            sb.append(elg.alias);
+            sb.append(elg.alias).append(" -> method ").append(elg.getSelectMethod());
             for (String name : elg.names()) {
                 sb.append("\n    ").append(name);
             }
@@ -2,11 +2,15 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.app.cmd.handle.param.ReadSpinHandle;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.util.CpuAffinity;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class EventLoopHandle {
@@ -26,18 +30,88 @@ public class EventLoopHandle {
         EventLoopGroupHandle.checkEventLoopGroup(eventLoop.parentResource);
     }
 
+    public static void checkCreateEventLoop(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.cpu)) {
+            checkCpu(cmd);
+        }
+        ReadSpinHandle.check(cmd);
+    }
+
+    public static void checkUpdateEventLoop(Command cmd) throws Exception {
+        if (!cmd.args.containsKey(Param.cpu) && !ReadSpinHandle.present(cmd))
+            throw new Exception("missing argument " + Param.cpu.fullname + " or " + Param.readspin.fullname);
+        if (cmd.args.containsKey(Param.cpu)) {
+            checkCpu(cmd);
+        }
+        ReadSpinHandle.check(cmd);
+    }
+
+    private static void checkCpu(Command cmd) throws Exception {
+        try {
+            CpuAffinity.resolve(cmd.args.get(Param.cpu));
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.cpu.fullname + ": " + e.getMessage());
+        }
+    }
+
     public static List<String> names(Resource targetResource) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
         return g.names();
     }
 
+    public static List<EventLoopRef> detail(Resource targetResource) throws Exception {
+        EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
+        List<EventLoopWrapper> loops = g.list();
+        List<EventLoopRef> result = new ArrayList<>(loops.size());
+        for (EventLoopWrapper w : loops) {
+            result.add(new EventLoopRef(w));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
-        g.add(cmd.resource.alias);
+        g.add(cmd.resource.alias, cmd.args.get(Param.cpu));
+        if (ReadSpinHandle.present(cmd)) {
+            setReadSpin(g.get(cmd.resource.alias), cmd);
+        }
+    }
+
+    public static void update(Command cmd) throws Exception {
+        EventLoopWrapper w = get(cmd.resource);
+        if (cmd.args.containsKey(Param.cpu)) {
+            w.setCpuAffinity(cmd.args.get(Param.cpu));
+        }
+        if (ReadSpinHandle.present(cmd)) {
+            setReadSpin(w, cmd);
+        }
+    }
+
+    private static void setReadSpin(EventLoopWrapper w, Command cmd) {
+        w.setReadSpin(
+            ReadSpinHandle.getIterations(cmd, w.getReadSpinIterations()),
+            ReadSpinHandle.getBytes(cmd, w.getReadSpinBytes()));
     }
 
     public static void forceRemove(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         g.remove(cmd.resource.alias);
     }
+
+    public static class EventLoopRef {
+        public final EventLoopWrapper w;
+
+        public EventLoopRef(EventLoopWrapper w) {
+            this.w = w;
+        }
+
+        @Override
+        public String toString() {
+            String cpu = w.getCpuAffinity();
+            return w.alias + " -> cpu " + (cpu == null ? "any" : cpu)
+                + " read-spin " + w.getReadSpinIterations() + " read-spin-bytes " + w.getReadSpinBytes()
+                + " connections " + w.connectionCount()
+                + " last-5s " + w.getSelectorEventLoop().getLastInterval();
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package net.cassite.vproxy.app.cmd.handle.resource;
+
+import net.cassite.vproxy.app.Application;
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
+import net.cassite.vproxy.app.cmd.handle.param.InBufferSizeHandle;
+import net.cassite.vproxy.app.cmd.handle.param.OutBufferSizeHandle;
+import net.cassite.vproxy.component.app.RedisLB;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.util.Utils;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+
+public class RedisLBHandle {
+    private RedisLBHandle() {
+    }
+
+    public static void checkCreateRedisLB(Command cmd) throws Exception {
+        // same as tcp-lb, and the optional key hash method
+        TcpLBHandle.checkCreateTcpLB(cmd);
+        if (cmd.args.containsKey(Param.meth)) {
+            getKeyHash(cmd);
+        }
+    }
+
+    private static RedisLB.KeyHash getKeyHash(Command cmd) throws Exception {
+        String meth = cmd.args.get(Param.meth);
+        if (meth == null)
+            return RedisLB.KeyHash.crc16;
+        try {
+            return RedisLB.KeyHash.valueOf(meth);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.meth.fullname);
+        }
+    }
+
+    public static List<String> names() {
+        return Application.get().redisLBHolder.names();
+    }
+
+    public static List<RedisLBRef> details() throws Exception {
+        List<RedisLBRef> result = new LinkedList<>();
+        for (String name : names()) {
+            result.add(new RedisLBRef(
+                Application.get().redisLBHolder.get(name)
+            ));
+        }
+        return result;
+    }
+
+    public static void add(Command cmd) throws Exception {
+        String alias = cmd.resource.alias;
+        EventLoopGroup acceptor = Application.get().eventLoopGroupHolder.get(cmd.args.get(Param.aelg));
+        EventLoopGroup worker = Application.get().eventLoopGroupHolder.get(cmd.args.get(Param.elg));
+        InetSocketAddress addr = AddrHandle.get(cmd);
+        ServerGroups backend = Application.get().serverGroupsHolder.get(cmd.args.get(Param.sgs));
+        int inBufferSize = InBufferSizeHandle.get(cmd);
+        int outBufferSize = OutBufferSizeHandle.get(cmd);
+        RedisLB.KeyHash keyHash = getKeyHash(cmd);
+        Application.get().redisLBHolder.add(
+            alias, acceptor, worker, addr, backend, inBufferSize, outBufferSize, keyHash
+        );
+    }
+
+    public static void forceRemove(Command cmd) throws Exception {
+        Application.get().redisLBHolder.removeAndStop(cmd.resource.alias);
+    }
+
+    public static class RedisLBRef {
+        public final RedisLB redisLB;
+
+        public RedisLBRef(RedisLB redisLB) {
+            this.redisLB = redisLB;
+        }
+
+        @Override
+        public String toString() {
+            return redisLB.alias + " -> acceptor " + redisLB.acceptorGroup.alias + " worker " + redisLB.workerGroup.alias
+                + " bind " + Utils.ipStr(redisLB.bindAddress.getAddress().getAddress()) + ":" + redisLB.bindAddress.getPort()
+                + " backends " + redisLB.backends.alias
+                + " in buffer size " + redisLB.inBufferSize + " out buffer size " + redisLB.outBufferSize
+                + " method " + redisLB.keyHash
+                + " backend connections " + redisLB.backendConnectionCount()
+                + " backlog bytes " + redisLB.backlogBytes()
+                + " client pauses " + redisLB.clientPauseCount();
+        }
+    }
+}
@@ -5,14 +5,17 @@ import net.cassite.vproxy.app.cmd.Command;
 import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.app.cmd.handle.param.ConnectionPoolHandle;
 import net.cassite.vproxy.app.cmd.handle.param.HealthCheckHandle;
 import net.cassite.vproxy.app.cmd.handle.param.MethHandle;
 import net.cassite.vproxy.component.check.HealthCheckConfig;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.component.svrgroup.ConnectionPoolConfig;
 import net.cassite.vproxy.component.svrgroup.ServerGroup;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -58,6 +61,9 @@ public class ServerGroupHandle {
         } else {
             cmd.args.put(Param.meth, "wrr");
         }
+        if (ConnectionPoolHandle.present(cmd)) {
+            ConnectionPoolHandle.check(cmd);
+        }
     }
 
     public static void checkUpdateServerGroup(Command cmd) throws Exception {
@@ -78,6 +84,9 @@ public class ServerGroupHandle {
                 throw new Exception("invalid method");
             }
         }
+        if (ConnectionPoolHandle.present(cmd)) {
+            ConnectionPoolHandle.check(cmd);
+        }
     }
 
     public static void checkServerGroup(Resource serverGroup) throws Exception {
@@ -94,6 +103,14 @@ public class ServerGroupHandle {
         }
     }
 
+    public static List<ServerGroupRef> details(Resource targetResource) throws Exception {
+        List<ServerGroupRef> result = new ArrayList<>();
+        for (String name : names(targetResource)) {
+            result.add(new ServerGroupRef(Application.get().serverGroupHolder.get(name)));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         if (cmd.prepositionResource == null) {
             // add on top level
@@ -102,6 +119,10 @@ public class ServerGroupHandle {
             EventLoopGroup elg = EventLoopGroupHandle.get(eventLoopGroupName);
             HealthCheckConfig c = HealthCheckHandle.getHealthCheckConfig(cmd);
             Application.get().serverGroupHolder.add(alias, elg, c, MethHandle.get(cmd));
+            if (ConnectionPoolHandle.present(cmd)) {
+                ServerGroup g = Application.get().serverGroupHolder.get(alias);
+                g.setConnectionPoolConfig(ConnectionPoolHandle.getConnectionPoolConfig(cmd, c.timeout));
+            }
         } else {
             // add into serverGroups
             Application.get().serverGroupsHolder.get(cmd.prepositionResource.alias)
@@ -143,5 +164,26 @@ public class ServerGroupHandle {
         if (cmd.args.containsKey(Param.meth)) {
             g.setMethod(MethHandle.get(cmd));
         }
+        if (ConnectionPoolHandle.present(cmd)) {
+            g.setConnectionPoolConfig(ConnectionPoolHandle.getConnectionPoolConfig(cmd, g.getHealthCheckConfig().timeout));
+        }
+    }
+
+    public static class ServerGroupRef {
+        public final ServerGroup g;
+
+        public ServerGroupRef(ServerGroup g) {
+            this.g = g;
+        }
+
+        @Override
+        public String toString() {
+            HealthCheckConfig c = g.getHealthCheckConfig();
+            ConnectionPoolConfig pc = g.getConnectionPoolConfig();
+            return g.alias + " -> timeout " + c.timeout + " period " + c.period + " up " + c.up + " down " + c.down
+                + " method " + g.getMethod() + " event-loop-group " + g.eventLoopGroup.alias
+                + (pc == null ? " pool disabled" :
+                " pool min-idle " + pc.minIdle + " max-idle " + pc.maxIdle + " idle-timeout " + pc.idleTimeout);
+        }
     }
 }
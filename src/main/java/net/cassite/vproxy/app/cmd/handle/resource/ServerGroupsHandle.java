@@ -4,6 +4,7 @@ import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.component.app.RedisLB;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
 
@@ -40,6 +41,12 @@ public class ServerGroupsHandle {
                 throw new Exception(ResourceType.sgs.fullname + " " + cmd.resource.alias
                     + " is used by " + ResourceType.tl.fullname + " " + tcpLB.alias);
         }
+        for (String lbName : Application.get().redisLBHolder.names()) {
+            RedisLB redisLB = Application.get().redisLBHolder.get(lbName);
+            if (redisLB.backends.equals(groups))
+                throw new Exception(ResourceType.sgs.fullname + " " + cmd.resource.alias
+                    + " is used by " + ResourceType.rl.fullname + " " + redisLB.alias);
+        }
     }
 
     public static void forceRemove(Command cmd) throws Exception {
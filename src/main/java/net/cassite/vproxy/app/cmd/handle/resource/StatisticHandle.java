@@ -3,13 +3,26 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
 import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.util.BufferPool;
+
+import java.util.Arrays;
+import java.util.List;
 
 public class StatisticHandle {
     private StatisticHandle() {
     }
 
+    // the tcp-lb may have multiple servers on the same address (reuse-port)
+    // sum them up
+    private static boolean isBindServerInTcpLB(Resource resource) {
+        return resource.type == ResourceType.bs && resource.parentResource.type == ResourceType.tl;
+    }
+
     public static long bytesIn(Resource parent) throws Exception {
-        if (parent.type == ResourceType.bs) {
+        if (isBindServerInTcpLB(parent)) {
+            BindServerHandle.get(parent); // check existence
+            return TcpLBHandle.get(parent.parentResource).getFromRemoteBytes();
+        } else if (parent.type == ResourceType.bs) {
             return BindServerHandle.get(parent).getFromRemoteBytes();
         } else if (parent.type == ResourceType.conn) {
             return ConnectionHandle.get(parent).getFromRemoteBytes();
@@ -20,7 +33,10 @@ public class StatisticHandle {
     }
 
     public static long bytesOut(Resource parent) throws Exception {
-        if (parent.type == ResourceType.bs) {
+        if (isBindServerInTcpLB(parent)) {
+            BindServerHandle.get(parent); // check existence
+            return TcpLBHandle.get(parent.parentResource).getToRemoteBytes();
+        } else if (parent.type == ResourceType.bs) {
             return BindServerHandle.get(parent).getToRemoteBytes();
         } else if (parent.type == ResourceType.conn) {
             return ConnectionHandle.get(parent).getToRemoteBytes();
@@ -31,7 +47,36 @@ public class StatisticHandle {
     }
 
     public static long acceptedConnCount(Resource parent) throws Exception {
+        if (isBindServerInTcpLB(parent)) {
+            BindServerHandle.get(parent); // check existence
+            return TcpLBHandle.get(parent.parentResource).getHistoryAcceptedConnectionCount();
+        }
         BindServer bs = BindServerHandle.get(parent);
         return bs.getHistoryAcceptedConnectionCount();
     }
+
+    public static long acceptBudgetExhaustedCount(Resource parent) throws Exception {
+        if (isBindServerInTcpLB(parent)) {
+            BindServerHandle.get(parent); // check existence
+            return TcpLBHandle.get(parent.parentResource).getAcceptBudgetExhaustedCount();
+        }
+        BindServer bs = BindServerHandle.get(parent);
+        return bs.getAcceptBudgetExhaustedCount();
+    }
+
+    public static long bufferBytes(Resource parent) throws Exception {
+        return TcpLBHandle.get(parent).getBufferBytes();
+    }
+
+    public static List<String> bufferPool() {
+        return Arrays.asList(
+            "direct-bytes " + BufferPool.getDirectBytes(),
+            "max-direct-bytes " + BufferPool.getMaxDirectBytes(),
+            "allocate " + BufferPool.getAllocateCount(),
+            "reuse " + BufferPool.getReuseCount(),
+            "release " + BufferPool.getReleaseCount(),
+            "heap-fallback " + BufferPool.getHeapFallbackCount(),
+            "free " + BufferPool.getFreeCount()
+        );
+    }
 }
@@ -2,15 +2,18 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Flag;
 import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
 import net.cassite.vproxy.app.cmd.handle.param.InBufferSizeHandle;
+import net.cassite.vproxy.app.cmd.handle.param.MaxAcceptsHandle;
 import net.cassite.vproxy.app.cmd.handle.param.OutBufferSizeHandle;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.util.Utils;
 
 import java.net.InetSocketAddress;
@@ -43,6 +46,9 @@ public class TcpLBHandle {
         AddrHandle.check(cmd);
         InBufferSizeHandle.check(cmd);
         OutBufferSizeHandle.check(cmd);
+        if (cmd.args.containsKey(Param.maxaccepts)) {
+            MaxAcceptsHandle.check(cmd);
+        }
     }
 
     public static TcpLB get(Resource tcplb) throws NotFoundException {
@@ -71,8 +77,13 @@ public class TcpLBHandle {
         ServerGroups backend = Application.get().serverGroupsHolder.get(cmd.args.get(Param.sgs));
         int inBufferSize = InBufferSizeHandle.get(cmd);
         int outBufferSize = OutBufferSizeHandle.get(cmd);
+        boolean reusePort = cmd.flags.contains(Flag.reuseport);
+        int maxAccepts = BindServer.DEFAULT_MAX_ACCEPTS_PER_WAKEUP;
+        if (cmd.args.containsKey(Param.maxaccepts)) {
+            maxAccepts = MaxAcceptsHandle.get(cmd);
+        }
         Application.get().tcpLBHolder.add(
-            alias, acceptor, worker, addr, backend, inBufferSize, outBufferSize
+            alias, acceptor, worker, addr, backend, inBufferSize, outBufferSize, reusePort, maxAccepts
         );
     }
 
@@ -92,7 +103,9 @@ public class TcpLBHandle {
             return tcpLB.alias + " -> acceptor " + tcpLB.acceptorGroup.alias + " worker " + tcpLB.workerGroup.alias
                 + " bind " + Utils.ipStr(tcpLB.bindAddress.getAddress().getAddress()) + ":" + tcpLB.bindAddress.getPort()
                 + " backends " + tcpLB.backends.alias
-                + " in buffer size " + tcpLB.inBufferSize + " out buffer size " + tcpLB.outBufferSize;
+                + " in buffer size " + tcpLB.inBufferSize + " out buffer size " + tcpLB.outBufferSize
+                + " max accepts per wakeup " + tcpLB.maxAcceptsPerWakeup
+                + (tcpLB.reusePort ? " reuse-port" : "");
         }
     }
 }
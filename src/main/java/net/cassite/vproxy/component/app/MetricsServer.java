@@ -0,0 +1,372 @@
+package net.cassite.vproxy.component.app;
+
+import net.cassite.vproxy.app.Application;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.protocol.ProtocolHandler;
+import net.cassite.vproxy.protocol.ProtocolHandlerContext;
+import net.cassite.vproxy.protocol.ProtocolServerConfig;
+import net.cassite.vproxy.protocol.ProtocolServerHandler;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.LatencyHistogram;
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * serves the statistics of all resources in prometheus text exposition format,
+ * the metrics are collected when requested, so nothing is recorded by the server itself
+ */
+public class MetricsServer {
+    public final String alias;
+    public final BindServer server;
+
+    public MetricsServer(String alias, InetSocketAddress address) throws IOException {
+        this.alias = alias;
+        server = BindServer.create(address);
+        NetEventLoop loop = Application.get().controlEventLoop;
+        ProtocolServerHandler.apply(loop, server,
+            new ProtocolServerConfig().setInBufferSize(16384).setOutBufferSize(65536),
+            new MetricsHTTPHandler());
+    }
+
+    public void stop() {
+        server.close();
+    }
+}
+
+/**
+ * a minimal http/1.1 server, only GET requests without body are supported<br>
+ * the connection is closed after an error response, the rest of the input is not trusted
+ */
+class MetricsHTTPHandler implements ProtocolHandler<ByteArrayOutputStream> {
+    private static final int MAX_HEADER_LEN = 8192;
+
+    @Override
+    public void init(ProtocolHandlerContext<ByteArrayOutputStream> ctx) {
+        ctx.data = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void readable(ProtocolHandlerContext<ByteArrayOutputStream> ctx) {
+        byte[] bytes = new byte[ctx.inBuffer.used()];
+        try {
+            ctx.inBuffer.writeTo(ByteArrayChannel.fromEmpty(bytes));
+        } catch (IOException e) {
+            // will not happen for byte arrays
+            Logger.shouldNotHappen("reading from the in buffer failed " + e);
+            return;
+        }
+        ctx.data.write(bytes, 0, bytes.length);
+        while (true) {
+            byte[] input = ctx.data.toByteArray();
+            int end = headerEnd(input);
+            if (end == -1) {
+                if (input.length > MAX_HEADER_LEN) {
+                    ctx.data.reset();
+                    error(ctx, "431 Request Header Fields Too Large", "header too large\n");
+                }
+                return; // want more data
+            }
+            ctx.data.reset();
+            ctx.data.write(input, end, input.length - end);
+            if (!handle(ctx, new String(input, 0, end, StandardCharsets.ISO_8859_1)))
+                return; // closing
+        }
+    }
+
+    // index after the \r\n\r\n, -1 if not found
+    private static int headerEnd(byte[] input) {
+        for (int i = 3; i < input.length; ++i) {
+            if (input[i] == '\n' && input[i - 1] == '\r' && input[i - 2] == '\n' && input[i - 3] == '\r')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    // returns false if the connection is closing
+    private static boolean handle(ProtocolHandlerContext<ByteArrayOutputStream> ctx, String header) {
+        String[] requestLine = header.substring(0, header.indexOf('\r')).split(" ");
+        if (requestLine.length != 3) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "invalid http request line from " + ctx.connectionId);
+            error(ctx, "400 Bad Request", "invalid request line\n");
+            return false;
+        }
+        if (!requestLine[0].equals("GET")) {
+            error(ctx, "405 Method Not Allowed", "only GET is supported\n");
+            return false;
+        }
+        String path = requestLine[1];
+        int q = path.indexOf('?');
+        if (q != -1) {
+            path = path.substring(0, q);
+        }
+        if (!path.equals("/metrics") && !path.equals("/")) {
+            error(ctx, "404 Not Found", "not found\n");
+            return false;
+        }
+        ctx.write(response("200 OK", "text/plain; version=0.0.4; charset=utf-8", Metrics.export(), false));
+        return true;
+    }
+
+    private static void error(ProtocolHandlerContext<ByteArrayOutputStream> ctx, String status, String body) {
+        ctx.write(response(status, "text/plain", body, true));
+        ctx.closeAfterWritten();
+    }
+
+    private static byte[] response(String status, String contentType, String body, boolean close) {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("HTTP/1.1 " + status + "\r\n" +
+            "Content-Type: " + contentType + "\r\n" +
+            "Content-Length: " + bodyBytes.length + "\r\n" +
+            (close ? "Connection: close\r\n" : "") +
+            "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] ret = new byte[head.length + bodyBytes.length];
+        System.arraycopy(head, 0, ret, 0, head.length);
+        System.arraycopy(bodyBytes, 0, ret, head.length, bodyBytes.length);
+        return ret;
+    }
+
+    @Override
+    public void exception(ProtocolHandlerContext<ByteArrayOutputStream> ctx, Throwable err) {
+        assert Logger.lowLevelDebug("metrics connection " + ctx.connectionId + " got exception " + err);
+    }
+
+    @Override
+    public void end(ProtocolHandlerContext<ByteArrayOutputStream> ctx) {
+        // nothing to release
+    }
+}
+
+/**
+ * collects values from the resources in the application<br>
+ * NOTE: the values are read from other threads, they may be stale
+ */
+class Metrics {
+    // upper bounds of histogram buckets in seconds
+    private static final double[] LATENCY_BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private Metrics() {
+    }
+
+    static String export() {
+        StringBuilder sb = new StringBuilder();
+        exportTcpLBs(sb);
+        exportServers(sb);
+        exportEventLoops(sb);
+        return sb.toString();
+    }
+
+    private static void exportTcpLBs(StringBuilder sb) {
+        List<TcpLB> lbs = new ArrayList<>();
+        for (String name : Application.get().tcpLBHolder.names()) {
+            try {
+                lbs.add(Application.get().tcpLBHolder.get(name));
+            } catch (NotFoundException ignore) {
+                // removed after listing names
+            }
+        }
+
+        family(sb, "vproxy_tcp_lb_sessions", "gauge", "active sessions");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_sessions", label("lb", lb.alias), lb.sessionCount());
+        }
+        family(sb, "vproxy_tcp_lb_accepted_connections_total", "counter", "connections accepted");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_accepted_connections_total", label("lb", lb.alias), lb.getHistoryAcceptedConnectionCount());
+        }
+        family(sb, "vproxy_tcp_lb_accept_budget_exhausted_total", "counter", "accept events stopped by the accept budget");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_accept_budget_exhausted_total", label("lb", lb.alias), lb.getAcceptBudgetExhaustedCount());
+        }
+        family(sb, "vproxy_tcp_lb_received_bytes_total", "counter", "bytes received from clients");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_received_bytes_total", label("lb", lb.alias), lb.getFromRemoteBytes());
+        }
+        family(sb, "vproxy_tcp_lb_sent_bytes_total", "counter", "bytes sent to clients");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_sent_bytes_total", label("lb", lb.alias), lb.getToRemoteBytes());
+        }
+        family(sb, "vproxy_tcp_lb_buffer_bytes", "gauge", "bytes of memory held by session buffers");
+        for (TcpLB lb : lbs) {
+            sample(sb, "vproxy_tcp_lb_buffer_bytes", label("lb", lb.alias), lb.getBufferBytes());
+        }
+    }
+
+    private static void exportServers(StringBuilder sb) {
+        List<ServerGroup.ServerHandle> handles = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (String name : Application.get().serverGroupHolder.names()) {
+            ServerGroup group;
+            try {
+                group = Application.get().serverGroupHolder.get(name);
+            } catch (NotFoundException ignore) {
+                continue; // removed after listing names
+            }
+            for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+                handles.add(h);
+                labels.add(label("server_group", group.alias) + "," + label("server", h.alias));
+            }
+        }
+
+        family(sb, "vproxy_server_healthy", "gauge", "1 if the health check passes, otherwise 0");
+        for (int i = 0; i < handles.size(); ++i) {
+            sample(sb, "vproxy_server_healthy", labels.get(i), handles.get(i).healthy ? 1 : 0);
+        }
+        family(sb, "vproxy_server_health_flaps_total", "counter", "health check status changes");
+        for (int i = 0; i < handles.size(); ++i) {
+            sample(sb, "vproxy_server_health_flaps_total", labels.get(i), handles.get(i).getHealthFlaps());
+        }
+        family(sb, "vproxy_server_connections", "gauge", "connections to the server");
+        for (int i = 0; i < handles.size(); ++i) {
+            sample(sb, "vproxy_server_connections", labels.get(i), handles.get(i).connectionCount());
+        }
+        family(sb, "vproxy_server_connect_seconds", "histogram", "time to establish connections to the server");
+        for (int i = 0; i < handles.size(); ++i) {
+            histogram(sb, "vproxy_server_connect_seconds", labels.get(i), handles.get(i).getConnectLatency());
+        }
+    }
+
+    private static void exportEventLoops(StringBuilder sb) {
+        List<NetEventLoop> loops = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        loops.add(Application.get().controlEventLoop);
+        labels.add(label("event_loop_group", "") + "," + label("event_loop", Application.get().controlEventLoop.alias));
+        for (String name : Application.get().eventLoopGroupHolder.names()) {
+            EventLoopGroup group;
+            try {
+                group = Application.get().eventLoopGroupHolder.get(name);
+            } catch (NotFoundException ignore) {
+                continue; // removed after listing names
+            }
+            for (EventLoopWrapper w : group.list()) {
+                loops.add(w);
+                labels.add(label("event_loop_group", group.alias) + "," + label("event_loop", w.alias));
+            }
+        }
+
+        family(sb, "vproxy_event_loop_select_wait_seconds_total", "counter", "time spent waiting in select()");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_select_wait_seconds_total", labels.get(i),
+                loops.get(i).getSelectorEventLoop().getSelectWaitNanos() / 1_000_000_000d);
+        }
+        family(sb, "vproxy_event_loop_handling_seconds_total", "counter", "time spent handling selected keys");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_handling_seconds_total", labels.get(i),
+                loops.get(i).getSelectorEventLoop().getHandlingNanos() / 1_000_000_000d);
+        }
+        family(sb, "vproxy_event_loop_non_select_seconds_total", "counter", "time spent running nextTick, runOnLoop and timer events");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_non_select_seconds_total", labels.get(i),
+                loops.get(i).getSelectorEventLoop().getNonSelectNanos() / 1_000_000_000d);
+        }
+        family(sb, "vproxy_event_loop_timer_events_total", "counter", "timer events fired");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_timer_events_total", labels.get(i), loops.get(i).getSelectorEventLoop().getTimerEvents());
+        }
+        family(sb, "vproxy_event_loop_timer_lateness_seconds_total", "counter", "sum of time between the scheduled time and the actual fire time of timer events");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_timer_lateness_seconds_total", labels.get(i),
+                loops.get(i).getSelectorEventLoop().getTimerLatenessMillis() / 1_000d);
+        }
+        // the following are values of the last interval
+        List<SelectorEventLoop.IntervalStats> intervals = new ArrayList<>(loops.size());
+        for (NetEventLoop loop : loops) {
+            intervals.add(loop.getSelectorEventLoop().getLastInterval());
+        }
+        family(sb, "vproxy_event_loop_busy_ratio", "gauge", "ratio of time not spent in select() in the last interval");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_busy_ratio", labels.get(i), intervals.get(i).getBusyRatio());
+        }
+        family(sb, "vproxy_event_loop_max_queue_depth", "gauge", "max events queued by runOnLoop and nextTick for one iteration in the last interval");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_max_queue_depth", labels.get(i), intervals.get(i).maxRunOnLoopQueueDepth);
+        }
+        family(sb, "vproxy_event_loop_max_timer_lateness_seconds", "gauge", "max lateness of timer events in the last interval");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_max_timer_lateness_seconds", labels.get(i), intervals.get(i).maxTimerLatenessMillis / 1_000d);
+        }
+        family(sb, "vproxy_event_loop_slowest_callback_seconds", "gauge", "time spent in the slowest callback in the last interval");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_slowest_callback_seconds", labels.get(i), intervals.get(i).slowestCallbackNanos / 1_000_000_000d);
+        }
+        family(sb, "vproxy_event_loop_iterations_total", "counter", "loop iterations, i.e. select() calls");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_iterations_total", labels.get(i), loops.get(i).getSelectorEventLoop().getIterations());
+        }
+        family(sb, "vproxy_event_loop_tasks_total", "counter", "selected keys handled and runnables run");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_tasks_total", labels.get(i), loops.get(i).getSelectorEventLoop().getTasks());
+        }
+        family(sb, "vproxy_event_loop_read_wakeups_total", "counter", "readable events of connections");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_read_wakeups_total", labels.get(i), loops.get(i).getReadWakeups());
+        }
+        family(sb, "vproxy_event_loop_read_bytes_total", "counter", "bytes read from connections");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_read_bytes_total", labels.get(i), loops.get(i).getReadBytes());
+        }
+        family(sb, "vproxy_event_loop_in_buffer_full_total", "counter", "reading paused because the in buffer is full");
+        for (int i = 0; i < loops.size(); ++i) {
+            sample(sb, "vproxy_event_loop_in_buffer_full_total", labels.get(i), loops.get(i).getInBufferFullEvents());
+        }
+    }
+
+    private static void family(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        sb.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name).append("{").append(labels).append("} ").append(value).append("\n");
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append("{").append(labels).append("} ").append(value).append("\n");
+    }
+
+    // the histogram records nanoseconds, exported in seconds
+    private static void histogram(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        int idx = 0;
+        long acc = 0;
+        for (double bound : LATENCY_BUCKETS) {
+            long boundNanos = (long) (bound * 1_000_000_000L);
+            while (idx < LatencyHistogram.bucketCount() && LatencyHistogram.upperBoundOf(idx) <= boundNanos) {
+                acc += h.countOf(idx++);
+            }
+            sample(sb, name + "_bucket", labels + "," + label("le", Double.toString(bound)), acc);
+        }
+        while (idx < LatencyHistogram.bucketCount()) {
+            acc += h.countOf(idx++);
+        }
+        // use the sum of the buckets, so the count is consistent with +Inf when recording concurrently
+        sample(sb, name + "_bucket", labels + "," + label("le", "+Inf"), acc);
+        sample(sb, name + "_sum", labels, h.getSum() / 1_000_000_000d);
+        sample(sb, name + "_count", labels, acc);
+    }
+
+    private static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name.length() + value.length() + 3);
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\') sb.append("\\\\");
+            else if (c == '"') sb.append("\\\"");
+            else if (c == '\n') sb.append("\\n");
+            else sb.append(c);
+        }
+        return sb.append("\"").toString();
+    }
+}
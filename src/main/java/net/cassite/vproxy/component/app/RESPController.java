@@ -19,21 +19,24 @@ import net.cassite.vproxy.util.Utils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class RESPController {
     public final String alias;
     public final BindServer server;
+    public final RESPApplicationHandler handler;
 
     public RESPController(String alias, InetSocketAddress address, byte[] password) throws IOException {
         this.alias = alias;
         server = BindServer.create(address);
+        handler = new RESPApplicationHandler(new RESPApplicationConfig().setPassword(password),
+            new RESPControllerApplication());
         NetEventLoop loop = Application.get().controlEventLoop;
         ProtocolServerHandler.apply(loop, server,
             new ProtocolServerConfig().setInBufferSize(16384).setOutBufferSize(16384),
-            new RESPProtocolHandler(new RESPConfig().setMaxParseLen(16384),
-                new RESPApplicationHandler(new RESPApplicationConfig().setPassword(password),
-                    new RESPControllerApplication())));
+            new RESPProtocolHandler(new RESPConfig().setMaxParseLen(16384), handler));
     }
 
     public void stop() {
@@ -42,6 +45,24 @@ public class RESPController {
 }
 
 class RESPControllerApplication implements RESPApplication<RESPApplicationContext> {
+    private static final List<RESPCommand> COMMANDS;
+
+    static {
+        // the arguments are checked when parsing the command
+        // so let them have any count of arguments here
+        List<RESPCommand> commands = new ArrayList<>();
+        for (Action act : Action.values()) {
+            int flags = (act == Action.l || act == Action.L)
+                ? RESPCommand.F_READONLY
+                : RESPCommand.F_WRITE | RESPCommand.F_ADMIN;
+            commands.add(new RESPCommand(act.fullname, 0, true, flags, 0, 0, 0));
+            commands.add(new RESPCommand(act.name(), 0, true, flags, 0, 0, 0));
+        }
+        commands.add(new RESPCommand("man", 0, false, RESPCommand.F_READONLY, 0, 0, 0));
+        commands.add(new RESPCommand("help", 0, false, RESPCommand.F_READONLY, 0, 0, 0));
+        COMMANDS = Collections.unmodifiableList(commands);
+    }
+
     @Override
     public RESPApplicationContext context() {
         return new RESPApplicationContext();
@@ -49,7 +70,7 @@ class RESPControllerApplication implements RESPApplication<RESPApplicationContex
 
     @Override
     public List<RESPCommand> commands() {
-        return null; // ignore
+        return COMMANDS;
     }
 
     @Override
@@ -0,0 +1,695 @@
+package net.cassite.vproxy.component.app;
+
+import net.cassite.vproxy.component.elgroup.EventLoopAttach;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopGroupAttach;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.component.exception.ClosedException;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.component.exception.XException;
+import net.cassite.vproxy.component.proxy.RESPBackendConnection;
+import net.cassite.vproxy.component.proxy.RESPMultiplexer;
+import net.cassite.vproxy.component.svrgroup.ConnectionPool;
+import net.cassite.vproxy.component.svrgroup.Maglev;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.protocol.ProtocolServerConfig;
+import net.cassite.vproxy.protocol.ProtocolServerHandler;
+import net.cassite.vproxy.redis.HashSlot;
+import net.cassite.vproxy.redis.RESPConfig;
+import net.cassite.vproxy.redis.RESPHandler;
+import net.cassite.vproxy.redis.RESPProtocolHandler;
+import net.cassite.vproxy.redis.Serializer;
+import net.cassite.vproxy.redis.entity.*;
+import net.cassite.vproxy.selector.TimerEvent;
+import net.cassite.vproxy.util.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a redis proxy, the commands are routed to server groups by the key<br>
+ * only single key commands are supported, except the multi-key ones below, other commands are rejected<br>
+ * commands from all clients on a worker event loop are multiplexed over a few pipelined connections
+ * to each backend server, and the clients on the loop are paused when too many bytes are queued<br>
+ * a client is also paused when the replies queued for it reach the watermark, e.g. it reads slowly<br>
+ * multi-key commands (mget, mset, del, exists, unlink, touch) are split by group and the replies are merged
+ */
+public class RedisLB {
+    public enum KeyHash {
+        crc16, // the slot of redis cluster, slots are split evenly into ranges by the order of the groups
+        maglev, // consistent hashing, keys only move from/to the groups being added/removed
+    }
+
+    private static final int MAX_REQUEST_LEN = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 3000;
+    private static final int IDLE_TIMEOUT = 60_000;
+    // connections from one worker loop to one server
+    private static final int CONNECTIONS_PER_SERVER = 4;
+    // bytes of requests queued on one worker loop, the clients are paused when exceeded
+    private static final int BACKLOG_HIGH_WATERMARK = 4 * 1024 * 1024;
+    private static final int BACKLOG_LOW_WATERMARK = 1024 * 1024;
+    // bytes of replies queued for one client but not yet stored into its out buffer
+    // the client is not read when exceeded, so a slow reader cannot make the replies pile up
+    private static final int CLIENT_REPLY_HIGH_WATERMARK = 1024 * 1024;
+
+    class LBAttach implements EventLoopGroupAttach {
+        @Override
+        public String id() {
+            return "RedisLB:" + alias;
+        }
+
+        @Override
+        public void onEventLoopAdd() {
+            if (stopped)
+                return; // ignore when lb is stopped
+            try {
+                start(); // whether already started will be determined in start() method
+            } catch (IOException e) {
+                Logger.shouldNotHappen("the redis lb start failed " + e);
+            }
+        }
+
+        @Override
+        public void onEventLoopRemove(EventLoopWrapper eventLoop) {
+            // ignore, the clients share the multiplexers of the loop, so they cannot be moved
+        }
+
+        @Override
+        public void onClose() {
+            destroy(); // the event loop group is closed, we should destroy the lb
+        }
+    }
+
+    /**
+     * connections to backends on one worker loop, only used on the loop thread
+     */
+    class Worker implements EventLoopAttach {
+        final EventLoopWrapper loop;
+        final Map<ServerGroup.ServerHandle, RESPMultiplexer> muxes = new HashMap<>();
+        final RESPMultiplexer.Backlog backlog;
+        // connections of all multiplexers, read from other threads
+        final AtomicInteger connections = new AtomicInteger(0);
+        private TimerEvent evictTimer;
+
+        Worker(EventLoopWrapper loop) {
+            this.loop = loop;
+            this.backlog = new RESPMultiplexer.Backlog(loop.getSelectorEventLoop(),
+                BACKLOG_HIGH_WATERMARK, BACKLOG_LOW_WATERMARK);
+        }
+
+        RESPMultiplexer get(ServerGroup.ServerHandle h) {
+            RESPMultiplexer m = muxes.get(h);
+            if (m != null)
+                return m;
+            m = new RESPMultiplexer(loop.getSelectorEventLoop(), CONNECTIONS_PER_SERVER, c -> connect(h, c), backlog, connections);
+            muxes.put(h, m);
+            if (evictTimer == null) {
+                evictTimer = loop.getSelectorEventLoop().delay(IDLE_TIMEOUT, this::evict);
+            }
+            return m;
+        }
+
+        private boolean connect(ServerGroup.ServerHandle h, RESPBackendConnection c) {
+            ConnectionPool pool = h.getConnectionPool(loop);
+            ClientConnection conn = pool == null ? null : pool.lease(null, c);
+            if (conn != null)
+                return true;
+            try {
+                conn = h.makeConnector().connect(RingBuffer.allocate(inBufferSize), RingBuffer.allocate(outBufferSize));
+            } catch (IOException e) {
+                Logger.error(LogType.CONN_ERROR, "connect to " + h + " failed", e);
+                return false;
+            }
+            try {
+                loop.addClientConnection(conn, null, c);
+            } catch (IOException e) {
+                Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add resp backend connection into loop failed", e);
+                conn.close();
+                return false;
+            }
+            ClientConnection fconn = conn;
+            loop.getSelectorEventLoop().delay(CONNECT_TIMEOUT, () -> {
+                if (!c.isConnected()) {
+                    assert Logger.lowLevelDebug("timeout when connecting " + fconn);
+                    fconn.close();
+                    c.close();
+                }
+            });
+            return true;
+        }
+
+        // close connections without traffic, e.g. the server is removed from the group
+        private void evict() {
+            evictTimer = null;
+            long now = System.currentTimeMillis();
+            Iterator<RESPMultiplexer> ite = muxes.values().iterator();
+            while (ite.hasNext()) {
+                RESPMultiplexer m = ite.next();
+                if (m.isIdle() && now - m.getLastActive() > IDLE_TIMEOUT) {
+                    ite.remove();
+                    m.close();
+                }
+            }
+            if (!muxes.isEmpty()) {
+                evictTimer = loop.getSelectorEventLoop().delay(IDLE_TIMEOUT, this::evict);
+            }
+        }
+
+        void close() {
+            try {
+                loop.detachResource(this);
+            } catch (NotFoundException e) {
+                // it's ok if the loop is already closed
+            }
+            if (evictTimer != null) {
+                evictTimer.cancel();
+                evictTimer = null;
+            }
+            for (RESPMultiplexer m : muxes.values()) {
+                m.close();
+            }
+            muxes.clear();
+        }
+
+        @Override
+        public String id() {
+            return "RedisLBWorker:" + alias;
+        }
+
+        @Override
+        public void onClose() {
+            // the loop is closed, all connections are closed as well
+            workers.remove(loop, this);
+        }
+    }
+
+    public final String alias;
+    public final EventLoopGroup acceptorGroup;
+    public final EventLoopGroup workerGroup;
+    public final InetSocketAddress bindAddress;
+    public final ServerGroups backends;
+    public final int inBufferSize;
+    public final int outBufferSize;
+    public final KeyHash keyHash;
+
+    // same as TcpLB
+    private boolean stopped = true;
+    private boolean destroyed = false;
+    // the loop handling the server, null means not actually started
+    private EventLoopWrapper acceptLoop = null;
+
+    public final BindServer server;
+    private final RESPProtocolHandler protocolHandler;
+    private final ConcurrentMap<NetEventLoop, Worker> workers = new ConcurrentHashMap<>();
+    private final LBAttach attach = new LBAttach();
+
+    public RedisLB(String alias,
+                   EventLoopGroup acceptorGroup,
+                   EventLoopGroup workerGroup,
+                   InetSocketAddress bindAddress,
+                   ServerGroups backends,
+                   int inBufferSize,
+                   int outBufferSize,
+                   KeyHash keyHash) throws IOException, AlreadyExistException, ClosedException {
+        this.alias = alias;
+        this.acceptorGroup = acceptorGroup;
+        this.workerGroup = workerGroup;
+        this.bindAddress = bindAddress;
+        this.backends = backends;
+        this.inBufferSize = inBufferSize;
+        this.outBufferSize = outBufferSize;
+        this.keyHash = keyHash;
+
+        this.server = BindServer.create(bindAddress);
+        // bulk strings are forwarded as they are, so do not decode them
+        this.protocolHandler = new RESPProtocolHandler(
+            new RESPConfig().setMaxParseLen(MAX_REQUEST_LEN).setRawBulkString(true)
+                .setMaxPendingBytes(CLIENT_REPLY_HIGH_WATERMARK),
+            new RedisLBHandler());
+
+        acceptorGroup.attachResource(attach);
+    }
+
+    public void start() throws IOException {
+        assert Logger.lowLevelDebug("start() called on redis lb " + alias);
+        synchronized (this) {
+            if (destroyed) {
+                throw new IOException("the lb is already destroyed");
+            }
+            stopped = false;
+            if (acceptLoop != null) {
+                assert Logger.lowLevelDebug("already started, ignore the start() call");
+                return;
+            }
+            EventLoopWrapper w = acceptorGroup.next();
+            if (w == null) {
+                assert Logger.lowLevelDebug("cannot start because event loop not retrieved, will start later");
+                return;
+            }
+            ProtocolServerHandler.apply(w, server,
+                new ProtocolServerConfig()
+                    .setInBufferSize(inBufferSize)
+                    .setOutBufferSize(outBufferSize)
+                    .setWorkerLoopProvider(workerGroup::next)
+                    .setServerRemovedHandler(this::serverRemoved),
+                protocolHandler);
+            acceptLoop = w;
+            assert Logger.lowLevelDebug("redis lb " + alias + " started");
+        }
+    }
+
+    private void serverRemoved(BindServer server) {
+        synchronized (this) {
+            acceptLoop = null;
+            if (stopped) {
+                assert Logger.lowLevelDebug("the server removed, " +
+                    "but we do not handle it again because lb is stopped");
+                return;
+            }
+            assert Logger.lowLevelDebug("bindServer removed from loop, maybe the loop is closed. " +
+                "but lb(" + alias + ") is started, let's re-start it");
+            try {
+                start();
+            } catch (IOException e) {
+                Logger.shouldNotHappen("the redis lb start failed " + e);
+            }
+        }
+    }
+
+    public void stop() {
+        assert Logger.lowLevelDebug("stop() called on redis lb " + alias);
+        EventLoopWrapper w;
+        synchronized (this) {
+            stopped = true;
+            w = acceptLoop;
+            acceptLoop = null;
+        }
+        if (w != null) {
+            w.removeServer(server);
+        }
+    }
+
+    public void destroy() {
+        assert Logger.lowLevelDebug("destroy() called on redis lb " + alias);
+        synchronized (this) {
+            stop();
+            if (destroyed)
+                return;
+            destroyed = true;
+        }
+        server.close();
+        try {
+            acceptorGroup.detachResource(attach);
+        } catch (NotFoundException e) {
+            // it's ok if the group is already closed
+        }
+        for (Worker w : workers.values()) {
+            workers.remove(w.loop, w);
+            w.loop.getSelectorEventLoop().runOnLoop(w::close);
+        }
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public int backendConnectionCount() {
+        int n = 0;
+        for (Worker w : workers.values()) {
+            n += w.connections.get();
+        }
+        return n;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long backlogBytes() {
+        long n = 0;
+        for (Worker w : workers.values()) {
+            n += w.backlog.getBytes();
+        }
+        return n;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long clientPauseCount() {
+        long n = 0;
+        for (Worker w : workers.values()) {
+            n += w.backlog.getPauseCount();
+        }
+        return n;
+    }
+
+    // --- START command handling ---
+    private enum Kind {
+        single, // route by the key
+        ping,
+        mget,
+        mset,
+        sumKeys, // the integer replies are summed, e.g. del
+    }
+
+    private static class Command {
+        final Kind kind;
+        final int arity; // same as redis, the count of arguments including the name, -n means at least n
+        final int keyPos; // position of the key for single key commands
+
+        Command(Kind kind, int arity, int keyPos) {
+            this.kind = kind;
+            this.arity = arity;
+            this.keyPos = keyPos;
+        }
+
+        boolean arityMatches(int argCount) {
+            if (arity < 0)
+                return argCount >= -arity;
+            return argCount == arity;
+        }
+    }
+
+    // only the listed commands are proxied, others are rejected
+    // e.g. admin commands, scripts, transactions, subscriptions, blocking commands,
+    // commands touching more than one key (except the ones split by group below),
+    // and commands changing the connection state, because the backend connections are shared
+    private static final Map<ByteView, Command> COMMANDS = new HashMap<>();
+
+    static {
+        COMMANDS.put(lower("ping"), new Command(Kind.ping, -1, 0));
+        COMMANDS.put(lower("mget"), new Command(Kind.mget, -2, 1));
+        COMMANDS.put(lower("mset"), new Command(Kind.mset, -3, 1));
+        for (String s : Arrays.asList("del", "unlink", "exists", "touch")) {
+            COMMANDS.put(lower(s), new Command(Kind.sumKeys, -2, 1));
+        }
+        // name and arity of single key commands, the key is the first argument
+        Object[] singleKey = {
+            // strings
+            "get", 2, "set", -3, "setnx", 3, "setex", 4, "psetex", 4, "getset", 3, "getdel", 2, "getex", -2,
+            "append", 3, "strlen", 2, "incr", 2, "decr", 2, "incrby", 3, "decrby", 3, "incrbyfloat", 3,
+            "getrange", 4, "setrange", 4, "substr", 4,
+            "getbit", 3, "setbit", 4, "bitcount", -2, "bitpos", -3, "bitfield", -2, "bitfield_ro", -2,
+            // keys
+            "expire", -3, "pexpire", -3, "expireat", -3, "pexpireat", -3, "expiretime", 2, "pexpiretime", 2,
+            "ttl", 2, "pttl", 2, "persist", 2, "type", 2, "dump", 2, "restore", -4,
+            // hashes
+            "hget", 3, "hset", -4, "hsetnx", 4, "hmset", -4, "hmget", -3, "hdel", -3, "hexists", 3, "hlen", 2,
+            "hstrlen", 3, "hkeys", 2, "hvals", 2, "hgetall", 2, "hincrby", 4, "hincrbyfloat", 4,
+            "hscan", -3, "hrandfield", -2,
+            // lists
+            "lpush", -3, "rpush", -3, "lpushx", -3, "rpushx", -3, "lpop", -2, "rpop", -2, "llen", 2,
+            "lindex", 3, "lset", 4, "lrange", 4, "ltrim", 4, "lrem", 4, "linsert", 5, "lpos", -3,
+            // sets
+            "sadd", -3, "srem", -3, "smembers", 2, "sismember", 3, "smismember", -3, "scard", 2,
+            "spop", -2, "srandmember", -2, "sscan", -3,
+            // sorted sets
+            "zadd", -4, "zincrby", 4, "zrem", -3, "zcard", 2, "zcount", 4, "zlexcount", 4, "zscore", 3,
+            "zmscore", -3, "zrank", -3, "zrevrank", -3, "zrange", -4, "zrevrange", -4,
+            "zrangebyscore", -4, "zrevrangebyscore", -4, "zrangebylex", -4, "zrevrangebylex", -4,
+            "zremrangebyrank", 4, "zremrangebyscore", 4, "zremrangebylex", 4,
+            "zpopmin", -2, "zpopmax", -2, "zrandmember", -2, "zscan", -3,
+            // hyperloglog, geo and streams
+            "pfadd", -2,
+            "geoadd", -5, "geodist", -4, "geohash", -2, "geopos", -2, "geosearch", -7,
+            "xadd", -5, "xlen", 2, "xrange", -4, "xrevrange", -4, "xdel", -3, "xtrim", -4,
+            "xack", -4, "xpending", -3, "xclaim", -6, "xautoclaim", -6,
+        };
+        for (int i = 0; i < singleKey.length; i += 2) {
+            COMMANDS.put(lower((String) singleKey[i]), new Command(Kind.single, (int) singleKey[i + 1], 1));
+        }
+    }
+
+    private static ByteView lower(String s) {
+        return new ByteView(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteView lower(ByteView v) {
+        byte[] b = v.toBytes();
+        for (int i = 0; i < b.length; ++i) {
+            if (b[i] >= 'A' && b[i] <= 'Z') {
+                b[i] = (byte) (b[i] + ('a' - 'A'));
+            }
+        }
+        return new ByteView(b);
+    }
+
+    // bulk strings are ByteViews, inline commands are Strings
+    private static ByteView view(Object arg) {
+        if (arg instanceof ByteView)
+            return (ByteView) arg;
+        return new ByteView(((String) arg).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static RESPString simpleString(String s) {
+        RESPString ret = new RESPString();
+        ret.string.append(s);
+        return ret;
+    }
+
+    private static XException arityError(ByteView cmd) {
+        return new XException("ERR wrong number of arguments for '" + cmd + "' command");
+    }
+
+    private ServerGroup groupOf(ByteView key) {
+        if (keyHash == KeyHash.maglev) {
+            return backends.groupOfHash(Maglev.hash(HashSlot.hashTag(key).toBytes()));
+        }
+        return backends.groupOfSlot(HashSlot.of(key), HashSlot.SLOT_COUNT);
+    }
+
+    private void send(Worker w, ServerGroup group, List<?> args, Callback<RESP, IOException> cb) {
+        ServerGroup.ServerHandle h = group == null ? null : group.nextHandle(null);
+        if (h == null) {
+            cb.failed(new IOException("ERR no backend available"));
+            return;
+        }
+        w.get(h).send(Serializer.from(args), cb);
+    }
+
+    // the callback on the client side
+    private static Callback<RESP, IOException> reply(Callback<Object, Throwable> cb) {
+        return new Callback<RESP, IOException>() {
+            @Override
+            protected void onSucceeded(RESP value) {
+                cb.succeeded(value);
+            }
+
+            @Override
+            protected void onFailed(IOException err) {
+                cb.failed(new XException(Utils.formatErr(err)));
+            }
+        };
+    }
+
+    // keys of each group, and the index of the keys in the command
+    private LinkedHashMap<ServerGroup, List<Integer>> splitKeys(List<Object> args, int step) {
+        LinkedHashMap<ServerGroup, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 1; i < args.size(); i += step) {
+            ServerGroup g = groupOf(view(args.get(i)));
+            groups.computeIfAbsent(g, k -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * split the command by group, and merge the replies when all arrived
+     *
+     * @param step 1 for keys, 2 for key-value pairs
+     */
+    private void scatter(Worker w, List<Object> args, int step, Callback<Object, Throwable> cb,
+                         MergeFunction merge) {
+        LinkedHashMap<ServerGroup, List<Integer>> groups = splitKeys(args, step);
+        if (groups.size() == 1) {
+            ServerGroup g = groups.keySet().iterator().next();
+            send(w, g, args, reply(cb));
+            return;
+        }
+        RESP[] replies = new RESP[groups.size()];
+        int[] remaining = {groups.size()};
+        int idx = 0;
+        for (Map.Entry<ServerGroup, List<Integer>> e : groups.entrySet()) {
+            List<Integer> indexes = e.getValue();
+            List<Object> sub = new ArrayList<>(indexes.size() * step + 1);
+            sub.add(args.get(0));
+            for (int i : indexes) {
+                sub.addAll(args.subList(i, i + step));
+            }
+            int replyIdx = idx++;
+            send(w, e.getKey(), sub, new Callback<RESP, IOException>() {
+                @Override
+                protected void onSucceeded(RESP value) {
+                    replies[replyIdx] = value;
+                    if (--remaining[0] == 0) {
+                        done();
+                    }
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    RESPError error = new RESPError();
+                    error.error.append(Utils.formatErr(err));
+                    replies[replyIdx] = error;
+                    if (--remaining[0] == 0) {
+                        done();
+                    }
+                }
+
+                private void done() {
+                    for (RESP r : replies) {
+                        if (r instanceof RESPError) {
+                            cb.succeeded(r); // return the first error
+                            return;
+                        }
+                    }
+                    cb.succeeded(merge.merge(groups, replies, args));
+                }
+            });
+        }
+    }
+
+    interface MergeFunction {
+        RESP merge(LinkedHashMap<ServerGroup, List<Integer>> groups, RESP[] replies, List<Object> args);
+    }
+
+    private static RESP mergeMGet(LinkedHashMap<ServerGroup, List<Integer>> groups, RESP[] replies, List<Object> args) {
+        RESP[] values = new RESP[args.size() - 1];
+        int idx = 0;
+        for (List<Integer> indexes : groups.values()) {
+            RESP r = replies[idx++];
+            if (!(r instanceof RESPArray) || ((RESPArray) r).array.size() != indexes.size()) {
+                RESPError error = new RESPError();
+                error.error.append("ERR unexpected reply from backend");
+                return error;
+            }
+            Iterator<RESP> ite = ((RESPArray) r).array.iterator();
+            for (int i : indexes) {
+                values[i - 1] = ite.next();
+            }
+        }
+        RESPArray ret = new RESPArray();
+        ret.array.addAll(Arrays.asList(values));
+        return ret;
+    }
+
+    private static RESP mergeSum(LinkedHashMap<ServerGroup, List<Integer>> groups, RESP[] replies, List<Object> args) {
+        long n = 0;
+        for (RESP r : replies) {
+            if (!(r instanceof RESPInteger)) {
+                RESPError error = new RESPError();
+                error.error.append("ERR unexpected reply from backend");
+                return error;
+            }
+            n += ((RESPInteger) r).integer;
+        }
+        RESPInteger ret = new RESPInteger();
+        ret.integer = n;
+        return ret;
+    }
+
+    private static RESP mergeOK(LinkedHashMap<ServerGroup, List<Integer>> groups, RESP[] replies, List<Object> args) {
+        return simpleString("OK");
+    }
+
+    class RedisLBHandler implements RESPHandler<Worker> {
+        @Override
+        public Worker attachment(NetEventLoop loop) {
+            return workers.computeIfAbsent(loop, l -> {
+                Worker w = new Worker((EventLoopWrapper) l);
+                try {
+                    w.loop.attachResource(w);
+                } catch (AlreadyExistException e) {
+                    Logger.shouldNotHappen("the worker should not have attached to the loop " + w.loop.alias);
+                } catch (ClosedException e) {
+                    // the connections on the loop will be closed soon
+                    assert Logger.lowLevelDebug("the loop " + w.loop.alias + " is closed");
+                }
+                return w;
+            });
+        }
+
+        @Override
+        public boolean ready(Worker w, Runnable resume) {
+            if (!w.backlog.isFull())
+                return true;
+            w.backlog.pause(resume);
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void handle(Object input, Worker w, Callback<Object, Throwable> cb) {
+            List<Object> args;
+            if (input instanceof List) {
+                args = (List<Object>) input;
+            } else if (input instanceof String) {
+                args = new ArrayList<>();
+                for (String s : ((String) input).split(" ")) {
+                    if (!s.isEmpty()) {
+                        args.add(s);
+                    }
+                }
+            } else {
+                cb.failed(new XException("ERR invalid request"));
+                return;
+            }
+            if (args.isEmpty()) {
+                cb.failed(new XException("ERR invalid request"));
+                return;
+            }
+            for (Object o : args) {
+                if (!(o instanceof ByteView) && !(o instanceof String)) {
+                    cb.failed(new XException("ERR invalid request"));
+                    return;
+                }
+            }
+
+            ByteView cmd = view(args.get(0));
+            Command command = COMMANDS.get(lower(cmd));
+            if (command == null) {
+                cb.failed(new XException("ERR command '" + cmd + "' is not supported by the proxy"));
+                return;
+            }
+            if (!command.arityMatches(args.size())) {
+                cb.failed(arityError(cmd));
+                return;
+            }
+            switch (command.kind) {
+                case ping:
+                    if (args.size() == 1) {
+                        cb.succeeded(simpleString("PONG"));
+                    } else if (args.size() == 2) {
+                        cb.succeeded(args.get(1));
+                    } else {
+                        cb.failed(arityError(cmd));
+                    }
+                    return;
+                case mget:
+                    scatter(w, args, 1, cb, RedisLB::mergeMGet);
+                    return;
+                case sumKeys:
+                    scatter(w, args, 1, cb, RedisLB::mergeSum);
+                    return;
+                case mset:
+                    if (args.size() % 2 == 0) {
+                        cb.failed(arityError(cmd));
+                        return;
+                    }
+                    scatter(w, args, 2, cb, RedisLB::mergeOK);
+                    return;
+                default:
+                    send(w, groupOf(view(args.get(command.keyPos))), args, reply(cb));
+            }
+        }
+    }
+    // --- END command handling ---
+}
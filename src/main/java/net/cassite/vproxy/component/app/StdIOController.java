@@ -1,6 +1,7 @@
 package net.cassite.vproxy.component.app;
 
 import net.cassite.vproxy.app.Application;
+import net.cassite.vproxy.app.MetricsServerHolder;
 import net.cassite.vproxy.app.RESPControllerHolder;
 import net.cassite.vproxy.app.cmd.CmdResult;
 import net.cassite.vproxy.app.cmd.Command;
@@ -8,6 +9,7 @@ import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.redis.application.RESPCommandStats;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.Utils;
 
@@ -98,6 +100,12 @@ public class StdIOController {
                                 handleAddRespController(arr);
                                 break outswitch;
                             }
+                            break;
+                        case "metrics-server":
+                            if (arr.length == 5) {
+                                handleAddMetricsServer(arr);
+                                break outswitch;
+                            }
                     }
                 } else if (cmd.startsWith("remove ")) {
                     String[] arr = cmd.split(" ");
@@ -110,6 +118,12 @@ public class StdIOController {
                                 handleRemoveController(arr);
                                 break outswitch;
                             }
+                            break;
+                        case "metrics-server":
+                            if (arr.length == 3) {
+                                handleRemoveMetricsServer(arr);
+                                break outswitch;
+                            }
                     }
                 } else if (cmd.startsWith("list ")) {
                     String[] arr = cmd.split(" ");
@@ -123,6 +137,12 @@ public class StdIOController {
                                 handleListController(false);
                                 break outswitch;
                             }
+                            break;
+                        case "metrics-server":
+                            if (arr.length == 2) {
+                                handleListMetricsServer(false);
+                                break outswitch;
+                            }
                     }
                 } else if (cmd.startsWith("list-detail ")) {
                     String[] arr = cmd.split(" ");
@@ -136,6 +156,12 @@ public class StdIOController {
                                 handleListController(true);
                                 break outswitch;
                             }
+                            break;
+                        case "metrics-server":
+                            if (arr.length == 2) {
+                                handleListMetricsServer(true);
+                                break outswitch;
+                            }
                     }
                 }
                 stderr("unknown or invalid system call `" + cmd + "`");
@@ -206,6 +232,77 @@ public class StdIOController {
             sb.append(c.alias);
             if (detail) {
                 sb.append("\t").append(c.server.id());
+                for (RESPCommandStats stats : c.handler.getCommandStats()) {
+                    if (stats.getCalls() == 0)
+                        continue;
+                    sb.append("\n\t").append(stats);
+                }
+            }
+        }
+        stdout(sb.toString());
+    }
+
+    private static void handleAddMetricsServer(String[] arr) {
+        Command cmd;
+        try {
+            cmd = Command.statm(Arrays.asList(arr));
+        } catch (Exception e) {
+            stderr("invalid system call: " + Utils.formatErr(e));
+            return;
+        }
+        if (!cmd.args.containsKey(Param.addr)) {
+            stderr("missing address");
+            return;
+        }
+        try {
+            AddrHandle.check(cmd);
+        } catch (Exception e) {
+            stderr("invalid");
+            return;
+        }
+
+        InetSocketAddress addr = AddrHandle.get(cmd);
+
+        // start
+        try {
+            Application.get().metricsServerHolder.add(cmd.resource.alias, addr);
+        } catch (AlreadyExistException e) {
+            stderr("the MetricsServer is already started");
+            return;
+        } catch (IOException e) {
+            stderr("got exception when starting MetricsServer: " + Utils.formatErr(e));
+            return;
+        }
+        stdout("(done)");
+    }
+
+    private static void handleRemoveMetricsServer(String[] arr) {
+        try {
+            Application.get().metricsServerHolder.removeAndStop(arr[2]);
+        } catch (NotFoundException e) {
+            stderr("not found");
+            return;
+        }
+        stdout("(done)");
+    }
+
+    private static void handleListMetricsServer(boolean detail) {
+        MetricsServerHolder h = Application.get().metricsServerHolder;
+        StringBuilder sb = new StringBuilder();
+        boolean isFirst = true;
+        for (String name : h.names()) {
+            MetricsServer s;
+            try {
+                s = h.get(name);
+            } catch (NotFoundException e) {
+                // should not happen if no concurrency. just ignore
+                continue;
+            }
+            if (isFirst) isFirst = false;
+            else sb.append("\n");
+            sb.append(s.alias);
+            if (detail) {
+                sb.append("\t").append(s.server.id());
             }
         }
         stdout(sb.toString());
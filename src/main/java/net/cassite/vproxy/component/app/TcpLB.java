@@ -5,6 +5,9 @@ import net.cassite.vproxy.component.elgroup.EventLoopGroupAttach;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.ClosedException;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.component.proxy.ConnectorGen;
+import net.cassite.vproxy.component.proxy.NetEventLoopProvider;
 import net.cassite.vproxy.component.proxy.Proxy;
 import net.cassite.vproxy.component.proxy.ProxyEventHandler;
 import net.cassite.vproxy.component.proxy.ProxyNetConfig;
@@ -17,12 +20,18 @@ import net.cassite.vproxy.util.Logger;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 public class TcpLB {
     class LBProxyEventHandler implements ProxyEventHandler {
         @Override
         public void serverRemoved(BindServer server) {
+            if (reusePort) {
+                reusePortServerRemoved(server);
+                return;
+            }
             if (stopped) {
                 assert Logger.lowLevelDebug("the proxy server removed, " +
                     "but we do not create a new one because lb is stopped");
@@ -59,12 +68,44 @@ public class TcpLB {
             }
         }
 
+        @Override
+        public void onEventLoopRemove(EventLoopWrapper eventLoop) {
+            // ignore, the server on the loop will be re-dispatched when it's removed from the loop
+        }
+
         @Override
         public void onClose() {
             destroy(); // the event loop group is closed, we should destroy the lb
         }
     }
 
+    class WorkerAttach implements EventLoopGroupAttach {
+        @Override
+        public String id() {
+            return "TcpLB-worker:" + alias;
+        }
+
+        @Override
+        public void onEventLoopAdd() {
+            // ignore, new sessions will use the loop
+        }
+
+        @Override
+        public void onEventLoopRemove(EventLoopWrapper eventLoop) {
+            // move the sessions to other worker loops instead of closing them
+            int count = 0;
+            for (Proxy p : proxies()) {
+                count += p.migrateSessions(eventLoop, handleLoopProvider);
+            }
+            assert Logger.lowLevelDebug("migrating " + count + " sessions of lb " + alias + " from " + eventLoop.alias);
+        }
+
+        @Override
+        public void onClose() {
+            // ignore, the lb is destroyed by the acceptor group
+        }
+    }
+
     public final String alias;
     public final EventLoopGroup acceptorGroup;
     public final EventLoopGroup workerGroup;
@@ -72,6 +113,8 @@ public class TcpLB {
     public final ServerGroups backends;
     public final int inBufferSize;
     public final int outBufferSize;
+    public final boolean reusePort;
+    public final int maxAcceptsPerWakeup;
 
     // true means the lb is stopped, but it can still re-start.
     // false means we WANT the lb to start,
@@ -85,8 +128,44 @@ public class TcpLB {
     private Proxy proxy = null;
 
     public final BindServer server;
+    private final ConnectorGen connGen;
+    private final NetEventLoopProvider handleLoopProvider;
     private final ProxyNetConfig proxyNetConfig = new ProxyNetConfig();
     private final LBProxyEventHandler proxyEventHandler = new LBProxyEventHandler();
+    private final WorkerAttach workerAttach = new WorkerAttach();
+
+    // when reusePort is set, each acceptor event loop gets its own server
+    // the `server` field is one of them, it always stays open to keep the port
+    // the `proxy` and `proxyNetConfig` fields are not used in this mode
+    private final Map<EventLoopWrapper, Acceptor> acceptors = new HashMap<>();
+    // statistics of servers which are already closed
+    private long closedServersFromRemoteBytes = 0;
+    private long closedServersToRemoteBytes = 0;
+    private long closedServersAcceptedConnectionCount = 0;
+    private long closedServersAcceptBudgetExhaustedCount = 0;
+    // memory held by the session buffers
+    private final LongAdder bufferBytes = new LongAdder();
+
+    private class Acceptor {
+        final EventLoopWrapper loop;
+        final BindServer server;
+        final Proxy proxy;
+
+        Acceptor(EventLoopWrapper loop, BindServer server) {
+            this.loop = loop;
+            this.server = server;
+            this.proxy = new Proxy(new ProxyNetConfig()
+                .setAcceptLoop(loop)
+                .setServer(server)
+                .setConnGen(connGen)
+                .setHandleLoopProvider(handleLoopProvider)
+                .setInBufferSize(inBufferSize)
+                .setOutBufferSize(outBufferSize)
+                .setMaxAcceptsPerWakeup(maxAcceptsPerWakeup)
+                .setBufferBytes(bufferBytes),
+                proxyEventHandler);
+        }
+    }
 
     public TcpLB(String alias,
                  EventLoopGroup acceptorGroup,
@@ -95,6 +174,37 @@ public class TcpLB {
                  ServerGroups backends,
                  int inBufferSize,
                  int outBufferSize) throws IOException, AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backends, inBufferSize, outBufferSize, false);
+    }
+
+    public TcpLB(String alias,
+                 EventLoopGroup acceptorGroup,
+                 EventLoopGroup workerGroup,
+                 InetSocketAddress bindAddress,
+                 ServerGroups backends,
+                 int inBufferSize,
+                 int outBufferSize,
+                 boolean reusePort) throws IOException, AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backends, inBufferSize, outBufferSize, reusePort,
+            BindServer.DEFAULT_MAX_ACCEPTS_PER_WAKEUP);
+    }
+
+    /**
+     * @param reusePort           bind one server per acceptor event loop with SO_REUSEPORT,
+     *                            use only one server if it's not supported
+     * @param maxAcceptsPerWakeup connections to accept in one wakeup of the acceptor event loop
+     */
+    public TcpLB(String alias,
+                 EventLoopGroup acceptorGroup,
+                 EventLoopGroup workerGroup,
+                 InetSocketAddress bindAddress,
+                 ServerGroups backends,
+                 int inBufferSize,
+                 int outBufferSize,
+                 boolean reusePort,
+                 int maxAcceptsPerWakeup) throws IOException, AlreadyExistException, ClosedException {
+        if (maxAcceptsPerWakeup <= 0)
+            throw new IllegalArgumentException("maxAcceptsPerWakeup <= 0");
         this.alias = alias;
         this.acceptorGroup = acceptorGroup;
         this.workerGroup = workerGroup;
@@ -102,44 +212,88 @@ public class TcpLB {
         this.backends = backends;
         this.inBufferSize = inBufferSize;
         this.outBufferSize = outBufferSize;
+        this.maxAcceptsPerWakeup = maxAcceptsPerWakeup;
+
+        if (reusePort && !BindServer.supportReusePort()) {
+            Logger.warn(LogType.IMPROPER_USE, "SO_REUSEPORT is not supported, lb " + alias + " will use only one acceptor");
+            reusePort = false;
+        }
+        this.reusePort = reusePort;
 
         // create server
-        this.server = BindServer.create(bindAddress);
+        this.server = BindServer.create(bindAddress, reusePort);
 
         // init proxyNetConfig
         // acceptEventLoop will be assigned in start() method
+        this.connGen = clientConn -> {
+            // get a server from backends
+            Connector connector = backends.next(clientConn.getRemote());
+            if (connector == null)
+                return null; // return null if cannot get any
+            assert Logger.lowLevelDebug("got a backend: " + connector);
+            return connector;
+        };
+        this.handleLoopProvider = () -> {
+            // get a event loop from group
+            EventLoopWrapper w = workerGroup.next();
+            if (w == null)
+                return null; // return null if cannot get any
+            assert Logger.lowLevelDebug("use event loop: " + w.alias);
+            return w;
+        };
         this.proxyNetConfig
-            .setConnGen(clientConn -> {
-                // get a server from backends
-                Connector connector = backends.next();
-                if (connector == null)
-                    return null; // return null if cannot get any
-                assert Logger.lowLevelDebug("got a backend: " + connector);
-                return connector;
-            })
-            .setHandleLoopProvider(() -> {
-                // get a event loop from group
-                EventLoopWrapper w = workerGroup.next();
-                if (w == null)
-                    return null; // return null if cannot get any
-                assert Logger.lowLevelDebug("use event loop: " + w.alias);
-                return w;
-            })
+            .setConnGen(connGen)
+            .setHandleLoopProvider(handleLoopProvider)
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setMaxAcceptsPerWakeup(maxAcceptsPerWakeup)
+            .setBufferBytes(bufferBytes)
             .setServer(this.server);
         // we do not create proxy object here
         // if it's created, it should start to run
         // so create it in start() method
 
+        // attach to workerGroup for draining the sessions
+        workerGroup.attachResource(workerAttach);
         // attach to acceptorGroup
-        acceptorGroup.attachResource(new LBAttach());
+        try {
+            acceptorGroup.attachResource(new LBAttach());
+        } catch (AlreadyExistException | ClosedException e) {
+            detachWorkerGroup();
+            throw e;
+        }
+    }
+
+    private void detachWorkerGroup() {
+        try {
+            workerGroup.detachResource(workerAttach);
+        } catch (NotFoundException e) {
+            // it's ok if the group is already closed
+        }
+    }
+
+    private List<Proxy> proxies() {
+        if (reusePort) {
+            synchronized (this) {
+                return acceptors.values().stream().map(a -> a.proxy).collect(Collectors.toList());
+            }
+        }
+        Proxy p = proxy;
+        if (p == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(p);
     }
 
     // the proxy still exist
     // but we should dispatch server to another event loop
     private void redispatch() throws IOException {
         assert Logger.lowLevelDebug("redispatch() called on lb " + alias);
+        if (reusePort) {
+            // each loop has its own server, rebalance them
+            rebalance();
+            return;
+        }
         EventLoopWrapper w = acceptorGroup.next();
         if (w == null) {
             // event loop not returned
@@ -153,8 +307,104 @@ public class TcpLB {
         proxy.handle();
     }
 
+    private Acceptor createAcceptor(EventLoopWrapper w, BindServer server) throws IOException {
+        Acceptor acceptor = new Acceptor(w, server);
+        acceptors.put(w, acceptor);
+        try {
+            acceptor.proxy.handle();
+        } catch (IOException e) {
+            acceptors.remove(w);
+            throw e;
+        }
+        return acceptor;
+    }
+
+    private void closeAcceptor(Acceptor acceptor) {
+        acceptors.remove(acceptor.loop); // remove first, then the removed callback will be ignored
+        acceptor.proxy.stop();
+        if (acceptor.server != server) {
+            closedServersFromRemoteBytes += acceptor.server.getFromRemoteBytes();
+            closedServersToRemoteBytes += acceptor.server.getToRemoteBytes();
+            closedServersAcceptedConnectionCount += acceptor.server.getHistoryAcceptedConnectionCount();
+            closedServersAcceptBudgetExhaustedCount += acceptor.server.getAcceptBudgetExhaustedCount();
+            acceptor.server.close();
+        }
+    }
+
+    // make sure each acceptor loop has exactly one server
+    // and the `server` is always handled
+    // every listening socket receives connections from the kernel, so none of them can be left alone
+    private void rebalance() throws IOException {
+        assert Logger.lowLevelDebug("rebalance() called on lb " + alias);
+        List<EventLoopWrapper> loops = acceptorGroup.list();
+        // remove acceptors whose loop is gone
+        for (Acceptor acceptor : new ArrayList<>(acceptors.values())) {
+            if (!loops.contains(acceptor.loop)) {
+                closeAcceptor(acceptor);
+            }
+        }
+        if (loops.isEmpty()) {
+            assert Logger.lowLevelDebug("no event loop for lb " + alias + ", will start later");
+            return;
+        }
+        boolean serverHandled = acceptors.values().stream().anyMatch(a -> a.server == server);
+        if (!serverHandled && loops.size() == acceptors.size()) {
+            // all loops are occupied, let the `server` take over one of them
+            Acceptor acceptor = acceptors.values().iterator().next();
+            closeAcceptor(acceptor);
+        }
+        for (EventLoopWrapper w : loops) {
+            if (acceptors.containsKey(w))
+                continue;
+            BindServer s;
+            if (serverHandled) {
+                s = BindServer.create(bindAddress, true);
+            } else {
+                s = server;
+            }
+            try {
+                createAcceptor(w, s);
+            } catch (IOException e) {
+                if (s != server) {
+                    s.close();
+                }
+                throw e;
+            }
+            serverHandled = true;
+        }
+    }
+
+    private void reusePortServerRemoved(BindServer server) {
+        synchronized (this) {
+            if (acceptors.values().stream().noneMatch(a -> a.server == server)) {
+                assert Logger.lowLevelDebug("the server is removed by lb itself");
+                return;
+            }
+            if (stopped) {
+                return;
+            }
+            assert Logger.lowLevelDebug("bindServer removed from loop, maybe the loop is closed. " +
+                "but lb(" + alias + ") is started, let's rebalance the servers");
+            try {
+                redispatch();
+            } catch (IOException e) {
+                Logger.shouldNotHappen("the proxy re-dispatch failed " + e);
+            }
+        }
+    }
+
     public void start() throws IOException {
         assert Logger.lowLevelDebug("start() called on lb " + alias);
+        if (reusePort) {
+            synchronized (this) {
+                if (destroyed) {
+                    throw new IOException("the lb is already destroyed");
+                }
+                stopped = false;
+                rebalance();
+            }
+            return;
+        }
         synchronized (this) {
             if (proxy != null) { // quick handle when proxy is not null
                 assert Logger.lowLevelDebug("already started, ignore the start() call");
@@ -193,6 +443,14 @@ public class TcpLB {
     public void stop() {
         assert Logger.lowLevelDebug("stop() called on lb " + alias);
         stopped = true;
+        if (reusePort) {
+            synchronized (this) {
+                for (Acceptor acceptor : new ArrayList<>(acceptors.values())) {
+                    closeAcceptor(acceptor);
+                }
+            }
+            return;
+        }
         Proxy proxy;
         synchronized (this) {
             proxy = this.proxy;
@@ -213,9 +471,15 @@ public class TcpLB {
             destroyed = true;
         }
         server.close();
+        detachWorkerGroup();
     }
 
     public int sessionCount() {
+        if (reusePort) {
+            synchronized (this) {
+                return acceptors.values().stream().mapToInt(a -> a.proxy.sessionCount()).sum();
+            }
+        }
         Proxy p = proxy;
         if (p == null) {
             return 0;
@@ -224,10 +488,93 @@ public class TcpLB {
     }
 
     public void copySessions(Collection<? super Session> coll) {
+        if (reusePort) {
+            synchronized (this) {
+                for (Acceptor acceptor : acceptors.values()) {
+                    acceptor.proxy.copySessions(coll);
+                }
+            }
+            return;
+        }
         Proxy p = proxy;
         if (p == null) {
             return;
         }
         p.copySessions(coll);
     }
+
+    // --- START statistics ---
+    // sum of all servers when reusePort is set
+    public long getFromRemoteBytes() {
+        if (!reusePort) {
+            return server.getFromRemoteBytes();
+        }
+        synchronized (this) {
+            long n = closedServersFromRemoteBytes;
+            for (BindServer s : servers()) {
+                n += s.getFromRemoteBytes();
+            }
+            return n;
+        }
+    }
+
+    public long getToRemoteBytes() {
+        if (!reusePort) {
+            return server.getToRemoteBytes();
+        }
+        synchronized (this) {
+            long n = closedServersToRemoteBytes;
+            for (BindServer s : servers()) {
+                n += s.getToRemoteBytes();
+            }
+            return n;
+        }
+    }
+
+    public long getHistoryAcceptedConnectionCount() {
+        if (!reusePort) {
+            return server.getHistoryAcceptedConnectionCount();
+        }
+        synchronized (this) {
+            long n = closedServersAcceptedConnectionCount;
+            for (BindServer s : servers()) {
+                n += s.getHistoryAcceptedConnectionCount();
+            }
+            return n;
+        }
+    }
+
+    public long getAcceptBudgetExhaustedCount() {
+        if (!reusePort) {
+            return server.getAcceptBudgetExhaustedCount();
+        }
+        synchronized (this) {
+            long n = closedServersAcceptBudgetExhaustedCount;
+            for (BindServer s : servers()) {
+                n += s.getAcceptBudgetExhaustedCount();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * bytes of memory held by the buffers of all sessions,
+     * the buffers grow and shrink with the traffic
+     */
+    public long getBufferBytes() {
+        return bufferBytes.sum();
+    }
+
+    // `server` and the servers currently open
+    private List<BindServer> servers() {
+        List<BindServer> ls = new ArrayList<>(acceptors.size() + 1);
+        ls.add(server);
+        for (Acceptor acceptor : acceptors.values()) {
+            if (acceptor.server != server) {
+                ls.add(acceptor.server);
+            }
+        }
+        return ls;
+    }
+    // --- END statistics ---
 }
@@ -15,12 +15,14 @@ import java.nio.channels.InterruptedByTimeoutException;
 // it's useful when running health check
 public class ConnectClient {
     class ConnectClientConnectionHandler implements ClientConnectionHandler {
-        private final Callback<Void, IOException> callback;
+        private final Callback<Long, IOException> callback;
         private final TimerEvent timerEvent;
+        private final long startTime;
 
-        ConnectClientConnectionHandler(Callback<Void, IOException> callback, TimerEvent timerEvent) {
+        ConnectClientConnectionHandler(Callback<Long, IOException> callback, TimerEvent timerEvent, long startTime) {
             this.callback = callback;
             this.timerEvent = timerEvent;
+            this.startTime = startTime;
         }
 
         @SuppressWarnings("unchecked")
@@ -29,7 +31,8 @@ public class ConnectClient {
             timerEvent.cancel(); // cancel timer if possible
             ctx.connection.close(); // close the connection
 
-            if (!callback.isCalled() /*already called by timer*/ && !stopped) callback.succeeded(null);
+            if (!callback.isCalled() /*already called by timer*/ && !stopped)
+                callback.succeeded(System.nanoTime() - startTime);
         }
 
         @Override
@@ -80,7 +83,11 @@ public class ConnectClient {
         this.timeout = timeout;
     }
 
-    public void handle(Callback<Void, IOException> cb) {
+    /**
+     * @param cb succeeded with nanoseconds spent on connecting
+     */
+    public void handle(Callback<Long, IOException> cb) {
+        long startTime = System.nanoTime();
         // connect to remote
         ClientConnection conn;
         try {
@@ -98,7 +105,7 @@ public class ConnectClient {
             if (!cb.isCalled() /*called by connection*/ && !stopped) cb.failed(new InterruptedByTimeoutException());
         });
         try {
-            eventLoop.addClientConnection(conn, null, new ConnectClientConnectionHandler(cb, timer));
+            eventLoop.addClientConnection(conn, null, new ConnectClientConnectionHandler(cb, timer, startTime));
         } catch (IOException e) {
             if (!stopped) cb.failed(e);
             // exception occurred, so ignore timeout
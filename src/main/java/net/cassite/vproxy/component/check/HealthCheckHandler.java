@@ -7,7 +7,10 @@ public interface HealthCheckHandler {
 
     void down(SocketAddress remote);
 
-    void upOnce(SocketAddress remote);
+    /**
+     * @param cost nanoseconds spent on connecting
+     */
+    void upOnce(SocketAddress remote, long cost);
 
     void downOnce(SocketAddress remote);
 }
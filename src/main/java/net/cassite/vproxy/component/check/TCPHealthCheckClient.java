@@ -11,8 +11,8 @@ import java.net.InetSocketAddress;
 
 public class TCPHealthCheckClient {
     class ConnectResultHandler {
-        void onSucceeded() {
-            handler.upOnce(connectClient.remote);
+        void onSucceeded(long cost) {
+            handler.upOnce(connectClient.remote, cost);
             if (currentDown > 0) {
                 // decrease down count if it's not zero
                 --currentDown;
@@ -106,10 +106,10 @@ public class TCPHealthCheckClient {
             return;
         }
 
-        connectClient.handle(new Callback<Void, IOException>() {
+        connectClient.handle(new Callback<Long, IOException>() {
             @Override
-            protected void onSucceeded(Void value) {
-                connectResultHandler.onSucceeded();
+            protected void onSucceeded(Long cost) {
+                connectResultHandler.onSucceeded(cost);
                 cb.run();
             }
 
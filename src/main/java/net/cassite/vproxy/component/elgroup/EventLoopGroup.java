@@ -5,6 +5,7 @@ import net.cassite.vproxy.component.exception.ClosedException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.util.Blocking;
+import net.cassite.vproxy.util.CpuAffinity;
 import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.ThreadSafe;
@@ -15,16 +16,48 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class EventLoopGroup {
+    /**
+     * how {@link #next()} selects an event loop
+     */
+    public enum SelectMethod {
+        /**
+         * round robin
+         */
+        rr,
+        /**
+         * the loop with least connections
+         */
+        leastconn,
+        /**
+         * the loop with the lowest ewma of busy ratio, see {@link SelectorEventLoop#getBusyEwma()}<br>
+         * the ewma is updated every 100ms, so all picks in a burst go to the same loop
+         */
+        leastbusy,
+        /**
+         * the less busy one of two random loops, the picks in a burst are spread
+         */
+        p2c,
+    }
+
+    // how many random picks to try for finding two open loops
+    private static final int P2C_PICKS = 8;
+    // max time to wait for the resources to move their work out of a removed loop
+    private static final int DRAIN_TIMEOUT = 5_000;
+
     public final String alias;
     private ArrayList<EventLoopWrapper> eventLoops = new ArrayList<>(0); // use array list to make code look better,
     // it's the same if you use array
     private boolean preClose = false; // if true, then all MODIFY operations are disabled or return default value
     private boolean closed = false; // if true, then all operations are disabled or return default value
     private final AtomicInteger cursor = new AtomicInteger(0); // current cursor of the eventLoops
+    private volatile SelectMethod selectMethod = SelectMethod.rr;
     private final ConcurrentMap<String, EventLoopGroupAttach> attaches = new ConcurrentHashMap<>();
 
     public EventLoopGroup(String alias) {
@@ -45,6 +78,18 @@ public class EventLoopGroup {
         return eventLoops.stream().map(el -> el.alias).collect(Collectors.toList());
     }
 
+    /**
+     * @return event loops which are not closed
+     */
+    @ThreadSafe
+    public List<EventLoopWrapper> list() {
+        if (closed) {
+            return Collections.emptyList();
+        }
+        ArrayList<EventLoopWrapper> ls = eventLoops;
+        return ls.stream().filter(w -> !w.getSelectorEventLoop().isClosed()).collect(Collectors.toList());
+    }
+
     @ThreadSafe
     public EventLoopWrapper get(String alias) throws NotFoundException {
         if (closed) {
@@ -59,7 +104,16 @@ public class EventLoopGroup {
     }
 
     @ThreadSafe
-    public synchronized void add(String alias) throws AlreadyExistException, IOException, ClosedException {
+    public void add(String alias) throws AlreadyExistException, IOException, ClosedException {
+        add(alias, null);
+    }
+
+    /**
+     * @param cpus the cpus to pin the event loop to, null means not pinned,
+     *             see {@link EventLoopWrapper#setCpuAffinity(String)}
+     */
+    @ThreadSafe
+    public synchronized void add(String alias, String cpus) throws AlreadyExistException, IOException, ClosedException {
         if (preClose) {
             throw new ClosedException();
         }
@@ -68,13 +122,25 @@ public class EventLoopGroup {
             if (w.alias.equals(alias))
                 throw new AlreadyExistException();
         }
+        if (cpus != null) {
+            cpus = CpuAffinity.resolve(cpus); // check before creating the loop
+        }
         SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
         EventLoopWrapper el = new EventLoopWrapper(alias, selectorEventLoop);
+        if (cpus != null) {
+            el.setCpuAffinity(cpus); // the thread is not started, so it only records the cpus
+        }
+        // start (and pin) the loop before it's visible, so a loop failed to pin is never used
+        try {
+            el.loop();
+        } catch (IOException e) {
+            tryCloseLoop(selectorEventLoop);
+            throw e;
+        }
         ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() + 1);
         newLs.addAll(ls);
         newLs.add(el);
         eventLoops = newLs;
-        el.loop();
 
         assert Logger.lowLevelDebug("event loop added " + alias);
 
@@ -93,25 +159,45 @@ public class EventLoopGroup {
     @Blocking
     // closing selectorEventLoop is blocking, so this is blocking as well
     @ThreadSafe
-    public synchronized void remove(String alias) throws NotFoundException {
-        if (preClose) {
-            return;
-        }
-        ArrayList<EventLoopWrapper> ls = eventLoops;
-        ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() - 1);
-        boolean found = false;
-        for (EventLoopWrapper w : ls) {
-            if (w.alias.equals(alias)) {
-                found = true;
-                tryCloseLoop(w.getSelectorEventLoop());
-            } else {
-                newLs.add(w);
+    public void remove(String alias) throws NotFoundException {
+        EventLoopWrapper removed = null;
+        synchronized (this) {
+            if (preClose) {
+                return;
             }
+            ArrayList<EventLoopWrapper> ls = eventLoops;
+            ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() - 1);
+            for (EventLoopWrapper w : ls) {
+                if (w.alias.equals(alias)) {
+                    removed = w;
+                } else {
+                    newLs.add(w);
+                }
+            }
+            if (removed == null)
+                throw new NotFoundException();
+
+            // remove from the list first, so that the resources will not get the loop when draining
+            eventLoops = newLs;
+            invokeResourcesOnRemove(removed);
         }
-        if (!found)
-            throw new NotFoundException();
+        // the loop is no longer in the list, so wait and close it without holding the lock
+        waitForDrain(removed.getSelectorEventLoop());
+        tryCloseLoop(removed.getSelectorEventLoop());
+    }
 
-        eventLoops = newLs;
+    // wait until the tasks put into the loop by the resources are done
+    @Blocking
+    private void waitForDrain(SelectorEventLoop selectorEventLoop) {
+        CountDownLatch latch = new CountDownLatch(1);
+        selectorEventLoop.runOnLoop(latch::countDown);
+        try {
+            if (!latch.await(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Logger.warn(LogType.EVENT_LOOP_CLOSE_FAIL, "draining event loop timed out, close it anyway");
+            }
+        } catch (InterruptedException ignore) {
+            // ignore, we close the loop anyway
+        }
     }
 
     /*
@@ -164,6 +250,18 @@ public class EventLoopGroup {
         }
     }
 
+    private void invokeResourcesOnRemove(EventLoopWrapper eventLoop) {
+        for (EventLoopGroupAttach resource : attaches.values()) {
+            try {
+                resource.onEventLoopRemove(eventLoop);
+            } catch (Throwable t) {
+                // ignore the error, the user code should not throw
+                // only log here
+                Logger.error(LogType.IMPROPER_USE, "exception when calling onEventLoopRemove on the resource, err = ", t);
+            }
+        }
+    }
+
     private void removeResources() {
         for (EventLoopGroupAttach resource : attaches.values()) {
             try {
@@ -193,13 +291,92 @@ public class EventLoopGroup {
         this.preClose = preClose;
     }
 
+    @ThreadSafe
+    public void setSelectMethod(SelectMethod selectMethod) {
+        this.selectMethod = selectMethod;
+    }
+
+    public SelectMethod getSelectMethod() {
+        return selectMethod;
+    }
+
     @ThreadSafe
     public EventLoopWrapper next() {
         if (preClose)
             return null;
 
         ArrayList<EventLoopWrapper> ls = eventLoops;
-        return next(ls, 0);
+        switch (selectMethod) {
+            case leastconn:
+                return leastConnNext(ls);
+            case leastbusy:
+                return leastBusyNext(ls);
+            case p2c:
+                return p2cNext(ls);
+            default:
+                return next(ls, 0);
+        }
+    }
+
+    private static EventLoopWrapper leastConnNext(ArrayList<EventLoopWrapper> ls) {
+        EventLoopWrapper result = null;
+        int min = 0;
+        for (EventLoopWrapper w : ls) {
+            if (w.getSelectorEventLoop().isClosed())
+                continue;
+            int n = w.connectionCount();
+            if (result == null || n < min) {
+                result = w;
+                min = n;
+            }
+        }
+        return result;
+    }
+
+    private static EventLoopWrapper leastBusyNext(ArrayList<EventLoopWrapper> ls) {
+        EventLoopWrapper result = null;
+        double min = 0;
+        for (EventLoopWrapper w : ls) {
+            if (w.getSelectorEventLoop().isClosed())
+                continue;
+            double busy = w.getSelectorEventLoop().getBusyEwma();
+            if (result == null || busy < min) {
+                result = w;
+                min = busy;
+            }
+        }
+        return result;
+    }
+
+    // the busy ewma is 0 for idle loops, so compare connections when they are the same
+    private static boolean lessLoaded(EventLoopWrapper a, EventLoopWrapper b) {
+        double busyA = a.getSelectorEventLoop().getBusyEwma();
+        double busyB = b.getSelectorEventLoop().getBusyEwma();
+        if (busyA != busyB)
+            return busyA < busyB;
+        return a.connectionCount() < b.connectionCount();
+    }
+
+    private EventLoopWrapper p2cNext(ArrayList<EventLoopWrapper> ls) {
+        int size = ls.size();
+        if (size < 2)
+            return next(ls, 0);
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        EventLoopWrapper a = null;
+        EventLoopWrapper b = null;
+        for (int i = 0; i < P2C_PICKS && b == null; ++i) {
+            EventLoopWrapper w = ls.get(rand.nextInt(size));
+            if (w == a || w.getSelectorEventLoop().isClosed())
+                continue;
+            if (a == null) {
+                a = w;
+            } else {
+                b = w;
+            }
+        }
+        if (b == null) // too many closed loops, fall back to round robin
+            return next(ls, 0);
+        return lessLoaded(a, b) ? a : b;
     }
 
     private EventLoopWrapper next(ArrayList<EventLoopWrapper> ls, int recursion) {
@@ -5,5 +5,11 @@ public interface EventLoopGroupAttach {
 
     void onEventLoopAdd();
 
+    /**
+     * the event loop is removed from the group and is about to be closed,
+     * tasks put into the loop via runOnLoop in this method are done before it's closed
+     */
+    void onEventLoopRemove(EventLoopWrapper eventLoop);
+
     void onClose();
 }
@@ -13,6 +13,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 
 public class EventLoopWrapper extends NetEventLoop {
     class ServerHandlerWrapper implements ServerHandler {
@@ -99,6 +100,10 @@ public class EventLoopWrapper extends NetEventLoop {
     private static final Object _VALUE_ = new Object();
     private final ConcurrentMap<String, EventLoopAttach> attaches = new ConcurrentHashMap<>();
     private Thread thread;
+    private volatile String cpuAffinity = null; // cpu list of the loop thread, null means not pinned
+    private volatile int numaNode = -1; // numa node of the cpus, -1 if not pinned or the cpus span nodes
+    private volatile boolean started = false;
+    private volatile long threadId = -1; // native id of the loop thread, -1 if not supported
 
     public EventLoopWrapper(String alias, SelectorEventLoop selectorEventLoop) {
         super(selectorEventLoop);
@@ -139,6 +144,36 @@ public class EventLoopWrapper extends NetEventLoop {
         }
     }
 
+    @Override
+    public void transferClientConnection(ClientConnection connection, Object attachment, ClientConnectionHandler handler) throws IOException {
+        // the connection is already recorded when it's added
+        super.transferClientConnection(connection, attachment, new ClientConnectionHandlerWrapper(handler));
+    }
+
+    @Override
+    protected void attachConnection(Connection connection, Object attachment, ConnectionHandler handler, int ops) throws IOException {
+        connections.put(connection, _VALUE_); // make sure the connection recorded
+        ConnectionHandlerWrapper wrapper;
+        if (connection instanceof ClientConnection) {
+            wrapper = new ClientConnectionHandlerWrapper((ClientConnectionHandler) handler);
+        } else {
+            wrapper = new ConnectionHandlerWrapper(handler);
+        }
+        try {
+            super.attachConnection(connection, attachment, wrapper, ops);
+        } catch (IOException e) {
+            connections.remove(connection); // remove the recorded connection if got error
+            throw e;
+        }
+    }
+
+    @Override
+    protected ConnectionHandler connectionDetached(Connection connection, ConnectionHandler handler) {
+        connections.remove(connection);
+        // unwrap the handler, it will be wrapped by the target loop
+        return ((ConnectionHandlerWrapper) handler).handler;
+    }
+
     @ThreadSafe
     public void attachResource(EventLoopAttach resource) throws AlreadyExistException, ClosedException {
         if (selectorEventLoop.isClosed()) {
@@ -203,17 +238,88 @@ public class EventLoopWrapper extends NetEventLoop {
         return this.attaches.size();
     }
 
-    public void loop() {
+    /**
+     * pin the loop thread to the cpus, the thread is pinned when it starts if it's not started yet<br>
+     * the buffers of connections on this loop are leased from the pool of the loop thread,
+     * the pool memory is first touched on the loop thread, so it's allocated on the numa node of the cpus.
+     * memory already allocated is not moved
+     *
+     * @param cpus cpu list or numa node, see {@link CpuAffinity#resolve(String)}
+     */
+    @Blocking
+    @ThreadSafe
+    public void setCpuAffinity(String cpus) throws IOException {
+        String cpuList = CpuAffinity.resolve(cpus);
+        if (started) {
+            CpuAffinity.pin(threadId, cpuList);
+        } // otherwise it will be pinned when the thread starts
+        cpuAffinity = cpuList;
+        numaNode = CpuAffinity.nodeOf(cpuList);
+    }
+
+    /**
+     * @return the cpu list, or null if not pinned
+     */
+    public String getCpuAffinity() {
+        return cpuAffinity;
+    }
+
+    @Override
+    public int getNumaNode() {
+        return numaNode;
+    }
+
+    /**
+     * start the loop thread, it's pinned to the cpus before it touches any memory
+     *
+     * @throws IOException pinning the thread failed, the thread exits and the loop is not started
+     */
+    @Blocking
+    public void loop() throws IOException {
         if (thread != null) {
             throw new IllegalStateException();
         }
+        CountDownLatch idRecorded = new CountDownLatch(1);
+        CountDownLatch pinned = new CountDownLatch(1);
+        boolean[] pinFailed = {false};
         // no need to set thread to null in the new thread
         // the loop will exit only when selector is closed
         // and the selector will not be able to open again
         thread = new Thread(() -> {
+            threadId = CpuAffinity.currentThreadId();
+            idRecorded.countDown();
+            // wait for the starting thread to pin this thread
+            awaitUninterruptibly(pinned);
+            if (pinFailed[0])
+                return;
             this.selectorEventLoop.loop();
             removeResources();
         }, "EventLoopThread:" + alias);
         thread.start();
+
+        awaitUninterruptibly(idRecorded);
+        String cpus = cpuAffinity;
+        try {
+            if (cpus != null) {
+                CpuAffinity.pin(threadId, cpus);
+            }
+        } catch (IOException e) {
+            pinFailed[0] = true;
+            throw new IOException("pin event loop " + alias + " to cpu " + cpus + " failed: " + e.getMessage(), e);
+        } finally {
+            started = true;
+            pinned.countDown();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ignore) {
+                // keep waiting, the other side always counts down
+            }
+        }
     }
 }
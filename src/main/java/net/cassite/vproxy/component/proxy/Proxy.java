@@ -1,14 +1,14 @@
 package net.cassite.vproxy.component.proxy;
 
 import net.cassite.vproxy.connection.*;
-import net.cassite.vproxy.util.LogType;
-import net.cassite.vproxy.util.Logger;
-import net.cassite.vproxy.util.RingBuffer;
-import net.cassite.vproxy.util.Tuple;
+import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -18,6 +18,9 @@ import java.util.concurrent.ConcurrentMap;
  * the session operations will always be handled in the same event loop
  */
 public class Proxy {
+    // most sessions are idle or transfer small messages
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
     private static void utilValidate(ProxyNetConfig config) {
         if (config.acceptLoop == null)
             throw new IllegalArgumentException("no accept loop");
@@ -31,6 +34,8 @@ public class Proxy {
             throw new IllegalArgumentException("inBufferSize <= 0");
         if (config.outBufferSize <= 0)
             throw new IllegalArgumentException("outBufferSize <= 0");
+        if (config.maxAcceptsPerWakeup <= 0)
+            throw new IllegalArgumentException("maxAcceptsPerWakeup <= 0");
     }
 
     private static void utilCloseConnection(Connection connection) {
@@ -104,7 +109,7 @@ public class Proxy {
                 loop.addClientConnection(clientConnection, null, handler);
 
                 // here the handler added successfully, we can record the session
-                sessions.put(session, _VALUE_);
+                sessions.put(session, loop);
                 // the session record will be removed in `removed()` callback
 
             } catch (IOException e) {
@@ -117,8 +122,11 @@ public class Proxy {
 
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketChannel channel) {
-            RingBuffer inBuffer = RingBuffer.allocateDirect(config.inBufferSize);
-            RingBuffer outBuffer = RingBuffer.allocateDirect(config.outBufferSize);
+            // buffers are released via `utilCloseConnectionAndReleaseBuffers`
+            // so we can safely lease them from the pool
+            // the buffers start small and grow to the configured size when traffic is high
+            RingBuffer inBuffer = RingBuffer.allocateElasticFromPool(INITIAL_BUFFER_SIZE, config.inBufferSize, config.bufferBytes);
+            RingBuffer outBuffer = RingBuffer.allocateElasticFromPool(INITIAL_BUFFER_SIZE, config.outBufferSize, config.bufferBytes);
             return new Tuple<>(inBuffer, outBuffer);
         }
 
@@ -196,6 +204,14 @@ public class Proxy {
         public void connected(ClientConnectionHandlerContext ctx) {
             assert Logger.lowLevelDebug("passive connection established: " + ctx.connection);
 
+            // the buffers are leased on the accepting loop
+            // move them into the memory of the handling loop if it's on another numa node
+            // the passive connection uses the same buffers
+            if (ctx.eventLoop.shouldLocalizeBuffersFrom(config.acceptLoop)) {
+                session.active.inBuffer.localize();
+                session.active.outBuffer.localize();
+            }
+
             // now we can add active connection into event loop
             // use event loop from context
             // the active and passive connection are handled in the same loop
@@ -259,8 +275,8 @@ public class Proxy {
 
     private final ProxyNetConfig config;
     private final ProxyEventHandler handler;
-    private final ConcurrentMap<Session, Object> sessions = new ConcurrentHashMap<>();
-    private static final Object _VALUE_ = new Object();
+    // session => the loop handling the session
+    private final ConcurrentMap<Session, NetEventLoop> sessions = new ConcurrentHashMap<>();
 
     public Proxy(ProxyNetConfig config, ProxyEventHandler handler) {
         this.handler = handler;
@@ -269,6 +285,7 @@ public class Proxy {
 
     public void handle() throws IOException {
         utilValidate(config);
+        config.server.setMaxAcceptsPerWakeup(config.maxAcceptsPerWakeup);
         config.acceptLoop.addServer(config.server, null, new SessionServerHandler());
     }
 
@@ -283,4 +300,65 @@ public class Proxy {
     public void copySessions(Collection<? super Session> coll) {
         coll.addAll(sessions.keySet());
     }
+
+    /**
+     * move the session to another loop without interrupting the traffic,
+     * see {@link NetEventLoop#migrateConnections(List, NetEventLoop, Callback)}<br>
+     * only established sessions can be moved
+     */
+    @ThreadSafe
+    public void migrateSession(Session session, NetEventLoop target, Callback<Void, IOException> cb) {
+        NetEventLoop loop = sessions.get(session);
+        if (loop == null) {
+            cb.failed(new IOException("session " + session + " not found"));
+            return;
+        }
+        loop.migrateConnections(Arrays.asList(session.active, session.passive), target, new Callback<Void, IOException>() {
+            @Override
+            protected void onSucceeded(Void value) {
+                // the record is already removed if the session is closed
+                sessions.replace(session, loop, target);
+                cb.succeeded(null);
+            }
+
+            @Override
+            protected void onFailed(IOException err) {
+                cb.failed(err);
+            }
+        });
+    }
+
+    /**
+     * move all sessions handled on the loop to the loops retrieved from the provider,
+     * the sessions not established yet stay on the loop
+     *
+     * @return count of sessions to be moved
+     */
+    @ThreadSafe
+    public int migrateSessions(NetEventLoop from, NetEventLoopProvider provider) {
+        int count = 0;
+        for (Map.Entry<Session, NetEventLoop> entry : sessions.entrySet()) {
+            if (entry.getValue() != from)
+                continue;
+            NetEventLoop target = provider.get();
+            if (target == null || target == from) {
+                Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for migrating sessions on " + from);
+                break;
+            }
+            Session session = entry.getKey();
+            migrateSession(session, target, new Callback<Void, IOException>() {
+                @Override
+                protected void onSucceeded(Void value) {
+                    assert Logger.lowLevelDebug("session " + session + " migrated");
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    assert Logger.lowLevelDebug("migrate session " + session + " failed: " + err);
+                }
+            });
+            ++count;
+        }
+        return count;
+    }
 }
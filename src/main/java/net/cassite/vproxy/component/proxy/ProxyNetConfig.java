@@ -3,6 +3,8 @@ package net.cassite.vproxy.component.proxy;
 import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.connection.NetEventLoop;
 
+import java.util.concurrent.atomic.LongAdder;
+
 public class ProxyNetConfig {
     NetEventLoop acceptLoop;
     BindServer server;
@@ -12,6 +14,8 @@ public class ProxyNetConfig {
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    int maxAcceptsPerWakeup = BindServer.DEFAULT_MAX_ACCEPTS_PER_WAKEUP;
+    LongAdder bufferBytes;
 
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
@@ -42,4 +46,20 @@ public class ProxyNetConfig {
         this.outBufferSize = outBufferSize;
         return this;
     }
+
+    /**
+     * connections to accept in one wakeup of the accept loop, see {@link BindServer#setMaxAcceptsPerWakeup(int)}
+     */
+    public ProxyNetConfig setMaxAcceptsPerWakeup(int maxAcceptsPerWakeup) {
+        this.maxAcceptsPerWakeup = maxAcceptsPerWakeup;
+        return this;
+    }
+
+    /**
+     * bytes of memory held by the session buffers are added into it
+     */
+    public ProxyNetConfig setBufferBytes(LongAdder bufferBytes) {
+        this.bufferBytes = bufferBytes;
+        return this;
+    }
 }
@@ -0,0 +1,250 @@
+package net.cassite.vproxy.component.proxy;
+
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.connection.ClientConnectionHandler;
+import net.cassite.vproxy.connection.ClientConnectionHandlerContext;
+import net.cassite.vproxy.connection.ConnectionHandlerContext;
+import net.cassite.vproxy.redis.Parser;
+import net.cassite.vproxy.redis.entity.RESP;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.Callback;
+import net.cassite.vproxy.util.LogType;
+import net.cassite.vproxy.util.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a pipelined connection to a redis server<br>
+ * requests are written in order, and the responses are dispatched to the callbacks in the same order<br>
+ * everything runs on the loop thread of the connection
+ */
+public class RESPBackendConnection implements ClientConnectionHandler {
+    public interface Listener {
+        /**
+         * the connection is connected, or the out buffer got free space, see {@link #isWritable()}
+         */
+        void writable(RESPBackendConnection conn);
+
+        /**
+         * the pending callbacks are already failed when this is called
+         */
+        void closed(RESPBackendConnection conn);
+    }
+
+    // the replies come from the backend, the length is not limited
+    private static final int MAX_PARSE_LEN = Integer.MAX_VALUE;
+
+    private final Listener listener;
+    // callbacks of the requests sent or to be sent
+    private final ArrayDeque<Callback<RESP, IOException>> pending = new ArrayDeque<>();
+    // requests not yet stored into the out buffer
+    private final ArrayDeque<ByteArrayChannel> toWrite = new ArrayDeque<>();
+    private ClientConnection conn;
+    private boolean connected = false; // stays true after closed
+    private boolean closed = false;
+    private boolean flushing = false; // storing into the out buffer may fire writable event
+    private Parser parser;
+    private long lastActive = System.currentTimeMillis();
+
+    public RESPBackendConnection(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * the callback is called when the reply arrives,
+     * or fails when the connection is closed before that
+     */
+    public void send(byte[] request, Callback<RESP, IOException> cb) {
+        send(request, Collections.singletonList(cb));
+    }
+
+    /**
+     * @param requests one or more pipelined requests
+     * @param cbs      callbacks of the requests in order
+     */
+    public void send(byte[] requests, List<Callback<RESP, IOException>> cbs) {
+        if (closed) {
+            IOException err = new IOException("connection closed");
+            for (Callback<RESP, IOException> cb : cbs) {
+                cb.failed(err);
+            }
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        pending.addAll(cbs);
+        toWrite.add(ByteArrayChannel.fromFull(requests));
+        if (connected) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (flushing)
+            return; // the outer call continues the flushing
+        flushing = true;
+        try {
+            ByteArrayChannel chnl;
+            while ((chnl = toWrite.peek()) != null) {
+                try {
+                    conn.outBuffer.storeBytesFrom(chnl);
+                } catch (IOException e) {
+                    // will not happen for byte arrays
+                    Logger.shouldNotHappen("storing bytes into out buffer failed " + e);
+                }
+                if (chnl.used() != 0) {
+                    if (conn.outBuffer.free() == 0)
+                        break; // the out buffer is full, wait for writable event
+                    // otherwise the out buffer is flushed when storing
+                    // and the writable event is already fired inside this method, so keep storing
+                    continue;
+                }
+                toWrite.poll();
+            }
+        } finally {
+            flushing = false;
+        }
+    }
+
+    /**
+     * connected, and all requests are stored into the out buffer which still has free space
+     */
+    public boolean isWritable() {
+        return connected && !closed && toWrite.isEmpty() && conn.outBuffer.free() > 0;
+    }
+
+    /**
+     * @return free space of the out buffer, 0 if not connected
+     */
+    public int writableBytes() {
+        if (!connected || closed)
+            return 0;
+        return conn.outBuffer.free();
+    }
+
+    /**
+     * @return true if the connection was ever connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * no request waiting for reply
+     */
+    public boolean isIdle() {
+        return pending.isEmpty();
+    }
+
+    public long getLastActive() {
+        return lastActive;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public void close() {
+        if (conn != null) {
+            conn.close();
+        }
+        closed(new IOException("connection closed"));
+    }
+
+    private void closed(IOException err) {
+        if (closed)
+            return;
+        closed = true;
+        toWrite.clear();
+        Callback<RESP, IOException> cb;
+        while ((cb = pending.poll()) != null) {
+            cb.failed(err);
+        }
+        listener.closed(this);
+    }
+
+    private void flushAndNotify() {
+        if (flushing)
+            return; // fired when storing into the out buffer
+        flush();
+        if (isWritable()) {
+            listener.writable(this);
+        }
+    }
+
+    @Override
+    public void connected(ClientConnectionHandlerContext ctx) {
+        conn = ctx.connection;
+        if (closed) { // closed before connected
+            conn.close();
+            return;
+        }
+        connected = true;
+        assert Logger.lowLevelDebug("resp backend connection " + conn + " connected");
+        flushAndNotify();
+    }
+
+    @Override
+    public void readable(ConnectionHandlerContext ctx) {
+        while (true) {
+            if (parser == null) {
+                parser = new Parser(MAX_PARSE_LEN);
+            }
+            int r = parser.feed(ctx.connection.inBuffer);
+            if (r == -1) {
+                String err = parser.getErrorMessage();
+                if (err == null)
+                    return; // want more data
+                Logger.error(LogType.INVALID_EXTERNAL_DATA, "invalid reply from " + ctx.connection + ": " + err);
+                ctx.connection.close();
+                closed(new IOException("invalid reply: " + err));
+                return;
+            }
+            RESP resp = parser.getResult();
+            parser = null;
+            Callback<RESP, IOException> cb = pending.poll();
+            if (cb == null) {
+                Logger.error(LogType.INVALID_EXTERNAL_DATA, "unexpected reply from " + ctx.connection + ": " + resp);
+                ctx.connection.close();
+                closed(new IOException("unexpected reply"));
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            cb.succeeded(resp);
+        }
+    }
+
+    @Override
+    public void writable(ConnectionHandlerContext ctx) {
+        flushAndNotify();
+    }
+
+    @Override
+    public void exception(ConnectionHandlerContext ctx, IOException err) {
+        assert Logger.lowLevelDebug("resp backend connection " + ctx.connection + " got exception " + err);
+        ctx.connection.close();
+        closed(err);
+    }
+
+    @Override
+    public void closed(ConnectionHandlerContext ctx) {
+        closed(new IOException("connection closed"));
+    }
+
+    @Override
+    public void removed(ConnectionHandlerContext ctx) {
+        ctx.connection.close();
+        closed(new IOException("connection closed"));
+    }
+
+    @Override
+    public String toString() {
+        return "RESPBackendConnection(" + conn + ", pending=" + pending.size() + ")";
+    }
+}
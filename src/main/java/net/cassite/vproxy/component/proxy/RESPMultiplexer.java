@@ -0,0 +1,296 @@
+package net.cassite.vproxy.component.proxy;
+
+import net.cassite.vproxy.redis.entity.RESP;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.Callback;
+import net.cassite.vproxy.util.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * requests from many clients on one loop are sent over at most `maxConnections` pipelined connections
+ * to one redis server<br>
+ * the requests are queued, and written on the next tick of the loop,
+ * so requests read from all clients in one loop iteration are merged into one write<br>
+ * a connection only takes more requests when its out buffer has free space,
+ * otherwise the requests stay in the queue and are counted into the {@link Backlog}<br>
+ * everything runs on the loop thread
+ */
+public class RESPMultiplexer implements RESPBackendConnection.Listener {
+    public interface BackendConnector {
+        /**
+         * make a new connection to the server with the handler
+         *
+         * @return false if failed
+         */
+        boolean connect(RESPBackendConnection handler);
+    }
+
+    /**
+     * bytes queued in all multiplexers on one loop<br>
+     * the clients should stop sending when it's full, and are resumed when it drops to the low watermark
+     */
+    public static class Backlog {
+        private final SelectorEventLoop loop;
+        public final long highWatermark;
+        public final long lowWatermark;
+        private long bytes = 0;
+        private final LinkedHashSet<Runnable> paused = new LinkedHashSet<>();
+        private boolean resumeScheduled = false;
+        private long pauseCount = 0;
+
+        public Backlog(SelectorEventLoop loop, long highWatermark, long lowWatermark) {
+            this.loop = loop;
+            this.highWatermark = highWatermark;
+            this.lowWatermark = lowWatermark;
+        }
+
+        public boolean isFull() {
+            return bytes >= highWatermark;
+        }
+
+        /**
+         * @param resume called when the backlog drops to the low watermark
+         */
+        public void pause(Runnable resume) {
+            if (paused.add(resume)) {
+                ++pauseCount;
+            }
+        }
+
+        void inc(long n) {
+            bytes += n;
+        }
+
+        void dec(long n) {
+            bytes -= n;
+            if (bytes <= lowWatermark && !paused.isEmpty() && !resumeScheduled) {
+                // the clients send more requests when resumed
+                // so do not run it inside the dispatching
+                resumeScheduled = true;
+                loop.nextTick(this::resume);
+            }
+        }
+
+        private void resume() {
+            resumeScheduled = false;
+            if (isFull())
+                return; // filled again before resuming, wait for next dec
+            Runnable[] resumes = paused.toArray(new Runnable[0]);
+            paused.clear();
+            for (Runnable r : resumes) {
+                r.run();
+            }
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getPausedClients() {
+            return paused.size();
+        }
+
+        public long getPauseCount() {
+            return pauseCount;
+        }
+    }
+
+    private static class Request {
+        final byte[] bytes;
+        final Callback<RESP, IOException> cb;
+
+        Request(byte[] bytes, Callback<RESP, IOException> cb) {
+            this.bytes = bytes;
+            this.cb = cb;
+        }
+    }
+
+    private final SelectorEventLoop loop;
+    private final int maxConnections;
+    private final BackendConnector connector;
+    private final Backlog backlog;
+    // shared by the multiplexers on one loop, read from other threads
+    private final AtomicInteger connectionCounter;
+    private final ArrayList<RESPBackendConnection> conns = new ArrayList<>();
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+    private boolean dispatchScheduled = false;
+    private boolean closed = false;
+
+    /**
+     * @param connectionCounter increased and decreased when the connections are made and closed
+     */
+    public RESPMultiplexer(SelectorEventLoop loop, int maxConnections, BackendConnector connector, Backlog backlog,
+                           AtomicInteger connectionCounter) {
+        this.loop = loop;
+        this.maxConnections = maxConnections;
+        this.connector = connector;
+        this.backlog = backlog;
+        this.connectionCounter = connectionCounter;
+    }
+
+    /**
+     * the callback is called when the reply arrives, or fails if no connection can be made
+     */
+    public void send(byte[] request, Callback<RESP, IOException> cb) {
+        if (closed) {
+            cb.failed(new IOException("connection closed"));
+            return;
+        }
+        queue.add(new Request(request, cb));
+        backlog.inc(request.length);
+        if (!dispatchScheduled) {
+            dispatchScheduled = true;
+            loop.nextTick(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        dispatchScheduled = false;
+        while (!queue.isEmpty()) {
+            RESPBackendConnection c = pick();
+            if (c == null)
+                break;
+            drainInto(c);
+        }
+        if (!queue.isEmpty()) {
+            grow();
+        }
+    }
+
+    // the writable connection with the least replies to wait for
+    private RESPBackendConnection pick() {
+        RESPBackendConnection ret = null;
+        for (RESPBackendConnection c : conns) {
+            if (c.isWritable() && (ret == null || c.pendingCount() < ret.pendingCount())) {
+                ret = c;
+            }
+        }
+        return ret;
+    }
+
+    // merge queued requests into one write, at most the free space of the out buffer
+    private void drainInto(RESPBackendConnection c) {
+        int free = c.writableBytes();
+        ByteArrayOutputStream out = null;
+        byte[] first = null;
+        List<Callback<RESP, IOException>> cbs = new ArrayList<>();
+        int len = 0;
+        Request r;
+        // at least one request is taken
+        while ((r = queue.peek()) != null && (len == 0 || len + r.bytes.length <= free)) {
+            queue.poll();
+            if (first == null) {
+                first = r.bytes;
+            } else {
+                if (out == null) {
+                    out = new ByteArrayOutputStream(free);
+                    out.write(first, 0, first.length);
+                }
+                out.write(r.bytes, 0, r.bytes.length);
+            }
+            cbs.add(r.cb);
+            len += r.bytes.length;
+        }
+        if (first == null)
+            return;
+        backlog.dec(len);
+        c.send(out == null ? first : out.toByteArray(), cbs);
+    }
+
+    private void grow() {
+        if (conns.size() >= maxConnections)
+            return; // wait for the connections to be writable
+        for (RESPBackendConnection c : conns) {
+            if (!c.isConnected())
+                return; // the connecting one takes the requests when connected
+        }
+        RESPBackendConnection c = new RESPBackendConnection(this);
+        conns.add(c);
+        connectionCounter.incrementAndGet();
+        if (!connector.connect(c)) {
+            conns.remove(c);
+            connectionCounter.decrementAndGet();
+            if (conns.isEmpty()) {
+                failAll(new IOException("ERR no backend available"));
+            }
+        }
+    }
+
+    private void failAll(IOException err) {
+        Request r;
+        while ((r = queue.poll()) != null) {
+            backlog.dec(r.bytes.length);
+            r.cb.failed(err);
+        }
+    }
+
+    @Override
+    public void writable(RESPBackendConnection conn) {
+        // the requests are usually flushed to the socket when sending,
+        // and no more writable event is fired then, so keep draining
+        while (!queue.isEmpty() && conn.isWritable()) {
+            drainInto(conn);
+        }
+    }
+
+    @Override
+    public void closed(RESPBackendConnection conn) {
+        if (conns.remove(conn)) {
+            connectionCounter.decrementAndGet();
+        }
+        if (closed || queue.isEmpty())
+            return;
+        if (conn.isConnected()) {
+            // the connection was working, make a new one for the queued requests
+            grow();
+        } else if (conns.isEmpty()) {
+            // cannot connect to the server
+            failAll(new IOException("ERR connect to backend failed"));
+        }
+    }
+
+    /**
+     * no connection, or all connections are idle
+     */
+    public boolean isIdle() {
+        if (!queue.isEmpty())
+            return false;
+        for (RESPBackendConnection c : conns) {
+            if (!c.isIdle())
+                return false;
+        }
+        return true;
+    }
+
+    public long getLastActive() {
+        long ret = 0;
+        for (RESPBackendConnection c : conns) {
+            ret = Math.max(ret, c.getLastActive());
+        }
+        return ret;
+    }
+
+    public int connectionCount() {
+        return conns.size();
+    }
+
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        assert Logger.lowLevelDebug("closing resp multiplexer with " + conns.size() + " connections");
+        for (RESPBackendConnection c : new ArrayList<>(conns)) {
+            c.close();
+        }
+        connectionCounter.addAndGet(-conns.size()); // the ones not removed in the closed() callback
+        conns.clear();
+        failAll(new IOException("connection closed"));
+    }
+}
@@ -0,0 +1,336 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import net.cassite.vproxy.component.elgroup.EventLoopAttach;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.exception.AlreadyExistException;
+import net.cassite.vproxy.component.exception.ClosedException;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.connection.ClientConnectionHandler;
+import net.cassite.vproxy.connection.ClientConnectionHandlerContext;
+import net.cassite.vproxy.connection.ConnectionHandlerContext;
+import net.cassite.vproxy.selector.TimerEvent;
+import net.cassite.vproxy.util.Logger;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * idle connections to one server, pre-connected on one event loop<br>
+ * except the statistics and the ThreadSafe methods, everything runs on the loop thread
+ */
+public class ConnectionPool implements EventLoopAttach {
+    // handles the connection when it's connecting or idle
+    // it's replaced by the user handler when the connection is leased
+    class PooledConnectionHandler implements ClientConnectionHandler {
+        final ClientConnection conn;
+        TimerEvent connectTimer;
+        boolean connecting = true;
+        long idleSince;
+
+        PooledConnectionHandler(ClientConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void connected(ClientConnectionHandlerContext ctx) {
+            // also fires when a leased connection is given back
+            if (connecting) {
+                connectTimer.cancel();
+                connecting = false;
+                --connectingCount;
+            }
+
+            ConnectionPoolConfig config = group.getConnectionPoolConfig();
+            if (closed || config == null || !server.healthy || idle.size() >= config.maxIdle) {
+                conn.close();
+                return;
+            }
+            idleSince = System.currentTimeMillis();
+            idle.addLast(this);
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            // the server should not send anything before a request is sent
+            // the state of the connection is unknown, so close it
+            assert Logger.lowLevelDebug("idle connection " + conn + " received data, close it");
+            conn.close();
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            // nothing to write when idle
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            assert Logger.lowLevelDebug("pooled connection " + conn + " got exception " + err);
+            conn.close();
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            // the connection is closed and will be removed
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            if (connecting) {
+                connecting = false;
+                connectTimer.cancel();
+                --connectingCount;
+            } else {
+                idle.remove(this);
+            }
+            conn.close();
+        }
+    }
+
+    public final ServerGroup group;
+    public final ServerGroup.ServerHandle server;
+    public final EventLoopWrapper eventLoop;
+
+    // the most recently used connections are at the tail
+    private final ArrayDeque<PooledConnectionHandler> idle = new ArrayDeque<>();
+    private int connectingCount = 0;
+    private boolean closed = false;
+    private TimerEvent evictTimer;
+
+    // statistics fields
+    // only modified on loop thread, other threads might read a stale value
+    private long createCount = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long giveBackCount = 0;
+    private long evictCount = 0;
+
+    ConnectionPool(ServerGroup group, ServerGroup.ServerHandle server, EventLoopWrapper eventLoop) {
+        this.group = group;
+        this.server = server;
+        this.eventLoop = eventLoop;
+    }
+
+    void start() throws ClosedException {
+        try {
+            eventLoop.attachResource(this);
+        } catch (AlreadyExistException e) {
+            Logger.shouldNotHappen("the pool should not have attached to the loop " + eventLoop.alias);
+            return;
+        }
+        eventLoop.getSelectorEventLoop().runOnLoop(this::evict);
+    }
+
+    /**
+     * take an idle connection and let the handler take it over,
+     * the `connected` event fires on the handler immediately<br>
+     * the pool is refilled in background
+     *
+     * @return null if no idle connection, the caller should make a new connection itself
+     */
+    public ClientConnection lease(Object attachment, ClientConnectionHandler handler) {
+        ClientConnection ret = null;
+        if (!closed && server.healthy) {
+            PooledConnectionHandler h;
+            while ((h = idle.pollLast()) != null) {
+                ClientConnection conn = h.conn;
+                server.attachConnection(conn);
+                try {
+                    eventLoop.transferClientConnection(conn, attachment, handler);
+                } catch (IOException e) {
+                    assert Logger.lowLevelDebug("transfer pooled connection " + conn + " failed " + e);
+                    conn.close();
+                    continue;
+                }
+                ret = conn;
+                break;
+            }
+        }
+        if (ret == null) {
+            ++missCount;
+        } else {
+            ++hitCount;
+        }
+        fill();
+        return ret;
+    }
+
+    /**
+     * give back a leased connection to be reused, the connection must have no pending request or response<br>
+     * the connection is closed if it cannot be kept, e.g. the pool is full or the server is down<br>
+     * NOTE: must be called on the loop thread
+     */
+    public void giveBack(ClientConnection conn) {
+        server.detachConnection(conn);
+        if (conn.inBuffer.used() != 0 || conn.outBuffer.used() != 0) {
+            assert Logger.lowLevelDebug("connection " + conn + " cannot be reused");
+            conn.close();
+            return;
+        }
+        PooledConnectionHandler h = new PooledConnectionHandler(conn);
+        h.connecting = false;
+        try {
+            // the `connected` event fires and the connection goes idle
+            eventLoop.transferClientConnection(conn, null, h);
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug("transfer connection " + conn + " back to pool failed " + e);
+            conn.close();
+            return;
+        }
+        ++giveBackCount;
+    }
+
+    /**
+     * make connections until the pool holds minIdle connections
+     */
+    public void fill() {
+        ConnectionPoolConfig config = group.getConnectionPoolConfig();
+        if (closed || config == null || !server.healthy)
+            return;
+        int need = config.minIdle - idle.size() - connectingCount;
+        for (int i = 0; i < need; ++i) {
+            if (!connect(config))
+                break;
+        }
+    }
+
+    /**
+     * fill the pool ahead of traffic
+     */
+    @ThreadSafe
+    public void warmUp() {
+        eventLoop.getSelectorEventLoop().runOnLoop(this::fill);
+    }
+
+    private boolean connect(ConnectionPoolConfig config) {
+        ClientConnection conn;
+        try {
+            conn = ClientConnection.create(server.server, server.local,
+                RingBuffer.allocate(config.bufferSize), RingBuffer.allocate(config.bufferSize));
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug("create pooled connection to " + server + " failed " + e);
+            return false;
+        }
+        conn.addNetFlowRecorder(server);
+        conn.addConnConnectedHandler(server);
+        conn.addConnCloseHandler(server);
+        PooledConnectionHandler h = new PooledConnectionHandler(conn);
+        h.connectTimer = eventLoop.getSelectorEventLoop().delay(config.connectTimeout, () -> {
+            assert Logger.lowLevelDebug("timeout when connecting pooled connection " + conn);
+            conn.close();
+        });
+        ++connectingCount; // the connected event may fire when adding
+        try {
+            eventLoop.addClientConnection(conn, null, h);
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug("add pooled connection " + conn + " to loop failed " + e);
+            --connectingCount;
+            h.connectTimer.cancel();
+            conn.close();
+            return false;
+        }
+        ++createCount;
+        return true;
+    }
+
+    private void drain() {
+        PooledConnectionHandler h;
+        while ((h = idle.pollFirst()) != null) {
+            h.conn.close();
+        }
+        // connecting ones will be closed when connected
+    }
+
+    private void evict() {
+        evictTimer = null;
+        ConnectionPoolConfig config = group.getConnectionPoolConfig();
+        if (closed || config == null)
+            return;
+        long now = System.currentTimeMillis();
+        // the oldest connections are at the head
+        while (idle.size() > config.minIdle) {
+            PooledConnectionHandler h = idle.peekFirst();
+            if (idle.size() <= config.maxIdle && now - h.idleSince < config.idleTimeout)
+                break;
+            idle.pollFirst();
+            ++evictCount;
+            h.conn.close();
+        }
+        fill();
+        evictTimer = eventLoop.getSelectorEventLoop().delay(Math.max(config.idleTimeout / 2, 1), this::evict);
+    }
+
+    @ThreadSafe
+    void serverDown() {
+        eventLoop.getSelectorEventLoop().runOnLoop(this::drain);
+    }
+
+    @ThreadSafe
+    void close() {
+        try {
+            eventLoop.detachResource(this);
+        } catch (NotFoundException e) {
+            // it's ok if the loop is already closed
+        }
+        eventLoop.getSelectorEventLoop().runOnLoop(() -> {
+            closed = true;
+            if (evictTimer != null) {
+                evictTimer.cancel();
+                evictTimer = null;
+            }
+            drain();
+        });
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    public int connectingCount() {
+        return connectingCount;
+    }
+
+    public long getCreateCount() {
+        return createCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getGiveBackCount() {
+        return giveBackCount;
+    }
+
+    public long getEvictCount() {
+        return evictCount;
+    }
+
+    @Override
+    public String id() {
+        return "ConnectionPool(" + group.alias + "/" + server.alias + ")";
+    }
+
+    @Override
+    public void onClose() {
+        // the loop is closed, all connections are closed as well
+        closed = true;
+        idle.clear();
+        server.connectionPoolClosed(this);
+    }
+
+    @Override
+    public String toString() {
+        return id() + " on " + eventLoop.alias;
+    }
+}
@@ -0,0 +1,38 @@
+package net.cassite.vproxy.component.svrgroup;
+
+public class ConnectionPoolConfig {
+    public final int minIdle;
+    public final int maxIdle;
+    public final int idleTimeout;
+    public final int connectTimeout;
+    public final int bufferSize;
+
+    public ConnectionPoolConfig(int minIdle, int maxIdle, int idleTimeout, int connectTimeout, int bufferSize) {
+        if (minIdle < 0)
+            throw new IllegalArgumentException("minIdle < 0");
+        if (maxIdle < minIdle)
+            throw new IllegalArgumentException("maxIdle < minIdle");
+        if (idleTimeout <= 0)
+            throw new IllegalArgumentException("idleTimeout <= 0");
+        if (connectTimeout <= 0)
+            throw new IllegalArgumentException("connectTimeout <= 0");
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize <= 0");
+        this.minIdle = minIdle;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.connectTimeout = connectTimeout;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolConfig{" +
+            "minIdle=" + minIdle +
+            ", maxIdle=" + maxIdle +
+            ", idleTimeout=" + idleTimeout +
+            ", connectTimeout=" + connectTimeout +
+            ", bufferSize=" + bufferSize +
+            '}';
+    }
+}
@@ -0,0 +1,110 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * the maglev consistent hashing lookup table<br>
+ * see https://research.google.com/pubs/archive/44824.pdf<br>
+ * the table is immutable, build a new one when the items change
+ */
+public class Maglev<T> {
+    // prime sizes, the table should be much larger than the item count
+    // the small table keeps the difference of slots between items under 2% for up to 1024 items,
+    // the large table takes 10x time to build, so only use it when necessary
+    private static final int SMALL_TABLE_SIZE = 65537;
+    private static final int LARGE_TABLE_SIZE = 655373;
+    private static final int SMALL_TABLE_MAX_ITEMS = 1024;
+
+    private final Object[] table;
+
+    /**
+     * @param items    items to fill into the table
+     * @param nameOf   the name decides where the item is placed, use something stable, e.g. the address
+     * @param weightOf items with larger weight take more slots, items with weight <= 0 are ignored
+     */
+    public Maglev(List<T> items, Function<T, String> nameOf, ToIntFunction<T> weightOf) {
+        int n = items.size();
+        int[] weights = new int[n];
+        int maxWeight = 0;
+        for (int i = 0; i < n; ++i) {
+            weights[i] = weightOf.applyAsInt(items.get(i));
+            if (weights[i] > maxWeight) {
+                maxWeight = weights[i];
+            }
+        }
+        if (maxWeight <= 0) {
+            table = new Object[0];
+            return;
+        }
+        int m = n > SMALL_TABLE_MAX_ITEMS ? LARGE_TABLE_SIZE : SMALL_TABLE_SIZE;
+        table = new Object[m];
+
+        long[] offset = new long[n];
+        long[] skip = new long[n];
+        for (int i = 0; i < n; ++i) {
+            byte[] name = nameOf.apply(items.get(i)).getBytes(StandardCharsets.UTF_8);
+            offset[i] = Long.remainderUnsigned(hash(name, 0xcbf29ce484222325L), m);
+            skip[i] = Long.remainderUnsigned(hash(name, 0x84222325cbf29ce4L), m - 1) + 1;
+        }
+
+        // items with the max weight take one slot in each round
+        // others take slots in proportion to their weights
+        long[] next = new long[n];
+        double[] credit = new double[n];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; ++i) {
+                if (weights[i] <= 0)
+                    continue;
+                credit[i] += (double) weights[i] / maxWeight;
+                while (credit[i] >= 1) {
+                    credit[i] -= 1;
+                    int c = (int) ((offset[i] + next[i] * skip[i]) % m);
+                    while (table[c] != null) {
+                        ++next[i];
+                        c = (int) ((offset[i] + next[i] * skip[i]) % m);
+                    }
+                    table[c] = items.get(i);
+                    ++next[i];
+                    if (++filled == m)
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return null if the table is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long hash) {
+        Object[] table = this.table;
+        if (table.length == 0)
+            return null;
+        return (T) table[(int) ((hash >>> 1) % table.length)];
+    }
+
+    public int tableSize() {
+        return table.length;
+    }
+
+    // fnv-1a with a final mix, the result is spread over all bits
+    public static long hash(byte[] bytes) {
+        return hash(bytes, 0xcbf29ce484222325L);
+    }
+
+    private static long hash(byte[] bytes, long seed) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return h;
+    }
+}
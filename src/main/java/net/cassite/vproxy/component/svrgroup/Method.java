@@ -3,4 +3,6 @@ package net.cassite.vproxy.component.svrgroup;
 public enum Method {
     wrr,
     wlc,
+    source,
+    pewma,
 }
@@ -10,10 +10,13 @@ import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.ClosedException;
 import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.connection.ClientConnection;
 import net.cassite.vproxy.connection.ConnCloseHandler;
+import net.cassite.vproxy.connection.ConnConnectedHandler;
 import net.cassite.vproxy.connection.Connection;
 import net.cassite.vproxy.connection.Connector;
 import net.cassite.vproxy.connection.NetFlowRecorder;
+import net.cassite.vproxy.util.LatencyHistogram;
 import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.Utils;
@@ -24,6 +27,9 @@ import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
@@ -31,26 +37,34 @@ import java.util.stream.Collectors;
 public class ServerGroup {
     private static final Object _VALUE_ = new Object(); // value for Map in ServerHandle
 
-    public class ServerHandle implements EventLoopAttach, NetFlowRecorder, ConnCloseHandler {
+    public class ServerHandle implements EventLoopAttach, NetFlowRecorder, ConnCloseHandler, ConnConnectedHandler {
         class ServerHealthCheckHandler implements HealthCheckHandler {
             @Override
             public void up(SocketAddress remote) {
                 healthy = true;
+                healthFlaps.increment();
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to UP");
+                healthChanged();
+                warmUpConnectionPools();
             }
 
             @Override
             public void down(SocketAddress remote) {
                 healthy = false;
+                healthFlaps.increment();
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to DOWN");
+                healthChanged();
+                for (ConnectionPool pool : pools.values()) {
+                    pool.serverDown();
+                }
             }
 
             @Override
-            public void upOnce(SocketAddress remote) {
-                // do nothing but debug log
-                assert Logger.lowLevelDebug("up once for " + ServerHandle.this.alias + "(" + server + ")");
+            public void upOnce(SocketAddress remote, long cost) {
+                assert Logger.lowLevelDebug("up once for " + ServerHandle.this.alias + "(" + server + "), cost " + cost + "ns");
+                recordConnectCost(cost);
             }
 
             @Override
@@ -74,12 +88,27 @@ public class ServerGroup {
         private final LongAdder toRemoteBytes = new LongAdder();
 
         private ConcurrentMap<Connection, Object> connMap = new ConcurrentHashMap<>();
+        // read on every wlc pick, so keep a separate counter instead of calculating the map size
+        private final LongAdder connCount = new LongAdder();
+        private final ConcurrentMap<EventLoopWrapper, ConnectionPool> pools = new ConcurrentHashMap<>();
+
+        // peak ewma of connect cost in nanoseconds
+        // fed by health checks and real connections
+        // starts pessimistic (the health check timeout), so a new server is not flooded before it's measured
+        private volatile double connectCost;
+        private boolean connectCostSampled = false;
+        private long connectCostUpdateTime = System.nanoTime();
+        // connect cost of real connections in nanoseconds
+        private final LatencyHistogram connectLatency = new LatencyHistogram();
+        // how many times the health check status changed
+        private final LongAdder healthFlaps = new LongAdder();
 
         ServerHandle(String alias, InetSocketAddress server, InetAddress local, int initialWeight) {
             this.alias = alias;
             this.server = server;
             this.local = local;
             this.weight = initialWeight;
+            this.connectCost = healthCheckConfig.timeout * 1_000_000d;
         }
 
         // --- START statistics ---
@@ -102,25 +131,134 @@ public class ServerGroup {
         public long getFromRemoteBytes() {
             return fromRemoteBytes.longValue();
         }
+
+        public LatencyHistogram getConnectLatency() {
+            return connectLatency;
+        }
+
+        public long getHealthFlaps() {
+            return healthFlaps.longValue();
+        }
         // --- END statistics ---
 
+        @Override
+        public void onConnConnected(ClientConnection conn, long cost) {
+            connectLatency.record(cost);
+            recordConnectCost(cost);
+        }
+
+        synchronized void recordConnectCost(long cost) {
+            long now = System.nanoTime();
+            double prev = connectCost;
+            if (!connectCostSampled) {
+                // drop the initial value
+                connectCostSampled = true;
+                connectCost = cost;
+            } else if (cost > prev) {
+                // move to the peak immediately, so slow servers are avoided at once
+                connectCost = cost;
+            } else {
+                // the longer since last update, the less the old value weighs
+                double w = Math.exp(-(double) (now - connectCostUpdateTime) / PEWMA_DECAY_NANOS);
+                connectCost = prev * w + cost * (1 - w);
+            }
+            connectCostUpdateTime = now;
+        }
+
+        /**
+         * @return peak ewma of connect cost in nanoseconds
+         */
+        public double getConnectCost() {
+            return connectCost;
+        }
+
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            if (connMap.remove(conn) != null) {
+                connCount.decrement();
+            }
         }
 
         void attachConnection(Connection conn) {
-            connMap.put(conn, _VALUE_);
+            if (connMap.put(conn, _VALUE_) == null) {
+                connCount.increment();
+            }
+        }
+
+        void detachConnection(Connection conn) {
+            onConnClose(conn);
         }
 
         public int connectionCount() {
-            return connMap.size();
+            return connCount.intValue();
+        }
+
+        /**
+         * the connections made by the connector are recorded and counted into the statistics of the server
+         */
+        public Connector makeConnector() {
+            return new SvrHandleConnector(this);
         }
 
         public void copyConnections(Collection<? super Connection> c) {
             c.addAll(connMap.keySet());
         }
 
+        /**
+         * get the connection pool on the event loop, the pool is created if not exists
+         *
+         * @return null if connection pool is not enabled or the loop is closed
+         */
+        public ConnectionPool getConnectionPool(EventLoopWrapper loop) {
+            if (connectionPoolConfig == null)
+                return null;
+            ConnectionPool pool = pools.get(loop);
+            if (pool != null)
+                return pool;
+            synchronized (pools) {
+                pool = pools.get(loop);
+                if (pool != null)
+                    return pool;
+                pool = new ConnectionPool(ServerGroup.this, this, loop);
+                try {
+                    pool.start();
+                } catch (ClosedException e) {
+                    return null;
+                }
+                pools.put(loop, pool);
+            }
+            return pool;
+        }
+
+        // create the pools on the loops of the group, and fill all pools
+        void warmUpConnectionPools() {
+            if (connectionPoolConfig == null)
+                return;
+            for (EventLoopWrapper w : eventLoopGroup.list()) {
+                getConnectionPool(w);
+            }
+            for (ConnectionPool pool : pools.values()) {
+                pool.warmUp();
+            }
+        }
+
+        public void copyConnectionPools(Collection<? super ConnectionPool> c) {
+            c.addAll(pools.values());
+        }
+
+        void connectionPoolClosed(ConnectionPool pool) {
+            pools.remove(pool.eventLoop, pool);
+        }
+
+        void closeConnectionPools() {
+            synchronized (pools) {
+                for (ConnectionPool pool : pools.values()) {
+                    pool.close();
+                }
+                pools.clear();
+            }
+        }
+
         public void setWeight(int weight) {
             boolean needReload = this.weight != weight;
             this.weight = weight;
@@ -227,6 +365,11 @@ public class ServerGroup {
             }
         }
 
+        @Override
+        public void onEventLoopRemove(EventLoopWrapper eventLoop) {
+            // ignore, the health checks on the loop will be done when the loop closes
+        }
+
         @Override
         public void onClose() {
             // ignore, all handles will be done when event loop closes (which happens before event loop group closes)
@@ -237,6 +380,7 @@ public class ServerGroup {
     public final EventLoopGroup eventLoopGroup;
     private HealthCheckConfig healthCheckConfig;
     private Method method;
+    private ConnectionPoolConfig connectionPoolConfig; // null means connection pool is disabled
     private ArrayList<ServerHandle> servers = new ArrayList<>(0);
 
     // START fields for WRR
@@ -254,6 +398,11 @@ public class ServerGroup {
     // END fields for WRR
 
     // START fields for WLC
+    // groups larger than this use power of two choices instead of scanning all servers
+    private static final int WLC_SCAN_LIMIT = 16;
+    // how many random picks to try for finding two healthy servers
+    private static final int WLC_P2C_PICKS = 8;
+
     static class WLC {
         final ArrayList<ServerHandle> servers;
 
@@ -265,6 +414,33 @@ public class ServerGroup {
     private WLC _wlc;
     // END fields for WLC
 
+    // START fields for PEWMA
+    private static final double PEWMA_DECAY_NANOS = 10_000_000_000d; // 10 seconds
+
+    static class PEWMA {
+        final ArrayList<ServerHandle> servers;
+
+        PEWMA(List<ServerHandle> servers) {
+            this.servers = new ArrayList<>(servers);
+        }
+    }
+
+    private PEWMA _pewma;
+    // END fields for PEWMA
+
+    // START fields for SOURCE
+    // building the table takes milliseconds, so health changes rebuild it on this thread instead of the event loop
+    private static final ExecutorService MAGLEV_BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MaglevBuilder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Maglev<ServerHandle> _maglev;
+    // increased on every rebuild, a table built for an older generation is dropped
+    private long maglevGeneration = 0; // modified when holding the lock of `this`
+    // END fields for SOURCE
+
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
                        HealthCheckConfig healthCheckConfig,
@@ -282,10 +458,35 @@ public class ServerGroup {
      * @return null if not found any healthy
      */
     public Connector next() {
+        return next(null);
+    }
+
+    /**
+     * @param source the client address, used by the `source` method
+     * @return null if not found any healthy
+     */
+    public Connector next(InetSocketAddress source) {
+        ServerHandle h = nextHandle(source);
+        if (h == null)
+            return null;
+        return new SvrHandleConnector(h);
+    }
+
+    /**
+     * same as {@link #next(InetSocketAddress)}, but returns the server itself
+     * for users managing connections to the server, e.g. with the connection pool
+     *
+     * @return null if not found any healthy
+     */
+    public ServerHandle nextHandle(InetSocketAddress source) {
         if (method == Method.wrr) {
             return wrrNext();
         } else if (method == Method.wlc) {
             return wlcNext();
+        } else if (method == Method.source) {
+            return sourceNext(source);
+        } else if (method == Method.pewma) {
+            return pewmaNext();
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -327,45 +528,142 @@ public class ServerGroup {
      * return NULL;
      */
 
-    private Connector wlcNext() {
+    private ServerHandle wlcNext() {
         WLC wlc = _wlc;
-        if (wlc.servers.isEmpty())
+        if (wlc.servers.size() <= WLC_SCAN_LIMIT) {
+            return wlcScan(wlc.servers);
+        } else {
+            return wlcP2C(wlc.servers);
+        }
+    }
+
+    // the algorithm described above, unhealthy servers are skipped
+    private static ServerHandle wlcScan(List<ServerHandle> servers) {
+        int n = servers.size();
+        int m = 0;
+        ServerHandle Sm = null;
+        for (; m < n; ++m) {
+            Sm = servers.get(m);
+            if (Sm.healthy)
+                break;
+        }
+        if (m == n)
             return null;
-        int m, n, WSm, CSm, WSi, CSi;
-        ServerHandle Sm;
-        m = 0;
-        n = wlc.servers.size();
-        // for (m = 0; m < n; ++m) {
-        { // --------- START ---------
-            Sm = wlc.servers.get(m);
-            WSm = Sm.weight;
-            CSm = Sm.connectionCount();
-        } // --------- END ---------
-        // if (WSm > 0) {
+        long WSm = Sm.weight;
+        long CSm = Sm.connectionCount();
         for (int i = m + 1; i < n; ++i) {
-            ServerHandle Si = wlc.servers.get(i);
-            WSi = Si.weight;
-            CSi = Si.connectionCount();
+            ServerHandle Si = servers.get(i);
+            if (!Si.healthy)
+                continue;
+            long WSi = Si.weight;
+            long CSi = Si.connectionCount();
             if (CSm * WSi > CSi * WSm) {
-                m = i;
-                { // --------- START ---------
-                    Sm = wlc.servers.get(m);
-                    WSm = Sm.weight;
-                    CSm = Sm.connectionCount();
-                } // --------- END ---------
+                Sm = Si;
+                WSm = WSi;
+                CSm = CSi;
+            }
+        }
+        return Sm;
+    }
+
+    // pick two random healthy servers and use the one with less C(S)/W(S)
+    // it does not always get the least one, but never picks a heavily loaded one
+    // and it's O(1) no matter how many servers are there
+    private static ServerHandle wlcP2C(List<ServerHandle> servers) {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int n = servers.size();
+        ServerHandle a = null;
+        ServerHandle b = null;
+        for (int i = 0; i < WLC_P2C_PICKS; ++i) {
+            ServerHandle h = servers.get(rand.nextInt(n));
+            if (!h.healthy)
+                continue;
+            if (a == null) {
+                a = h;
+            } else if (h != a) {
+                b = h;
+                break;
             }
         }
-        return new SvrHandleConnector(Sm);
-        // }
-        // }
-        // return null;
+        if (a == null)
+            return wlcScan(servers); // most servers are down, check them all
+        if (b == null)
+            return a;
+        if ((long) a.connectionCount() * b.weight > (long) b.connectionCount() * a.weight)
+            return b;
+        return a;
+    }
+
+    private ServerHandle pewmaNext() {
+        return pewmaP2C(_pewma.servers);
+    }
+
+    // the cost of a server is ewma(connect cost) * (connections + 1) / weight
+    private static double pewmaCost(ServerHandle h) {
+        return h.connectCost * (h.connectionCount() + 1) / h.weight;
     }
 
-    private Connector wrrNext() {
+    private static ServerHandle pewmaScan(List<ServerHandle> servers) {
+        ServerHandle best = null;
+        double bestCost = 0;
+        for (ServerHandle h : servers) {
+            if (!h.healthy)
+                continue;
+            double cost = pewmaCost(h);
+            if (best == null || cost < bestCost) {
+                best = h;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    // pick two random healthy servers and use the cheaper one
+    // see wlcP2C
+    private static ServerHandle pewmaP2C(List<ServerHandle> servers) {
+        int n = servers.size();
+        if (n == 0)
+            return null;
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        ServerHandle a = null;
+        ServerHandle b = null;
+        for (int i = 0; i < WLC_P2C_PICKS; ++i) {
+            ServerHandle h = servers.get(rand.nextInt(n));
+            if (!h.healthy)
+                continue;
+            if (a == null) {
+                a = h;
+            } else if (h != a) {
+                b = h;
+                break;
+            }
+        }
+        if (a == null)
+            return pewmaScan(servers); // most servers are down, check them all
+        if (b == null)
+            return a;
+        return pewmaCost(b) < pewmaCost(a) ? b : a;
+    }
+
+    private ServerHandle sourceNext(InetSocketAddress source) {
+        if (source == null)
+            return wrrNext(); // no client address to hash
+        Maglev<ServerHandle> maglev = _maglev;
+        if (maglev == null)
+            return wrrNext(); // the method is just changed
+        ServerHandle h = maglev.get(Maglev.hash(source.getAddress().getAddress()));
+        if (h == null)
+            return null;
+        if (!h.healthy)
+            return wrrNext(); // the table is being rebuilt
+        return h;
+    }
+
+    private ServerHandle wrrNext() {
         return wrrNext(this._wrr, 0);
     }
 
-    private Connector wrrNext(WRR wrr, int recursion) {
+    private ServerHandle wrrNext(WRR wrr, int recursion) {
         if (recursion > wrr.seq.length)
             return null;
         if (wrr.seq.length == 0)
@@ -379,7 +677,7 @@ public class ServerGroup {
         int realIdx = wrr.seq[idx];
         ServerHandle h = wrr.servers.get(realIdx);
         if (h.healthy)
-            return new SvrHandleConnector(h);
+            return h;
         else
             return wrrNext(wrr, recursion + 1);
     }
@@ -387,6 +685,54 @@ public class ServerGroup {
     private void resetMethodRelatedFields() {
         wrrReset();
         wlcReset();
+        pewmaReset();
+        sourceReset();
+    }
+
+    private void pewmaReset() {
+        this._pewma = new PEWMA(this.servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
+    }
+
+    private void healthChanged() {
+        // only the source method keeps the health state in its table
+        if (method != Method.source)
+            return;
+        // the old table is used until the new one is ready,
+        // and the servers turned down are skipped by sourceNext() meanwhile
+        long generation;
+        synchronized (this) {
+            generation = ++maglevGeneration;
+        }
+        MAGLEV_BUILDER.execute(() -> {
+            synchronized (this) {
+                if (generation != maglevGeneration)
+                    return; // the table is already rebuilt, or will be rebuilt by a later task
+            }
+            Maglev<ServerHandle> maglev = buildMaglev();
+            synchronized (this) {
+                if (generation != maglevGeneration || method != Method.source) {
+                    assert Logger.lowLevelDebug("drop the outdated maglev table of " + alias);
+                    return;
+                }
+                _maglev = maglev;
+            }
+        });
+    }
+
+    private synchronized void sourceReset() {
+        ++maglevGeneration; // drop the tables being built
+        if (method != Method.source) {
+            _maglev = null; // the table is large, only keep it when necessary
+            return;
+        }
+        this._maglev = buildMaglev();
+    }
+
+    private Maglev<ServerHandle> buildMaglev() {
+        return new Maglev<>(
+            this.servers.stream().filter(s -> s.healthy).collect(Collectors.toList()),
+            s -> Utils.ipStr(s.server.getAddress().getAddress()) + ":" + s.server.getPort(),
+            s -> s.weight);
     }
 
     private void wlcReset() {
@@ -475,6 +821,14 @@ public class ServerGroup {
         return maxIdx;
     }
 
+    public Method getMethod() {
+        return method;
+    }
+
+    public HealthCheckConfig getHealthCheckConfig() {
+        return healthCheckConfig;
+    }
+
     public void setMethod(Method method) {
         boolean needReload = this.method != method;
         this.method = method;
@@ -492,6 +846,36 @@ public class ServerGroup {
         }
     }
 
+    public ConnectionPoolConfig getConnectionPoolConfig() {
+        return connectionPoolConfig;
+    }
+
+    /**
+     * @param connectionPoolConfig null to disable the connection pool
+     */
+    public void setConnectionPoolConfig(ConnectionPoolConfig connectionPoolConfig) {
+        assert Logger.lowLevelDebug("set new connection pool config " + connectionPoolConfig);
+        this.connectionPoolConfig = connectionPoolConfig;
+        ArrayList<ServerHandle> ls = servers;
+        for (ServerHandle handle : ls) {
+            if (connectionPoolConfig == null) {
+                handle.closeConnectionPools();
+            } else {
+                handle.warmUpConnectionPools(); // the min idle may be increased
+            }
+        }
+    }
+
+    /**
+     * create connection pools of all servers on all event loops of the group and fill them
+     */
+    public void warmUpConnectionPools() {
+        ArrayList<ServerHandle> ls = servers;
+        for (ServerHandle handle : ls) {
+            handle.warmUpConnectionPools();
+        }
+    }
+
     public synchronized void add(String alias, InetSocketAddress server, InetAddress local, int weight) throws AlreadyExistException {
         ArrayList<ServerHandle> ls = servers;
         for (ServerHandle c : ls) {
@@ -519,6 +903,7 @@ public class ServerGroup {
             if (c.alias.equals(alias)) {
                 found = true;
                 c.stop();
+                c.closeConnectionPools();
             } else {
                 newLs.add(c);
             }
@@ -540,6 +925,7 @@ public class ServerGroup {
         }
         for (ServerHandle s : ls) {
             s.stop();
+            s.closeConnectionPools();
             assert Logger.lowLevelDebug("server removed " + s.alias + " from " + this.alias);
         }
     }
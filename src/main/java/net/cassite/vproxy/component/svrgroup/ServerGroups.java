@@ -3,7 +3,9 @@ package net.cassite.vproxy.component.svrgroup;
 import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.connection.Connector;
+import net.cassite.vproxy.util.Tuple;
 
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -12,6 +14,9 @@ public class ServerGroups {
     public final String alias;
     private List<ServerGroup> serverGroups = new ArrayList<>(0);
     private AtomicInteger cursor = new AtomicInteger(0);
+    // consistent hashing table of the groups for key routing
+    // built on first use, and rebuilt when the list is replaced
+    private volatile Tuple<List<ServerGroup>, Maglev<ServerGroup>> _maglev;
 
     public ServerGroups(String alias) {
         this.alias = alias;
@@ -51,23 +56,62 @@ public class ServerGroups {
     }
 
     public Connector next() {
+        return next((InetSocketAddress) null);
+    }
+
+    /**
+     * @param source the client address, used by groups with the `source` method
+     */
+    public Connector next(InetSocketAddress source) {
         List<ServerGroup> groups = serverGroups;
-        return next(groups, 0);
+        return next(groups, source, 0);
+    }
+
+    /**
+     * split the slots evenly into ranges by the order of the groups,
+     * the group does not change when it has no healthy server, otherwise the keys would move
+     *
+     * @param slot [0, slotCount)
+     * @return null if no group
+     */
+    public ServerGroup groupOfSlot(int slot, int slotCount) {
+        List<ServerGroup> groups = serverGroups;
+        if (groups.isEmpty())
+            return null;
+        return groups.get((int) ((long) slot * groups.size() / slotCount));
+    }
+
+    /**
+     * pick a group by consistent hashing, keys only move from/to the groups being added/removed
+     *
+     * @return null if no group
+     */
+    public ServerGroup groupOfHash(long hash) {
+        List<ServerGroup> groups = serverGroups;
+        if (groups.isEmpty())
+            return null;
+        Tuple<List<ServerGroup>, Maglev<ServerGroup>> maglev = _maglev;
+        if (maglev == null || maglev.left != groups) {
+            // may be built more than once when racing, the results are the same
+            maglev = new Tuple<>(groups, new Maglev<>(groups, g -> g.alias, g -> 1));
+            _maglev = maglev;
+        }
+        return maglev.right.get(hash);
     }
 
-    private Connector next(List<ServerGroup> groups, int recursion) {
+    private Connector next(List<ServerGroup> groups, InetSocketAddress source, int recursion) {
         if (recursion > groups.size())
             return null;
         ++recursion;
 
         int idx = cursor.getAndIncrement();
         if (groups.size() > idx) {
-            Connector connector = groups.get(idx).next();
+            Connector connector = groups.get(idx).next(source);
             if (connector != null)
                 return connector;
         } else {
             cursor.set(0);
         }
-        return next(groups, recursion);
+        return next(groups, source, recursion);
     }
 }
@@ -21,6 +21,7 @@ class SvrHandleConnector extends Connector {
         conn.addNetFlowRecorder(serverHandle);
         serverHandle.attachConnection(conn);
         conn.addConnCloseHandler(serverHandle);
+        conn.addConnConnectedHandler(serverHandle);
         return conn;
     }
 }
@@ -5,6 +5,8 @@ import net.cassite.vproxy.util.Utils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -17,15 +19,64 @@ public class BindServer implements NetFlowRecorder {
     private final LongAdder fromRemoteBytes = new LongAdder();
     private final LongAdder toRemoteBytes = new LongAdder();
     private long historyAcceptedConnectionCount = 0; // no concurrency when accepting connections
+    private long acceptBudgetExhaustedCount = 0; // no concurrency when accepting connections
+
+    // max connections to accept in one event loop wakeup
+    // other channels on the loop should get chance to run
+    public static final int DEFAULT_MAX_ACCEPTS_PER_WAKEUP = 64;
+    private int maxAcceptsPerWakeup = DEFAULT_MAX_ACCEPTS_PER_WAKEUP;
 
     NetEventLoop _eventLoop = null;
 
     private boolean closed;
 
+    // SO_REUSEPORT is added in java 9
+    // retrieve it by reflection to keep the code compatible with java 8
+    private static final SocketOption<Boolean> SO_REUSEPORT;
+
+    static {
+        SocketOption<Boolean> opt = null;
+        try {
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> reusePort = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            opt = reusePort;
+            try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+                if (!channel.supportedOptions().contains(opt)) {
+                    opt = null; // not supported by the os
+                }
+            }
+        } catch (Throwable ignore) {
+            opt = null;
+        }
+        SO_REUSEPORT = opt;
+    }
+
+    public static boolean supportReusePort() {
+        return SO_REUSEPORT != null;
+    }
+
     public static BindServer create(InetSocketAddress bindAddress) throws IOException {
+        return create(bindAddress, false);
+    }
+
+    /**
+     * @param reusePort set SO_REUSEPORT so that multiple servers can bind the same address,
+     *                  throw IOException if it's not supported
+     */
+    public static BindServer create(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
+        if (reusePort && !supportReusePort())
+            throw new IOException("SO_REUSEPORT is not supported");
         ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.configureBlocking(false);
-        channel.bind(bindAddress);
+        try {
+            channel.configureBlocking(false);
+            if (reusePort) {
+                channel.setOption(SO_REUSEPORT, true);
+            }
+            channel.bind(bindAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
         try {
             return new BindServer(channel);
         } catch (IOException e) {
@@ -64,8 +115,29 @@ public class BindServer implements NetFlowRecorder {
     public long getHistoryAcceptedConnectionCount() {
         return historyAcceptedConnectionCount;
     }
+
+    public void incAcceptBudgetExhaustedCount() {
+        ++acceptBudgetExhaustedCount;
+    }
+
+    /**
+     * @return how many times the server stops accepting because maxAcceptsPerWakeup is reached
+     */
+    public long getAcceptBudgetExhaustedCount() {
+        return acceptBudgetExhaustedCount;
+    }
     // --- END statistics ---
 
+    public int getMaxAcceptsPerWakeup() {
+        return maxAcceptsPerWakeup;
+    }
+
+    public void setMaxAcceptsPerWakeup(int maxAcceptsPerWakeup) {
+        if (maxAcceptsPerWakeup <= 0)
+            throw new IllegalArgumentException("maxAcceptsPerWakeup <= 0");
+        this.maxAcceptsPerWakeup = maxAcceptsPerWakeup;
+    }
+
     public boolean isClosed() {
         return closed;
     }
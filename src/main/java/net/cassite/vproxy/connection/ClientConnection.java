@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
 
 public class ClientConnection extends Connection {
     public static ClientConnection create(InetSocketAddress remote, InetAddress local,
@@ -28,10 +30,34 @@ public class ClientConnection extends Connection {
         }
     }
 
+    private final long connectStartTime = System.nanoTime();
+    // only accessed on the loop thread, and usually only one handler is added
+    private List<ConnConnectedHandler> connConnectedHandlers = null;
+
     private ClientConnection(SocketChannel channel, RingBuffer inBuffer, RingBuffer outBuffer) throws IOException {
         super(channel, inBuffer, outBuffer);
     }
 
+    // NOTE: this is not thread safe
+    public void addConnConnectedHandler(ConnConnectedHandler h) {
+        if (connConnectedHandlers == null) {
+            connConnectedHandlers = new LinkedList<>();
+        }
+        connConnectedHandlers.add(h);
+    }
+
+    // called by the event loop when the connection is established
+    void connected() {
+        List<ConnConnectedHandler> handlers = connConnectedHandlers;
+        if (handlers == null)
+            return;
+        connConnectedHandlers = null; // fire only once
+        long cost = System.nanoTime() - connectStartTime;
+        for (ConnConnectedHandler h : handlers) {
+            h.onConnConnected(this, cost);
+        }
+    }
+
     @Override
     protected String genId() {
         return (local == null ? "[unbound]" :
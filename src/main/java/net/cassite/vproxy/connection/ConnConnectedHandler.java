@@ -0,0 +1,8 @@
+package net.cassite.vproxy.connection;
+
+public interface ConnConnectedHandler {
+    /**
+     * @param cost nanoseconds spent from creating the connection to the connection established
+     */
+    void onConnConnected(ClientConnection conn, long cost);
+}
@@ -60,7 +60,7 @@ public class Connection implements NetFlowRecorder {
                 if (outBuffer.free() != 0) {
                     // try to flush buffer in user code
                     // (we assume user code preserves a buffer to write)
-                    // (since ringBuffer will not extend)
+                    // (since ringBuffer will not extend beyond its capacity)
                     // (which is unnecessary for an lb)
                     _cctx.handler.writable(_cctx);
                 }
@@ -193,6 +193,10 @@ public class Connection implements NetFlowRecorder {
         );
     }
 
+    public InetSocketAddress getRemote() {
+        return remote;
+    }
+
     public boolean isClosed() {
         return closed;
     }
@@ -244,6 +248,10 @@ public class Connection implements NetFlowRecorder {
         return _eventLoop;
     }
 
+    ConnectionHandlerContext getHandlerContext() {
+        return _cctx;
+    }
+
     public String id() {
         return _id;
     }
@@ -10,22 +10,130 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.List;
 
 public class NetEventLoop {
     private static final HandlerForServer handlerForServer = new HandlerForServer();
     private static final HandlerForConnection handlerForConnection = new HandlerForClientConnection();
     private static final HandlerForClientConnection handlerForClientConnection = new HandlerForClientConnection();
 
+    // elastic buffers not full for this long are shrunk,
+    // and pooled buffers not leased for this long are freed
+    private static final int BUFFER_SHRINK_IDLE = 10_000;
+
     private final SelectorEventLoop selectorEventLoop;
 
+    // read again in one readable event, see setReadSpin()
+    // may be set from other threads, e.g. by the update event-loop command
+    volatile int spinIterations = 1;
+    volatile int spinBytes = 0;
+
+    // statistics of readable events, only modified on the loop thread
+    long readWakeups = 0;
+    long readBytes = 0;
+    long spinReads = 0; // reads after the first one in a readable event
+    long inBufferFullEvents = 0; // reading stopped because the in buffer is full
+
     public NetEventLoop(SelectorEventLoop selectorEventLoop) {
         this.selectorEventLoop = selectorEventLoop;
+        selectorEventLoop.delay(BUFFER_SHRINK_IDLE, this::shrinkBuffers);
+    }
+
+    // the buffers grow on the loop thread, so they are shrunk on the same thread
+    private void shrinkBuffers() {
+        RingBuffer.shrinkIdleBuffers(BUFFER_SHRINK_IDLE);
+        BufferPool.get().trim(BUFFER_SHRINK_IDLE);
+        selectorEventLoop.delay(BUFFER_SHRINK_IDLE, this::shrinkBuffers);
     }
 
     public SelectorEventLoop getSelectorEventLoop() {
         return selectorEventLoop;
     }
 
+    /**
+     * @return the numa node the loop thread is pinned to, -1 if not pinned or the cpus span nodes
+     */
+    public int getNumaNode() {
+        return -1;
+    }
+
+    /**
+     * buffers leased on a loop are on the memory of its numa node,
+     * moving them is only worthwhile when the thread using them is pinned to another node
+     *
+     * @param from the loop where the buffers are leased
+     * @return true if the buffers should be moved into the memory local to this loop
+     */
+    public boolean shouldLocalizeBuffersFrom(NetEventLoop from) {
+        int node = getNumaNode();
+        return node != -1 && node != from.getNumaNode();
+    }
+
+    /**
+     * keep reading in one readable event, until the socket is drained, the in buffer is full,
+     * or any of the budgets runs out.
+     * for a proxy session, the bytes read are forwarded to the other side by quick write in each round,
+     * so a high bandwidth session needs fewer select() calls<br>
+     * the default is 1 iteration, i.e. read once and go back to select()
+     *
+     * @param maxIterations max reads in one readable event
+     * @param maxBytes      stop reading when this many bytes are read in one readable event, 0 for no limit
+     */
+    public void setReadSpin(int maxIterations, int maxBytes) {
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("maxIterations < 1");
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes < 0");
+        this.spinIterations = maxIterations;
+        this.spinBytes = maxBytes;
+    }
+
+    public int getReadSpinIterations() {
+        return spinIterations;
+    }
+
+    public int getReadSpinBytes() {
+        return spinBytes;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long getReadWakeups() {
+        return readWakeups;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long getSpinReads() {
+        return spinReads;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return how many times the READ event is removed because the in buffer is full,
+     * i.e. the other side of the session cannot consume the bytes in time
+     */
+    public long getInBufferFullEvents() {
+        return inBufferFullEvents;
+    }
+
+    public long getAverageReadBytesPerWakeup() {
+        long wakeups = readWakeups;
+        if (wakeups == 0)
+            return 0;
+        return readBytes / wakeups;
+    }
+
     @ThreadSafe
     public void addServer(BindServer server, Object attachment, ServerHandler handler) throws IOException {
         // synchronize in case the fields being inconsistent
@@ -116,6 +224,7 @@ public class NetEventLoop {
         doAddConnection(connection, ops, ctx, handlerForClientConnection);
 
         if (fireConnected) {
+            connection.connected();
             try {
                 handler.connected(ctx);
             } catch (Throwable t) {
@@ -123,24 +232,201 @@ public class NetEventLoop {
             }
         }
     }
+
+    /**
+     * let another handler take over a connected client connection registered on this loop,
+     * the channel stays registered so that no event is lost during the transfer<br>
+     * the `connected` event fires on the new handler<br>
+     * NOTE: must be called on the loop thread
+     */
+    public void transferClientConnection(ClientConnection connection, Object attachment, ClientConnectionHandler handler) throws IOException {
+        ClientConnectionHandlerContext ctx = new ClientConnectionHandlerContext(this, connection, attachment, handler);
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (connection) {
+            if (connection.isClosed())
+                throw new ClosedChannelException();
+            if (connection.getEventLoop() != this)
+                throw new IOException("connection " + connection + " is not registered to this event loop");
+            if (!connection.channel.isConnected())
+                throw new IOException("connection " + connection + " is not connected yet");
+
+            connection.setEventLoopRelatedFields(this, ctx);
+            selectorEventLoop.modifyAttachment(connection.channel, ctx);
+        }
+
+        try {
+            handler.connected(ctx);
+        } catch (Throwable t) {
+            Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
+        }
+    }
+
+    /**
+     * move connections registered on this loop to another loop without closing them<br>
+     * the connections are detached on this loop, then attached on the target loop
+     * with the same handlers, attachments and interested events, the `removed` event does not fire<br>
+     * connections sharing buffers (e.g. the two connections of a proxy session) must be moved together,
+     * because the buffers are only accessed on the loop thread<br>
+     * the callback is called on this loop thread if failed before detaching, in which case nothing is changed,
+     * otherwise it's called on the target loop thread, or on the thread finding the target loop closed.
+     * if any connection cannot be attached (e.g. closed by another thread), or the target loop is closed
+     * before attaching, all the connections are closed, the `removed` event fires for them and the callback fails
+     */
+    @ThreadSafe
+    public void migrateConnections(List<Connection> connections, NetEventLoop target, Callback<Void, IOException> cb) {
+        selectorEventLoop.runOnLoop(() -> {
+            if (target.selectorEventLoop.isClosed()) {
+                cb.failed(new IOException("the target event loop is closed"));
+                return;
+            }
+            for (Connection conn : connections) {
+                if (conn.isClosed()) {
+                    cb.failed(new ClosedChannelException());
+                    return;
+                }
+                if (conn.getEventLoop() != this) {
+                    cb.failed(new IOException("connection " + conn + " is not registered to this event loop"));
+                    return;
+                }
+                if (conn instanceof ClientConnection && !conn.channel.isConnected()) {
+                    cb.failed(new IOException("connection " + conn + " is not connected yet"));
+                    return;
+                }
+            }
+            int size = connections.size();
+            Object[] attachments = new Object[size];
+            ConnectionHandler[] handlers = new ConnectionHandler[size];
+            int[] ops = new int[size];
+            for (int i = 0; i < size; ++i) {
+                Connection conn = connections.get(i);
+                ConnectionHandlerContext ctx = conn.getHandlerContext();
+                attachments[i] = ctx.attachment;
+                //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                synchronized (conn) {
+                    ops[i] = selectorEventLoop.detach(conn.channel);
+                    conn.releaseEventLoopRelatedFields();
+                }
+                handlers[i] = connectionDetached(conn, ctx.handler);
+                conn.inBuffer.disown();
+                conn.outBuffer.disown();
+            }
+            assert Logger.lowLevelDebug(size + " connections detached, migrate to another event loop");
+
+            target.selectorEventLoop.runOnLoop(() -> {
+                if (target.selectorEventLoop.isClosed()) {
+                    // the loop is not running, so this runs on the caller thread, i.e. this loop thread
+                    migrationFailed(connections, 0, attachments, handlers, new IOException("the target event loop is closed"), cb);
+                    return;
+                }
+                for (int i = 0; i < size; ++i) {
+                    Connection conn = connections.get(i);
+                    // move the memory before adopting, the buffers are compared with the pool of current thread
+                    if (target.shouldLocalizeBuffersFrom(this)) {
+                        conn.inBuffer.localize();
+                        conn.outBuffer.localize();
+                    }
+                    // the buffers are given back to the target loop,
+                    // this loop may be closed after migrating, e.g. removed from the event loop group
+                    conn.inBuffer.adopt();
+                    conn.outBuffer.adopt();
+                    try {
+                        target.attachConnection(conn, attachments[i], handlers[i], ops[i]);
+                    } catch (IOException e) {
+                        assert Logger.lowLevelDebug("attach connection " + conn + " failed: " + e);
+                        target.migrationFailed(connections, i, attachments, handlers, e, cb);
+                        return;
+                    }
+                }
+                cb.succeeded(null);
+            }, () ->
+                // the target loop is closed before taking the connections
+                migrationFailed(connections, 0, attachments, handlers, new IOException("the target event loop is closed"), cb));
+        });
+    }
+
+    // close all the connections, the ones before `attached` are registered on this loop,
+    // and the others are detached, the `removed` event is fired manually for them
+    private void migrationFailed(List<Connection> connections, int attached, Object[] attachments, ConnectionHandler[] handlers,
+                                 IOException err, Callback<Void, IOException> cb) {
+        for (int i = 0; i < connections.size(); ++i) {
+            Connection conn = connections.get(i);
+            conn.close(); // fires `removed` if registered
+            if (i < attached)
+                continue;
+            conn.inBuffer.adopt();
+            conn.outBuffer.adopt();
+            try {
+                handlers[i].removed(new ConnectionHandlerContext(this, conn, attachments[i], handlers[i]));
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "the removed callback got exception", t);
+            }
+        }
+        cb.failed(err);
+    }
+
+    /**
+     * register a connection detached from another loop, see {@link #migrateConnections(List, NetEventLoop, Callback)}<br>
+     * the `connected` event does not fire
+     */
+    protected void attachConnection(Connection connection, Object attachment, ConnectionHandler handler, int ops) throws IOException {
+        if (connection instanceof ClientConnection) {
+            ClientConnection clientConnection = (ClientConnection) connection;
+            doAddConnection(connection, ops,
+                new ClientConnectionHandlerContext(this, clientConnection, attachment, (ClientConnectionHandler) handler),
+                handlerForClientConnection);
+        } else {
+            doAddConnection(connection, ops,
+                new ConnectionHandlerContext(this, connection, attachment, handler),
+                handlerForConnection);
+        }
+    }
+
+    /**
+     * called on the loop thread when the connection is detached for migration
+     *
+     * @return the handler to be attached on the target loop
+     */
+    protected ConnectionHandler connectionDetached(Connection connection, ConnectionHandler handler) {
+        return handler;
+    }
 }
 
 class HandlerForServer implements Handler<ServerSocketChannel> {
     @Override
     public void accept(HandlerContext<ServerSocketChannel> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
-
         ServerSocketChannel server = ctx.getChannel();
+
+        // we try to accept in a loop, in case there are pending connections
+        // but stop when reaching the budget
+        // the selector will fire again if there are still pending connections
+        // and other channels get a chance to be handled in between
+        int budget = sctx.server.getMaxAcceptsPerWakeup();
+        for (int i = 0; i < budget; ++i) {
+            if (!acceptOnce(sctx, server))
+                return;
+            if (sctx.server.isClosed())
+                return; // the server might be closed in user callback
+        }
+        assert Logger.lowLevelDebug("accept budget exhausted for " + sctx.server);
+        sctx.server.incAcceptBudgetExhaustedCount();
+    }
+
+    /**
+     * @return true if accepted a connection
+     */
+    private boolean acceptOnce(ServerHandlerContext sctx, ServerSocketChannel server) {
         SocketChannel sock;
         try {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
@@ -155,15 +441,14 @@ class HandlerForServer implements Handler<ServerSocketChannel> {
                 conn = new Connection(sock, ioBuffers.left, ioBuffers.right);
             } catch (IOException e) {
                 Logger.shouldNotHappen("Connection object create failed: " + e);
-                return;
+                return true; // the socket is accepted, so continue accepting
             }
             conn.addNetFlowRecorder(sctx.server);
             sctx.handler.connection(sctx, conn);
         }
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
-        // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
     }
 
     @Override
@@ -212,31 +497,53 @@ class HandlerForConnection implements Handler<SocketChannel> {
             Logger.shouldNotHappen("the connection has no space to store data");
             return;
         }
-        int read;
-        try {
-            read = cctx.connection.inBuffer.storeBytesFrom(ctx.getChannel());
-        } catch (IOException e) {
-            cctx.handler.exception(cctx, e);
-            return;
-        }
-        if (read < 0) {
-            // EOF, the remote write is closed
-            cctx.connection.remoteClosed = true;
-            assert Logger.lowLevelDebug("connection " + cctx.connection + " remote closed");
-            // remove read event add write event (maybe more bytes to write)
-            ctx.modify(SelectionKey.OP_WRITE);
-            // the connection will be closed after write
-            return;
+        NetEventLoop loop = cctx.eventLoop;
+        ++loop.readWakeups;
+        int total = 0;
+        for (int i = 0; ; ++i) {
+            int read;
+            try {
+                read = cctx.connection.inBuffer.storeBytesFrom(ctx.getChannel());
+            } catch (IOException e) {
+                cctx.handler.exception(cctx, e);
+                return;
+            }
+            if (read < 0) {
+                // EOF, the remote write is closed
+                cctx.connection.remoteClosed = true;
+                assert Logger.lowLevelDebug("connection " + cctx.connection + " remote closed");
+                // remove read event add write event (maybe more bytes to write)
+                ctx.modify(SelectionKey.OP_WRITE);
+                // the connection will be closed after write
+                return;
+            }
+            if (read == 0) {
+                if (i == 0) {
+                    Logger.shouldNotHappen("read nothing, the event should not be fired");
+                    return;
+                }
+                break; // the socket is drained
+            }
+            if (i > 0) {
+                ++loop.spinReads;
+            }
+            loop.readBytes += read;
+            total += read;
+            cctx.connection.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
+            cctx.handler.readable(cctx); // the in buffer definitely have some bytes, let client code read
+            // when spinning, the bytes are already moved out of the in buffer by client code
+            // or by the quick write of the other connection in the session
+            if (cctx.connection.isClosed() || cctx.connection.inBuffer.free() == 0)
+                break;
+            if (i + 1 >= loop.spinIterations || (loop.spinBytes != 0 && total >= loop.spinBytes))
+                break;
         }
-        if (read == 0) {
-            Logger.shouldNotHappen("read nothing, the event should not be fired");
+        if (cctx.connection.isClosed())
             return;
-        }
-        cctx.connection.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
-        cctx.handler.readable(cctx); // the in buffer definitely have some bytes, let client code read
         if (cctx.connection.inBuffer.free() == 0) {
             // the in-buffer is full, and client code cannot read, remove read event
             assert Logger.lowLevelDebug("the inBuffer is full now, remove READ event " + cctx.connection);
+            ++loop.inBufferFullEvents;
             ctx.rmOps(SelectionKey.OP_READ);
         }
     }
@@ -266,7 +573,7 @@ class HandlerForConnection implements Handler<SocketChannel> {
             // we ignore it for now
             return;
         }
-        cctx.connection.incFromRemoteBytes(write); // record net flow, it's writing, so is "to remote"
+        cctx.connection.incToRemoteBytes(write); // record net flow, it's writing, so is "to remote"
         // NOTE: should also record in Quick Write impl in Connection.java
         cctx.handler.writable(cctx); // the out buffer definitely have some free space, let client code write
         if (cctx.connection.outBuffer.used() == 0) {
@@ -306,6 +613,7 @@ class HandlerForClientConnection extends HandlerForConnection {
             ops |= SelectionKey.OP_WRITE;
         }
         ctx.modify(ops);
+        cctx.connection.connected();
         cctx.handler.connected(cctx);
     }
 }
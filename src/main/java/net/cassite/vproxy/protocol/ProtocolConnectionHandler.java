@@ -15,6 +15,8 @@ class ProtocolConnectionHandler implements ConnectionHandler {
 
     @Override
     public void readable(ConnectionHandlerContext ctx) {
+        if (pctx.isClosing())
+            return; // the input is ignored after closeAfterWritten()
         ProtocolHandler handler = (ProtocolHandler) ctx.attachment;
         handler.readable(pctx);
     }
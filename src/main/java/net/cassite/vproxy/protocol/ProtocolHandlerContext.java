@@ -1,22 +1,35 @@
 package net.cassite.vproxy.protocol;
 
 import net.cassite.vproxy.connection.Connection;
+import net.cassite.vproxy.connection.NetEventLoop;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.RingBuffer;
 
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProtocolHandlerContext<T> {
-    private final ConcurrentLinkedQueue<byte[]> bytesSeq = new ConcurrentLinkedQueue<>();
-    private ByteArrayChannel chnl = null; // the helper channel to write into out buffer
+    private final ConcurrentLinkedQueue<ReadableByteChannel> sourceSeq = new ConcurrentLinkedQueue<>();
+    private ReadableByteChannel source = null; // the source being written into out buffer
+    private boolean writing = false; // the out buffer ET handler may call doWrite() when storing
+    private final AtomicInteger pendingWrites = new AtomicInteger(0);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    private Runnable onWritten = null; // only accessed in the loop thread
+    private boolean closeWhenWritten = false; // only accessed in the loop thread
+    private final Connection connection;
     public final String connectionId;
     // make inBuffer public for user code to read
     public final RingBuffer inBuffer;
     // make outBuffer private and handle the writings inside the lib
     private final RingBuffer outBuffer;
+    // the loop handling the connection
+    public final NetEventLoop eventLoop;
     // the loop that handles write process
     private final SelectorEventLoop loop;
     private final ProtocolHandler handler;
@@ -24,67 +37,143 @@ public class ProtocolHandlerContext<T> {
     // a field for user code to set data
     public T data;
 
-    ProtocolHandlerContext(String connectionId, Connection connection, SelectorEventLoop loop, ProtocolHandler handler) {
+    ProtocolHandlerContext(String connectionId, Connection connection, NetEventLoop eventLoop, ProtocolHandler handler) {
         this.connectionId = connectionId;
+        this.connection = connection;
         this.inBuffer = connection.inBuffer;
         this.outBuffer = connection.outBuffer;
-        this.loop = loop;
+        this.eventLoop = eventLoop;
+        this.loop = eventLoop.getSelectorEventLoop();
         this.handler = handler;
     }
 
+    private static boolean exhausted(ReadableByteChannel source) {
+        if (source instanceof ByteArrayChannel)
+            return ((ByteArrayChannel) source).used() == 0;
+        return !source.isOpen();
+    }
+
     void doWrite() {
         // doWrite() should consider ET writable handler
-
-        if (chnl != null && chnl.used() == 0)
-            chnl = null; // remove channel if nothing to write
-        if (chnl == null && bytesSeq.isEmpty())
-            return; // nothing to write
-        if (chnl == null) {
-            byte[] bytes = bytesSeq.poll();
-            assert bytes != null; // it only removes in one thread, so, no concurrency
-            chnl = ByteArrayChannel.fromFull(bytes);
-        }
-        while (true) {
-            {
+        // the handler may flush the out buffer and call doWrite() again
+        // we let the outer call continue the writing
+        if (writing)
+            return;
+        writing = true;
+        try {
+            while (true) {
+                if (source == null) {
+                    source = sourceSeq.poll();
+                    if (source == null)
+                        return; // nothing to write
+                }
+                if (exhausted(source)) {
+                    written(); // get another source
+                    continue;
+                }
                 int size;
                 try {
-                    size = outBuffer.storeBytesFrom(chnl);
+                    size = outBuffer.storeBytesFrom(source);
                 } catch (IOException e) {
-                    // will not happen
-                    // because we are reading from memory
-                    Logger.shouldNotHappen("should not get error when reading memory");
-                    return; // just return for java syntax
+                    // will not happen for byte arrays
+                    // but a source may fail, so drop it
+                    Logger.error(LogType.IMPROPER_USE, "reading from the source failed", e);
+                    written();
+                    continue;
                 }
-                // the chnl might be null because buffer ET writable handler called
-
-                if (size == 0) {
-                    break; // stored nothing, so just break
-                    // in this case, the ET writable handler will not be called
-                    // so break is safe
+                if (size < 0) {
+                    written(); // the source ends
+                    continue;
                 }
-            } // we should not use the `size` variable any more, so use a code block {} to prevent
-
-            if (chnl != null && chnl.used() != 0) {
-                break; // still have some bytes left, which means the outBuffer is full
-                // this is ok even after ET writable handler
+                if (source instanceof ByteArrayChannel) {
+                    pendingBytes.addAndGet(-size);
+                }
+                if (exhausted(source))
+                    continue; // get another source
+                if (size == 0 || outBuffer.free() == 0)
+                    break; // the outBuffer is full, wait for writable event
+                // otherwise the out buffer is flushed when storing, let it loop
             }
-            // otherwise,
-            // this bytes array is already written
-            // get another array
-            byte[] bytes = bytesSeq.poll();
-            if (bytes == null) {
-                chnl = null;
-                break; // no more data to write
+        } finally {
+            writing = false;
+            // the out buffer is flushed when storing or on writable events
+            if (closeWhenWritten && source == null && sourceSeq.isEmpty() && outBuffer.used() == 0) {
+                connection.close();
             }
-            chnl = ByteArrayChannel.fromFull(bytes);
-            // let it loop
         }
     }
 
+    // the current source is fully stored into the out buffer or dropped
+    private void written() {
+        pendingWrites.decrementAndGet();
+        if (source instanceof ByteArrayChannel) {
+            pendingBytes.addAndGet(-((ByteArrayChannel) source).used()); // 0 unless dropped
+        }
+        source = null;
+        if (onWritten != null) {
+            Runnable r = onWritten;
+            onWritten = null;
+            loop.nextTick(r);
+        }
+    }
+
+    /**
+     * @return count of the sources passed to write() but not fully stored into the out buffer
+     */
+    public int pendingWrites() {
+        return pendingWrites.get();
+    }
+
+    /**
+     * @return bytes of the byte array sources passed to write() but not stored into the out buffer
+     */
+    public long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * run the task when one of the pending writes finishes,
+     * e.g. continue reading which is stopped because of too many pending writes<br>
+     * NOTE: must be called on the loop thread
+     */
+    public void onWritten(Runnable r) {
+        this.onWritten = r;
+    }
+
+    /**
+     * close the connection after all data passed to write() are sent,
+     * e.g. after responding an error<br>
+     * the in buffer is not read by the handler any more
+     */
+    public void closeAfterWritten() {
+        loop.runOnLoop(() -> {
+            closeWhenWritten = true;
+            doWrite();
+        });
+    }
+
+    // only called on the loop thread
+    boolean isClosing() {
+        return closeWhenWritten;
+    }
+
     public void write(byte[] bytes) {
         if (bytes.length == 0)
             return; // do not write if the input array is empty
-        bytesSeq.add(bytes); // only record in this thread
+        write(ByteArrayChannel.fromFull(bytes));
+    }
+
+    /**
+     * bytes are read from the source when the out buffer has free space,
+     * so the data does not have to be in memory at the same time<br>
+     * the source is considered to be finished when read() returns -1 or isOpen() returns false
+     */
+    public void write(ReadableByteChannel source) {
+        pendingWrites.incrementAndGet();
+        if (source instanceof ByteArrayChannel) {
+            pendingBytes.addAndGet(((ByteArrayChannel) source).used());
+        }
+        sourceSeq.add(source); // only record in this thread
         loop.runOnLoop(this::doWrite); // run write in loop thread
     }
 
@@ -93,6 +182,8 @@ public class ProtocolHandlerContext<T> {
         loop.runOnLoop(() -> {
             if (inBuffer.used() == 0)
                 return; // do nothing if cannot read
+            if (isClosing())
+                return;
             handler.readable(this);
         });
     }
@@ -1,8 +1,16 @@
 package net.cassite.vproxy.protocol;
 
+import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.NetEventLoop;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 public class ProtocolServerConfig {
     int inBufferSize;
     int outBufferSize;
+    Supplier<NetEventLoop> workerLoopProvider; // null means handling connections on the accept loop
+    Consumer<BindServer> serverRemovedHandler; // null means closing the server when removed from the loop
 
     public ProtocolServerConfig setInBufferSize(int inBufferSize) {
         this.inBufferSize = inBufferSize;
@@ -13,4 +21,22 @@ public class ProtocolServerConfig {
         this.outBufferSize = outBufferSize;
         return this;
     }
+
+    /**
+     * accepted connections are handled on the loop returned by the provider,
+     * the connection is closed if it returns null
+     */
+    public ProtocolServerConfig setWorkerLoopProvider(Supplier<NetEventLoop> workerLoopProvider) {
+        this.workerLoopProvider = workerLoopProvider;
+        return this;
+    }
+
+    /**
+     * called instead of closing the server when it's removed from the loop,
+     * e.g. the loop is closed and the user may want to handle the server on another loop
+     */
+    public ProtocolServerConfig setServerRemovedHandler(Consumer<BindServer> serverRemovedHandler) {
+        this.serverRemovedHandler = serverRemovedHandler;
+        return this;
+    }
 }
@@ -11,19 +11,17 @@ import java.nio.channels.SocketChannel;
 
 public class ProtocolServerHandler implements ServerHandler {
     private NetEventLoop eventLoop;
-    private final int inBufferSize;
-    private final int outBufferSize;
+    private final ProtocolServerConfig config;
 
-    private ProtocolServerHandler(NetEventLoop eventLoop, int inBufferSize, int outBufferSize) {
+    private ProtocolServerHandler(NetEventLoop eventLoop, ProtocolServerConfig config) {
         this.eventLoop = eventLoop;
-        this.inBufferSize = inBufferSize;
-        this.outBufferSize = outBufferSize;
+        this.config = config;
     }
 
     public static void apply(NetEventLoop eventLoop,
                              BindServer server, ProtocolServerConfig config,
                              ProtocolHandler handler) throws IOException {
-        eventLoop.addServer(server, handler, new ProtocolServerHandler(eventLoop, config.inBufferSize, config.outBufferSize));
+        eventLoop.addServer(server, handler, new ProtocolServerHandler(eventLoop, config));
     }
 
     @Override
@@ -37,10 +35,19 @@ public class ProtocolServerHandler implements ServerHandler {
     @Override
     public void connection(ServerHandlerContext ctx, Connection connection) {
         ProtocolHandler handler = (ProtocolHandler) ctx.attachment;
-        ProtocolHandlerContext pctx = new ProtocolHandlerContext(connection.id(), connection, eventLoop.getSelectorEventLoop(), handler);
+        NetEventLoop loop = eventLoop;
+        if (config.workerLoopProvider != null) {
+            loop = config.workerLoopProvider.get();
+            if (loop == null) {
+                Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for connection " + connection);
+                connection.close();
+                return;
+            }
+        }
+        ProtocolHandlerContext pctx = new ProtocolHandlerContext(connection.id(), connection, loop, handler);
         handler.init(pctx);
         try {
-            eventLoop.addConnection(connection, handler, new ProtocolConnectionHandler(pctx));
+            loop.addConnection(connection, handler, new ProtocolConnectionHandler(pctx));
         } catch (IOException e) {
             // handle exception in handler
             handler.exception(pctx, e);
@@ -52,13 +59,17 @@ public class ProtocolServerHandler implements ServerHandler {
     @Override
     public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketChannel channel) {
         return new Tuple<>(
-            RingBuffer.allocate(inBufferSize),
-            RingBuffer.allocate(outBufferSize)
+            RingBuffer.allocate(config.inBufferSize),
+            RingBuffer.allocate(config.outBufferSize)
         );
     }
 
     @Override
     public void removed(ServerHandlerContext ctx) {
+        if (config.serverRemovedHandler != null) {
+            config.serverRemovedHandler.accept(ctx.server);
+            return;
+        }
         // close the server when removed from eventLoop
         ctx.server.close();
     }
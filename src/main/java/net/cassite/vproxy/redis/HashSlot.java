@@ -0,0 +1,68 @@
+package net.cassite.vproxy.redis;
+
+import net.cassite.vproxy.util.ByteView;
+
+/**
+ * the key to slot mapping of redis cluster: crc16(key) mod 16384<br>
+ * if the key contains a non-empty `{...}`, only the part inside is hashed,
+ * so keys with the same hash tag always go to the same slot
+ */
+public class HashSlot {
+    public static final int SLOT_COUNT = 16384;
+
+    private HashSlot() {
+    }
+
+    // crc16 xmodem, poly 0x1021, init 0
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; ++j) {
+                if ((crc & 0x8000) != 0) {
+                    crc = (crc << 1) ^ 0x1021;
+                } else {
+                    crc <<= 1;
+                }
+            }
+            TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    public static int crc16(ByteView bytes) {
+        int crc = 0;
+        for (int i = 0; i < bytes.length(); ++i) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ bytes.get(i)) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    /**
+     * @return the part to hash, the key itself if no hash tag
+     */
+    public static ByteView hashTag(ByteView key) {
+        int len = key.length();
+        int start = -1;
+        for (int i = 0; i < len; ++i) {
+            if (key.get(i) == '{') {
+                start = i;
+                break;
+            }
+        }
+        if (start == -1)
+            return key;
+        for (int i = start + 1; i < len; ++i) {
+            if (key.get(i) == '}') {
+                if (i == start + 1)
+                    return key; // `{}` is not a hash tag
+                return key.sub(start + 1, i - start - 1);
+            }
+        }
+        return key;
+    }
+
+    public static int of(ByteView key) {
+        return crc16(hashTag(key)) & (SLOT_COUNT - 1);
+    }
+}
@@ -1,17 +1,20 @@
 package net.cassite.vproxy.redis;
 
 import net.cassite.vproxy.redis.entity.*;
-import net.cassite.vproxy.util.ByteArrayChannel;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.RingBuffer;
 import net.cassite.vproxy.util.Utils;
 
-import java.io.IOException;
-
 @SuppressWarnings("Duplicates")
 public class Parser {
     private final int maxLen;
     private int parsedLen = 0;
+    // bulk string bodies are placed into regions from the pool if it's set
+    // sub parsers use the root parser's region
+    private final RegionPool pool;
+    private final Parser root;
+    private byte[] region;
+    private int regionOff;
 
     private RESP resp = null;
     private String errorMessage = null;
@@ -50,6 +53,7 @@ public class Parser {
      * ----->for $len times, read data--> 8
      * then->(\r) -> simple end -----> 2
      * 9 ---> array
+     * ----->(-)---> set negative ---> 17
      * ----->(digital)--> increase --> 10
      * 10---> array len
      * ----->(\r) -> array header end->11
@@ -73,44 +77,119 @@ public class Parser {
      * 16---> integer may end
      * ----->(digital)--> increase -----> 16
      * ----->(\r) ------> simple end ---> 2
+     *
+     * // here parses the null array
+     * 17---> array len digital
+     * ----->(digital)--> increase len -> 10
      */
 
     public Parser(int maxLen) {
+        this(maxLen, (RegionPool) null);
+    }
+
+    public Parser(int maxLen, RegionPool pool) {
         this.maxLen = maxLen;
+        this.pool = pool;
+        this.root = this;
+    }
+
+    private Parser(int maxLen, Parser root) {
+        this.maxLen = maxLen;
+        this.pool = root.pool;
+        this.root = root;
+    }
+
+    // place the bulk string body into the region
+    private void allocate(RESPBulkString bs) {
+        if (pool == null) {
+            bs.bytes = new byte[bs.length];
+            bs.offset = 0;
+            return;
+        }
+        Parser r = root;
+        if (r.region == null || r.region.length - r.regionOff < bs.length) {
+            // the old region is still referenced by parsed bulk strings
+            // so simply drop it
+            r.region = pool.get(bs.length);
+            r.regionOff = 0;
+        }
+        bs.bytes = r.region;
+        bs.offset = r.regionOff;
+        r.regionOff += bs.length;
+    }
+
+    /**
+     * the region holding bulk string bodies of the parsed result,
+     * give it back to the pool when the result is no longer used
+     *
+     * @return null if not using regions or no bulk strings parsed
+     */
+    public byte[] getRegion() {
+        return region;
     }
 
     // return 0 means everything is done
     // return -1 means: got error, or want more data
     // call getErrorMessage() to check whether is error
     public int feed(RingBuffer buffer) {
-        byte[] nextByte = new byte[1];
-        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(nextByte);
         while (true) {
-            chnl.reset();
-            // an integer field that does multiple things, no particular name for it
-            int foo;
-            try {
-                foo = buffer.writeTo(chnl);
-            } catch (IOException ignore) {
-                // it will never happen
-                // because we are writing to a memory
-                // just return for java syntax
-                errorMessage = "will not happen";
-                return -1;
-            }
-            if (foo == 0)
+            // scan the contiguous region directly
+            int len = buffer.peekableLength();
+            if (len == 0)
                 return -1; // indicating `want more`
-            ++parsedLen;
-            if (parsedLen > maxLen) {
-                errorMessage = "too many input bytes";
-                return -1;
+            int i = 0;
+            while (i < len) {
+                RESPBulkString bs = bulkStringBody();
+                if (bs != null) {
+                    // copy the bulk string body with one `get`
+                    int n = Math.min(bs.len, len - i);
+                    parsedLen += n;
+                    if (parsedLen > maxLen) {
+                        buffer.consume(i);
+                        errorMessage = "too many input bytes";
+                        return -1;
+                    }
+                    buffer.peek(i, bs.bytes, bs.offset + bs.length - bs.len, n);
+                    bs.len -= n;
+                    i += n;
+                    continue;
+                }
+                int b = Utils.positive(buffer.peek(i));
+                ++i;
+                ++parsedLen;
+                if (parsedLen > maxLen) {
+                    buffer.consume(i);
+                    errorMessage = "too many input bytes";
+                    return -1;
+                }
+                // an integer field that does multiple things, no particular name for it
+                int foo = doSwitch(b);
+                if (foo == -1 || foo == 0) {
+                    buffer.consume(i);
+                    return foo;
+                }
             }
-            foo = doSwitch(Utils.positive(nextByte[0]));
-            if (foo == -1 || foo == 0)
-                return foo;
+            buffer.consume(len);
         }
     }
 
+    // get the bulk string whose body is being read (maybe by a sub parser)
+    // return null if not reading any bulk string body
+    private RESPBulkString bulkStringBody() {
+        Parser p = this;
+        while (p.state == 12) {
+            p = ((RESPArray) p.resp).parser;
+            if (p == null)
+                return null;
+        }
+        if (p.state != 8)
+            return null;
+        RESPBulkString bs = (RESPBulkString) p.resp;
+        if (bs.len == 0)
+            return null; // expecting \r
+        return bs;
+    }
+
     // only for private switch methods
     private static final int GOT_ERROR = -1;
     private static final int DONE = 0;
@@ -179,6 +258,9 @@ public class Parser {
             case 16:
                 res = switchIntegerMayEnd16(b);
                 break;
+            case 17:
+                res = switchArrayLenDigital17(b);
+                break;
             default:
                 Logger.shouldNotHappen("bug in the state machine impl, state = " + state);
                 throw new Error("bug in the state machine impl, state = " + state);
@@ -318,7 +400,8 @@ public class Parser {
                 // invalid
                 return error("bulk string length cannot be " + bs.len);
             } else {
-                bs.string = new StringBuilder();
+                bs.length = bs.len;
+                allocate(bs);
                 return 7;
             }
         }
@@ -346,20 +429,24 @@ public class Parser {
             }
             return error("expecting \\r");
         } else {
+            bs.bytes[bs.offset + bs.length - bs.len] = (byte) b;
             --bs.len;
-            bs.string.append((char) b);
             return 8;
         }
     }
 
     private int switchArray9(int b) {
+        if (b == '-') {
+            ((RESPArray) resp).negative = -1;
+            return 17;
+        }
         if (b >= '0' && b <= '9') {
             int d = b - '0';
             RESPArray array = (RESPArray) resp;
             array.len = array.len * 10 + d;
             return 10;
         }
-        return error("expecting digital");
+        return error("expecting digital or -");
     }
 
     private int switchArrayLen10(int b) {
@@ -369,7 +456,7 @@ public class Parser {
         if (b >= '0' && b <= '9') {
             int d = b - '0';
             RESPArray array = (RESPArray) resp;
-            array.len = array.len * 10 + d;
+            array.len = array.len * 10 + d * array.negative;
             return 10;
         }
         return error("expecting digital or \\r");
@@ -378,8 +465,10 @@ public class Parser {
     private int switchArrayHeaderEnd11(int b) {
         if (b == '\n') {
             RESPArray array = (RESPArray) resp;
-            if (array.len == 0)
+            if (array.len == 0 || array.len == -1) // -1 means null
                 return DONE;
+            if (array.len < 0)
+                return error("array length cannot be " + array.len);
             return 12;
         }
         return error("expecting \\n");
@@ -388,7 +477,7 @@ public class Parser {
     private int switchArrayBody12(int b) {
         RESPArray array = (RESPArray) resp;
         if (array.parser == null) {
-            array.parser = new Parser(this.maxLen - parsedLen);
+            array.parser = new Parser(this.maxLen - parsedLen, root);
         }
         int res = array.parser.doSwitch(b);
         if (res == -1)
@@ -404,6 +493,16 @@ public class Parser {
         return 12;
     }
 
+    private int switchArrayLenDigital17(int b) {
+        if (b >= '0' && b <= '9') {
+            int d = b - '0';
+            RESPArray array = (RESPArray) resp;
+            array.len = array.len * 10 + d * array.negative;
+            return 10;
+        }
+        return error("expecting digital");
+    }
+
     private int switchInline13(int b) {
         if (b == '\r') {
             return 2;
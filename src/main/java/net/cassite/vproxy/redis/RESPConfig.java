@@ -2,9 +2,38 @@ package net.cassite.vproxy.redis;
 
 public class RESPConfig {
     int maxParseLen = 16384;
+    boolean rawBulkString = false;
+    int maxPendingResponses = 1024;
+    long maxPendingBytes = 4 * 1024 * 1024;
 
     public RESPConfig setMaxParseLen(int maxParseLen) {
         this.maxParseLen = maxParseLen;
         return this;
     }
+
+    /**
+     * bulk strings are passed to the handler as {@link net.cassite.vproxy.util.ByteView}s instead of Strings,
+     * the views are valid until the callback is called
+     */
+    public RESPConfig setRawBulkString(boolean rawBulkString) {
+        this.rawBulkString = rawBulkString;
+        return this;
+    }
+
+    /**
+     * stop parsing pipelined requests when the responses not yet handed to the client reach this count,
+     * the input is kept in the buffer, so the client is slowed down by the tcp flow control
+     */
+    public RESPConfig setMaxPendingResponses(int maxPendingResponses) {
+        this.maxPendingResponses = maxPendingResponses;
+        return this;
+    }
+
+    /**
+     * same as {@link #setMaxPendingResponses(int)}, but limits the bytes of the ready responses
+     */
+    public RESPConfig setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+        return this;
+    }
 }
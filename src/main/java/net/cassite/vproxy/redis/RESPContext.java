@@ -1,6 +1,38 @@
 package net.cassite.vproxy.redis;
 
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 public class RESPContext {
+    static class Response {
+        final long seq;
+        boolean ready = false;
+        byte[] bytes;
+        ReadableByteChannel stream; // set instead of bytes for arrays
+        byte[] region; // region of the request, released when responded
+
+        Response(long seq) {
+            this.seq = seq;
+        }
+    }
+
     Parser parser;
     Object attachment;
+    Runnable resume; // continue handling the input, see RESPHandler#ready
+
+    // the following fields are guarded by `this`
+    // callbacks might be called on other threads
+
+    // pipelined requests waiting to be responded, in the order of the requests
+    final ArrayDeque<Response> responses = new ArrayDeque<>();
+    long nextSeq = 0;
+    // bytes of the ready responses in the queue
+    long pendingBytes = 0;
+    // set when parsing is stopped because of too many pending responses
+    boolean paused = false;
+    // set when parsing a batch of requests, responses are written after the whole batch parsed
+    boolean batching = false;
+    // bytes of ready responses, merged into one write
+    final ArrayList<byte[]> toFlush = new ArrayList<>();
 }
@@ -1,9 +1,34 @@
 package net.cassite.vproxy.redis;
 
+import net.cassite.vproxy.connection.NetEventLoop;
 import net.cassite.vproxy.util.Callback;
 
 public interface RESPHandler<T> {
-    T attachment();
+    /**
+     * @return the attachment of a new connection, null by default
+     */
+    default T attachment() {
+        return null;
+    }
+
+    /**
+     * override this one instead of {@link #attachment()} when the attachment depends on the loop
+     *
+     * @param loop the loop handling the connection, the handle method is called on this loop
+     */
+    default T attachment(NetEventLoop loop) {
+        return attachment();
+    }
+
+    /**
+     * checked before handling each request, the input is not consumed if returns false,
+     * so the client is slowed down by the tcp flow control
+     *
+     * @param resume call it when ready again, the remaining input will be handled
+     */
+    default boolean ready(T attach, Runnable resume) {
+        return true;
+    }
 
     void handle(Object input, T attach, Callback<Object, Throwable> cb);
 }
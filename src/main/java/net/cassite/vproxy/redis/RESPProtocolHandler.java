@@ -2,14 +2,23 @@ package net.cassite.vproxy.redis;
 
 import net.cassite.vproxy.protocol.ProtocolHandler;
 import net.cassite.vproxy.protocol.ProtocolHandlerContext;
+import net.cassite.vproxy.redis.entity.RESP;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.Utils;
 
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
 public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
+    private static final int REGION_SIZE = 4096;
+    private static final int MAX_FREE_REGIONS = 256;
+
     private final RESPConfig config;
     private final RESPHandler handler;
+    private final RegionPool regionPool = new RegionPool(REGION_SIZE, MAX_FREE_REGIONS);
 
     public RESPProtocolHandler(RESPConfig config, RESPHandler handler) {
         this.config = config;
@@ -21,57 +30,233 @@ public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
         assert Logger.lowLevelDebug("connection established in RESPProtocolHandler " + ctx.connectionId);
         // init resp context
         ctx.data = new RESPContext();
-        ctx.data.attachment = handler.attachment();
+        ctx.data.attachment = handler.attachment(ctx.eventLoop);
+        ctx.data.resume = ctx::readable;
     }
 
     @Override
     public void readable(ProtocolHandlerContext<RESPContext> ctx) {
-        if (ctx.data.parser == null) {
-            ctx.data.parser = new Parser(config.maxParseLen);
-        }
-        int r = ctx.data.parser.feed(ctx.inBuffer);
-        if (r == -1) {
-            String error = ctx.data.parser.getErrorMessage();
-            if (error == null)
-                return; // no error and -1 means want more data
-            ctx.inBuffer.clear(); // remove pending input data
-            ctx.data.parser = null; // remove the parser
-            ctx.write(Serializer.fromErrorString(error));
-            return;
+        RESPContext rctx = ctx.data;
+        synchronized (rctx) {
+            rctx.batching = true;
         }
-        Object o = ctx.data.parser.getResult().getJavaObject();
-        ctx.data.parser = null; // remove the parser
-        // let user code handle the object
         try {
-            //noinspection unchecked
-            handler.handle(o, ctx.data.attachment, new Callback<Object, Throwable>() {
-                @Override
-                protected void onSucceeded(Object value) {
-                    byte[] bytes;
+            // keep parsing until the buffer is drained, the client may pipeline requests
+            while (true) {
+                if (rctx.parser == null) {
+                    if (ctx.inBuffer.used() == 0)
+                        return; // wait for the next request
+                    if (tooManyPending(ctx))
+                        return; // leave the input in the buffer
+                    @SuppressWarnings("unchecked")
+                    boolean ready = handler.ready(rctx.attachment, rctx.resume);
+                    if (!ready)
+                        return; // leave the input in the buffer
+                    rctx.parser = new Parser(config.maxParseLen, regionPool);
+                }
+                int r = rctx.parser.feed(ctx.inBuffer);
+                if (r == -1) {
+                    String error = rctx.parser.getErrorMessage();
+                    if (error == null)
+                        return; // no error and -1 means want more data
+                    ctx.inBuffer.clear(); // remove pending input data
+                    releaseRegion(rctx.parser.getRegion());
+                    rctx.parser = null; // remove the parser
+                    respond(ctx, newResponse(rctx), Serializer.fromErrorString(error));
+                    return;
+                }
+                RESP result = rctx.parser.getResult();
+                byte[] region = rctx.parser.getRegion();
+                rctx.parser = null; // remove the parser
+                Object o;
+                if (config.rawBulkString) {
+                    // the bulk strings are views of the region
+                    // so keep the region until responded
+                    o = result.getRawJavaObject();
+                } else {
+                    o = result.getJavaObject();
+                    releaseRegion(region);
+                    region = null;
+                }
+                handle(ctx, o, region);
+            }
+        } finally {
+            synchronized (rctx) {
+                rctx.batching = false;
+                flush(ctx);
+            }
+        }
+    }
+
+    // check the responses waiting for callbacks or waiting to be written
+    // the parsing is resumed when some of them are written
+    private boolean tooManyPending(ProtocolHandlerContext<RESPContext> ctx) {
+        RESPContext rctx = ctx.data;
+        synchronized (rctx) {
+            if (rctx.responses.size() + ctx.pendingWrites() < config.maxPendingResponses
+                && rctx.pendingBytes + ctx.pendingBytes() < config.maxPendingBytes)
+                return false;
+            assert Logger.lowLevelDebug("too many pending responses, stop parsing for conn: " + ctx.connectionId);
+            rctx.paused = true; // resumed when some responses are polled from the queue
+        }
+        if (ctx.pendingWrites() > 0) {
+            ctx.onWritten(rctx.resume); // or when some writes finish
+        }
+        return true;
+    }
+
+    private RESPContext.Response newResponse(RESPContext rctx) {
+        synchronized (rctx) {
+            RESPContext.Response resp = new RESPContext.Response(rctx.nextSeq++);
+            rctx.responses.add(resp);
+            return resp;
+        }
+    }
+
+    private void releaseRegion(byte[] region) {
+        if (region != null) {
+            regionPool.release(region);
+        }
+    }
+
+    private void handle(ProtocolHandlerContext<RESPContext> ctx, Object o, byte[] region) {
+        RESPContext.Response resp = newResponse(ctx.data);
+        resp.region = region;
+        Callback<Object, Throwable> cb = new Callback<Object, Throwable>() {
+            @Override
+            protected void onSucceeded(Object value) {
+                if (value instanceof List || value instanceof Object[]) {
+                    // arrays might be large, e.g. listing resources
+                    // serialize when writing into the out buffer
+                    ReadableByteChannel stream;
                     try {
-                        bytes = Serializer.from(value);
+                        stream = Serializer.stream(value);
                     } catch (IllegalArgumentException e) {
                         Logger.error(LogType.IMPROPER_USE, "user returned an unexpected object", e);
-                        ctx.write(Serializer.fromErrorString("Internal Error"));
+                        respond(ctx, resp, Serializer.fromErrorString("Internal Error"));
                         return;
                     }
-                    ctx.write(bytes);
+                    respond(ctx, resp, stream);
+                    return;
                 }
-
-                @Override
-                protected void onFailed(Throwable err) {
-                    Logger.info(LogType.USER_HANDLE_FAIL, "user handling failed in RESPProtocolHandler in conn: " + ctx.connectionId +
-                        " - " + err.getClass().getSimpleName() +
-                        " - " + Utils.formatErr(err));
-                    assert Logger.printStackTrace(err);
-                    String errStr = Utils.formatErr(err);
-                    ctx.write(Serializer.fromErrorString(errStr));
+                byte[] bytes;
+                try {
+                    bytes = Serializer.from(value);
+                } catch (IllegalArgumentException e) {
+                    Logger.error(LogType.IMPROPER_USE, "user returned an unexpected object", e);
+                    respond(ctx, resp, Serializer.fromErrorString("Internal Error"));
+                    return;
                 }
-            });
+                respond(ctx, resp, bytes);
+            }
+
+            @Override
+            protected void onFailed(Throwable err) {
+                Logger.info(LogType.USER_HANDLE_FAIL, "user handling failed in RESPProtocolHandler in conn: " + ctx.connectionId +
+                    " - " + err.getClass().getSimpleName() +
+                    " - " + Utils.formatErr(err));
+                assert Logger.printStackTrace(err);
+                String errStr = Utils.formatErr(err);
+                respond(ctx, resp, Serializer.fromErrorString(errStr));
+            }
+        };
+        // let user code handle the object
+        try {
+            //noinspection unchecked
+            handler.handle(o, ctx.data.attachment, cb);
         } catch (Throwable t) {
             Logger.error(LogType.IMPROPER_USE, "user handle function thrown error", t);
-            ctx.write(Serializer.fromErrorString("Internal Error"));
+            if (!cb.isCalled()) { // the callback may be called before throwing
+                respond(ctx, resp, Serializer.fromErrorString("Internal Error"));
+            }
+        }
+    }
+
+    // the callbacks may finish out of order and on any thread
+    private void respond(ProtocolHandlerContext<RESPContext> ctx, RESPContext.Response resp, byte[] bytes) {
+        RESPContext rctx = ctx.data;
+        synchronized (rctx) {
+            resp.bytes = bytes;
+            ready(ctx, resp);
+        }
+    }
+
+    private void respond(ProtocolHandlerContext<RESPContext> ctx, RESPContext.Response resp, ReadableByteChannel stream) {
+        RESPContext rctx = ctx.data;
+        synchronized (rctx) {
+            resp.stream = stream;
+            ready(ctx, resp);
+        }
+    }
+
+    // NOTE: must be called when holding the lock of ctx.data
+    private void ready(ProtocolHandlerContext<RESPContext> ctx, RESPContext.Response resp) {
+        if (resp.region != null) {
+            // a stream may still read from the views in the region
+            // so only reuse it when responding with bytes
+            if (resp.stream == null) {
+                releaseRegion(resp.region);
+            }
+            resp.region = null;
+        }
+        resp.ready = true;
+        if (resp.bytes != null) {
+            ctx.data.pendingBytes += resp.bytes.length;
+        }
+        assert Logger.lowLevelDebug("response " + resp.seq + " is ready for conn: " + ctx.connectionId);
+        flush(ctx);
+    }
+
+    // write the ready responses at the head of the queue
+    // consecutive bytes are merged into one `write`
+    // NOTE: must be called when holding the lock of ctx.data
+    private void flush(ProtocolHandlerContext<RESPContext> ctx) {
+        RESPContext rctx = ctx.data;
+        if (rctx.batching)
+            return; // will flush after the batch is parsed
+        RESPContext.Response r;
+        // write inside the lock to keep the order
+        boolean polled = false;
+        while ((r = rctx.responses.peek()) != null && r.ready) { // the responses after a not ready one must wait
+            rctx.responses.poll();
+            polled = true;
+            if (r.stream == null) {
+                rctx.pendingBytes -= r.bytes.length;
+                rctx.toFlush.add(r.bytes);
+                continue;
+            }
+            flushBytes(ctx);
+            ctx.write(r.stream);
+        }
+        flushBytes(ctx);
+        if (polled && rctx.paused) {
+            rctx.paused = false;
+            // do not parse inside the lock or recursively
+            ctx.eventLoop.getSelectorEventLoop().nextTick(rctx.resume);
+        }
+    }
+
+    private void flushBytes(ProtocolHandlerContext<RESPContext> ctx) {
+        ArrayList<byte[]> toFlush = ctx.data.toFlush;
+        if (toFlush.isEmpty())
+            return;
+        byte[] bytes;
+        if (toFlush.size() == 1) {
+            bytes = toFlush.get(0);
+        } else {
+            int total = 0;
+            for (byte[] b : toFlush) {
+                total += b.length;
+            }
+            bytes = new byte[total];
+            int off = 0;
+            for (byte[] b : toFlush) {
+                System.arraycopy(b, 0, bytes, off, b.length);
+                off += b.length;
+            }
         }
+        toFlush.clear();
+        ctx.write(bytes);
     }
 
     @Override
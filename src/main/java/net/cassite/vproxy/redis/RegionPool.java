@@ -0,0 +1,47 @@
+package net.cassite.vproxy.redis;
+
+import net.cassite.vproxy.util.ThreadSafe;
+
+import java.util.ArrayDeque;
+
+/**
+ * byte arrays holding bulk string bodies of requests<br>
+ * one request takes one region (or more if the bodies do not fit),
+ * the region is given back when the request is handled
+ */
+public class RegionPool {
+    private final int regionSize;
+    private final int maxFree;
+    private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+
+    public RegionPool(int regionSize, int maxFree) {
+        this.regionSize = regionSize;
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * @return an array with length >= minSize
+     */
+    @ThreadSafe
+    public byte[] get(int minSize) {
+        if (minSize > regionSize)
+            return new byte[minSize]; // too large to be pooled
+        synchronized (free) {
+            byte[] region = free.pollLast();
+            if (region != null)
+                return region;
+        }
+        return new byte[regionSize];
+    }
+
+    @ThreadSafe
+    public void release(byte[] region) {
+        if (region.length != regionSize)
+            return; // not pooled
+        synchronized (free) {
+            if (free.size() < maxFree) {
+                free.addLast(region);
+            }
+        }
+    }
+}
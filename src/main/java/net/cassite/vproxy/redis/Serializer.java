@@ -1,5 +1,11 @@
 package net.cassite.vproxy.redis;
 
+import net.cassite.vproxy.redis.entity.*;
+import net.cassite.vproxy.util.ByteView;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 
@@ -7,88 +13,154 @@ public class Serializer {
     private Serializer() {
     }
 
-    private static String _nullStr = "$-1\r\n";
-    private static byte[] _null = _nullStr.getBytes();
+    private static final byte[] _null = "$-1\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] _nullArray = "*-1\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.UTF_8);
 
     public static byte[] fromNull() {
         return _null;
     }
 
-    private static String fromNullToString() {
-        return _nullStr;
+    public static byte[] fromInteger(int i) {
+        return fromLong(i);
     }
 
-    public static byte[] fromInteger(int i) {
-        return fromIntegerToString(i).getBytes();
+    private static byte[] fromLong(long l) {
+        return header(':', l);
     }
 
-    private static String fromIntegerToString(int i) {
-        return ":" + i + "\r\n";
+    public static byte[] fromString(String s) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeString(out, s);
+        return out.toByteArray();
     }
 
-    private static byte[] fromLong(long l) {
-        return fromLongToString(l).getBytes();
+    public static byte[] fromErrorString(String e) {
+        return ("-" + e + "\r\n").getBytes(StandardCharsets.UTF_8);
     }
 
-    private static String fromLongToString(long l) {
-        return ":" + l + "\r\n";
+    public static byte[] fromArray(List<Object> arr) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeArray(out, arr);
+        return out.toByteArray();
     }
 
-    public static byte[] fromString(String s) {
-        return fromStringToString(s).getBytes();
+    public static byte[] fromArray(Object[] arr) {
+        return fromArray(Arrays.asList(arr));
     }
 
-    private static String fromStringToString(String s) {
-        return "$" + s.length() + "\r\n" + s + "\r\n";
+    public static byte[] from(Object o) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeObject(out, o);
+        return out.toByteArray();
     }
 
-    public static byte[] fromErrorString(String e) {
-        return fromErrorToString(e).getBytes();
+    /**
+     * the bytes are generated when reading from the returned channel,
+     * so a large array does not have to be serialized into memory at once
+     *
+     * @throws IllegalArgumentException the object or its elements are not supported
+     */
+    public static ReadableByteChannel stream(Object o) {
+        check(o);
+        return new StreamingSerializer(o);
     }
 
-    private static String fromErrorToString(String e) {
-        return "-" + e + "\r\n";
+    // e.g. `*3\r\n` or `:1\r\n`
+    static byte[] header(char type, long n) {
+        return (type + Long.toString(n) + "\r\n").getBytes(StandardCharsets.UTF_8);
     }
 
-    public static byte[] fromArray(List<Object> arr) {
-        return fromArrayToString(arr).getBytes();
+    // the length of a bulk string is the length of its utf-8 bytes
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        byte[] header = header('$', bytes.length);
+        out.write(header, 0, header.length);
+        out.write(bytes, 0, bytes.length);
+        out.write(CRLF, 0, CRLF.length);
     }
 
-    private static String fromArrayToString(List<Object> arr) {
-        StringBuilder sb = new StringBuilder("*" + arr.size() + "\r\n");
+    private static void writeArray(ByteArrayOutputStream out, List<?> arr) {
+        byte[] header = header('*', arr.size());
+        out.write(header, 0, header.length);
         for (Object o : arr) {
-            sb.append(fromObjectToString(o));
+            writeObject(out, o);
         }
-        return sb.toString();
-    }
-
-    public static byte[] fromArray(Object[] arr) {
-        return fromArray(Arrays.asList(arr));
     }
 
-    private static String fromArrayToString(Object[] arr) {
-        return fromArrayToString(Arrays.asList(arr));
-    }
-
-    private static String fromObjectToString(Object o) {
-        if (o == null)
-            return fromNullToString();
-        if (o instanceof Integer)
-            return fromIntegerToString((Integer) o);
-        if (o instanceof Long)
-            return fromLongToString((Long) o);
-        if (o instanceof String)
-            return fromStringToString((String) o);
-        if (o instanceof Object[])
-            return fromArrayToString((Object[]) o);
-        if (o instanceof List) {
-            //noinspection unchecked
-            return fromArrayToString((List) o);
+    private static void writeObject(ByteArrayOutputStream out, Object o) {
+        if (o == null) {
+            out.write(_null, 0, _null.length);
+        } else if (o instanceof Integer || o instanceof Long) {
+            byte[] bytes = fromLong(((Number) o).longValue());
+            out.write(bytes, 0, bytes.length);
+        } else if (o instanceof String) {
+            writeString(out, (String) o);
+        } else if (o instanceof ByteView) {
+            ByteView v = (ByteView) o;
+            byte[] header = header('$', v.length());
+            out.write(header, 0, header.length);
+            v.writeTo(out);
+            out.write(CRLF, 0, CRLF.length);
+        } else if (o instanceof RESP) {
+            writeRESP(out, (RESP) o);
+        } else if (o instanceof Object[]) {
+            writeArray(out, Arrays.asList((Object[]) o));
+        } else if (o instanceof List) {
+            writeArray(out, (List<?>) o);
+        } else {
+            throw new IllegalArgumentException("unsupported object type " + o.getClass() + "(" + o + ")");
         }
-        throw new IllegalArgumentException("unsupported object type " + o.getClass() + "(" + o + ")");
     }
 
-    public static byte[] from(Object o) {
-        return fromObjectToString(o).getBytes();
+    // parsed entities are written as they are, e.g. replies from a redis server
+    // simple strings and errors are parsed byte by byte into chars, so write them back as latin-1
+    private static void writeRESP(ByteArrayOutputStream out, RESP resp) {
+        byte[] bytes;
+        if (resp instanceof RESPString) {
+            bytes = ("+" + ((RESPString) resp).string + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        } else if (resp instanceof RESPError) {
+            bytes = ("-" + ((RESPError) resp).error + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        } else if (resp instanceof RESPInline) {
+            bytes = ("+" + ((RESPInline) resp).string + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        } else if (resp instanceof RESPInteger) {
+            bytes = fromLong(((RESPInteger) resp).integer);
+        } else if (resp instanceof RESPBulkString) {
+            RESPBulkString bs = (RESPBulkString) resp;
+            if (bs.bytes == null) {
+                bytes = _null;
+            } else {
+                writeObject(out, bs.view());
+                return;
+            }
+        } else {
+            RESPArray arr = (RESPArray) resp;
+            if (arr.isNull()) {
+                bytes = _nullArray;
+            } else {
+                writeArray(out, arr.array);
+                return;
+            }
+        }
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // validate the object before streaming
+    // an error found in the middle of the stream cannot be responded
+    private static void check(Object o) {
+        if (o == null || o instanceof Integer || o instanceof Long || o instanceof String || o instanceof ByteView
+            || o instanceof RESP)
+            return;
+        if (o instanceof Object[]) {
+            for (Object e : (Object[]) o) {
+                check(e);
+            }
+        } else if (o instanceof List) {
+            for (Object e : (List<?>) o) {
+                check(e);
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported object type " + o.getClass() + "(" + o + ")");
+        }
     }
 }
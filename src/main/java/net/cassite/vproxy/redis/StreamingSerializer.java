@@ -0,0 +1,93 @@
+package net.cassite.vproxy.redis;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * serialize an object into resp bytes lazily<br>
+ * only the element being read is held as bytes, arrays are walked with a stack of iterators,
+ * so when the reader stops (e.g. the out buffer is full), nothing more is generated<br>
+ * use {@link Serializer#stream(Object)} to create, the object should not be modified until fully read
+ */
+class StreamingSerializer implements ReadableByteChannel {
+    // iterators of the arrays being serialized, the innermost one is at the head
+    private final ArrayDeque<Iterator<?>> arrays = new ArrayDeque<>();
+    private byte[] chunk;
+    private int chunkOff;
+    private boolean open = true;
+
+    StreamingSerializer(Object o) {
+        encode(o);
+    }
+
+    // set the chunk to the bytes of the object,
+    // or the header of the array and push the array for elements
+    private void encode(Object o) {
+        List<?> list;
+        if (o instanceof Object[]) {
+            list = Arrays.asList((Object[]) o);
+        } else if (o instanceof List) {
+            list = (List<?>) o;
+        } else {
+            chunk = Serializer.from(o);
+            chunkOff = 0;
+            return;
+        }
+        chunk = Serializer.header('*', list.size());
+        chunkOff = 0;
+        arrays.push(list.iterator());
+    }
+
+    // returns false if nothing more to generate
+    private boolean next() {
+        Iterator<?> ite;
+        while ((ite = arrays.peek()) != null) {
+            if (ite.hasNext()) {
+                encode(ite.next());
+                return true;
+            }
+            arrays.pop();
+        }
+        return false;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        if (!open)
+            return -1;
+        int n = 0;
+        while (dst.hasRemaining()) {
+            if (chunkOff == chunk.length) {
+                if (!next()) {
+                    open = false;
+                    chunk = null;
+                    break;
+                }
+                continue;
+            }
+            int len = Math.min(dst.remaining(), chunk.length - chunkOff);
+            dst.put(chunk, chunkOff, len);
+            chunkOff += len;
+            n += len;
+        }
+        if (n == 0 && !open)
+            return -1;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        chunk = null;
+        arrays.clear();
+    }
+}
@@ -1,6 +1,8 @@
 package net.cassite.vproxy.redis.application;
 
+import net.cassite.vproxy.component.exception.XException;
 import net.cassite.vproxy.redis.RESPHandler;
+import net.cassite.vproxy.util.ByteView;
 import net.cassite.vproxy.util.Callback;
 import net.cassite.vproxy.util.Logger;
 
@@ -11,9 +13,56 @@ public class RESPApplicationHandler implements RESPHandler<RESPApplicationContex
     private final RESPApplicationConfig config;
     private final RESPApplication app;
 
+    // built once when the handler is created
+    private final List<RESPCommand> commands;
+    private final RESPCommandTable table;
+    private final RESPCommandTable.Entry auth;
+    private final RESPCommandTable.Entry ping;
+    private final RESPCommandTable.Entry command;
+    private final List<RESPCommandStats> stats;
+
     public RESPApplicationHandler(RESPApplicationConfig config, RESPApplication app) {
         this.config = config;
         this.app = app;
+
+        List<RESPCommand> commands = app.commands();
+        if (commands == null)
+            commands = Collections.emptyList(); // the user did not provide
+        this.commands = commands;
+
+        List<RESPCommandTable.Entry> entries = new ArrayList<>(commands.size() + 3);
+        // built-in commands are handled before the user commands
+        auth = new RESPCommandTable.Entry("auth", null);
+        ping = new RESPCommandTable.Entry("ping", null);
+        command = new RESPCommandTable.Entry("command", null);
+        entries.add(auth);
+        entries.add(ping);
+        entries.add(command);
+        for (RESPCommand c : commands) {
+            entries.add(new RESPCommandTable.Entry(c.name, c));
+        }
+        table = new RESPCommandTable(entries);
+
+        List<RESPCommandStats> stats = new ArrayList<>(entries.size());
+        for (RESPCommandTable.Entry e : entries) {
+            stats.add(e.stats);
+        }
+        this.stats = Collections.unmodifiableList(stats);
+    }
+
+    private static final byte[] COUNT = "count".getBytes();
+    private static final byte[] INFO = "info".getBytes();
+
+    // arguments are ByteViews instead of Strings when raw bulk string is enabled
+    private static boolean isString(Object arg) {
+        return arg instanceof String || arg instanceof ByteView;
+    }
+
+    /**
+     * statistics of built-in and user provided commands
+     */
+    public List<RESPCommandStats> getCommandStats() {
+        return stats;
     }
 
     @Override
@@ -23,211 +72,88 @@ public class RESPApplicationHandler implements RESPHandler<RESPApplicationContex
         return ctx;
     }
 
-    // false for auth fail or not auth
-    private boolean handleAuth(Object input) {
-        if (config.password == null)
-            return false; // password not specified
-        String pass;
+    // the command and its arguments
+    // inline commands are split only once here
+    // null if it's not a command
+    private static List<Object> args(Object input) {
+        List<Object> args;
         if (input instanceof List) {
-            List ls = (List) input;
-            if (ls.size() != 2) {
-                assert Logger.lowLevelDebug("input ls length is not 2, ignore auth");
-                return false; // should be AUTH xxx, so size != 2 we ignore
-            }
-            Object arg0 = ls.get(0);
-            Object arg1 = ls.get(1);
-            // both should be String
-            if (!(arg0 instanceof String) || !(arg1 instanceof String)) {
-                assert Logger.lowLevelDebug("arg0 " + arg0 + " or arg1 " + arg1 + " not string, ignore auth");
-                return false;
-            }
-            if (!arg0.equals("AUTH") && !arg0.equals("auth")) {
-                assert Logger.lowLevelDebug("arg0 " + arg0 + " is not AUTH or auth");
-                return false; // command is not AUTH
-            }
-            pass = (String) arg1;
+            args = (List<Object>) input;
         } else if (input instanceof String) {
-            String[] inStr = ((String) input).split(" ");
-            if (inStr.length != 2) {
-                assert Logger.lowLevelDebug("input strs length is not 2, ignore auth");
-                return false; // should be AUTH xxx, so size != 2 we ignore
-            }
-            if (!inStr[0].equals("AUTH") && inStr[0].equals("auth")) {
-                assert Logger.lowLevelDebug("strs[0] " + inStr[0] + " is not AUTH or auth");
-                return false; // command is not AUTH
-            }
-            pass = inStr[1];
+            args = Arrays.asList((Object[]) ((String) input).split(" "));
         } else {
-            // otherwise is not AUTH
+            return null;
+        }
+        if (args.isEmpty() || !isString(args.get(0)))
+            return null;
+        return args;
+    }
+
+    // false for auth fail or not auth
+    private boolean handleAuth(List<Object> args) {
+        if (config.password == null)
+            return false; // password not specified
+        if (args.size() != 2) {
+            assert Logger.lowLevelDebug("input length is not 2, ignore auth");
+            return false; // should be AUTH xxx, so size != 2 we ignore
+        }
+        Object arg1 = args.get(1);
+        if (!isString(arg1)) {
+            assert Logger.lowLevelDebug("arg1 " + arg1 + " not string, ignore auth");
             return false;
         }
+        byte[] pass = arg1 instanceof ByteView
+            ? ((ByteView) arg1).toBytes()
+            : ((String) arg1).getBytes();
 
-        assert Logger.lowLevelDebug("it's auth, input password is " + pass);
+        assert Logger.lowLevelDebug("it's auth, input password is " + new String(pass));
         // it's definitely auth operation when reaches here
-        byte[] hash = RESPApplicationConfig.hashCrypto.apply(pass.getBytes());
+        byte[] hash = RESPApplicationConfig.hashCrypto.apply(pass);
         // compare two arrays
         assert Logger.lowLevelDebug("matching result is " + Arrays.equals(hash, config.password));
         return Arrays.equals(hash, config.password);
     }
 
     // null for not PING
-    private String handlePing(Object input) {
-        String pongStr;
-        if (input instanceof List) {
-            List ls = (List) input;
-            if (ls.size() == 0 || ls.size() > 2) {
-                return null; // should be PING [xxx], so size == 0 or > 2 we ignore
-            }
-            Object arg0 = ls.get(0);
-            // both should be String
-            if (!(arg0 instanceof String)) {
-                return null;
-            }
-            if (!arg0.equals("PING") && !arg0.equals("ping")) {
-                return null; // command is not PING
-            }
-            if (ls.size() == 2) {
-                if (ls.get(1) instanceof String) {
-                    pongStr = (String) ls.get(1);
-                } else {
-                    return null; // the second object is not String, so we ignore
-                }
-            } else {
-                pongStr = null; // pongStr is not specified
-            }
-        } else if (input instanceof String) {
-            String[] inStr = ((String) input).split(" ");
-            if (inStr.length == 0 || inStr.length > 2)
-                return null; // should be PING [xxx], so size == 0 or > 2 we ignore
-            if (!inStr[0].equals("PING") && !inStr[0].equals("ping"))
-                return null; // command is not PING
-            if (inStr.length == 2) {
-                pongStr = inStr[1];
-            } else {
-                pongStr = null;
-            }
-        } else {
-            // otherwise is not PING
-            return null;
+    private Object handlePing(List<Object> args) {
+        if (args.size() > 2) {
+            return null; // should be PING [xxx], so size > 2 we ignore
         }
-        // it's definitely ping operation when reaches here
-        if (pongStr == null) {
-            return "PONG";
-        } else {
-            return pongStr;
+        if (args.size() == 1) {
+            return "PONG"; // pongStr is not specified
+        }
+        Object pongStr = args.get(1);
+        if (!isString(pongStr)) {
+            return null; // the second object is not String, so we ignore
         }
+        return pongStr;
     }
 
     // null for not COMMAND or COMMAND related ops
-    private Object handleCmd(Object input) {
-        boolean isReturnNum;
-        List<String> requestedCmds;
-
-        if (input instanceof List) {
-            List inList = (List) input;
-            if (inList.isEmpty()) {
-                return null; // not command
-            } else if (inList.size() == 1) {
-                if (!(inList.get(0) instanceof String))
-                    return null; // not string
-                String arg0 = (String) inList.get(0);
-                if (!arg0.equals("COMMAND") && !arg0.equals("command")) {
-                    return null; // not command
-                } else {
-                    isReturnNum = false;
-                    requestedCmds = null;
-                }
-            } else if (inList.size() == 2) {
-                if (!(inList.get(0) instanceof String))
-                    return null; // not string
-                if (!(inList.get(1) instanceof String))
-                    return null; // not string
-                String arg0 = (String) inList.get(0);
-                String arg1 = (String) inList.get(1);
-                if ((!arg0.equals("COMMAND") && !arg0.equals("command")) ||
-                    (!arg1.equals("COUNT") && !arg1.equals("count"))
-                ) {
-                    return null; // not command
-                } else {
-                    isReturnNum = true;
-                    requestedCmds = null;
-                }
-            } else {
-                if (!(inList.get(0) instanceof String))
-                    return null; // not string
-                if (!(inList.get(1) instanceof String))
-                    return null; // not string
-                String arg0 = (String) inList.get(0);
-                String arg1 = (String) inList.get(1);
-                if ((!arg0.equals("COMMAND") && !arg0.equals("command")) ||
-                    (!arg1.equals("INFO") && !arg1.equals("info"))
-                ) {
-                    return null; // not command
-                } else {
-                    isReturnNum = false;
-                    requestedCmds = new LinkedList<>(((List) input).subList(2, ((List) input).size()));
-                }
-            }
-        } else if (input instanceof String) {
-            String[] inList = ((String) input).split(" ");
-            if (inList.length == 0) {
-                return null; // not command
-            } else if (inList.length == 1) {
-                if (!inList[0].equals("COMMAND") && !inList[0].equals("command")) {
-                    return null; // not command
-                } else {
-                    isReturnNum = false;
-                    requestedCmds = null;
-                }
-            } else if (inList.length == 2) {
-                if ((!inList[0].equals("COMMAND") && !inList[0].equals("command")) ||
-                    (!inList[1].equals("COUNT") && !inList[1].equals("count"))
-                ) {
-                    return null; // not command count
-                } else {
-                    isReturnNum = true;
-                    requestedCmds = null;
-                }
-            } else {
-                if ((!inList[0].equals("COMMAND") && !inList[0].equals("command")) ||
-                    (!inList[1].equals("INFO") && !inList[1].equals("info"))
-                ) {
-                    return null; // not command info
-                } else {
-                    isReturnNum = false;
-                    requestedCmds = new LinkedList<>(Arrays.asList(inList).subList(2, inList.length));
-                }
-            }
-        } else {
-            return null;
-        }
-
-        // is command related commands when reach here
-
-        List<RESPCommand> commands = app.commands();
-        if (commands == null)
-            commands = Collections.emptyList(); // the user did not provide
-        if (isReturnNum) {
-            return commands.size(); // return for COMMAND COUNT
-        }
-        if (requestedCmds == null) {
+    private Object handleCmd(List<Object> args) {
+        if (args.size() == 1) {
+            // return for COMMAND
             List<List> ls = new LinkedList<>();
             for (RESPCommand c : commands) {
                 ls.add(c.toList());
             }
-            return ls; // return for COMMAND
+            return ls;
         }
-        Map<String, RESPCommand> map = new HashMap<>();
-        for (RESPCommand c : commands) {
-            map.put(c.name.toLowerCase(), c);
-            map.put(c.name.toUpperCase(), c);
+        Object arg1 = args.get(1);
+        if (args.size() == 2) {
+            if (!RESPCommandTable.matches(arg1, COUNT))
+                return null; // not command count
+            return commands.size(); // return for COMMAND COUNT
         }
+        if (!RESPCommandTable.matches(arg1, INFO))
+            return null; // not command info
         List<List> ls = new LinkedList<>();
-        for (String s : requestedCmds) {
-            if (map.containsKey(s)) {
-                ls.add(map.get(s).toList());
-            } else {
+        for (Object name : args.subList(2, args.size())) {
+            RESPCommandTable.Entry e = table.get(name);
+            if (e == null || e.command == null) {
                 ls.add(null);
+            } else {
+                ls.add(e.command.toList());
             }
         }
         return ls; // return for COMMAND INFO
@@ -235,7 +161,27 @@ public class RESPApplicationHandler implements RESPHandler<RESPApplicationContex
 
     @Override
     public void handle(Object input, RESPApplicationContext ctx, Callback<Object, Throwable> cb) {
-        if (handleAuth(input)) {
+        List<Object> args = args(input);
+        RESPCommandTable.Entry entry = args == null ? null : table.get(args.get(0));
+        if (entry != null) {
+            long start = System.nanoTime();
+            Callback<Object, Throwable> userCB = cb;
+            cb = new Callback<Object, Throwable>() {
+                @Override
+                protected void onSucceeded(Object value) {
+                    entry.stats.record(start, false);
+                    userCB.succeeded(value);
+                }
+
+                @Override
+                protected void onFailed(Throwable err) {
+                    entry.stats.record(start, true);
+                    userCB.failed(err);
+                }
+            };
+        }
+
+        if (entry == auth && handleAuth(args)) {
             ctx.noAuth = false;
             cb.succeeded("OK");
             return;
@@ -250,10 +196,12 @@ public class RESPApplicationHandler implements RESPHandler<RESPApplicationContex
         // now, the connection is auth-ed
 
         // try handle PING
-        String str = handlePing(input);
-        if (str != null) {
-            cb.succeeded(str);
-            return;
+        if (entry == ping) {
+            Object str = handlePing(args);
+            if (str != null) {
+                cb.succeeded(str);
+                return;
+            }
         }
 
         // try handle COMMAND
@@ -262,9 +210,16 @@ public class RESPApplicationHandler implements RESPHandler<RESPApplicationContex
         // on starting
         // if user code doesn't provide the list,
         // we return our own
-        Object cmdRes = handleCmd(input);
-        if (cmdRes != null) {
-            cb.succeeded(cmdRes);
+        if (entry == command) {
+            Object cmdRes = handleCmd(args);
+            if (cmdRes != null) {
+                cb.succeeded(cmdRes);
+                return;
+            }
+        }
+
+        if (entry != null && !entry.arityMatches(args.size() - 1)) {
+            cb.failed(new XException("ERR wrong number of arguments for '" + entry.stats.name + "' command"));
             return;
         }
 
@@ -0,0 +1,40 @@
+package net.cassite.vproxy.redis.application;
+
+import net.cassite.vproxy.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * invocations of one command, the latency is from dispatching to the callback being called (in nanoseconds)
+ */
+public class RESPCommandStats {
+    public final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    public final LatencyHistogram latency = new LatencyHistogram();
+
+    RESPCommandStats(String name) {
+        this.name = name;
+    }
+
+    void record(long startNanos, boolean failed) {
+        calls.increment();
+        if (failed) {
+            failures.increment();
+        }
+        latency.record(System.nanoTime() - startNanos);
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + " calls " + getCalls() + " failures " + getFailures() + " latency(ns) " + latency;
+    }
+}
@@ -0,0 +1,140 @@
+package net.cassite.vproxy.redis.application;
+
+import net.cassite.vproxy.util.ByteView;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * lookup commands by name ignoring case, built once and never modified<br>
+ * the name argument can be a String or a ByteView, it's not copied or decoded when looking up
+ */
+class RESPCommandTable {
+    static class Entry {
+        final byte[] name; // ascii lower case
+        final RESPCommand command; // null for built-in commands
+        final RESPCommandStats stats;
+
+        Entry(String name, RESPCommand command) {
+            this.name = name.toLowerCase().getBytes(StandardCharsets.UTF_8);
+            this.command = command;
+            this.stats = new RESPCommandStats(name.toLowerCase());
+        }
+
+        // the argument count is not including the command name
+        boolean arityMatches(int paramCount) {
+            if (command == null)
+                return true; // built-in commands check the arguments themselves
+            if (command.mayHaveMore)
+                return paramCount >= command.minParamCount;
+            return paramCount == command.minParamCount;
+        }
+    }
+
+    // open addressing, the length is a power of 2 and at least twice the entry count
+    private final Entry[] slots;
+
+    RESPCommandTable(List<Entry> entries) {
+        int len = 8;
+        while (len < entries.size() * 2) {
+            len <<= 1;
+        }
+        slots = new Entry[len];
+        for (Entry e : entries) {
+            int idx = hash(e.name) & (len - 1);
+            boolean dup = false;
+            while (slots[idx] != null) {
+                if (matches(e.name, slots[idx].name)) {
+                    dup = true; // the first one wins
+                    break;
+                }
+                idx = (idx + 1) & (len - 1);
+            }
+            if (!dup) {
+                slots[idx] = e;
+            }
+        }
+    }
+
+    private static int toLower(int c) {
+        if (c >= 'A' && c <= 'Z')
+            return c + ('a' - 'A');
+        return c;
+    }
+
+    private static int hash(byte[] name) {
+        int h = 0;
+        for (byte b : name) {
+            h = 31 * h + toLower(b);
+        }
+        return h & 0x7fffffff;
+    }
+
+    // -1 if not a valid name
+    private static int hash(Object arg) {
+        int h = 0;
+        if (arg instanceof ByteView) {
+            ByteView v = (ByteView) arg;
+            for (int i = 0; i < v.length(); ++i) {
+                h = 31 * h + toLower(v.get(i));
+            }
+        } else if (arg instanceof String) {
+            String s = (String) arg;
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                if (c > 127)
+                    return -1; // command names are ascii
+                h = 31 * h + toLower(c);
+            }
+        } else {
+            return -1;
+        }
+        return h & 0x7fffffff;
+    }
+
+    private static boolean matches(byte[] a, byte[] b) {
+        if (a.length != b.length)
+            return false;
+        for (int i = 0; i < a.length; ++i) {
+            if (toLower(a[i]) != toLower(b[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * check whether the argument is the name, ignoring case
+     */
+    static boolean matches(Object arg, byte[] name) {
+        if (arg instanceof ByteView)
+            return ((ByteView) arg).equalsIgnoreCase(name);
+        if (!(arg instanceof String))
+            return false;
+        String s = (String) arg;
+        if (s.length() != name.length)
+            return false;
+        for (int i = 0; i < name.length; ++i) {
+            if (toLower(s.charAt(i)) != toLower(name[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return null if not found
+     */
+    Entry get(Object arg) {
+        int h = hash(arg);
+        if (h == -1)
+            return null;
+        int mask = slots.length - 1;
+        int idx = h & mask;
+        Entry e;
+        while ((e = slots[idx]) != null) {
+            if (matches(arg, e.name))
+                return e;
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+}
@@ -2,4 +2,12 @@ package net.cassite.vproxy.redis.entity;
 
 public abstract class RESP {
     public abstract Object getJavaObject();
+
+    /**
+     * same as {@link #getJavaObject()} except that bulk strings are not decoded,
+     * they are {@link net.cassite.vproxy.util.ByteView}s of the parsed bytes
+     */
+    public Object getRawJavaObject() {
+        return getJavaObject();
+    }
 }
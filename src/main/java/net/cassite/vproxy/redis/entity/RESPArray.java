@@ -6,12 +6,19 @@ import java.util.LinkedList;
 import java.util.List;
 
 public class RESPArray extends RESP {
+    public int negative = 1; // -1 for the null array
     public int len;
     public Parser parser;
     public final LinkedList<RESP> array = new LinkedList<>();
 
+    public boolean isNull() {
+        return negative == -1;
+    }
+
     @Override
     public String toString() {
+        if (isNull())
+            return "RESP.Array(null)";
         StringBuilder sb = new StringBuilder();
         boolean isFirst = true;
         for (RESP r : array) {
@@ -26,10 +33,23 @@ public class RESPArray extends RESP {
 
     @Override
     public Object getJavaObject() {
+        if (isNull())
+            return null;
         List<Object> list = new LinkedList<>();
         for (RESP resp : array) {
             list.add(resp.getJavaObject());
         }
         return list;
     }
+
+    @Override
+    public Object getRawJavaObject() {
+        if (isNull())
+            return null;
+        List<Object> list = new LinkedList<>();
+        for (RESP resp : array) {
+            list.add(resp.getRawJavaObject());
+        }
+        return list;
+    }
 }
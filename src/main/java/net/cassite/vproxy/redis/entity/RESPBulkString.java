@@ -1,17 +1,36 @@
 package net.cassite.vproxy.redis.entity;
 
+import net.cassite.vproxy.util.ByteView;
+
+import java.nio.charset.StandardCharsets;
+
 public class RESPBulkString extends RESP {
     public int negative = 1;
-    public int len;
-    public StringBuilder string; // may be null
+    public int len; // bytes left to read when parsing
+    public byte[] bytes; // may be null, the body may be a part of the array
+    public int offset;
+    public int length;
+
+    public String string() {
+        return bytes == null ? null : new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    public ByteView view() {
+        return bytes == null ? null : new ByteView(bytes, offset, length);
+    }
 
     @Override
     public String toString() {
-        return "RESP.BulkString(" + string + ")";
+        return "RESP.BulkString(" + string() + ")";
     }
 
     @Override
     public Object getJavaObject() {
-        return string == null ? null : string.toString();
+        return string();
+    }
+
+    @Override
+    public Object getRawJavaObject() {
+        return view();
     }
 }
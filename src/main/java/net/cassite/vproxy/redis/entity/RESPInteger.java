@@ -2,7 +2,7 @@ package net.cassite.vproxy.redis.entity;
 
 public class RESPInteger extends RESP {
     public int negative = 1;
-    public int integer;
+    public long integer;
 
     @Override
     public String toString() {
@@ -0,0 +1,67 @@
+package net.cassite.vproxy.selector;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * an array backed set replacing the HashSet inside the jdk selector<br>
+ * the selector only adds keys into the set, and a key is added at most once in one select,
+ * so it's safe to skip the duplication check
+ */
+class SelectedKeySet extends AbstractSet<SelectionKey> {
+    SelectionKey[] keys = new SelectionKey[1024];
+    int size = 0;
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null)
+            return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    void reset() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return keys[idx++];
+            }
+        };
+    }
+}
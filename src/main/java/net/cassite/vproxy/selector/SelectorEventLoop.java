@@ -3,7 +3,10 @@ package net.cassite.vproxy.selector;
 import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -16,11 +19,84 @@ public class SelectorEventLoop {
         Object att;
     }
 
+    /**
+     * statistics of one interval, see {@link #getLastInterval()}
+     */
+    public static class IntervalStats {
+        public final long intervalNanos;
+        public final long selectNanos; // waiting in select()
+        public final long handlingNanos; // handling selected keys
+        public final long nonSelectNanos; // running nextTick, runOnLoop and timer events
+        public final long iterations;
+        public final int maxRunOnLoopQueueDepth; // max events queued by runOnLoop/nextTick in one iteration
+        public final long maxTimerLatenessMillis; // max of actual fire time minus scheduled time
+        public final long slowestCallbackNanos;
+        public final String slowestCallback; // the channel or the task class of the slowest callback, null if none
+
+        IntervalStats(long intervalNanos, long selectNanos, long handlingNanos, long nonSelectNanos, long iterations,
+                      int maxRunOnLoopQueueDepth, long maxTimerLatenessMillis,
+                      long slowestCallbackNanos, String slowestCallback) {
+            this.intervalNanos = intervalNanos;
+            this.selectNanos = selectNanos;
+            this.handlingNanos = handlingNanos;
+            this.nonSelectNanos = nonSelectNanos;
+            this.iterations = iterations;
+            this.maxRunOnLoopQueueDepth = maxRunOnLoopQueueDepth;
+            this.maxTimerLatenessMillis = maxTimerLatenessMillis;
+            this.slowestCallbackNanos = slowestCallbackNanos;
+            this.slowestCallback = slowestCallback;
+        }
+
+        /**
+         * @return 0 to 1, time not spent in select() in the interval
+         */
+        public double getBusyRatio() {
+            if (intervalNanos == 0)
+                return 0;
+            return Math.min(1, (double) (handlingNanos + nonSelectNanos) / intervalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "busy " + String.format("%.1f", getBusyRatio() * 100) + "%"
+                + " select-ms " + selectNanos / 1_000_000
+                + " handling-ms " + handlingNanos / 1_000_000
+                + " non-select-ms " + nonSelectNanos / 1_000_000
+                + " iterations " + iterations
+                + " max-queue-depth " + maxRunOnLoopQueueDepth
+                + " max-timer-lateness-ms " + maxTimerLatenessMillis
+                + " slowest-callback-us " + slowestCallbackNanos / 1_000
+                + (slowestCallback == null ? "" : " (" + slowestCallback + ")");
+        }
+    }
+
+    // the interval statistics are published every STATS_INTERVAL
+    private static final long STATS_INTERVAL_NANOS = 5_000_000_000L;
+    // the busy ewma is updated at most once in BUSY_EWMA_UPDATE
+    // and the weight of history decays with BUSY_EWMA_DECAY
+    private static final long BUSY_EWMA_UPDATE_NANOS = 100_000_000L;
+    private static final double BUSY_EWMA_DECAY_NANOS = 1_000_000_000d;
+
+    private static final com.sun.management.ThreadMXBean threadMXBean;
+
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            threadMXBean = null;
+        }
+    }
+
     private final Selector selector;
-    private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
+    private final SelectedKeySet selectedKeys; // null if the selector is not optimized
+    private final TimeQueue<Runnable> timeQueue;
     private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
+    // reuse the arrays for batches, do not allocate on each iteration
+    private Runnable[] runOnLoopBatch = new Runnable[16];
+    private Runnable[] timeEventBatch = new Runnable[16];
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
-    public Thread runningThread;
+    public volatile Thread runningThread;
 
     // these locks are a little tricky
     // see comments in loop() and close()
@@ -29,12 +105,101 @@ public class SelectorEventLoop {
     // see comments in add()/modify()/remove() and loop()
     private final Object OPERATE_SELECTOR_LOCK = new Object();
 
-    private SelectorEventLoop() throws IOException {
+    // statistics fields
+    // only modified on loop thread, other threads might read a stale value
+    private boolean recordAllocation = false;
+    private long allocatedBytes = 0;
+    private long recordedIterations = 0;
+    private long iterations = 0;
+    private long selectWaitNanos = 0; // time spent in select()
+    private long handlingNanos = 0; // time spent handling selected keys
+    private long nonSelectNanos = 0; // time spent in handleNonSelectEvents()
+    private long tasks = 0; // selected keys handled and runnables run
+    private long timerEvents = 0;
+    private long timerLatenessMillis = 0; // sum of lateness of all timer events
+    // values of current interval, published into lastInterval when the interval ends
+    private long intervalStart = System.nanoTime();
+    private long intervalSelectNanos = 0;
+    private long intervalHandlingNanos = 0;
+    private long intervalNonSelectNanos = 0;
+    private long intervalIterations = 0;
+    private int intervalMaxQueueDepth = 0;
+    private long intervalMaxTimerLateness = 0;
+    private long intervalSlowestNanos = 0;
+    private Object intervalSlowest = null; // the channel or the runnable
+    private volatile IntervalStats lastInterval = new IntervalStats(0, 0, 0, 0, 0, 0, 0, 0, null);
+    // ewma of the busy ratio, read from other threads when selecting a loop
+    private long busyEwmaLastBusyNanos = 0;
+    private volatile long busyEwmaUpdateTime = System.nanoTime();
+    private volatile double busyEwma = 0;
+
+    private SelectorEventLoop(TimeQueueType timeQueueType, boolean arraySelectedKeys) throws IOException {
         this.selector = Selector.open();
+        this.timeQueue = TimeQueue.create(timeQueueType);
+        this.selectedKeys = arraySelectedKeys ? replaceSelectedKeys(selector) : null;
     }
 
     public static SelectorEventLoop open() throws IOException {
-        return new SelectorEventLoop();
+        return open(TimeQueueType.heap);
+    }
+
+    public static SelectorEventLoop open(TimeQueueType timeQueueType) throws IOException {
+        return open(timeQueueType, true);
+    }
+
+    /**
+     * @param arraySelectedKeys try to replace the HashSet of selected keys in the selector with an array,
+     *                          the HashSet is kept if replacing fails
+     */
+    public static SelectorEventLoop open(TimeQueueType timeQueueType, boolean arraySelectedKeys) throws IOException {
+        return new SelectorEventLoop(timeQueueType, arraySelectedKeys);
+    }
+
+    // the fields are not public api
+    // the replacing might fail in some jdk versions
+    private static SelectedKeySet replaceSelectedKeys(Selector selector) {
+        SelectedKeySet set = new SelectedKeySet();
+        try {
+            Class<?> implClass = Class.forName("sun.nio.ch.SelectorImpl");
+            if (!implClass.isInstance(selector))
+                return null;
+            Field selectedKeysField = implClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = implClass.getDeclaredField("publicSelectedKeys");
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            selectedKeysField.set(selector, set);
+            publicSelectedKeysField.set(selector, set);
+        } catch (Throwable t) {
+            assert Logger.lowLevelDebug("replacing selected keys failed, use the default one: " + t);
+            return null;
+        }
+        return set;
+    }
+
+    // a task with a fallback, see runOnLoop(Runnable, Runnable)
+    private static class DroppableTask implements Runnable {
+        final Runnable task;
+        final Runnable dropped;
+
+        DroppableTask(Runnable task, Runnable dropped) {
+            this.task = task;
+            this.dropped = dropped;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    // the loop is not running and will never run, run the fallbacks of the queued tasks
+    private void dropRunOnLoopEvents() {
+        Runnable r;
+        while ((r = runOnLoopEvents.poll()) != null) {
+            if (r instanceof DroppableTask) {
+                tryRunnable(((DroppableTask) r).dropped);
+            }
+        }
     }
 
     private void tryRunnable(Runnable r) {
@@ -46,81 +211,168 @@ public class SelectorEventLoop {
         }
     }
 
-    private void handleNonSelectEvents() {
+    // the time of the end of the last callback, or when the handling starts
+    // so the cost of each callback is calculated with one System.nanoTime() call
+    private long lastCallbackEnd;
+
+    private void callbackDone(Object callback) {
+        long now = System.nanoTime();
+        long cost = now - lastCallbackEnd;
+        lastCallbackEnd = now;
+        if (cost > intervalSlowestNanos) {
+            intervalSlowestNanos = cost;
+            intervalSlowest = callback;
+        }
+    }
+
+    private void handleNonSelectEvents(long now) {
         handleRunOnLoopEvents();
-        handleTimeEvents();
+        handleTimeEvents(now);
     }
 
     private void handleRunOnLoopEvents() {
         Runnable r;
-        List<Runnable> toRun = new LinkedList<>();
+        int n = 0;
         while ((r = runOnLoopEvents.poll()) != null) {
-            toRun.add(r);
+            if (n == runOnLoopBatch.length) {
+                runOnLoopBatch = Arrays.copyOf(runOnLoopBatch, n * 2);
+            }
+            runOnLoopBatch[n++] = r;
         }
-        for (Runnable rr : toRun) {
-            tryRunnable(rr);
+        if (n > intervalMaxQueueDepth) {
+            intervalMaxQueueDepth = n;
         }
+        runBatch(runOnLoopBatch, n);
     }
 
-    private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
+    private void handleTimeEvents(long now) {
+        int n = 0;
         while (timeQueue.nextTime() == 0) {
+            long lateness = now - timeQueue.nextTriggerTime();
+            timerLatenessMillis += lateness;
+            if (lateness > intervalMaxTimerLateness) {
+                intervalMaxTimerLateness = lateness;
+            }
             Runnable r = timeQueue.pop();
-            toRun.add(r);
+            if (n == timeEventBatch.length) {
+                timeEventBatch = Arrays.copyOf(timeEventBatch, n * 2);
+            }
+            timeEventBatch[n++] = r;
         }
-        for (Runnable r : toRun) {
+        timerEvents += n;
+        runBatch(timeEventBatch, n);
+    }
+
+    private void runBatch(Runnable[] batch, int n) {
+        tasks += n;
+        for (int i = 0; i < n; ++i) {
+            Runnable r = batch[i];
+            batch[i] = null; // release the reference
             tryRunnable(r);
+            callbackDone(r);
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void doHandling(Iterator<SelectionKey> keys) {
         while (keys.hasNext()) {
             SelectionKey key = keys.next();
             keys.remove();
+            handleKey(key);
+            callbackDone(key.channel());
+        }
+    }
 
-            RegisterData registerData = (RegisterData) key.attachment();
+    private void doHandling(SelectedKeySet keys) {
+        try {
+            // the selected keys will not change while handling
+            for (int i = 0; i < keys.size; ++i) {
+                SelectionKey key = keys.keys[i];
+                handleKey(key);
+                callbackDone(key.channel());
+            }
+        } finally {
+            keys.reset();
+        }
+    }
 
-            SelectableChannel channel = key.channel();
-            Handler handler = registerData.handler;
+    private void updateBusyEwma(long now) {
+        long busy = handlingNanos + nonSelectNanos;
+        long elapsed = now - busyEwmaUpdateTime;
+        double ratio = Math.min(1, (double) (busy - busyEwmaLastBusyNanos) / elapsed);
+        // the longer since last update, the less the old value weighs
+        double w = Math.exp(-elapsed / BUSY_EWMA_DECAY_NANOS);
+        busyEwma = busyEwma * w + ratio * (1 - w);
+        busyEwmaLastBusyNanos = busy;
+        busyEwmaUpdateTime = now;
+    }
 
-            ctx.channel = channel;
-            ctx.attachment = registerData.att;
+    private void endInterval(long now) {
+        Object slowest = intervalSlowest;
+        String slowestStr;
+        if (slowest == null) {
+            slowestStr = null;
+        } else if (slowest instanceof SelectableChannel) {
+            slowestStr = slowest.toString();
+        } else {
+            slowestStr = "task " + slowest.getClass().getName();
+        }
+        lastInterval = new IntervalStats(now - intervalStart,
+            intervalSelectNanos, intervalHandlingNanos, intervalNonSelectNanos, intervalIterations,
+            intervalMaxQueueDepth, intervalMaxTimerLateness,
+            intervalSlowestNanos, slowestStr);
+        intervalStart = now;
+        intervalSelectNanos = 0;
+        intervalHandlingNanos = 0;
+        intervalNonSelectNanos = 0;
+        intervalIterations = 0;
+        intervalMaxQueueDepth = 0;
+        intervalMaxTimerLateness = 0;
+        intervalSlowestNanos = 0;
+        intervalSlowest = null; // release the reference
+    }
 
-            if (!key.isValid()) {
-                //noinspection UnnecessaryContinue
-                continue;
-            } else if (!channel.isOpen()) {
-                Logger.stderr("channel is closed but still firing");
-            } else {
-                int readyOps = key.readyOps();
-                // handle read first because it's most likely to happen
-                if ((readyOps & SelectionKey.OP_READ) != 0) {
-                    try {
-                        handler.readable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
-                    try {
-                        handler.connected(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
-                    try {
-                        handler.accept(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
-                    }
+    @SuppressWarnings("unchecked")
+    private void handleKey(SelectionKey key) {
+        RegisterData registerData = (RegisterData) key.attachment();
+
+        SelectableChannel channel = key.channel();
+        Handler handler = registerData.handler;
+
+        ctx.channel = channel;
+        ctx.attachment = registerData.att;
+
+        if (!key.isValid()) {
+            return;
+        } else if (!channel.isOpen()) {
+            Logger.stderr("channel is closed but still firing");
+        } else {
+            int readyOps = key.readyOps();
+            // handle read first because it's most likely to happen
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                try {
+                    handler.readable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
                 }
-                // read and write may happen in the same loop round
-                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                    try {
-                        handler.writable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
-                    }
+            } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                try {
+                    handler.connected(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
+                }
+            } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+                try {
+                    handler.accept(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+                }
+            }
+            // read and write may happen in the same loop round
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                try {
+                    handler.writable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
                 }
             }
         }
@@ -138,6 +390,10 @@ public class SelectorEventLoop {
     public void loop() {
         runningThread = Thread.currentThread();
         while (selector.isOpen()) {
+            final boolean recordAllocation = this.recordAllocation;
+            final long allocatedBefore = recordAllocation ? threadMXBean.getThreadAllocatedBytes(runningThread.getId()) : 0;
+            final long nonSelectStart = System.nanoTime();
+
             synchronized (CLOSE_LOCK) {
                 // yes, we lock the whole while body (except the select part)
                 // it's ok because we won't close the loop from inside the loop
@@ -148,13 +404,19 @@ public class SelectorEventLoop {
                     break; // break if it's closed
 
                 // handle some non select events
-                timeQueue.setCurrent(System.currentTimeMillis());
-                handleNonSelectEvents();
+                long now = System.currentTimeMillis();
+                timeQueue.setCurrent(now);
+                lastCallbackEnd = nonSelectStart;
+                handleNonSelectEvents(now);
             }
             // here we do not lock select()
             // let close() have chance to run
 
             final int selectedSize;
+            final long selectStart = System.nanoTime();
+            long cost = selectStart - nonSelectStart;
+            nonSelectNanos += cost;
+            intervalNonSelectNanos += cost;
             try {
                 if (timeQueue.isEmpty() && runOnLoopEvents.isEmpty()) {
                     selectedSize = selector.select(); // let it sleep
@@ -168,11 +430,20 @@ public class SelectorEventLoop {
                         selectedSize = selector.select(time); // wait until the nearest timer
                     }
                 }
-            } catch (IOException e) {
+            } catch (IOException | ClosedSelectorException e) {
                 // let's ignore this exception and continue
                 // if it's closed, the next loop will not run
+                // the selector may be closed by another thread right before select()
                 continue;
             }
+            lastCallbackEnd = System.nanoTime();
+            cost = lastCallbackEnd - selectStart;
+            selectWaitNanos += cost;
+            intervalSelectNanos += cost;
+            ++iterations;
+            ++intervalIterations;
+            tasks += selectedSize;
+            final long handlingStart = lastCallbackEnd;
 
             // we lock the OPERATE_SELECTOR_LOCK
             // to make sure the add() is finished
@@ -189,19 +460,44 @@ public class SelectorEventLoop {
                     break; // break if it's closed
 
                 if (selectedSize > 0) {
-                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-                    doHandling(keys);
+                    if (selectedKeys == null) {
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        doHandling(keys);
+                    } else {
+                        doHandling(selectedKeys);
+                    }
                 }
             }
+            cost = lastCallbackEnd - handlingStart;
+            handlingNanos += cost;
+            intervalHandlingNanos += cost;
+            if (lastCallbackEnd - busyEwmaUpdateTime >= BUSY_EWMA_UPDATE_NANOS) {
+                updateBusyEwma(lastCallbackEnd);
+            }
+            if (lastCallbackEnd - intervalStart >= STATS_INTERVAL_NANOS) {
+                endInterval(lastCallbackEnd);
+            }
+
+            if (recordAllocation) {
+                allocatedBytes += threadMXBean.getThreadAllocatedBytes(runningThread.getId()) - allocatedBefore;
+                ++recordedIterations;
+            }
             // while-loop ends here
         }
         runningThread = null; // it's not running now, set to null
         // do the final release
         release();
+        // the queued tasks will never run
+        dropRunOnLoopEvents();
+        // the buffers are pooled per thread, nothing polls the pool of this thread after the loop ends
+        BufferPool.get().destroy();
     }
 
     private boolean needLockAndWake() {
-        return runningThread != null && Thread.currentThread() != runningThread;
+        // the loop thread may be starting and about to select
+        // so also lock and wake when runningThread is not set yet
+        // otherwise the register() may block until select() returns
+        return Thread.currentThread() != runningThread;
     }
 
     @ThreadSafe
@@ -221,6 +517,23 @@ public class SelectorEventLoop {
         }
     }
 
+    /**
+     * same as {@link #runOnLoop(Runnable)}, but `dropped` runs instead if the loop is closed before running the task<br>
+     * `dropped` may run on the loop thread when it exits, or on current thread
+     */
+    @ThreadSafe
+    public void runOnLoop(Runnable r, Runnable dropped) {
+        if (runningThread == null && isClosed()) {
+            tryRunnable(dropped);
+            return;
+        }
+        runOnLoop(new DroppableTask(r, dropped));
+        if (runningThread == null && isClosed()) {
+            // the loop may exit before the task is added
+            dropRunOnLoopEvents();
+        }
+    }
+
     @ThreadSafe
     public TimerEvent delay(int timeout, Runnable r) {
         TimerEvent e = new TimerEvent(this);
@@ -302,6 +615,29 @@ public class SelectorEventLoop {
         triggerRemovedCallback(channel, att);
     }
 
+    /**
+     * remove the channel from the selector without firing the `removed` event,
+     * the channel stays open and can be registered to another selector<br>
+     * NOTE: must be called on the loop thread
+     *
+     * @return the interested ops before removing
+     */
+    public int detach(SelectableChannel channel) {
+        SelectionKey key = getKeyCheckNull(channel);
+        int ops = key.interestOps();
+        key.cancel();
+        return ops;
+    }
+
+    /**
+     * replace the attachment of a registered channel<br>
+     * NOTE: must be called on the loop thread, the attachment is read when events fire
+     */
+    public void modifyAttachment(SelectableChannel channel, Object attachment) {
+        SelectionKey key = getKeyCheckNull(channel);
+        ((RegisterData) key.attachment()).att = attachment;
+    }
+
     @ThreadSafe
     public int getOps(SelectableChannel channel) {
         SelectionKey key = getKeyCheckNull(channel);
@@ -333,6 +669,130 @@ public class SelectorEventLoop {
         }
     }
 
+    /**
+     * record bytes allocated on the loop thread in every iteration<br>
+     * the jvm may not support it, see {@link #isAllocationRecordingSupported()}
+     */
+    @ThreadSafe
+    public void setRecordAllocation(boolean recordAllocation) {
+        if (recordAllocation && threadMXBean == null)
+            throw new UnsupportedOperationException("thread allocated memory not supported");
+        nextTick(() -> this.recordAllocation = recordAllocation);
+    }
+
+    public static boolean isAllocationRecordingSupported() {
+        return threadMXBean != null;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getRecordedIterations() {
+        return recordedIterations;
+    }
+
+    public long getAllocatedBytesPerIteration() {
+        long iterations = recordedIterations;
+        if (iterations == 0)
+            return 0;
+        return allocatedBytes / iterations;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return nanoseconds spent waiting in select()
+     */
+    public long getSelectWaitNanos() {
+        return selectWaitNanos;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return count of selected keys handled and runnables (nextTick, runOnLoop and timers) run
+     */
+    public long getTasks() {
+        return tasks;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return nanoseconds spent handling selected keys
+     */
+    public long getHandlingNanos() {
+        return handlingNanos;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return nanoseconds spent running nextTick, runOnLoop and timer events
+     */
+    public long getNonSelectNanos() {
+        return nonSelectNanos;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     */
+    public long getTimerEvents() {
+        return timerEvents;
+    }
+
+    /**
+     * NOTE: the value is read from other threads, it may be stale
+     *
+     * @return sum of milliseconds between the scheduled time and the actual fire time of timer events
+     */
+    public long getTimerLatenessMillis() {
+        return timerLatenessMillis;
+    }
+
+    /**
+     * the ewma is updated after handling events, so a loop sleeping in select() is considered idle since the last update
+     * (a loop stuck in one callback is considered idle as well)
+     *
+     * @return 0 to 1, exponentially weighted moving average of the ratio of time not spent in select(),
+     * the weight of history halves in about 0.7 seconds
+     */
+    @ThreadSafe
+    public double getBusyEwma() {
+        double ewma = busyEwma;
+        long idle = System.nanoTime() - busyEwmaUpdateTime - BUSY_EWMA_UPDATE_NANOS;
+        if (idle <= 0)
+            return ewma;
+        return ewma * Math.exp(-idle / BUSY_EWMA_DECAY_NANOS);
+    }
+
+    /**
+     * the statistics are published every 5 seconds,
+     * so the busy ratio and the slowest callback can be checked without resetting the counters
+     */
+    public IntervalStats getLastInterval() {
+        return lastInterval;
+    }
+
+    public long getTasksPerIteration() {
+        long iterations = this.iterations;
+        if (iterations == 0)
+            return 0;
+        return tasks / iterations;
+    }
+
+    public boolean isSelectedKeySetReplaced() {
+        return selectedKeys != null;
+    }
+
     @ThreadSafe
     public boolean isClosed() {
         return !selector.isOpen();
@@ -351,6 +811,8 @@ public class SelectorEventLoop {
             Set<SelectionKey> keys = selector.keys();
             THE_KEY_SET_BEFORE_SELECTOR_CLOSE = new ArrayList<>(keys.size());
             for (SelectionKey key : keys) {
+                if (!key.isValid())
+                    continue; // canceled keys are already removed or detached
                 THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(key.channel(), (RegisterData) key.attachment()));
             }
             selector.close();
@@ -0,0 +1,238 @@
+package net.cassite.vproxy.util;
+
+import sun.nio.ch.DirectBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a size-classed direct buffer pool<br>
+ * every thread (usually an event loop thread) owns its own pool,
+ * buffers released on other threads are handed back to the owner pool via a concurrent queue<br>
+ * when direct memory held by all pools reaches the cap, idle buffers of current pool are freed,
+ * and if it's still not enough, heap buffers are provided instead<br>
+ * the cap counts all direct memory held by the pools, both leased and idle,
+ * idle buffers are freed by {@link #trim(int)}, and all of them are freed by {@link #destroy()} when the thread exits
+ */
+public class BufferPool {
+    private static final int MIN_CLASS_SHIFT = 6; // 64 bytes
+    private static final int MAX_CLASS_SHIFT = 24; // 16 MBytes
+    private static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    static final int MAX_POOLED_CAP = 1 << MAX_CLASS_SHIFT; // larger buffers are not pooled
+
+    // by default the jvm limits direct memory to the max heap size
+    private static volatile long maxDirectBytes = Runtime.getRuntime().maxMemory();
+    private static final AtomicLong directBytes = new AtomicLong(0);
+
+    private static final LongAdder allocateCount = new LongAdder();
+    private static final LongAdder reuseCount = new LongAdder();
+    private static final LongAdder releaseCount = new LongAdder();
+    private static final LongAdder heapFallbackCount = new LongAdder();
+    private static final LongAdder freeCount = new LongAdder();
+
+    private static final ThreadLocal<BufferPool> pools = ThreadLocal.withInitial(BufferPool::new);
+
+    private final Thread owner;
+    private final SizeClass[] classes;
+    // the owner thread exits, nothing polls the queues any more, so buffers released afterwards are freed
+    private volatile boolean dead = false;
+
+    private static class SizeClass {
+        final ArrayDeque<ByteBuffer> local = new ArrayDeque<>();
+        final ConcurrentLinkedQueue<ByteBuffer> remote = new ConcurrentLinkedQueue<>();
+        long lastLease; // only accessed on the owner thread
+    }
+
+    private BufferPool() {
+        this.owner = Thread.currentThread();
+        this.classes = new SizeClass[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            classes[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @return pool of current thread
+     */
+    public static BufferPool get() {
+        return pools.get();
+    }
+
+    private static int classIndex(int cap) {
+        if (cap <= (1 << MIN_CLASS_SHIFT))
+            return 0;
+        int shift = 32 - Integer.numberOfLeadingZeros(cap - 1);
+        if (shift > MAX_CLASS_SHIFT)
+            return -1;
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int idx) {
+        return 1 << (idx + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * get a buffer with capacity >= cap<br>
+     * the returned buffer is a heap buffer when direct memory cap is reached
+     *
+     * @return null if the cap is too large to be pooled
+     */
+    public ByteBuffer lease(int cap) {
+        assert Thread.currentThread() == owner;
+        int idx = classIndex(cap);
+        if (idx == -1)
+            return null;
+        SizeClass sc = classes[idx];
+        sc.lastLease = System.currentTimeMillis();
+        ByteBuffer buf = sc.local.pollLast();
+        if (buf == null) {
+            buf = sc.remote.poll();
+        }
+        if (buf != null) {
+            reuseCount.increment();
+            return buf;
+        }
+        int size = classSize(idx);
+        if (!reserve(size)) {
+            // free the idle buffers of this pool, then try again
+            trim(0);
+            if (!reserve(size)) {
+                heapFallbackCount.increment();
+                return ByteBuffer.allocate(cap);
+            }
+        }
+        allocateCount.increment();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static boolean reserve(int size) {
+        if (directBytes.addAndGet(size) > maxDirectBytes) {
+            directBytes.addAndGet(-size);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * free the idle buffers of the size classes not leased in the last `idleMillis` milliseconds<br>
+     * should be called periodically on the thread owning the pool
+     */
+    public void trim(int idleMillis) {
+        assert Thread.currentThread() == owner;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            SizeClass sc = classes[i];
+            if (now - sc.lastLease < idleMillis)
+                continue;
+            ByteBuffer buf;
+            while ((buf = sc.local.pollLast()) != null) {
+                free(buf);
+            }
+            while ((buf = sc.remote.poll()) != null) {
+                free(buf);
+            }
+        }
+    }
+
+    /**
+     * free the idle buffers and stop pooling, the buffers still leased are freed when released<br>
+     * should be called on the thread owning the pool when it exits, e.g. the event loop is closed,
+     * a new pool is created if the thread leases again
+     */
+    public void destroy() {
+        assert Thread.currentThread() == owner;
+        dead = true;
+        trim(0);
+        pools.remove();
+    }
+
+    private static void free(ByteBuffer buf) {
+        freeCount.increment();
+        directBytes.addAndGet(-buf.capacity());
+        clean(buf);
+    }
+
+    /**
+     * release the memory of a direct buffer immediately instead of waiting for gc<br>
+     * the buffer must not be touched again
+     */
+    static void clean(ByteBuffer buf) {
+        if (buf instanceof DirectBuffer) {
+            // the api is undocumented
+            // i don't know what will happen in future java versions
+            try {
+                ((DirectBuffer) buf).cleaner().clean();
+            } catch (Throwable ignore) {
+            }
+        }
+    }
+
+    /**
+     * give back a buffer retrieved from {@link #lease(int)}<br>
+     * can be called on any thread
+     */
+    @ThreadSafe
+    public void release(ByteBuffer buf) {
+        if (!buf.isDirect())
+            return; // heap buffer is not pooled, let gc handle it
+        int idx = classIndex(buf.capacity());
+        if (idx == -1 || classSize(idx) != buf.capacity())
+            return; // not from the pool
+        releaseCount.increment();
+        if (dead) {
+            free(buf);
+            return;
+        }
+        buf.clear();
+        if (Thread.currentThread() == owner) {
+            classes[idx].local.addLast(buf);
+            return;
+        }
+        ConcurrentLinkedQueue<ByteBuffer> remote = classes[idx].remote;
+        remote.offer(buf);
+        if (dead) {
+            // the owner may have drained the queue before the buffer is added
+            ByteBuffer b;
+            while ((b = remote.poll()) != null) {
+                free(b);
+            }
+        }
+    }
+
+    public static long getMaxDirectBytes() {
+        return maxDirectBytes;
+    }
+
+    public static void setMaxDirectBytes(long maxDirectBytes) {
+        if (maxDirectBytes < 0)
+            throw new IllegalArgumentException("maxDirectBytes < 0");
+        BufferPool.maxDirectBytes = maxDirectBytes;
+    }
+
+    public static long getDirectBytes() {
+        return directBytes.get();
+    }
+
+    public static long getAllocateCount() {
+        return allocateCount.sum();
+    }
+
+    public static long getReuseCount() {
+        return reuseCount.sum();
+    }
+
+    public static long getReleaseCount() {
+        return releaseCount.sum();
+    }
+
+    public static long getHeapFallbackCount() {
+        return heapFallbackCount.sum();
+    }
+
+    public static long getFreeCount() {
+        return freeCount.sum();
+    }
+}
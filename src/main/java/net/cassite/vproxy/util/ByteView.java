@@ -0,0 +1,116 @@
+package net.cassite.vproxy.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * a read-only view of a range in a byte array,
+ * the bytes are not copied or decoded until required
+ */
+public class ByteView {
+    private final byte[] bytes;
+    private final int off;
+    private final int len;
+    private String str; // decoded when toString() is called
+
+    public ByteView(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public ByteView(byte[] bytes, int off, int len) {
+        if (off < 0 || len < 0 || off + len > bytes.length)
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", array.length=" + bytes.length);
+        this.bytes = bytes;
+        this.off = off;
+        this.len = len;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte get(int idx) {
+        if (idx < 0 || idx >= len)
+            throw new IndexOutOfBoundsException("idx=" + idx + ", length=" + len);
+        return bytes[off + idx];
+    }
+
+    /**
+     * a view of a range in this view, the bytes are shared
+     */
+    public ByteView sub(int off, int len) {
+        if (off < 0 || len < 0 || off + len > this.len)
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", length=" + this.len);
+        return new ByteView(bytes, this.off + off, len);
+    }
+
+    public byte[] toBytes() {
+        byte[] ret = new byte[len];
+        System.arraycopy(bytes, off, ret, 0, len);
+        return ret;
+    }
+
+    public void writeTo(ByteArrayOutputStream out) {
+        out.write(bytes, off, len);
+    }
+
+    public boolean equals(byte[] b) {
+        if (b.length != len)
+            return false;
+        for (int i = 0; i < len; ++i) {
+            if (bytes[off + i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * compare ignoring case of ascii letters, e.g. for command names
+     */
+    public boolean equalsIgnoreCase(byte[] b) {
+        if (b.length != len)
+            return false;
+        for (int i = 0; i < len; ++i) {
+            if (toLower(bytes[off + i]) != toLower(b[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        if (b >= 'A' && b <= 'Z')
+            return (byte) (b + ('a' - 'A'));
+        return b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ByteView that = (ByteView) o;
+        if (len != that.len)
+            return false;
+        for (int i = 0; i < len; ++i) {
+            if (bytes[off + i] != that.bytes[that.off + i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < len; ++i) {
+            h = 31 * h + bytes[off + i];
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        if (str == null) {
+            str = new String(bytes, off, len, StandardCharsets.UTF_8);
+        }
+        return str;
+    }
+}
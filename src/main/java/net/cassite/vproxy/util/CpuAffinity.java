@@ -0,0 +1,188 @@
+package net.cassite.vproxy.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * pin threads to cpus, only available on linux<br>
+ * java does not provide thread affinity api, so the native thread id is read from /proc/thread-self,
+ * and the affinity is set with the `taskset` command
+ */
+public class CpuAffinity {
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+    private static final Path NODES = Paths.get("/sys/devices/system/node");
+    private static final String NODE_PREFIX = "node";
+    // the format used by taskset -c, e.g. 0-3,8,10-11
+    private static final Pattern CPU_LIST = Pattern.compile("^\\d+(-\\d+)?(,\\d+(-\\d+)?)*$");
+
+    private CpuAffinity() {
+    }
+
+    public static boolean isSupported() {
+        return Files.exists(THREAD_SELF);
+    }
+
+    /**
+     * @return native id of current thread, or -1 if not supported
+     */
+    public static long currentThreadId() {
+        try {
+            // the link looks like: ${pid}/task/${tid}
+            Path p = Files.readSymbolicLink(THREAD_SELF);
+            return Long.parseLong(p.getFileName().toString());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param cpus a cpu list, e.g. 0-3,8, or `node${n}` for all cpus of numa node n
+     * @return the cpu list
+     * @throws IllegalArgumentException the format is invalid or the numa node does not exist
+     */
+    public static String resolve(String cpus) {
+        if (cpus.startsWith(NODE_PREFIX)) {
+            int node;
+            try {
+                node = Integer.parseInt(cpus.substring(NODE_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid numa node " + cpus);
+            }
+            String cpuList = cpusOfNode(node);
+            if (cpuList == null)
+                throw new IllegalArgumentException("numa node " + node + " not found");
+            return cpuList;
+        }
+        if (!CPU_LIST.matcher(cpus).matches())
+            throw new IllegalArgumentException("invalid cpu list " + cpus);
+        return cpus;
+    }
+
+    /**
+     * @return the numa nodes, or empty list if not supported
+     */
+    public static List<Integer> numaNodes() {
+        if (!Files.isDirectory(NODES))
+            return Collections.emptyList();
+        List<Integer> nodes = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(NODES, NODE_PREFIX + "*")) {
+            for (Path p : ds) {
+                try {
+                    nodes.add(Integer.parseInt(p.getFileName().toString().substring(NODE_PREFIX.length())));
+                } catch (NumberFormatException ignore) {
+                    // not a node dir
+                }
+            }
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+        Collections.sort(nodes);
+        return nodes;
+    }
+
+    /**
+     * @return cpu list of the numa node, or null if not found
+     */
+    public static String cpusOfNode(int node) {
+        Path p = NODES.resolve(NODE_PREFIX + node).resolve("cpulist");
+        try {
+            return new String(Files.readAllBytes(p), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param cpuList the cpu list, see {@link #resolve(String)}
+     * @return the numa node all the cpus belong to, or -1 if they span nodes or numa is not supported
+     */
+    public static int nodeOf(String cpuList) {
+        BitSet cpus = parseCpuList(cpuList);
+        for (int node : numaNodes()) {
+            String nodeCpus = cpusOfNode(node);
+            if (nodeCpus == null || nodeCpus.isEmpty())
+                continue; // memory only node
+            BitSet rest = (BitSet) cpus.clone();
+            rest.andNot(parseCpuList(nodeCpus));
+            if (rest.isEmpty())
+                return node;
+        }
+        return -1;
+    }
+
+    private static BitSet parseCpuList(String cpuList) {
+        BitSet cpus = new BitSet();
+        for (String range : cpuList.split(",")) {
+            int idx = range.indexOf('-');
+            if (idx == -1) {
+                cpus.set(Integer.parseInt(range));
+            } else {
+                cpus.set(Integer.parseInt(range.substring(0, idx)), Integer.parseInt(range.substring(idx + 1)) + 1);
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * @return the cpus the thread is allowed to run on, or null if not supported
+     */
+    public static String get(long tid) {
+        Path p = Paths.get("/proc/self/task/" + tid + "/status");
+        try {
+            for (String line : Files.readAllLines(p)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+        return null;
+    }
+
+    /**
+     * pin the thread to the cpus, the failure is thrown to the caller<br>
+     * NOTE: memory is allocated on the numa node of the thread when it's first touched,
+     * so memory touched before pinning stays where it was
+     *
+     * @param tid     native thread id, see {@link #currentThreadId()}
+     * @param cpuList the cpu list, see {@link #resolve(String)}
+     */
+    @Blocking
+    public static void pin(long tid, String cpuList) throws IOException {
+        if (tid == -1)
+            throw new IOException("cpu affinity is not supported");
+        Process p = new ProcessBuilder("taskset", "-p", "-c", cpuList, String.valueOf(tid))
+            .redirectErrorStream(true)
+            .start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = p.getInputStream()) {
+            byte[] b = new byte[256];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                out.write(b, 0, n);
+            }
+        }
+        int exit;
+        try {
+            exit = p.waitFor();
+        } catch (InterruptedException e) {
+            p.destroy();
+            throw new IOException("interrupted when running taskset");
+        }
+        if (exit != 0)
+            throw new IOException("taskset failed: " + new String(out.toByteArray(), StandardCharsets.UTF_8).trim());
+        assert Logger.lowLevelDebug("thread " + tid + " is pinned to cpu " + cpuList);
+    }
+}
@@ -0,0 +1,153 @@
+package net.cassite.vproxy.util;
+
+import java.util.Arrays;
+
+/**
+ * a 4-ary min heap<br>
+ * removed elements are only marked and dropped when reaching the top,
+ * the heap is rebuilt when more than half of the elements are removed
+ */
+public class HeapTimeQueue<T> extends TimeQueue<T> {
+    private static final int D = 4;
+    private static final int MIN_REBUILD_SIZE = 64;
+
+    private TimeElem<T>[] heap;
+    private int size = 0; // elements in the array, including removed ones
+    private int removedCount = 0;
+    private long seq = 0;
+
+    @SuppressWarnings("unchecked")
+    HeapTimeQueue() {
+        heap = (TimeElem<T>[]) new TimeElem<?>[16];
+    }
+
+    private static boolean less(TimeElem<?> a, TimeElem<?> b) {
+        if (a.triggerTime != b.triggerTime)
+            return a.triggerTime < b.triggerTime;
+        return a.seq < b.seq;
+    }
+
+    private void siftUp(int idx) {
+        TimeElem<T> e = heap[idx];
+        while (idx > 0) {
+            int parent = (idx - 1) / D;
+            TimeElem<T> p = heap[parent];
+            if (!less(e, p))
+                break;
+            heap[idx] = p;
+            idx = parent;
+        }
+        heap[idx] = e;
+    }
+
+    private void siftDown(int idx) {
+        TimeElem<T> e = heap[idx];
+        while (true) {
+            int first = idx * D + 1;
+            if (first >= size)
+                break;
+            int last = Math.min(first + D, size);
+            int min = first;
+            for (int i = first + 1; i < last; ++i) {
+                if (less(heap[i], heap[min]))
+                    min = i;
+            }
+            if (!less(heap[min], e))
+                break;
+            heap[idx] = heap[min];
+            idx = min;
+        }
+        heap[idx] = e;
+    }
+
+    private TimeElem<T> removeTop() {
+        TimeElem<T> top = heap[0];
+        --size;
+        heap[0] = heap[size];
+        heap[size] = null;
+        if (size > 0)
+            siftDown(0);
+        top.queued = false;
+        return top;
+    }
+
+    // drop removed elements on top of the heap
+    private void skipRemoved() {
+        while (size > 0 && heap[0].removed) {
+            removeTop();
+            --removedCount;
+        }
+    }
+
+    private void rebuild() {
+        int n = 0;
+        for (int i = 0; i < size; ++i) {
+            TimeElem<T> e = heap[i];
+            if (e.removed) {
+                e.queued = false;
+            } else {
+                heap[n++] = e;
+            }
+        }
+        Arrays.fill(heap, n, size, null);
+        size = n;
+        removedCount = 0;
+        for (int i = (size - 2) / D; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        TimeElem<T> event = new TimeElem<>(current + timeout, elem, this);
+        event.seq = seq++;
+        event.queued = true;
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        heap[size] = event;
+        ++size;
+        siftUp(size - 1);
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        skipRemoved();
+        if (size == 0)
+            return null;
+        return removeTop().elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == removedCount;
+    }
+
+    @Override
+    public int nextTime() {
+        skipRemoved();
+        if (size == 0)
+            return Integer.MAX_VALUE;
+        return Math.max((int) (heap[0].triggerTime - current), 0);
+    }
+
+    @Override
+    public long nextTriggerTime() {
+        skipRemoved();
+        if (size == 0)
+            return Long.MAX_VALUE;
+        return heap[0].triggerTime;
+    }
+
+    @Override
+    void remove(TimeElem<T> elem) {
+        if (!elem.queued || elem.removed)
+            return; // already popped or removed
+        elem.removed = true;
+        ++removedCount;
+        if (size >= MIN_REBUILD_SIZE && removedCount > size / 2) {
+            rebuild();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package net.cassite.vproxy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a lock-free log-linear histogram, similar to hdr histogram<br>
+ * each power of 2 range is split into 16 buckets, so the error is under 1/16<br>
+ * recording does not allocate and can be called on any thread
+ */
+@ThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // values < SUB_COUNT are recorded exactly
+    // then 16 buckets for each exponent from SUB_BITS to 62
+    private static final int BUCKET_COUNT = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT)
+            return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return the max value recorded into the bucket
+     */
+    public static long upperBoundOf(int idx) {
+        if (idx < SUB_COUNT)
+            return idx;
+        int exp = idx / SUB_COUNT + SUB_BITS - 1;
+        long sub = idx % SUB_COUNT;
+        long lower = (1L << exp) | (sub << (exp - SUB_BITS));
+        return lower + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    public static int bucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long m;
+        while ((m = max.get()) < value) {
+            if (max.compareAndSet(m, value))
+                break;
+        }
+    }
+
+    public long countOf(int idx) {
+        return buckets.get(idx);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return upper bound of the bucket where the percentile falls in, 0 if nothing recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += buckets.get(i);
+        }
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(total * Math.min(percentile, 100) / 100);
+        if (target < 1)
+            target = 1;
+        long acc = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            acc += buckets.get(i);
+            if (acc >= target)
+                return Math.min(upperBoundOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count " + getCount()
+            + " p50 " + getValueAtPercentile(50)
+            + " p99 " + getValueAtPercentile(99)
+            + " max " + getMax();
+    }
+}
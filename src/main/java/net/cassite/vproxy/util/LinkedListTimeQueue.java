@@ -0,0 +1,66 @@
+package net.cassite.vproxy.util;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+public class LinkedListTimeQueue<T> extends TimeQueue<T> {
+    private final LinkedList<TimeElem<T>> list = new LinkedList<>();
+
+    LinkedListTimeQueue() {
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        TimeElem<T> event = new TimeElem<>(current + timeout, elem, this);
+        if (list.isEmpty()) {
+            list.add(event);
+            return event;
+        }
+        ListIterator<TimeElem<T>> ite = list.listIterator();
+        while (ite.hasNext()) {
+            TimeElem<T> e = ite.next();
+            if (e.triggerTime > event.triggerTime) {
+                ite.previous();
+                ite.add(event);
+                return event;
+            }
+        }
+        // reach here means the event not added
+        // and the timestamp is greater than any
+        // add to the tail
+        list.add(event);
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        if (list.isEmpty())
+            return null;
+        return list.removeFirst().elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    @Override
+    public int nextTime() {
+        if (list.isEmpty())
+            return Integer.MAX_VALUE;
+        long triggerTime = list.get(0).triggerTime;
+        return Math.max((int) (triggerTime - current), 0);
+    }
+
+    @Override
+    public long nextTriggerTime() {
+        if (list.isEmpty())
+            return Long.MAX_VALUE;
+        return list.getFirst().triggerTime;
+    }
+
+    @Override
+    void remove(TimeElem<T> elem) {
+        list.remove(elem);
+    }
+}
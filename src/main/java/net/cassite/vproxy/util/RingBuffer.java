@@ -1,14 +1,17 @@
 package net.cassite.vproxy.util;
 
-import sun.nio.ch.DirectBuffer;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 0                                     CAP
@@ -26,9 +29,13 @@ import java.util.Set;
  * maybe we have
  * ..........................->(cannot write into buf any more)
  * [----------------------ePos,sPos--------]
+ * <br>
+ * an elastic buffer starts with a small capacity, and is replaced by a larger one from the pool when it's full,
+ * until reaching the max capacity. it's shrunk back by {@link #shrinkIdleBuffers(int)}
+ * if not full for a while. {@link #free()} and {@link #capacity()} are calculated with the max capacity.
  */
 public class RingBuffer {
-    private final ByteBuffer buffer;
+    private ByteBuffer buffer;
     private int ePos; // end pos
     private int sPos; // start pos
     private int cap;
@@ -40,19 +47,218 @@ public class RingBuffer {
     private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
     private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
+    private BufferPool pool; // not null if the buffer is leased from a pool
+
+    // when the free space or the data wraps around,
+    // both parts are read/written with one scattering/gathering call, i.e. one syscall for sockets
+    private static volatile boolean scatterGather = true;
+    private ByteBuffer[] views; // two duplicates of the buffer, created when first used
+
+    // the following fields are only used by elastic buffers
+    private boolean elastic = false;
+    private int minCap;
+    private int maxCap;
+    private LongAdder bytesGauge; // bytes of the backing buffer, may be null
+    private long lastFull; // the last time the buffer was full or grew
+    private boolean inGrownList = false;
+
+    // elastic buffers grown on current thread, see shrinkIdleBuffers()
+    private static final ThreadLocal<ArrayList<RingBuffer>> grownBuffers = ThreadLocal.withInitial(ArrayList::new);
+
     private RingBuffer(ByteBuffer buffer) {
+        this(buffer, buffer.capacity());
+    }
+
+    private RingBuffer(ByteBuffer buffer, int cap) {
         this.buffer = buffer;
-        this.cap = buffer.capacity();
+        this.cap = cap;
+        this.maxCap = cap;
     }
 
     public static RingBuffer allocateDirect(int cap) {
         return new RingBuffer(ByteBuffer.allocateDirect(cap));
     }
 
+    /**
+     * lease the memory from the buffer pool of current thread<br>
+     * the memory will be given back to the pool when calling {@link #clean()}
+     */
+    public static RingBuffer allocateDirectFromPool(int cap) {
+        BufferPool pool = BufferPool.get();
+        ByteBuffer buf = pool.lease(cap);
+        if (buf == null)
+            return allocateDirect(cap); // too large to be pooled
+        RingBuffer rb = new RingBuffer(buf, cap);
+        rb.pool = pool;
+        return rb;
+    }
+
     public static RingBuffer allocate(int cap) {
         return new RingBuffer(ByteBuffer.allocate(cap));
     }
 
+    /**
+     * an elastic buffer leasing memory from the buffer pool of current thread<br>
+     * the memory will be given back to the pool when calling {@link #clean()}
+     *
+     * @param initialCap the capacity when created and after shrunk
+     * @param maxCap     max capacity when growing, at most the largest size the pool provides
+     * @param bytesGauge bytes of the memory held by the buffer are added into it, can be null
+     */
+    public static RingBuffer allocateElasticFromPool(int initialCap, int maxCap, LongAdder bytesGauge) {
+        if (initialCap > maxCap) {
+            initialCap = maxCap;
+        }
+        if (maxCap > BufferPool.MAX_POOLED_CAP) {
+            // the buffer only grows with memory from the pool
+            maxCap = Math.max(initialCap, BufferPool.MAX_POOLED_CAP);
+        }
+        RingBuffer rb = allocateDirectFromPool(initialCap);
+        rb.elastic = true;
+        rb.minCap = initialCap;
+        rb.maxCap = maxCap;
+        rb.bytesGauge = bytesGauge;
+        if (bytesGauge != null) {
+            bytesGauge.add(rb.buffer.capacity());
+        }
+        return rb;
+    }
+
+    // copy the bytes into a buffer with the new capacity
+    // return false if the memory cannot be leased from the pool
+    private boolean resize(int newCap) {
+        int len = used();
+        BufferPool newPool = BufferPool.get();
+        ByteBuffer newBuf = newPool.lease(newCap);
+        if (newBuf == null)
+            return false; // too large to be pooled
+        int lim = retrieveLimit();
+        buffer.limit(sPos + lim).position(sPos);
+        newBuf.limit(newCap).position(0);
+        newBuf.put(buffer);
+        if (!ePosIsAfterSPos) {
+            buffer.limit(ePos).position(0);
+            newBuf.put(buffer);
+        }
+        release();
+        if (bytesGauge != null) {
+            bytesGauge.add(newBuf.capacity() - buffer.capacity());
+        }
+        buffer = newBuf;
+        views = null;
+        pool = newPool;
+        cap = newCap;
+        sPos = 0;
+        ePos = len;
+        ePosIsAfterSPos = true;
+        if (ePos == cap) { // full
+            ePos = 0;
+            ePosIsAfterSPos = false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if grew
+     */
+    private boolean grow() {
+        if (!elastic)
+            return false;
+        lastFull = System.currentTimeMillis();
+        if (cap >= maxCap)
+            return false;
+        if (!resize((int) Math.min((long) cap * 2, maxCap)))
+            return false;
+        if (!inGrownList) {
+            inGrownList = true;
+            grownBuffers.get().add(this);
+        }
+        return true;
+    }
+
+    /**
+     * shrink the elastic buffers grown on current thread,
+     * which are not full in the last `idleMillis` milliseconds<br>
+     * should be called periodically on the event loop thread
+     */
+    public static void shrinkIdleBuffers(int idleMillis) {
+        ArrayList<RingBuffer> ls = grownBuffers.get();
+        if (ls.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        Iterator<RingBuffer> ite = ls.iterator();
+        while (ite.hasNext()) {
+            RingBuffer rb = ite.next();
+            if (rb.cleaned) {
+                rb.inGrownList = false;
+                ite.remove();
+                continue;
+            }
+            if (now - rb.lastFull < idleMillis)
+                continue;
+            int newCap = rb.minCap;
+            while (newCap < rb.used()) {
+                newCap *= 2;
+            }
+            if (newCap < rb.cap) {
+                rb.resize(newCap);
+            }
+            if (rb.cap == rb.minCap) {
+                rb.inGrownList = false;
+                ite.remove();
+            }
+        }
+    }
+
+    /**
+     * move the bytes into memory leased from the pool of current thread, if the memory is leased from another pool<br>
+     * the pool memory is first touched by the thread owning the pool,
+     * so on numa machines, it's allocated on the node where the thread runs
+     */
+    public void localize() {
+        if (pool == null || cleaned)
+            return; // not leased from a pool
+        if (pool == BufferPool.get())
+            return;
+        resize(cap);
+    }
+
+    /**
+     * the buffer is about to be used on another thread, e.g. the connection is moving to another event loop,
+     * stop shrinking it on current thread<br>
+     * must be called on the thread using the buffer, then call {@link #adopt()} on the new thread
+     */
+    public void disown() {
+        if (!inGrownList)
+            return;
+        inGrownList = false;
+        grownBuffers.get().remove(this);
+    }
+
+    /**
+     * current thread takes over the buffer, see {@link #disown()}<br>
+     * the memory is given back to the pool of current thread, since the old thread may exit,
+     * call {@link #localize()} before this method if the memory should be moved
+     */
+    public void adopt() {
+        if (cleaned)
+            return;
+        if (pool != null) {
+            pool = BufferPool.get();
+        }
+        if (!elastic || inGrownList || cap == minCap)
+            return;
+        inGrownList = true;
+        grownBuffers.get().add(this);
+    }
+
+    /**
+     * @return bytes of the backing buffer, may be less than {@link #capacity()} for elastic buffers
+     */
+    public int allocatedCapacity() {
+        return cap;
+    }
+
     private int storeLimit() {
         if (ePosIsAfterSPos) {
             return cap - ePos; // we can store until capacity
@@ -73,6 +279,25 @@ public class RingBuffer {
         return retrieveLimit(this.sPos, this.ePosIsAfterSPos);
     }
 
+    private ByteBuffer[] views() {
+        if (views == null) {
+            views = new ByteBuffer[]{buffer.duplicate(), buffer.duplicate()};
+        }
+        return views;
+    }
+
+    public static boolean isScatterGatherEnabled() {
+        return scatterGather;
+    }
+
+    /**
+     * use one scattering/gathering call instead of two calls when the ring wraps around,
+     * enabled by default
+     */
+    public static void setScatterGatherEnabled(boolean scatterGather) {
+        RingBuffer.scatterGather = scatterGather;
+    }
+
     /**
      * @return may return -1 for EOF
      */
@@ -89,37 +314,56 @@ public class RingBuffer {
             final int usedSpace = used();
             boolean triggerReadablePre = usedSpace == 0 && !handler.isEmpty();
 
-            int lim = storeLimit();
-            if (lim == 0)
-                return 0; // buffer is full
-            buffer.limit(ePos + lim).position(ePos);
-            int read = channel.read(buffer);
-            if (read < 0)
-                return read; // some error occurred, maybe EOF
-            ePos += read;
-
-            triggerReadable = triggerReadablePre && read > 0;
-
-            if (ePos == cap) {
-                ePos = 0;
-                ePosIsAfterSPos = false;
-            }
-            if (read == lim) {
-                // maybe have more bytes to read
-                lim = storeLimit();
-                if (lim == 0)
-                    return read; // buffer is full now
-                buffer.limit(ePos + lim).position(ePos);
-                int read2 = channel.read(buffer);
-                if (read2 < 0) {
-                    read2 = 0; // ignore error here, because the first read is ok
+            // an elastic buffer may grow several times in one call
+            int total = 0;
+            while (true) {
+                int lim = storeLimit();
+                if (lim == 0) {
+                    if (!grow())
+                        break; // buffer is full
+                    lim = storeLimit();
                 }
-                ePos += read2;
-                // this time, ePos will not reach cap
-                return read + read2;
-            } else {
-                return read;
+                int want;
+                int read;
+                if (ePosIsAfterSPos && sPos > 0 && scatterGather && channel instanceof ScatteringByteChannel) {
+                    // the free space is [ePos, cap) and [0, sPos)
+                    ByteBuffer[] v = views();
+                    v[0].limit(cap).position(ePos);
+                    v[1].limit(sPos).position(0);
+                    want = lim + sPos;
+                    read = (int) ((ScatteringByteChannel) channel).read(v);
+                    if (read >= 0) {
+                        if (read < lim) {
+                            ePos += read;
+                        } else {
+                            ePos = read - lim;
+                            ePosIsAfterSPos = false;
+                        }
+                    }
+                } else {
+                    want = lim;
+                    buffer.limit(ePos + lim).position(ePos);
+                    read = channel.read(buffer);
+                    if (read >= 0) {
+                        ePos += read;
+                        if (ePos == cap) {
+                            ePos = 0;
+                            ePosIsAfterSPos = false;
+                        }
+                    }
+                }
+                if (read < 0) {
+                    if (total == 0)
+                        return read; // some error occurred, maybe EOF
+                    break; // ignore error here, because the previous reads are ok
+                }
+                total += read;
+                if (read < want)
+                    break; // no more bytes for now
+                // maybe have more bytes to read
             }
+            triggerReadable = triggerReadablePre && total > 0;
+            return total;
         } finally { // do trigger here
             if (triggerReadable) {
                 for (RingBufferETHandler aHandler : handler) {
@@ -158,6 +402,25 @@ public class RingBuffer {
             int lim = retrieveLimit();
             if (lim == 0)
                 return 0; // buffer is empty
+            if (!ePosIsAfterSPos && ePos > 0 && maxBytesToWrite > lim
+                && scatterGather && channel instanceof GatheringByteChannel) {
+                // the data is [sPos, cap) and [0, ePos)
+                ByteBuffer[] v = views();
+                v[0].limit(cap).position(sPos);
+                v[1].limit(Math.min(ePos, maxBytesToWrite - lim)).position(0);
+                int write = (int) ((GatheringByteChannel) channel).write(v);
+                triggerWritable = triggerWritablePre && write > 0;
+                if (write < lim) {
+                    sPos += write;
+                } else {
+                    sPos = write - lim;
+                    ePosIsAfterSPos = true;
+                    if (sPos == ePos) {
+                        resetCursors(); // buffer is empty now
+                    }
+                }
+                return write;
+            }
             int realWrite = Math.min(lim, maxBytesToWrite);
             buffer.limit(sPos + realWrite).position(sPos);
             int write = channel.write(buffer);
@@ -202,8 +465,69 @@ public class RingBuffer {
         }
     }
 
+    /**
+     * @return length of the contiguous readable bytes at the head of the buffer,
+     * the rest readable bytes (if any) can be accessed after {@link #consume(int)} these bytes
+     */
+    public int peekableLength() {
+        if (closed)
+            return 0;
+        buffer.limit(cap); // the peek methods use absolute index
+        return retrieveLimit();
+    }
+
+    /**
+     * @param index index of the byte in the contiguous readable region, must be less than {@link #peekableLength()}
+     */
+    public byte peek(int index) {
+        return buffer.get(sPos + index);
+    }
+
+    /**
+     * copy bytes from the contiguous readable region without consuming them
+     */
+    public void peek(int index, byte[] dst, int dstOff, int len) {
+        buffer.limit(sPos + index + len).position(sPos + index);
+        buffer.get(dst, dstOff, len);
+        buffer.limit(cap);
+    }
+
+    /**
+     * drop bytes from the head of the buffer, like {@link #writeTo(WritableByteChannel)} without copying
+     *
+     * @param len must not be greater than {@link #peekableLength()}
+     */
+    public void consume(int len) {
+        if (closed || len == 0)
+            return;
+        if (len < 0 || len > retrieveLimit())
+            throw new IllegalArgumentException("cannot consume " + len + " bytes, peekable length is " + retrieveLimit());
+
+        operating = true;
+        boolean triggerWritable = free() == 0 && !handler.isEmpty();
+        try { // only use try-finally here, we do not catch
+            sPos += len;
+            if (sPos == cap) {
+                sPos = 0;
+                ePosIsAfterSPos = true;
+            }
+            if (ePosIsAfterSPos && sPos == ePos) {
+                resetCursors(); // buffer is empty now
+            }
+        } finally { // do trigger here
+            if (triggerWritable) {
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            operating = false;
+            handler.removeAll(handlerToRemove);
+            handler.addAll(handlerToAdd);
+        }
+    }
+
     public int free() {
-        return cap - used();
+        return maxCap - used();
     }
 
     public int used() {
@@ -215,7 +539,7 @@ public class RingBuffer {
     }
 
     public int capacity() {
-        return cap;
+        return maxCap;
     }
 
     public byte[] getBytes() {
@@ -275,19 +599,29 @@ public class RingBuffer {
         if (cleaned)
             return;
         cleaned = true;
-        if (buffer instanceof DirectBuffer) {
-            // the api is undocumented
-            // i don't know what will happen in future java versions
-            try {
-                ((DirectBuffer) buffer).cleaner().clean();
-            } catch (Throwable ignore) {
-            }
+        if (bytesGauge != null) {
+            bytesGauge.add(-buffer.capacity());
+        }
+        if (pool != null) {
+            // the memory may be leased by another buffer right after it's released
+            // so make sure this one can never touch it again
+            closed = true;
+        }
+        release();
+    }
+
+    // give back the memory of the backing buffer
+    private void release() {
+        if (pool != null) {
+            pool.release(buffer);
+            return;
         }
+        BufferPool.clean(buffer);
     }
 
     // clear the buffer
     public void clear() {
-        byte[] b = new byte[capacity()];
+        byte[] b = new byte[cap];
         ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(b);
 
         // use a while loop because data may be read into buffer
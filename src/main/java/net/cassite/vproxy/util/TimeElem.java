@@ -4,6 +4,10 @@ public class TimeElem<T> {
     public final long triggerTime;
     public final T elem;
     private final TimeQueue<T> queue;
+    // fields for the heap queue
+    long seq; // keep the push order for elements with the same trigger time
+    boolean queued = false;
+    boolean removed = false; // lazily removed
 
     TimeElem(long triggerTime, T elem, TimeQueue<T> queue) {
         this.triggerTime = triggerTime;
@@ -13,6 +17,6 @@ public class TimeElem<T> {
 
     // this method should always be called on the event loop
     public void removeSelf() {
-        queue.list.remove(this);
+        queue.remove(this);
     }
 }
@@ -1,56 +1,42 @@
 package net.cassite.vproxy.util;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
-
-public class TimeQueue<T> {
-    LinkedList<TimeElem<T>> list = new LinkedList<>();
-    private long current = 0;
+/**
+ * the queue is not thread safe,
+ * it should be operated in the same thread
+ */
+public abstract class TimeQueue<T> {
+    protected long current = 0;
+
+    public static <T> TimeQueue<T> create(TimeQueueType type) {
+        switch (type) {
+            case linkedlist:
+                return new LinkedListTimeQueue<>();
+            case heap:
+                return new HeapTimeQueue<>();
+            default:
+                throw new IllegalArgumentException("unknown time queue type " + type);
+        }
+    }
 
     public void setCurrent(long current) {
         this.current = current;
     }
 
-    public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(current + timeout, elem, this);
-        if (list.isEmpty()) {
-            list.add(event);
-            return event;
-        }
-        ListIterator<TimeElem<T>> ite = list.listIterator();
-        while (ite.hasNext()) {
-            TimeElem<T> e = ite.next();
-            if (e.triggerTime > event.triggerTime) {
-                ite.previous();
-                ite.add(event);
-                return event;
-            }
-        }
-        // reach here means the event not added
-        // and the timestamp is greater than any
-        // add to the tail
-        list.add(event);
-        return event;
-    }
+    public abstract TimeElem<T> push(int timeout, T elem);
 
-    public T pop() {
-        if (list.isEmpty())
-            return null;
-        return list.removeFirst().elem;
-    }
+    public abstract T pop();
 
-    public boolean isEmpty() {
-        return list.isEmpty();
-    }
+    public abstract boolean isEmpty();
 
     /**
      * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
      */
-    public int nextTime() {
-        if (list.isEmpty())
-            return Integer.MAX_VALUE;
-        long triggerTime = list.get(0).triggerTime;
-        return Math.max((int) (triggerTime - current), 0);
-    }
-}
+    public abstract int nextTime();
 
+    /**
+     * @return trigger time of the nearest timer, Long.MAX_VALUE means no timer event
+     */
+    public abstract long nextTriggerTime();
+
+    abstract void remove(TimeElem<T> elem);
+}
@@ -0,0 +1,6 @@
+package net.cassite.vproxy.util;
+
+public enum TimeQueueType {
+    linkedlist, // O(n) push and cancel
+    heap, // 4-ary heap, O(log n) push and O(1) cancel
+}
@@ -0,0 +1,79 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.component.svrgroup.Maglev;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.MaglevBenchmark
+public class MaglevBenchmark {
+    private static final int BUILDS = 20;
+    private static final int PICKS = 1_000_000;
+
+    public static void main(String[] args) {
+        int[] sizes = {10, 100, 1000};
+        // warm up
+        for (int i = 0; i < 3; ++i) {
+            run(100, false);
+        }
+        for (int size : sizes) {
+            run(size, true);
+        }
+    }
+
+    private static void run(int size, boolean print) {
+        List<String> backends = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            backends.add("10.0." + (i / 256) + "." + (i % 256) + ":80");
+        }
+
+        Maglev<String> table = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < BUILDS; ++i) {
+            table = new Maglev<>(backends, s -> s, s -> 10);
+        }
+        long built = System.nanoTime();
+
+        Random rand = new Random(size);
+        long[] hashes = new long[1024];
+        for (int i = 0; i < hashes.length; ++i) {
+            byte[] addr = new byte[4];
+            rand.nextBytes(addr);
+            hashes[i] = Maglev.hash(addr);
+        }
+        int found = 0;
+        long pickStart = System.nanoTime();
+        for (int i = 0; i < PICKS; ++i) {
+            if (table.get(hashes[i & (hashes.length - 1)]) != null)
+                ++found;
+        }
+        long end = System.nanoTime();
+        if (found != PICKS)
+            throw new IllegalStateException("some picks returned nothing");
+
+        // remove one backend and see how many clients are moved to another backend
+        List<String> removed = new ArrayList<>(backends);
+        String gone = removed.remove(size / 2);
+        Maglev<String> after = new Maglev<>(removed, s -> s, s -> 10);
+        int moved = 0;
+        int shouldMove = 0;
+        for (long h : hashes) {
+            String before = table.get(h);
+            if (before.equals(gone)) {
+                ++shouldMove;
+            } else if (!before.equals(after.get(h))) {
+                ++moved;
+            }
+        }
+
+        if (print) {
+            System.out.println(size
+                + "\ttable " + table.tableSize()
+                + "\tbuild " + (built - start) / BUILDS / 1000 + "us"
+                + "\tpick " + (end - pickStart) / PICKS + "ns/op"
+                + "\tremove one: " + shouldMove + " clients of the removed backend, "
+                + moved + "/" + (hashes.length - shouldMove) + " other clients moved");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.util.CpuAffinity;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.NumaLocalityBenchmark
+// a thread pinned to one numa node moves bytes through ring buffers first touched on the same node or another node
+public class NumaLocalityBenchmark {
+    private static final int SESSIONS = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024; // 64 MBytes in total, larger than the cpu caches
+    private static final int SOCKET_BUFFER_SIZE = 16 * 1024;
+    private static final long BYTES = 8L * 1024 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> nodes = CpuAffinity.numaNodes();
+        if (!CpuAffinity.isSupported() || nodes.isEmpty()) {
+            System.out.println("cpu affinity is not supported, run without pinning");
+            run(-1, -1, true);
+            System.exit(0);
+        }
+        if (nodes.size() == 1) {
+            System.out.println("only one numa node, cross-node is not available");
+        }
+        run(nodes.get(0), nodes.get(0), false); // warm up
+        System.out.println("cpu-node\tmem-node\tMBytes/s");
+        for (int cpuNode : nodes) {
+            for (int memNode : nodes) {
+                run(cpuNode, memNode, true);
+            }
+        }
+        System.exit(0);
+    }
+
+    // simulates a socket, the kernel buffer is small and stays in cache
+    static class SimulatedSocket implements ReadableByteChannel, WritableByteChannel {
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(SOCKET_BUFFER_SIZE);
+        long bytes = 0;
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(dst.remaining(), buf.capacity());
+            buf.limit(n).position(0);
+            dst.put(buf);
+            bytes += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = Math.min(src.remaining(), buf.capacity());
+            buf.limit(n).position(0);
+            int lim = src.limit();
+            src.limit(src.position() + n);
+            buf.put(src);
+            src.limit(lim);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void pin(int node) throws IOException {
+        if (node == -1)
+            return;
+        CpuAffinity.pin(CpuAffinity.currentThreadId(), CpuAffinity.cpusOfNode(node));
+    }
+
+    private static void run(int cpuNode, int memNode, boolean print) throws Exception {
+        Throwable[] err = new Throwable[1];
+        long[] result = new long[1];
+        Thread t = new Thread(() -> {
+            try {
+                // the memory is first touched on the node where the thread runs
+                pin(memNode);
+                RingBuffer[] buffers = new RingBuffer[SESSIONS];
+                for (int i = 0; i < SESSIONS; ++i) {
+                    buffers[i] = RingBuffer.allocateDirect(BUFFER_SIZE);
+                }
+                pin(cpuNode);
+
+                SimulatedSocket in = new SimulatedSocket();
+                SimulatedSocket out = new SimulatedSocket();
+                long start = System.nanoTime();
+                while (in.bytes < BYTES) {
+                    for (RingBuffer rb : buffers) {
+                        // fill the buffer, then let the other side drain it
+                        // so all bytes in the buffer are touched
+                        while (rb.free() > 0) {
+                            rb.storeBytesFrom(in);
+                        }
+                        while (rb.used() > 0) {
+                            rb.writeTo(out);
+                        }
+                    }
+                }
+                long end = System.nanoTime();
+                result[0] = in.bytes / 1024 / 1024 * 1_000_000_000L / (end - start);
+                for (RingBuffer rb : buffers) {
+                    rb.clean();
+                }
+            } catch (Throwable e) {
+                err[0] = e;
+            }
+        }, "benchmark-numa-" + cpuNode + "-" + memNode);
+        t.start();
+        t.join();
+        if (err[0] != null)
+            throw new Exception(err[0]);
+        if (print) {
+            System.out.println((cpuNode == -1 ? "-" : "" + cpuNode)
+                + "\t\t" + (memNode == -1 ? "-" : "" + memNode)
+                + "\t\t" + result[0]);
+        }
+    }
+}
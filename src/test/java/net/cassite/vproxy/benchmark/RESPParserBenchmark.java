@@ -0,0 +1,74 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.redis.Parser;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.RESPParserBenchmark
+public class RESPParserBenchmark {
+    private static final int INPUT_BYTES = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        byte[] inline = repeat("PING\r\n".getBytes(StandardCharsets.UTF_8));
+        byte[] command = repeat("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n".getBytes(StandardCharsets.UTF_8));
+        byte[] payload = new byte[1024 * 1024];
+        Arrays.fill(payload, (byte) 'x');
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        bulk.write(("$" + payload.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+        bulk.write(payload);
+        bulk.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        byte[] bulks = repeat(bulk.toByteArray());
+
+        // warm up
+        for (int i = 0; i < 3; ++i) {
+            run(inline);
+            run(command);
+            run(bulks);
+        }
+        System.out.println("inline PING      \t" + run(inline) + " MBytes/s");
+        System.out.println("small SET command\t" + run(command) + " MBytes/s");
+        System.out.println("1MB bulk string  \t" + run(bulks) + " MBytes/s");
+    }
+
+    private static byte[] repeat(byte[] unit) {
+        int n = INPUT_BYTES / unit.length;
+        byte[] bytes = new byte[n * unit.length];
+        for (int i = 0; i < n; ++i) {
+            System.arraycopy(unit, 0, bytes, i * unit.length, unit.length);
+        }
+        return bytes;
+    }
+
+    private static long run(byte[] input) throws IOException {
+        RingBuffer rb = RingBuffer.allocateDirect(BUFFER_SIZE);
+        ByteArrayChannel chnl = ByteArrayChannel.fromFull(input);
+        Parser parser = new Parser(Integer.MAX_VALUE);
+        int values = 0;
+
+        long start = System.nanoTime();
+        while (chnl.used() > 0 || rb.used() > 0) {
+            rb.storeBytesFrom(chnl);
+            while (true) {
+                int r = parser.feed(rb);
+                if (r == 0) {
+                    ++values;
+                    parser = new Parser(Integer.MAX_VALUE);
+                    continue;
+                }
+                if (parser.getErrorMessage() != null)
+                    throw new IllegalStateException(parser.getErrorMessage());
+                break; // want more
+            }
+        }
+        long end = System.nanoTime();
+        if (values == 0)
+            throw new IllegalStateException("nothing parsed");
+        return (long) input.length * 1_000_000_000L / (end - start) / 1024 / 1024;
+    }
+}
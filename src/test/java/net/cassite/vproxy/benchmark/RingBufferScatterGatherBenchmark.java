@@ -0,0 +1,282 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.component.proxy.Proxy;
+import net.cassite.vproxy.component.proxy.ProxyNetConfig;
+import net.cassite.vproxy.connection.*;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.Tuple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.RingBufferScatterGatherBenchmark
+// compares one scattering/gathering call with two calls when the ring wraps around
+public class RingBufferScatterGatherBenchmark {
+    private static final int[] BUFFER_SIZES = {4 * 1024, 16 * 1024, 64 * 1024};
+    private static final long RING_BYTES = 256L * 1024 * 1024;
+    private static final long ECHO_BYTES = 256L * 1024 * 1024;
+    private static final int ECHO_SERVER_PORT = 19180;
+    private static final int PROXY_PORT = 18180;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("== ring buffer between two simulated sockets ==");
+        System.out.println("size\tmode\tcalls/MB\tMBytes/s");
+        for (int i = 0; i < 3; ++i) { // warm up
+            ring(16 * 1024, false, false);
+            ring(16 * 1024, true, false);
+        }
+        for (int size : BUFFER_SIZES) {
+            ring(size, false, true);
+            ring(size, true, true);
+        }
+
+        System.out.println("== echo proxy on loopback ==");
+        System.out.println("size\tmode\tsyscalls/MB\tMBytes/s");
+        echo(16 * 1024, false, false); // warm up
+        echo(16 * 1024, true, false);
+        for (int size : BUFFER_SIZES) {
+            echo(size, false, true);
+            echo(size, true, true);
+        }
+        System.exit(0);
+    }
+
+    private static String mode(boolean scatterGather) {
+        return scatterGather ? "gather" : "single";
+    }
+
+    // a socket which has a random amount of bytes to read, or space to write, in each wakeup
+    // every read or write call is counted as one syscall
+    static class SimulatedSocket implements ScatteringByteChannel, GatheringByteChannel {
+        private final Random rand = new Random(1);
+        private final int maxBytesPerWakeup;
+        private int budget;
+        long calls = 0;
+        long bytes = 0;
+
+        SimulatedSocket(int maxBytesPerWakeup) {
+            this.maxBytesPerWakeup = maxBytesPerWakeup;
+        }
+
+        void wakeup() {
+            budget = 1 + rand.nextInt(maxBytesPerWakeup);
+        }
+
+        private long transfer(ByteBuffer[] bufs, int off, int len) {
+            ++calls;
+            long n = 0;
+            for (int i = off; i < off + len && budget > 0; ++i) {
+                int k = Math.min(budget, bufs[i].remaining());
+                bufs[i].position(bufs[i].position() + k); // the content is not important
+                budget -= k;
+                n += k;
+            }
+            bytes += n;
+            return n;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            return transfer(dsts, offset, length);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) {
+            return transfer(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return (int) transfer(new ByteBuffer[]{dst}, 0, 1);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            return transfer(srcs, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return transfer(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) transfer(new ByteBuffer[]{src}, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void ring(int size, boolean scatterGather, boolean print) throws IOException {
+        RingBuffer.setScatterGatherEnabled(scatterGather);
+        RingBuffer rb = RingBuffer.allocateDirect(size);
+        // the receiver is slower, so bytes are left in the ring and the ring wraps around
+        SimulatedSocket in = new SimulatedSocket(size);
+        SimulatedSocket out = new SimulatedSocket(size / 2);
+
+        long start = System.nanoTime();
+        while (out.bytes < RING_BYTES) {
+            in.wakeup();
+            rb.storeBytesFrom(in);
+            out.wakeup();
+            rb.writeTo(out);
+        }
+        long end = System.nanoTime();
+        if (print) {
+            long mb = out.bytes / 1024 / 1024;
+            System.out.println((size / 1024) + "K\t" + mode(scatterGather)
+                + "\t" + (in.calls + out.calls) / mb
+                + "\t\t" + out.bytes * 1_000_000_000L / (end - start) / 1024 / 1024);
+        }
+    }
+
+    // read + write syscalls of this process, -1 if not supported
+    private static long syscalls() {
+        Path p = Paths.get("/proc/self/io");
+        if (!Files.exists(p))
+            return -1;
+        try {
+            long n = 0;
+            for (String line : Files.readAllLines(p)) {
+                if (line.startsWith("syscr:") || line.startsWith("syscw:")) {
+                    n += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            return n;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void echo(int size, boolean scatterGather, boolean print) throws Exception {
+        RingBuffer.setScatterGatherEnabled(scatterGather);
+        SelectorEventLoop sLoop = SelectorEventLoop.open();
+        NetEventLoop loop = new NetEventLoop(sLoop);
+
+        // echo server: the in and out buffers are the same one
+        BindServer echoServer = BindServer.create(new InetSocketAddress("127.0.0.1", ECHO_SERVER_PORT));
+        loop.addServer(echoServer, null, new ServerHandler() {
+            @Override
+            public void acceptFail(ServerHandlerContext ctx, IOException err) {
+            }
+
+            @Override
+            public void connection(ServerHandlerContext ctx, Connection connection) {
+                try {
+                    ctx.eventLoop.addConnection(connection, null, new ConnectionHandler() {
+                        @Override
+                        public void readable(ConnectionHandlerContext ctx) {
+                        }
+
+                        @Override
+                        public void writable(ConnectionHandlerContext ctx) {
+                        }
+
+                        @Override
+                        public void exception(ConnectionHandlerContext ctx, IOException err) {
+                            ctx.connection.close();
+                        }
+
+                        @Override
+                        public void closed(ConnectionHandlerContext ctx) {
+                        }
+
+                        @Override
+                        public void removed(ConnectionHandlerContext ctx) {
+                            ctx.connection.close();
+                        }
+                    });
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+
+            @Override
+            public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketChannel channel) {
+                RingBuffer buffer = RingBuffer.allocateDirect(size);
+                return new Tuple<>(buffer, buffer);
+            }
+
+            @Override
+            public void removed(ServerHandlerContext ctx) {
+                ctx.server.close();
+            }
+        });
+
+        BindServer proxyServer = BindServer.create(new InetSocketAddress("127.0.0.1", PROXY_PORT));
+        Proxy proxy = new Proxy(new ProxyNetConfig()
+            .setAcceptLoop(loop)
+            .setConnGen(conn -> new Connector(new InetSocketAddress("127.0.0.1", ECHO_SERVER_PORT),
+                new InetSocketAddress("127.0.0.1", 0)))
+            .setHandleLoopProvider(() -> loop)
+            .setServer(proxyServer)
+            .setInBufferSize(size)
+            .setOutBufferSize(size),
+            BindServer::close);
+        proxy.handle();
+        new Thread(sLoop::loop, "benchmark-echo-proxy").start();
+        Thread.sleep(200);
+
+        Socket sock = new Socket("127.0.0.1", PROXY_PORT);
+        OutputStream out = sock.getOutputStream();
+        InputStream in = sock.getInputStream();
+        long startSyscalls = syscalls();
+        long start = System.nanoTime();
+        Thread writer = new Thread(() -> {
+            byte[] b = new byte[size];
+            try {
+                for (long n = 0; n < ECHO_BYTES; n += b.length) {
+                    out.write(b);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        writer.start();
+        byte[] b = new byte[size];
+        long total = 0;
+        while (total < ECHO_BYTES) {
+            int n = in.read(b);
+            if (n < 0)
+                throw new IOException("unexpected eof after " + total + " bytes");
+            total += n;
+        }
+        long end = System.nanoTime();
+        long endSyscalls = syscalls();
+        writer.join();
+        sock.close();
+
+        if (print) {
+            long mb = total / 1024 / 1024;
+            // the numbers include the syscalls of the blocking client, which are the same in both modes
+            System.out.println((size / 1024) + "K\t" + mode(scatterGather)
+                + "\t" + (startSyscalls < 0 ? "n/a" : "" + (endSyscalls - startSyscalls) / mb)
+                + "\t\t" + total * 1_000_000_000L / (end - start) / 1024 / 1024);
+        }
+
+        proxyServer.close();
+        echoServer.close();
+        sLoop.close();
+        Thread.sleep(200);
+    }
+}
@@ -0,0 +1,73 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.util.TimeElem;
+import net.cassite.vproxy.util.TimeQueue;
+import net.cassite.vproxy.util.TimeQueueType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.TimeQueueBenchmark
+public class TimeQueueBenchmark {
+    private static final int MAX_TIMEOUT = 60_000;
+    // the linked list queue is O(n^2) to fill, it takes too long for larger sizes
+    private static final int LINKED_LIST_LIMIT = 100_000;
+
+    public static void main(String[] args) {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        // warm up
+        for (int i = 0; i < 5; ++i) {
+            run(TimeQueueType.heap, 10_000, false);
+            run(TimeQueueType.linkedlist, 2_000, false);
+        }
+        for (int size : sizes) {
+            for (TimeQueueType type : TimeQueueType.values()) {
+                if (type == TimeQueueType.linkedlist && size > LINKED_LIST_LIMIT) {
+                    System.out.println(type + "\t" + size + "\tskipped");
+                    continue;
+                }
+                run(type, size, true);
+            }
+        }
+    }
+
+    private static void run(TimeQueueType type, int size, boolean print) {
+        Random rand = new Random(size);
+        TimeQueue<Integer> queue = TimeQueue.create(type);
+        List<TimeElem<Integer>> elems = new ArrayList<>(size);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            elems.add(queue.push(rand.nextInt(MAX_TIMEOUT), i));
+        }
+        long pushed = System.nanoTime();
+        // cancel half of the timers, like connect timeouts being canceled
+        for (int i = 0; i < size; i += 2) {
+            elems.get(i).removeSelf();
+        }
+        long canceled = System.nanoTime();
+        int popped = 0;
+        for (long now = 0; !queue.isEmpty(); now += 100) {
+            queue.setCurrent(now);
+            while (queue.nextTime() == 0) {
+                queue.pop();
+                ++popped;
+            }
+        }
+        long end = System.nanoTime();
+        if (popped != size / 2)
+            throw new IllegalStateException("popped " + popped + " elements, expecting " + size / 2);
+
+        if (print) {
+            System.out.println(type + "\t" + size
+                + "\tpush " + perOp(pushed - start, size) + "ns/op"
+                + "\tcancel " + perOp(canceled - pushed, size / 2) + "ns/op"
+                + "\tpop " + perOp(end - canceled, popped) + "ns/op");
+        }
+    }
+
+    private static long perOp(long nanos, int ops) {
+        return nanos / ops;
+    }
+}
@@ -0,0 +1,82 @@
+package net.cassite.vproxy.benchmark;
+
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// run with: java -cp ... net.cassite.vproxy.benchmark.WLCBenchmark
+public class WLCBenchmark {
+    private static final int PICKS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10, 100, 1000};
+        // warm up
+        for (int i = 0; i < 5; ++i) {
+            run(100, false);
+        }
+        for (int size : sizes) {
+            run(size, true);
+        }
+    }
+
+    private static void run(int size, boolean print) throws Exception {
+        // the group has no event loop, so health checks are not started
+        EventLoopGroup elg = new EventLoopGroup("benchmark");
+        ServerGroup group = new ServerGroup("benchmark", elg, new HealthCheckConfig(1000, 1000, 1, 1), Method.wlc);
+        List<ConcurrentHashMap<Object, Object>> legacyConnMaps = new ArrayList<>(size);
+        InetAddress local = InetAddress.getByName("127.0.0.1");
+        for (int i = 0; i < size; ++i) {
+            group.add("s" + i, new InetSocketAddress(local, 10000 + i), local, 10);
+            legacyConnMaps.add(new ConcurrentHashMap<>());
+        }
+        for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+            h.healthy = true;
+        }
+
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PICKS; ++i) {
+            if (legacyScan(legacyConnMaps) >= 0)
+                ++found;
+        }
+        long legacy = System.nanoTime();
+        for (int i = 0; i < PICKS; ++i) {
+            if (group.next() != null)
+                ++found;
+        }
+        long end = System.nanoTime();
+        if (found != PICKS * 2)
+            throw new IllegalStateException("some picks returned nothing");
+        elg.close();
+
+        if (print) {
+            System.out.println(size
+                + "\tscan " + (legacy - start) / PICKS + "ns/op"
+                + "\tcurrent " + (end - legacy) / PICKS + "ns/op");
+        }
+    }
+
+    // the scan used before: read every map size on each pick
+    private static int legacyScan(List<ConcurrentHashMap<Object, Object>> servers) {
+        int m = 0;
+        int n = servers.size();
+        int WSm = 10;
+        int CSm = servers.get(m).size();
+        for (int i = m + 1; i < n; ++i) {
+            int WSi = 10;
+            int CSi = servers.get(i).size();
+            if (CSm * WSi > CSi * WSm) {
+                m = i;
+                CSm = CSi;
+            }
+        }
+        return m;
+    }
+}
@@ -31,8 +31,8 @@ public class HealthCheckClientExample {
             }
 
             @Override
-            public void upOnce(SocketAddress remote) {
-                System.out.println("health check got \033[0;32mone up\033[0m");
+            public void upOnce(SocketAddress remote, long cost) {
+                System.out.println("health check got \033[0;32mone up\033[0m, cost " + cost / 1000 + "us");
             }
 
             @Override
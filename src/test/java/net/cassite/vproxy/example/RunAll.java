@@ -47,6 +47,41 @@ public class RunAll {
         System.out.println("==============================================");
         TestRESPParser.main(new String[0]);
 
+        System.out.println("==============================================");
+        System.out.println("           streaming resp serializer");
+        System.out.println("==============================================");
+        TestStreamingSerializer.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("             resp command table");
+        System.out.println("==============================================");
+        TestRESPCommandTable.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("               redis hash slot");
+        System.out.println("==============================================");
+        TestHashSlot.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("               heap time queue");
+        System.out.println("==============================================");
+        TestHeapTimeQueue.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("              connection pool");
+        System.out.println("==============================================");
+        TestConnectionPool.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("              wlc and p2c");
+        System.out.println("==============================================");
+        TestWLC.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                  maglev");
+        System.out.println("==============================================");
+        TestMaglev.main(new String[0]);
+
         System.out.println("==============================================");
         System.out.println("            echo protocol server");
         System.out.println("==============================================");
@@ -61,5 +96,30 @@ public class RunAll {
         System.out.println("               resp app server");
         System.out.println("==============================================");
         RESPApplicationServer.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                resp pipeline");
+        System.out.println("==============================================");
+        TestRESPPipeline.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                resp multiplexer");
+        System.out.println("==============================================");
+        TestRESPMultiplexer.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                buffer pool");
+        System.out.println("==============================================");
+        TestBufferPool.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                migrate sessions");
+        System.out.println("==============================================");
+        TestMigrateSessions.main(new String[0]);
+
+        System.out.println("==============================================");
+        System.out.println("                elastic ring buffer");
+        System.out.println("==============================================");
+        TestElasticRingBuffer.main(new String[0]);
     }
 }
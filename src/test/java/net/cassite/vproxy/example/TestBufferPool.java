@@ -0,0 +1,107 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.util.BufferPool;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public class TestBufferPool {
+    private static final int SIZE = 4096;
+    private static final int COUNT = 8;
+
+    public static void main(String[] args) throws Exception {
+        long base = BufferPool.getDirectBytes();
+        long maxBefore = BufferPool.getMaxDirectBytes();
+        // only the buffers of this test fit in the cap
+        BufferPool.setMaxDirectBytes(base + COUNT * SIZE);
+        EventLoopGroup elg = new EventLoopGroup("buffer-pool-test");
+        try {
+            elg.add("l0");
+            List<RingBuffer> leased = lease(elg.get("l0"));
+            System.out.println("leased on l0: direct bytes " + (BufferPool.getDirectBytes() - base));
+            if (BufferPool.getDirectBytes() != base + COUNT * SIZE)
+                throw new Exception("wrong direct bytes " + (BufferPool.getDirectBytes() - base));
+
+            // the idle buffers are freed when the loop is removed
+            elg.remove("l0");
+            waitUntil(() -> BufferPool.getDirectBytes() == base + leased.size() * SIZE,
+                "idle buffers of the removed loop should be freed");
+            System.out.println("l0 removed: direct bytes " + (BufferPool.getDirectBytes() - base));
+
+            // the buffers still in use are freed when released, instead of being pooled by the dead pool
+            for (RingBuffer rb : leased) {
+                rb.clean();
+            }
+            if (BufferPool.getDirectBytes() != base)
+                throw new Exception("released buffers should be freed, but direct bytes is " + (BufferPool.getDirectBytes() - base));
+            System.out.println("released: direct bytes " + (BufferPool.getDirectBytes() - base));
+
+            // the whole cap is available again
+            long fallback = BufferPool.getHeapFallbackCount();
+            elg.add("l1");
+            List<RingBuffer> again = lease(elg.get("l1"));
+            if (BufferPool.getHeapFallbackCount() != fallback)
+                throw new Exception("heap buffers are used, the cap is still taken by the removed loop");
+            onLoop(elg.get("l1"), () -> {
+                for (RingBuffer rb : again) {
+                    rb.clean();
+                }
+                return null;
+            });
+            elg.remove("l1");
+            waitUntil(() -> BufferPool.getDirectBytes() == base,
+                "buffers of l1 should be freed");
+        } finally {
+            elg.close();
+            BufferPool.setMaxDirectBytes(maxBefore);
+        }
+    }
+
+    // lease buffers on the loop, half of them are given back and stay idle in the pool
+    private static List<RingBuffer> lease(EventLoopWrapper loop) throws Exception {
+        return onLoop(loop, () -> {
+            List<RingBuffer> ls = new ArrayList<>();
+            for (int i = 0; i < COUNT; ++i) {
+                ls.add(RingBuffer.allocateDirectFromPool(SIZE));
+            }
+            List<RingBuffer> inUse = new ArrayList<>();
+            for (int i = 0; i < COUNT; ++i) {
+                if (i % 2 == 0) {
+                    ls.get(i).clean();
+                } else {
+                    inUse.add(ls.get(i));
+                }
+            }
+            return inUse;
+        });
+    }
+
+    private static <T> T onLoop(EventLoopWrapper loop, Supplier<T> f) throws Exception {
+        BlockingQueue<Object[]> q = new ArrayBlockingQueue<>(1);
+        // runOnLoop() runs the task on the current thread if the loop is not running yet
+        loop.getSelectorEventLoop().nextTick(() -> q.add(new Object[]{f.get()}));
+        Object[] res = q.poll(5, TimeUnit.SECONDS);
+        if (res == null)
+            throw new Exception("the loop did not run the task");
+        @SuppressWarnings("unchecked")
+        T t = (T) res[0];
+        return t;
+    }
+
+    private static void waitUntil(BooleanSupplier cond, String msg) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exception(msg);
+            Thread.sleep(20);
+        }
+    }
+}
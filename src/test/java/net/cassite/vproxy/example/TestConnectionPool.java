@@ -0,0 +1,177 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.svrgroup.ConnectionPool;
+import net.cassite.vproxy.component.svrgroup.ConnectionPoolConfig;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.connection.ClientConnectionHandler;
+import net.cassite.vproxy.connection.ClientConnectionHandlerContext;
+import net.cassite.vproxy.connection.ConnectionHandlerContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public class TestConnectionPool {
+    private static final int PORT = 19090;
+
+    public static void main(String[] args) throws Exception {
+        // a backend accepting connections and never sending anything
+        ServerSocketChannel backend = ServerSocketChannel.open();
+        backend.bind(new InetSocketAddress("127.0.0.1", PORT));
+        List<SocketChannel> accepted = new CopyOnWriteArrayList<>();
+        Thread acceptThread = new Thread(() -> {
+            while (true) {
+                try {
+                    accepted.add(backend.accept());
+                } catch (IOException e) {
+                    return; // closed
+                }
+            }
+        }, "backend-accept");
+        acceptThread.start();
+
+        EventLoopGroup elg = new EventLoopGroup("pool-test");
+        elg.add("l0");
+        EventLoopWrapper loop = elg.get("l0");
+        ServerGroup group = new ServerGroup("pool-test", elg, new HealthCheckConfig(500, 200, 1, 1), Method.wrr);
+        group.setConnectionPoolConfig(new ConnectionPoolConfig(2, 4, 500, 1000, 1024));
+        try {
+            group.add("s0", new InetSocketAddress("127.0.0.1", PORT), InetAddress.getByName("127.0.0.1"), 10);
+            ServerGroup.ServerHandle server = group.getServerHandles().get(0);
+
+            // warm up: the pool is created and filled when the server is up
+            waitUntil(() -> server.healthy, "server should be up");
+            waitUntil(() -> server.getConnectionPool(loop).idleCount() == 2, "pool should be filled to min idle");
+            ConnectionPool pool = server.getConnectionPool(loop);
+            System.out.println("warmed up: idle " + pool.idleCount() + " created " + pool.getCreateCount());
+
+            // lease
+            RecordHandler handler = new RecordHandler();
+            ClientConnection conn = onLoop(loop, () -> pool.lease(null, handler));
+            if (conn == null)
+                throw new Exception("lease should return an idle connection");
+            if (!handler.connected)
+                throw new Exception("connected event should fire on the lease handler");
+            if (pool.getHitCount() != 1)
+                throw new Exception("wrong hit count " + pool.getHitCount());
+            if (server.connectionCount() != 1)
+                throw new Exception("leased connection should be counted for the server, but got " + server.connectionCount());
+            waitUntil(() -> pool.idleCount() == 2, "pool should be refilled after lease");
+            System.out.println("leased " + conn + ", idle " + pool.idleCount());
+
+            // give back
+            onLoop(loop, () -> {
+                pool.giveBack(conn);
+                return null;
+            });
+            if (pool.getGiveBackCount() != 1)
+                throw new Exception("wrong give back count " + pool.getGiveBackCount());
+            if (pool.idleCount() != 3)
+                throw new Exception("given back connection should be idle, but idle is " + pool.idleCount());
+            if (server.connectionCount() != 0)
+                throw new Exception("given back connection should not be counted, but got " + server.connectionCount());
+            if (conn.isClosed())
+                throw new Exception("given back connection should not be closed");
+            ClientConnection again = onLoop(loop, () -> pool.lease(null, new RecordHandler()));
+            if (again != conn)
+                throw new Exception("the most recently given back connection should be leased first");
+            onLoop(loop, () -> {
+                pool.giveBack(again);
+                return null;
+            });
+            System.out.println("given back, idle " + pool.idleCount());
+
+            // idle expiry: connections above min idle are closed after the idle timeout
+            waitUntil(() -> pool.idleCount() == 2, "idle connections above min idle should expire");
+            if (pool.getEvictCount() < 1)
+                throw new Exception("wrong evict count " + pool.getEvictCount());
+            System.out.println("evicted " + pool.getEvictCount() + ", idle " + pool.idleCount());
+
+            // server down: the pool is drained and lease misses
+            backend.close();
+            for (SocketChannel s : accepted) {
+                s.close();
+            }
+            waitUntil(() -> !server.healthy, "server should be down");
+            waitUntil(() -> pool.idleCount() == 0, "pool should be drained when server is down");
+            long miss = pool.getMissCount();
+            ClientConnection none = onLoop(loop, () -> pool.lease(null, new RecordHandler()));
+            if (none != null)
+                throw new Exception("lease should return null when server is down");
+            if (pool.getMissCount() != miss + 1)
+                throw new Exception("wrong miss count " + pool.getMissCount());
+            System.out.println("drained, miss " + pool.getMissCount());
+        } finally {
+            group.clear();
+            elg.close();
+            backend.close();
+            acceptThread.join();
+            for (SocketChannel s : accepted) {
+                s.close();
+            }
+        }
+    }
+
+    private static <T> T onLoop(EventLoopWrapper loop, Supplier<T> f) throws Exception {
+        BlockingQueue<Object[]> q = new ArrayBlockingQueue<>(1);
+        loop.getSelectorEventLoop().runOnLoop(() -> q.add(new Object[]{f.get()}));
+        Object[] res = q.poll(5, TimeUnit.SECONDS);
+        if (res == null)
+            throw new Exception("the loop did not run the task");
+        @SuppressWarnings("unchecked")
+        T t = (T) res[0];
+        return t;
+    }
+
+    private static void waitUntil(BooleanSupplier cond, String msg) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exception(msg);
+            Thread.sleep(20);
+        }
+    }
+
+    private static class RecordHandler implements ClientConnectionHandler {
+        boolean connected = false;
+
+        @Override
+        public void connected(ClientConnectionHandlerContext ctx) {
+            connected = true;
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+        }
+    }
+}
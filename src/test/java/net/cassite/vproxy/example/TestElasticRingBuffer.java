@@ -0,0 +1,123 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TestElasticRingBuffer {
+    private static final int MIN = 4096;
+    private static final int MAX = 65536;
+
+    // read into the buffers one by one, the ring buffer uses one call to fill both parts when it wraps around
+    private static class ScatteringChannel implements ScatteringByteChannel {
+        private final ByteArrayChannel chnl;
+
+        ScatteringChannel(ByteArrayChannel chnl) {
+            this.chnl = chnl;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                n += chnl.read(dsts[i]);
+            }
+            return n;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return chnl.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random rnd = new Random(1);
+
+        // grow from the min capacity to the max capacity in one call
+        LongAdder gauge = new LongAdder();
+        RingBuffer rb = RingBuffer.allocateElasticFromPool(MIN, MAX, gauge);
+        check(gauge.sum() == MIN, "gauge should be " + MIN + ", but got " + gauge.sum());
+        check(rb.free() == MAX, "free space should count the max capacity, but got " + rb.free());
+        byte[] data = new byte[MAX];
+        rnd.nextBytes(data);
+        int n = rb.storeBytesFrom(ByteArrayChannel.fromFull(data));
+        check(n == MAX, "all bytes should be stored in one call, but got " + n);
+        check(rb.allocatedCapacity() == MAX, "buffer should grow to " + MAX + ", but got " + rb.allocatedCapacity());
+        check(gauge.sum() == MAX, "gauge should be " + MAX + ", but got " + gauge.sum());
+        check(rb.free() == 0, "buffer should be full, but free is " + rb.free());
+        check(rb.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1])) == 0, "full buffer should not store more bytes");
+        check(Arrays.equals(data, drain(rb)), "bytes are different after growing");
+        System.out.println("grew to " + rb.allocatedCapacity() + ", gauge " + gauge.sum());
+
+        // shrink back when idle
+        RingBuffer.shrinkIdleBuffers(0);
+        check(rb.allocatedCapacity() == MIN, "buffer should shrink to " + MIN + ", but got " + rb.allocatedCapacity());
+        check(gauge.sum() == MIN, "gauge should be " + MIN + ", but got " + gauge.sum());
+        System.out.println("shrunk to " + rb.allocatedCapacity() + ", gauge " + gauge.sum());
+
+        // grow several times when the data wraps around, with and without scattering reads
+        for (boolean scatter : new boolean[]{false, true}) {
+            byte[] head = new byte[3000];
+            rnd.nextBytes(head);
+            check(rb.storeBytesFrom(ByteArrayChannel.fromFull(head)) == head.length, "head should be stored");
+            byte[] consumed = new byte[2000];
+            check(rb.writeTo(ByteArrayChannel.fromEmpty(consumed)) == consumed.length, "bytes should be consumed");
+            // now the free space is at the end and the beginning of the buffer
+            byte[] rest = new byte[MAX];
+            rnd.nextBytes(rest);
+            ByteArrayChannel src = ByteArrayChannel.fromFull(rest);
+            n = rb.storeBytesFrom(scatter ? new ScatteringChannel(src) : src);
+            int left = head.length - consumed.length;
+            check(n == MAX - left, "the buffer should be filled up, but stored " + n + " with scatter " + scatter);
+            check(rb.allocatedCapacity() == MAX, "buffer should grow to " + MAX + ", but got " + rb.allocatedCapacity());
+            byte[] expected = new byte[MAX];
+            System.arraycopy(head, consumed.length, expected, 0, left);
+            System.arraycopy(rest, 0, expected, left, MAX - left);
+            check(Arrays.equals(expected, drain(rb)), "bytes are different after growing with scatter " + scatter);
+            RingBuffer.shrinkIdleBuffers(0);
+            check(gauge.sum() == MIN, "gauge should be " + MIN + " after shrinking, but got " + gauge.sum());
+        }
+        System.out.println("grew and shrunk with wrapped data");
+
+        rb.clean();
+        check(gauge.sum() == 0, "gauge should be 0 after cleaned, but got " + gauge.sum());
+
+        // the buffer only grows with memory from the pool
+        RingBuffer huge = RingBuffer.allocateElasticFromPool(MIN, Integer.MAX_VALUE, null);
+        check(huge.capacity() < Integer.MAX_VALUE, "max capacity should be limited by the pool, but got " + huge.capacity());
+        huge.clean();
+        System.out.println("max capacity limited to " + huge.capacity());
+    }
+
+    private static byte[] drain(RingBuffer rb) throws Exception {
+        byte[] arr = new byte[rb.used()];
+        int n = rb.writeTo(ByteArrayChannel.fromEmpty(arr));
+        check(n == arr.length, "should drain " + arr.length + " bytes, but got " + n);
+        return arr;
+    }
+
+    private static void check(boolean cond, String msg) throws Exception {
+        if (!cond)
+            throw new Exception(msg);
+    }
+}
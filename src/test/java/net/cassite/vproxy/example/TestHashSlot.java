@@ -0,0 +1,57 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.redis.HashSlot;
+import net.cassite.vproxy.util.ByteView;
+
+import java.nio.charset.StandardCharsets;
+
+public class TestHashSlot {
+    public static void main(String[] args) throws Exception {
+        // the check value of crc16/xmodem
+        int crc = HashSlot.crc16(view("123456789"));
+        System.out.println("crc16(123456789) = 0x" + Integer.toHexString(crc));
+        if (crc != 0x31c3)
+            throw new Exception("wrong crc16 0x" + Integer.toHexString(crc));
+        if (HashSlot.crc16(view("")) != 0)
+            throw new Exception("crc16 of empty input should be 0");
+
+        // the same as CLUSTER KEYSLOT
+        expectSlot("foo", 12182);
+        expectSlot("bar", 5061);
+        expectSlot("123456789", 0x31c3);
+
+        // only the content of the first {...} is hashed
+        expectTag("{user1000}.following", "user1000");
+        expectTag("foo{bar}{zap}", "bar");
+        expectTag("foo{}{bar}", "foo{}{bar}"); // empty tag, hash the whole key
+        expectTag("foo{{bar}}zap", "{bar");
+        expectTag("foo{bar", "foo{bar"); // not closed
+        expectTag("}foo{bar}", "bar");
+        expectTag("foo", "foo");
+        if (HashSlot.of(view("{user1000}.following")) != HashSlot.of(view("{user1000}.followers")))
+            throw new Exception("keys with the same hash tag should be in the same slot");
+        expectSlot("{foo}.bar", 12182);
+
+        // the slot is a view of the key, keys in an array are not copied
+        byte[] arr = "xx{foo}.bar-yy".getBytes(StandardCharsets.UTF_8);
+        if (HashSlot.of(new ByteView(arr, 2, 9)) != 12182)
+            throw new Exception("wrong slot of a sub view");
+    }
+
+    private static ByteView view(String s) {
+        return new ByteView(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void expectSlot(String key, int slot) throws Exception {
+        int got = HashSlot.of(view(key));
+        System.out.println("slot(" + key + ") = " + got);
+        if (got != slot)
+            throw new Exception("wrong slot of " + key + ": " + got + ", expecting " + slot);
+    }
+
+    private static void expectTag(String key, String tag) throws Exception {
+        String got = new String(HashSlot.hashTag(view(key)).toBytes(), StandardCharsets.UTF_8);
+        if (!got.equals(tag))
+            throw new Exception("wrong hash tag of " + key + ": " + got + ", expecting " + tag);
+    }
+}
@@ -0,0 +1,102 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.util.TimeElem;
+import net.cassite.vproxy.util.TimeQueue;
+import net.cassite.vproxy.util.TimeQueueType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TestHeapTimeQueue {
+    public static void main(String[] args) throws Exception {
+        {
+            TimeQueue<String> queue = TimeQueue.create(TimeQueueType.heap);
+            if (!queue.isEmpty())
+                throw new Exception("new queue should be empty");
+            if (queue.nextTime() != Integer.MAX_VALUE)
+                throw new Exception("wrong nextTime of empty queue");
+            if (queue.pop() != null)
+                throw new Exception("pop on empty queue should return null");
+        }
+        {
+            // same trigger time: popped in push order
+            TimeQueue<String> queue = TimeQueue.create(TimeQueueType.heap);
+            queue.push(10, "a");
+            queue.push(5, "b");
+            queue.push(10, "c");
+            queue.push(5, "d");
+            queue.push(0, "e");
+            if (queue.nextTime() != 0)
+                throw new Exception("wrong nextTime " + queue.nextTime());
+            StringBuilder sb = new StringBuilder();
+            String s;
+            while ((s = queue.pop()) != null) {
+                sb.append(s);
+            }
+            System.out.println(sb);
+            if (!sb.toString().equals("ebdac"))
+                throw new Exception("wrong order " + sb);
+        }
+        {
+            // nextTime is relative to current
+            TimeQueue<String> queue = TimeQueue.create(TimeQueueType.heap);
+            queue.setCurrent(100);
+            queue.push(30, "a");
+            queue.setCurrent(110);
+            if (queue.nextTime() != 20)
+                throw new Exception("wrong nextTime " + queue.nextTime());
+            if (queue.nextTriggerTime() != 130)
+                throw new Exception("wrong nextTriggerTime " + queue.nextTriggerTime());
+            queue.setCurrent(200);
+            if (queue.nextTime() != 0)
+                throw new Exception("expired timer should return 0, but got " + queue.nextTime());
+        }
+        {
+            // removed elements never come out
+            TimeQueue<String> queue = TimeQueue.create(TimeQueueType.heap);
+            TimeElem<String> a = queue.push(1, "a");
+            queue.push(2, "b");
+            a.removeSelf();
+            a.removeSelf(); // removing twice is ok
+            if (!queue.pop().equals("b"))
+                throw new Exception("removed element popped");
+            if (!queue.isEmpty())
+                throw new Exception("queue should be empty");
+        }
+        {
+            // random timers, some of them removed, enough to trigger rebuilding the heap
+            Random rand = new Random(42);
+            TimeQueue<Integer> queue = TimeQueue.create(TimeQueueType.heap);
+            List<TimeElem<Integer>> elems = new ArrayList<>();
+            for (int i = 0; i < 10_000; ++i) {
+                elems.add(queue.push(rand.nextInt(1000), i));
+            }
+            int left = elems.size();
+            for (int i = 0; i < elems.size(); ++i) {
+                if (i % 3 != 0) {
+                    elems.get(i).removeSelf();
+                    --left;
+                }
+            }
+            queue.setCurrent(Long.MAX_VALUE / 2);
+            long lastTime = -1;
+            int lastIdx = -1;
+            int popped = 0;
+            Integer idx;
+            while ((idx = queue.pop()) != null) {
+                if (idx % 3 != 0)
+                    throw new Exception("removed element " + idx + " popped");
+                long t = elems.get(idx).triggerTime;
+                if (t < lastTime || (t == lastTime && idx < lastIdx))
+                    throw new Exception("wrong order: " + idx + "@" + t + " after " + lastIdx + "@" + lastTime);
+                lastTime = t;
+                lastIdx = idx;
+                ++popped;
+            }
+            System.out.println("popped " + popped);
+            if (popped != left)
+                throw new Exception("popped " + popped + ", expecting " + left);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.Maglev;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+public class TestMaglev {
+    private static final int CLIENTS = 100_000;
+    private static final int PORT = 19300;
+
+    public static void main(String[] args) throws Exception {
+        long[] hashes = new long[CLIENTS];
+        Random rand = new Random(42);
+        for (int i = 0; i < hashes.length; ++i) {
+            byte[] addr = new byte[4];
+            rand.nextBytes(addr);
+            hashes[i] = Maglev.hash(addr);
+        }
+        List<String> backends = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            backends.add("10.0.0." + i + ":80");
+        }
+
+        {
+            // empty table
+            if (new Maglev<String>(new ArrayList<>(), s -> s, s -> 10).get(hashes[0]) != null)
+                throw new Exception("empty table should return null");
+            if (new Maglev<>(backends, s -> s, s -> 0).get(hashes[0]) != null)
+                throw new Exception("table of items with weight 0 should return null");
+        }
+        {
+            // the same items build the same table
+            Maglev<String> a = new Maglev<>(backends, s -> s, s -> 10);
+            List<String> reversed = new ArrayList<>(backends);
+            Collections.reverse(reversed);
+            Maglev<String> b = new Maglev<>(reversed, s -> s, s -> 10);
+            int diff = 0;
+            for (long h : hashes) {
+                if (!a.get(h).equals(b.get(h)))
+                    ++diff;
+            }
+            System.out.println("same items in different order: " + diff + " clients differ");
+            if (diff > CLIENTS / 100)
+                throw new Exception("too many clients differ: " + diff);
+        }
+        {
+            // the clients are spread by weight
+            Maglev<String> table = new Maglev<>(backends, s -> s, s -> s.endsWith(".0:80") ? 20 : 10);
+            Map<String, Integer> counts = count(table, hashes);
+            int heavy = counts.get("10.0.0.0:80");
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                if (e.getKey().equals("10.0.0.0:80"))
+                    continue;
+                min = Math.min(min, e.getValue());
+                max = Math.max(max, e.getValue());
+            }
+            System.out.println("weight 10: min " + min + " max " + max + ", weight 20: " + heavy);
+            // about 990 clients for each weight 10 item
+            if (min < 800 || max > 1200)
+                throw new Exception("clients are not balanced: min " + min + " max " + max);
+            if (heavy < 1600 || heavy > 2400)
+                throw new Exception("the item with double weight got " + heavy);
+        }
+        {
+            // removing one item: its clients move, no more than 2% of other clients move
+            Maglev<String> before = new Maglev<>(backends, s -> s, s -> 10);
+            List<String> removed = new ArrayList<>(backends);
+            String gone = removed.remove(50);
+            Maglev<String> after = new Maglev<>(removed, s -> s, s -> 10);
+            int shouldMove = 0;
+            int moved = 0;
+            for (long h : hashes) {
+                String b = before.get(h);
+                String a = after.get(h);
+                if (a.equals(gone))
+                    throw new Exception("removed item is still in the table");
+                if (b.equals(gone))
+                    ++shouldMove;
+                else if (!b.equals(a))
+                    ++moved;
+            }
+            System.out.println("remove one: " + shouldMove + " clients of the removed item, "
+                + moved + "/" + (CLIENTS - shouldMove) + " other clients moved");
+            if (moved > (CLIENTS - shouldMove) / 50)
+                throw new Exception("too many clients moved: " + moved);
+        }
+        {
+            // adding one item: no more than 2% of clients move between the old items
+            Maglev<String> before = new Maglev<>(backends, s -> s, s -> 10);
+            List<String> added = new ArrayList<>(backends);
+            added.add("10.0.1.0:80");
+            Maglev<String> after = new Maglev<>(added, s -> s, s -> 10);
+            int toNew = 0;
+            int moved = 0;
+            for (long h : hashes) {
+                String b = before.get(h);
+                String a = after.get(h);
+                if (a.equals("10.0.1.0:80"))
+                    ++toNew;
+                else if (!b.equals(a))
+                    ++moved;
+            }
+            System.out.println("add one: " + toNew + " clients to the new item, "
+                + moved + " clients moved between old items");
+            if (toNew == 0)
+                throw new Exception("no client goes to the new item");
+            if (moved > CLIENTS / 50)
+                throw new Exception("too many clients moved: " + moved);
+        }
+        rebuild();
+    }
+
+    // the table of the group is rebuilt off the event loop when the health changes
+    private static void rebuild() throws Exception {
+        ServerSocketChannel backend = ServerSocketChannel.open();
+        backend.bind(new InetSocketAddress("127.0.0.1", PORT));
+        EventLoopGroup elg = new EventLoopGroup("maglev-test");
+        elg.add("l0");
+        ServerGroup group = new ServerGroup("maglev-test", elg, new HealthCheckConfig(500, 200, 1, 1), Method.source);
+        try {
+            InetAddress local = InetAddress.getByName("127.0.0.1");
+            group.add("s0", new InetSocketAddress(local, PORT), local, 10);
+            group.add("s1", new InetSocketAddress(local, PORT + 1), local, 10); // nothing listens
+            ServerGroup.ServerHandle s0 = group.getServerHandles().get(0);
+            List<InetSocketAddress> sources = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                sources.add(new InetSocketAddress("10.1.0." + i, 10000));
+            }
+
+            // all clients go to the only healthy server
+            waitUntil(() -> sources.stream().allMatch(src -> group.nextHandle(src) == s0), "the table should be rebuilt when s0 is up");
+            System.out.println("rebuilt when s0 is up");
+
+            // nothing is picked when all servers are down
+            backend.close();
+            waitUntil(() -> sources.stream().allMatch(src -> group.nextHandle(src) == null), "the table should be rebuilt when s0 is down");
+            System.out.println("rebuilt when s0 is down");
+        } finally {
+            group.clear();
+            elg.close();
+            backend.close();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier cond, String msg) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exception(msg);
+            Thread.sleep(20);
+        }
+    }
+
+    private static Map<String, Integer> count(Maglev<String> table, long[] hashes) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (long h : hashes) {
+            counts.merge(table.get(h), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
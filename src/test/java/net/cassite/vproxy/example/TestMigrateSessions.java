@@ -0,0 +1,179 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.app.TcpLB;
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.util.BufferPool;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+public class TestMigrateSessions {
+    private static final int BACKEND_PORT = 19900;
+    private static final int LB_PORT = 19901;
+    private static final int CLIENTS = 8;
+
+    private static volatile boolean stop = false;
+
+    // keeps sending random bytes and checks the echoed bytes
+    private static class Client extends Thread {
+        final Random rnd;
+        volatile long rounds = 0;
+        volatile Throwable err = null;
+
+        Client(int n) {
+            super("migrate-client-" + n);
+            rnd = new Random(n);
+        }
+
+        @Override
+        public void run() {
+            try (Socket sock = new Socket("127.0.0.1", LB_PORT)) {
+                sock.setSoTimeout(5000);
+                OutputStream out = sock.getOutputStream();
+                DataInputStream in = new DataInputStream(sock.getInputStream());
+                while (!stop) {
+                    byte[] sent = new byte[1 + rnd.nextInt(32768)]; // large enough to grow the buffers
+                    rnd.nextBytes(sent);
+                    out.write(sent);
+                    out.flush();
+                    byte[] received = new byte[sent.length];
+                    in.readFully(received);
+                    if (!Arrays.equals(sent, received))
+                        throw new Exception("echoed bytes are different from the sent bytes in round " + rounds);
+                    ++rounds;
+                }
+            } catch (Throwable t) {
+                err = t;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long base = BufferPool.getDirectBytes();
+
+        // a blocking echo server, one thread for each connection
+        ServerSocket echo = new ServerSocket(BACKEND_PORT, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(() -> {
+            while (true) {
+                Socket sock;
+                try {
+                    sock = echo.accept();
+                } catch (IOException e) {
+                    return; // closed
+                }
+                new Thread(() -> {
+                    byte[] buf = new byte[16384];
+                    try (Socket s = sock) {
+                        InputStream in = s.getInputStream();
+                        OutputStream out = s.getOutputStream();
+                        int n;
+                        while ((n = in.read(buf)) != -1) {
+                            out.write(buf, 0, n);
+                        }
+                    } catch (IOException ignore) {
+                        // closed
+                    }
+                }, "migrate-echo-conn").start();
+            }
+        }, "migrate-echo").start();
+
+        EventLoopGroup acceptor = new EventLoopGroup("migrate-acceptor");
+        EventLoopGroup worker = new EventLoopGroup("migrate-worker");
+        List<Client> clients = new ArrayList<>();
+        TcpLB lb = null;
+        try {
+            acceptor.add("a0");
+            worker.add("w0");
+            worker.add("w1");
+            ServerGroups serverGroups = new ServerGroups("migrate-groups");
+            ServerGroup grp = new ServerGroup("migrate-grp", worker, new HealthCheckConfig(500, 200, 1, 1), Method.wrr);
+            serverGroups.add(grp);
+            grp.add("echo", new InetSocketAddress("127.0.0.1", BACKEND_PORT), InetAddress.getByName("127.0.0.1"), 10);
+            ServerGroup.ServerHandle server = grp.getServerHandles().get(0);
+            waitUntil(() -> server.healthy, "server should be up");
+
+            lb = new TcpLB("migrate-lb", acceptor, worker, new InetSocketAddress(LB_PORT), serverGroups, 16384, 16384);
+            lb.start();
+
+            // the sessions are distributed to both worker loops
+            for (int i = 0; i < CLIENTS; ++i) {
+                Client c = new Client(i);
+                clients.add(c);
+                c.start();
+            }
+            waitUntil(() -> clients.stream().allMatch(c -> c.rounds > 10), "clients should be running");
+            TcpLB theLb = lb; // used in lambdas
+            if (lb.sessionCount() != CLIENTS)
+                throw new Exception("wrong session count " + lb.sessionCount());
+            System.out.println("clients running, session count " + lb.sessionCount() + ", buffer bytes " + lb.getBufferBytes());
+
+            // remove a worker loop while the traffic is running, its sessions are moved to the other loop
+            long[] before = new long[CLIENTS];
+            for (int i = 0; i < CLIENTS; ++i) {
+                before[i] = clients.get(i).rounds;
+            }
+            worker.remove("w0");
+            System.out.println("w0 removed, session count " + lb.sessionCount());
+            waitUntil(() -> {
+                for (int i = 0; i < CLIENTS; ++i) {
+                    if (clients.get(i).rounds < before[i] + 10)
+                        return false;
+                }
+                return true;
+            }, "all sessions should keep running after the loop is removed");
+            for (Client c : clients) {
+                if (c.err != null)
+                    throw new Exception("client " + c.getName() + " failed", c.err);
+            }
+            if (lb.sessionCount() != CLIENTS)
+                throw new Exception("sessions should not be closed when moving, but session count is " + lb.sessionCount());
+            System.out.println("sessions moved, session count " + lb.sessionCount() + ", buffer bytes " + lb.getBufferBytes());
+
+            // the buffers are given back when the sessions are closed
+            stop = true;
+            for (Client c : clients) {
+                c.join();
+                if (c.err != null)
+                    throw new Exception("client " + c.getName() + " failed", c.err);
+            }
+            waitUntil(() -> theLb.sessionCount() == 0, "sessions should be closed");
+            waitUntil(() -> theLb.getBufferBytes() == 0, "buffer bytes should be 0");
+            System.out.println("sessions closed, session count " + lb.sessionCount() + ", buffer bytes " + lb.getBufferBytes());
+            grp.clear();
+        } finally {
+            stop = true;
+            if (lb != null) {
+                lb.destroy();
+            }
+            acceptor.close();
+            worker.close();
+            echo.close();
+        }
+        // all the pools are freed after the loops are closed
+        waitUntil(() -> BufferPool.getDirectBytes() == base, "the pooled buffers should be freed");
+    }
+
+    private static void waitUntil(BooleanSupplier cond, String msg) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exception(msg);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.redis.application.RESPApplication;
+import net.cassite.vproxy.redis.application.RESPApplicationConfig;
+import net.cassite.vproxy.redis.application.RESPApplicationContext;
+import net.cassite.vproxy.redis.application.RESPApplicationHandler;
+import net.cassite.vproxy.redis.application.RESPCommand;
+import net.cassite.vproxy.redis.application.RESPCommandStats;
+import net.cassite.vproxy.util.ByteView;
+import net.cassite.vproxy.util.Callback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestRESPCommandTable {
+    private static final Object NOT_CALLED = new Object();
+
+    public static void main(String[] args) throws Exception {
+        List<RESPCommand> commands = new ArrayList<>();
+        commands.add(new RESPCommand("get", 1, false, RESPCommand.F_READONLY, 1, 1, 1));
+        commands.add(new RESPCommand("set", 2, true, RESPCommand.F_WRITE, 1, 1, 1));
+        // enough commands to make the table larger and cause collisions
+        for (int i = 0; i < 100; ++i) {
+            commands.add(new RESPCommand("cmd" + i, 0, true, 0, 0, 0, 0));
+        }
+        // the first one wins
+        commands.add(new RESPCommand("GET", 3, false, 0, 1, 1, 1));
+        List<Object> handled = new ArrayList<>();
+        RESPApplicationHandler handler = new RESPApplicationHandler(new RESPApplicationConfig(), new RESPApplication<RESPApplicationContext>() {
+            @Override
+            public RESPApplicationContext context() {
+                return new RESPApplicationContext();
+            }
+
+            @Override
+            public List<RESPCommand> commands() {
+                return commands;
+            }
+
+            @Override
+            public void handle(Object o, RESPApplicationContext ctx, Callback<Object, Throwable> cb) {
+                handled.add(o);
+                cb.succeeded("OK");
+            }
+        });
+        RESPApplicationContext ctx = handler.attachment();
+
+        // names are matched ignoring case, as strings or byte views
+        expect(handler, ctx, Arrays.asList("get", "a"), "OK");
+        expect(handler, ctx, Arrays.asList("GET", "a"), "OK");
+        expect(handler, ctx, Arrays.asList(view("gEt"), view("a")), "OK");
+        expect(handler, ctx, "Get a", "OK");
+        expect(handler, ctx, Arrays.asList("CMD42"), "OK");
+        expect(handler, ctx, Arrays.asList(view("cmd99"), "x", "y"), "OK");
+        if (stats(handler, "get").getCalls() != 4)
+            throw new Exception("wrong calls of get: " + stats(handler, "get"));
+        if (stats(handler, "cmd42").getCalls() != 1 || stats(handler, "cmd99").getCalls() != 1)
+            throw new Exception("wrong calls of cmd42 or cmd99");
+
+        // arity is checked before the user code
+        int handledCount = handled.size();
+        expect(handler, ctx, Arrays.asList("get"), "ERR wrong number of arguments for 'get' command");
+        expect(handler, ctx, Arrays.asList(view("GET"), "a", "b"), "ERR wrong number of arguments for 'get' command");
+        expect(handler, ctx, Arrays.asList("set", "a"), "ERR wrong number of arguments for 'set' command");
+        expect(handler, ctx, Arrays.asList("set", "a", "b", "EX", "10"), "OK");
+        if (handled.size() != handledCount + 1)
+            throw new Exception("commands with wrong arity should not reach the user code");
+        if (stats(handler, "get").getFailures() != 2)
+            throw new Exception("wrong failures of get: " + stats(handler, "get"));
+
+        // unknown names are passed to the user code without statistics
+        expect(handler, ctx, Arrays.asList("gett", "a"), "OK");
+        expect(handler, ctx, Arrays.asList("ge"), "OK");
+        expect(handler, ctx, Arrays.asList("g\u00e9t", "a"), "OK");
+        expect(handler, ctx, Arrays.asList(view("cmd100")), "OK");
+        if (handled.size() != handledCount + 5)
+            throw new Exception("unknown commands should reach the user code");
+
+        // built-in commands
+        expect(handler, ctx, Arrays.asList(view("PING")), "PONG");
+        expect(handler, ctx, "ping hello", "hello");
+        expect(handler, ctx, Arrays.asList("command", view("COUNT")), commands.size());
+        Object info = call(handler, ctx, Arrays.asList(view("Command"), "info", view("SET"), "nothing", "ping"));
+        System.out.println("command info: " + info);
+        if (!(info instanceof List) || ((List) info).size() != 3
+            || !((List) info).get(0).equals(commands.get(1).toList())
+            || ((List) info).get(1) != null || ((List) info).get(2) != null)
+            throw new Exception("wrong command info " + info);
+        if (stats(handler, "ping").getCalls() != 2 || stats(handler, "command").getCalls() != 2)
+            throw new Exception("wrong calls of built-in commands");
+
+        for (RESPCommandStats s : handler.getCommandStats()) {
+            if (s.getCalls() != 0) {
+                System.out.println(s);
+            }
+        }
+    }
+
+    private static ByteView view(String s) {
+        return new ByteView(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static RESPCommandStats stats(RESPApplicationHandler handler, String name) throws Exception {
+        for (RESPCommandStats s : handler.getCommandStats()) {
+            if (s.name.equals(name))
+                return s;
+        }
+        throw new Exception("no stats for " + name);
+    }
+
+    private static Object call(RESPApplicationHandler handler, RESPApplicationContext ctx, Object input) throws Exception {
+        Object[] res = {NOT_CALLED};
+        handler.handle(input, ctx, new Callback<Object, Throwable>() {
+            @Override
+            protected void onSucceeded(Object value) {
+                res[0] = value;
+            }
+
+            @Override
+            protected void onFailed(Throwable err) {
+                res[0] = err.getMessage();
+            }
+        });
+        if (res[0] == NOT_CALLED)
+            throw new Exception("callback not called for " + input);
+        return res[0];
+    }
+
+    private static void expect(RESPApplicationHandler handler, RESPApplicationContext ctx, Object input, Object expected) throws Exception {
+        Object res = call(handler, ctx, input);
+        if (res instanceof ByteView)
+            res = new String(((ByteView) res).toBytes(), StandardCharsets.UTF_8);
+        if (!expected.equals(res))
+            throw new Exception("expecting " + expected + " for " + input + ", but got " + res);
+    }
+}
@@ -0,0 +1,357 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.proxy.RESPBackendConnection;
+import net.cassite.vproxy.component.proxy.RESPMultiplexer;
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.redis.Parser;
+import net.cassite.vproxy.redis.Serializer;
+import net.cassite.vproxy.redis.entity.RESP;
+import net.cassite.vproxy.redis.entity.RESPArray;
+import net.cassite.vproxy.redis.entity.RESPBulkString;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.Callback;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public class TestRESPMultiplexer {
+    private static final int PORT = 19600;
+    private static final int SLOW_PORT = 19601;
+    private static final int CLOSED_PORT = 19602; // nothing listens
+
+    public static void main(String[] args) throws Exception {
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        NetEventLoop loop = new NetEventLoop(selectorEventLoop);
+        new Thread(selectorEventLoop::loop).start();
+
+        // redis servers replying `echo x` with `x`, the replies are in the order of the requests
+        List<Socket> accepted = new CopyOnWriteArrayList<>();
+        ServerSocket backend = startBackend(PORT, false, accepted);
+        // reads slowly with a small receive buffer, so the connections get busy
+        ServerSocket slowBackend = startBackend(SLOW_PORT, true, accepted);
+
+        try {
+            fifo(loop);
+            grow(loop);
+            failAll(loop);
+            backlog(loop);
+        } finally {
+            backend.close();
+            slowBackend.close();
+            for (Socket s : accepted) {
+                s.close();
+            }
+            selectorEventLoop.close();
+        }
+    }
+
+    private static ServerSocket startBackend(int port, boolean slow, List<Socket> accepted) throws IOException {
+        ServerSocket backend = new ServerSocket();
+        if (slow) {
+            backend.setReceiveBufferSize(1024);
+        }
+        backend.bind(new InetSocketAddress("127.0.0.1", port));
+        new Thread(() -> {
+            while (true) {
+                Socket s;
+                try {
+                    s = backend.accept();
+                } catch (IOException e) {
+                    return; // closed
+                }
+                accepted.add(s);
+                new Thread(() -> echo(s, slow)).start();
+            }
+        }, "backend-accept-" + port).start();
+        return backend;
+    }
+
+    // the replies are matched with the requests in order
+    private static void fifo(NetEventLoop loop) throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        RESPMultiplexer.Backlog backlog = newBacklog(loop, Integer.MAX_VALUE, 0);
+        RESPMultiplexer mux = onLoop(loop, () ->
+            new RESPMultiplexer(loop.getSelectorEventLoop(), 1, c -> connect(loop, PORT, c), backlog, counter));
+        Results results = sendAll(loop, mux, 500);
+        results.check(500);
+        if (counter.get() != 1)
+            throw new Exception("only one connection should be made, but got " + counter.get());
+        System.out.println("fifo: 500 replies matched over " + counter.get() + " connection");
+        if (backlog.getBytes() != 0)
+            throw new Exception("the backlog should be empty, but got " + backlog.getBytes());
+        onLoop(loop, () -> {
+            mux.close();
+            return null;
+        });
+        if (counter.get() != 0)
+            throw new Exception("the connections should be closed, but got " + counter.get());
+    }
+
+    // more connections are made for new requests when the existing ones are busy
+    private static void grow(NetEventLoop loop) throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        RESPMultiplexer.Backlog backlog = newBacklog(loop, Integer.MAX_VALUE, 0);
+        int[] maxConnections = {0};
+        RESPMultiplexer mux = onLoop(loop, () -> new RESPMultiplexer(loop.getSelectorEventLoop(), 3, c -> {
+            boolean ok = connect(loop, SLOW_PORT, c);
+            maxConnections[0] = Math.max(maxConnections[0], counter.get());
+            return ok;
+        }, backlog, counter));
+        List<Results> rounds = new ArrayList<>();
+        for (int round = 0; round < 10; ++round) {
+            rounds.add(sendAll(loop, mux, 20, 1000));
+            Thread.sleep(50);
+        }
+        for (Results r : rounds) {
+            r.check(20, 1000);
+        }
+        System.out.println("grow: " + counter.get() + " connections, max " + maxConnections[0]);
+        if (counter.get() != 3 || maxConnections[0] != 3)
+            throw new Exception("should grow to 3 connections, but got " + counter.get() + ", max " + maxConnections[0]);
+        onLoop(loop, () -> {
+            mux.close();
+            return null;
+        });
+    }
+
+    // the queued requests fail when no connection can be made
+    private static void failAll(NetEventLoop loop) throws Exception {
+        {
+            AtomicInteger counter = new AtomicInteger();
+            RESPMultiplexer.Backlog backlog = newBacklog(loop, Integer.MAX_VALUE, 0);
+            RESPMultiplexer mux = onLoop(loop, () ->
+                new RESPMultiplexer(loop.getSelectorEventLoop(), 2, c -> false, backlog, counter));
+            Results results = sendAll(loop, mux, 10);
+            results.checkFailed(10, "ERR no backend available");
+            if (counter.get() != 0 || backlog.getBytes() != 0)
+                throw new Exception("nothing should be left, but got " + counter.get() + " connections and " + backlog.getBytes() + " bytes");
+        }
+        {
+            AtomicInteger counter = new AtomicInteger();
+            RESPMultiplexer.Backlog backlog = newBacklog(loop, Integer.MAX_VALUE, 0);
+            RESPMultiplexer mux = onLoop(loop, () ->
+                new RESPMultiplexer(loop.getSelectorEventLoop(), 2, c -> connect(loop, CLOSED_PORT, c), backlog, counter));
+            Results results = sendAll(loop, mux, 10);
+            results.checkFailed(10, "ERR connect to backend failed");
+            if (counter.get() != 0 || backlog.getBytes() != 0)
+                throw new Exception("nothing should be left, but got " + counter.get() + " connections and " + backlog.getBytes() + " bytes");
+        }
+        {
+            // closed before the requests are dispatched
+            AtomicInteger counter = new AtomicInteger();
+            RESPMultiplexer.Backlog backlog = newBacklog(loop, Integer.MAX_VALUE, 0);
+            RESPMultiplexer mux = onLoop(loop, () ->
+                new RESPMultiplexer(loop.getSelectorEventLoop(), 2, c -> connect(loop, PORT, c), backlog, counter));
+            Results results = new Results(10);
+            onLoop(loop, () -> {
+                for (int i = 0; i < 5; ++i) {
+                    mux.send(request(i), results.cb(i));
+                }
+                mux.close();
+                for (int i = 5; i < 10; ++i) {
+                    mux.send(request(i), results.cb(i));
+                }
+                return null;
+            });
+            results.checkFailed(10, "connection closed");
+            if (counter.get() != 0 || backlog.getBytes() != 0)
+                throw new Exception("nothing should be left, but got " + counter.get() + " connections and " + backlog.getBytes() + " bytes");
+        }
+        System.out.println("fail all: ok");
+    }
+
+    // the clients are paused when the backlog is full, and resumed when it drops to the low watermark
+    private static void backlog(NetEventLoop loop) throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        int len = request(0).length;
+        RESPMultiplexer.Backlog backlog = newBacklog(loop, len * 5, len * 2);
+        RESPMultiplexer mux = onLoop(loop, () ->
+            new RESPMultiplexer(loop.getSelectorEventLoop(), 1, c -> connect(loop, PORT, c), backlog, counter));
+        Results results = new Results(10);
+        AtomicInteger resumed = new AtomicInteger();
+        boolean full = onLoop(loop, () -> {
+            for (int i = 0; i < 10; ++i) {
+                mux.send(request(i), results.cb(i));
+            }
+            boolean ret = backlog.isFull();
+            backlog.pause(resumed::incrementAndGet);
+            backlog.pause(resumed::incrementAndGet); // another client
+            return ret;
+        });
+        if (!full)
+            throw new Exception("the backlog should be full");
+        results.check(10);
+        waitUntil(() -> resumed.get() == 2, "the clients should be resumed");
+        if (backlog.getPauseCount() != 2 || backlog.getPausedClients() != 0)
+            throw new Exception("wrong pause count " + backlog.getPauseCount() + " or paused clients " + backlog.getPausedClients());
+        System.out.println("backlog: paused and resumed " + resumed.get() + " clients");
+        onLoop(loop, () -> {
+            mux.close();
+            return null;
+        });
+    }
+
+    private static RESPMultiplexer.Backlog newBacklog(NetEventLoop loop, long high, long low) {
+        return new RESPMultiplexer.Backlog(loop.getSelectorEventLoop(), high, low);
+    }
+
+    private static boolean connect(NetEventLoop loop, int port, RESPBackendConnection c) {
+        try {
+            ClientConnection conn = ClientConnection.create(new InetSocketAddress("127.0.0.1", port),
+                new InetSocketAddress("127.0.0.1", 0), RingBuffer.allocate(1024), RingBuffer.allocate(16));
+            conn.channel.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
+            loop.addClientConnection(conn, null, c);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static byte[] request(int i) {
+        return request(i, 0);
+    }
+
+    private static String value(int i, int padding) {
+        StringBuilder sb = new StringBuilder("value-").append(i);
+        for (int p = 0; p < padding; ++p) {
+            sb.append('.');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] request(int i, int padding) {
+        return Serializer.from(Arrays.asList("echo", value(i, padding)));
+    }
+
+    private static Results sendAll(NetEventLoop loop, RESPMultiplexer mux, int n) throws Exception {
+        return sendAll(loop, mux, n, 0);
+    }
+
+    // send in one tick, so the requests are queued before dispatching
+    private static Results sendAll(NetEventLoop loop, RESPMultiplexer mux, int n, int padding) throws Exception {
+        Results results = new Results(n);
+        onLoop(loop, () -> {
+            for (int i = 0; i < n; ++i) {
+                mux.send(request(i, padding), results.cb(i));
+            }
+            return null;
+        });
+        return results;
+    }
+
+    private static class Results {
+        final Object[] values;
+        final AtomicInteger done = new AtomicInteger();
+
+        Results(int n) {
+            values = new Object[n];
+        }
+
+        Callback<RESP, IOException> cb(int i) {
+            return new Callback<RESP, IOException>() {
+                @Override
+                protected void onSucceeded(RESP value) {
+                    values[i] = value instanceof RESPBulkString ? ((RESPBulkString) value).string() : value;
+                    done.incrementAndGet();
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    values[i] = err;
+                    done.incrementAndGet();
+                }
+            };
+        }
+
+        void check(int n) throws Exception {
+            check(n, 0);
+        }
+
+        void check(int n, int padding) throws Exception {
+            waitUntil(() -> done.get() == n, "not all replies arrived: " + done.get() + "/" + n);
+            for (int i = 0; i < n; ++i) {
+                if (!value(i, padding).equals(values[i]))
+                    throw new Exception("wrong reply for request " + i + ": " + values[i]);
+            }
+        }
+
+        void checkFailed(int n, String msg) throws Exception {
+            waitUntil(() -> done.get() == n, "not all callbacks called: " + done.get() + "/" + n);
+            for (int i = 0; i < n; ++i) {
+                if (!(values[i] instanceof IOException) || !((IOException) values[i]).getMessage().equals(msg))
+                    throw new Exception("request " + i + " should fail with " + msg + ", but got " + values[i]);
+            }
+        }
+    }
+
+    private static void echo(Socket socket, boolean slow) {
+        try {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            RingBuffer rb = RingBuffer.allocate(4096);
+            byte[] buf = new byte[4096];
+            Parser parser = new Parser(4096);
+            while (true) {
+                if (slow) {
+                    Thread.sleep(10);
+                }
+                int l = input.read(buf, 0, slow ? 256 : buf.length);
+                if (l < 0)
+                    return;
+                ByteArrayChannel chnl = ByteArrayChannel.from(buf, 0, l, 0);
+                while (chnl.used() > 0) {
+                    rb.storeBytesFrom(chnl);
+                    while (parser.feed(rb) == 0) {
+                        RESPArray arr = (RESPArray) parser.getResult();
+                        String s = ((RESPBulkString) arr.array.get(1)).string();
+                        output.write(Serializer.from(s));
+                        parser = new Parser(4096);
+                    }
+                    if (parser.getErrorMessage() != null)
+                        throw new IOException(parser.getErrorMessage());
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private static <T> T onLoop(NetEventLoop loop, Supplier<T> f) throws Exception {
+        BlockingQueue<Object[]> q = new ArrayBlockingQueue<>(1);
+        loop.getSelectorEventLoop().runOnLoop(() -> q.add(new Object[]{f.get()}));
+        Object[] res = q.poll(5, TimeUnit.SECONDS);
+        if (res == null)
+            throw new Exception("the loop did not run the task");
+        @SuppressWarnings("unchecked")
+        T t = (T) res[0];
+        return t;
+    }
+
+    private static void waitUntil(BooleanSupplier cond, String msg) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new Exception(msg);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import net.cassite.vproxy.util.ByteArrayChannel;
 import net.cassite.vproxy.util.RingBuffer;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class TestRESPParser {
     public static void main(String[] args) throws Exception {
@@ -42,19 +43,19 @@ public class TestRESPParser {
         {
             RESPBulkString empty = (RESPBulkString) parse("$0\r\n\r\n");
             System.out.println(empty);
-            if (!empty.string.toString().equals(""))
+            if (!empty.string().equals(""))
                 throw new Exception("wrong empty bulk string");
         }
         {
             RESPBulkString nil = (RESPBulkString) parse("$-1\r\n");
             System.out.println(nil);
-            if (nil.string != null)
+            if (nil.bytes != null)
                 throw new Exception("wrong null bulk string");
         }
         {
             RESPBulkString blk = (RESPBulkString) parse("$6\r\nfoobar\r\n");
             System.out.println(blk);
-            if (!blk.string.toString().equals("foobar"))
+            if (!blk.string().equals("foobar"))
                 throw new Exception("wrong bulk string");
         }
         {
@@ -68,9 +69,9 @@ public class TestRESPParser {
             System.out.println(array);
             if (array.array.size() != 2)
                 throw new Exception("wrong array.len");
-            if (!((RESPBulkString) array.array.get(0)).string.toString().equals("foo"))
+            if (!((RESPBulkString) array.array.get(0)).string().equals("foo"))
                 throw new Exception("wrong array[0]");
-            if (!((RESPBulkString) array.array.get(1)).string.toString().equals("bar"))
+            if (!((RESPBulkString) array.array.get(1)).string().equals("bar"))
                 throw new Exception("wrong array[1]");
         }
         {
@@ -105,14 +106,50 @@ public class TestRESPParser {
                 throw new Exception("wrong mixArr[2]");
             if (((RESPInteger) mixArr.array.get(3)).integer != 4)
                 throw new Exception("wrong mixArr[3]");
-            if (!((RESPBulkString) mixArr.array.get(4)).string.toString().equals("foobar"))
+            if (!((RESPBulkString) mixArr.array.get(4)).string().equals("foobar"))
                 throw new Exception("wrong mixArr[4]");
         }
+        {
+            RESPBulkString utf8 = (RESPBulkString) parse("$6\r\n\u4f60\u597d\r\n");
+            System.out.println(utf8);
+            if (!utf8.string().equals("\u4f60\u597d"))
+                throw new Exception("wrong utf-8 bulk string");
+        }
+        {
+            RESPArray splitArr = (RESPArray) parseSplit("*2\r\n$11\r\nhello world\r\n:-42\r\n");
+            System.out.println(splitArr);
+            if (splitArr.array.size() != 2)
+                throw new Exception("wrong splitArr.len");
+            if (!((RESPBulkString) splitArr.array.get(0)).string().equals("hello world"))
+                throw new Exception("wrong splitArr[0]");
+            if (((RESPInteger) splitArr.array.get(1)).integer != -42)
+                throw new Exception("wrong splitArr[1]");
+        }
+    }
+
+    // feed the bytes through a small ring buffer, so the data wraps around the buffer
+    private static RESP parseSplit(String str) throws Exception {
+        Parser parser = new Parser(16384);
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        RingBuffer rb = RingBuffer.allocate(5);
+        ByteArrayChannel ch = ByteArrayChannel.fromFull(bytes);
+        int r = -1;
+        while (ch.used() > 0) {
+            rb.storeBytesFrom(ch);
+            r = parser.feed(rb);
+            if (r == 0)
+                break;
+            if (parser.getErrorMessage() != null)
+                throw new Exception("parse failed " + parser.getErrorMessage());
+        }
+        if (r != 0)
+            throw new Exception("the parsing should have ended");
+        return parser.getResult();
     }
 
     private static RESP parse(String str) throws Exception {
         Parser parser = new Parser(16384);
-        byte[] bytes = str.getBytes();
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
         RingBuffer rb = RingBuffer.allocate(bytes.length);
         ByteArrayChannel ch = ByteArrayChannel.fromFull(bytes);
         try {
@@ -0,0 +1,126 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.connection.BindServer;
+import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.protocol.ProtocolServerConfig;
+import net.cassite.vproxy.protocol.ProtocolServerHandler;
+import net.cassite.vproxy.redis.RESPConfig;
+import net.cassite.vproxy.redis.RESPHandler;
+import net.cassite.vproxy.redis.RESPProtocolHandler;
+import net.cassite.vproxy.redis.Serializer;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.Callback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestRESPPipeline {
+    private static final int PORT = 19400;
+    private static final int REQUESTS = 40;
+
+    public static void main(String[] args) throws Exception {
+        // the callbacks finish after random delays
+        ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor();
+        Random rand = new Random(42);
+        run(new RESPConfig(), (input, cb) ->
+            delays.schedule(() -> cb.succeeded(input), rand.nextInt(20), TimeUnit.MILLISECONDS));
+        delays.shutdown();
+
+        // the callbacks finish in reverse order after every 4 requests arrive,
+        // and no more requests should be parsed until they finish
+        ExecutorService reverse = Executors.newSingleThreadExecutor();
+        AtomicInteger outstanding = new AtomicInteger();
+        int[] maxOutstanding = {0};
+        List<Runnable> batch = new ArrayList<>();
+        run(new RESPConfig().setMaxPendingResponses(4), (input, cb) -> {
+            // called on the loop thread
+            maxOutstanding[0] = Math.max(maxOutstanding[0], outstanding.incrementAndGet());
+            batch.add(() -> {
+                outstanding.decrementAndGet();
+                cb.succeeded(input);
+            });
+            if (batch.size() == 4) {
+                List<Runnable> ls = new ArrayList<>(batch);
+                batch.clear();
+                reverse.execute(() -> {
+                    for (int i = ls.size() - 1; i >= 0; --i) {
+                        ls.get(i).run();
+                    }
+                });
+            }
+        });
+        reverse.shutdown();
+        System.out.println("max outstanding requests: " + maxOutstanding[0]);
+        if (maxOutstanding[0] > 4)
+            throw new Exception("parsing should stop when 4 responses are pending, but got " + maxOutstanding[0]);
+    }
+
+    interface Handle {
+        void handle(String input, Callback<Object, Throwable> cb);
+    }
+
+    private static void run(RESPConfig rconfig, Handle handle) throws Exception {
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        NetEventLoop loop = new NetEventLoop(selectorEventLoop);
+        ProtocolServerHandler.apply(loop,
+            BindServer.create(new InetSocketAddress("127.0.0.1", PORT)),
+            new ProtocolServerConfig().setInBufferSize(64).setOutBufferSize(16),
+            new RESPProtocolHandler(rconfig, new RESPHandler<Void>() {
+                @Override
+                public Void attachment() {
+                    return null;
+                }
+
+                @Override
+                public void handle(Object input, Void v, Callback<Object, Throwable> cb) {
+                    // echo the second element of the array
+                    handle.handle((String) ((List) input).get(1), cb);
+                }
+            }));
+        new Thread(selectorEventLoop::loop).start();
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", PORT));
+            socket.setSoTimeout(5000);
+
+            // send all requests at once
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < REQUESTS; ++i) {
+                String s = String.valueOf(i);
+                requests.write(("*2\r\n$4\r\necho\r\n$" + s.length() + "\r\n" + s + "\r\n").getBytes(StandardCharsets.UTF_8));
+                expected.write(Serializer.from(s));
+            }
+            socket.getOutputStream().write(requests.toByteArray());
+
+            // the responses come in the order of the requests
+            byte[] exp = expected.toByteArray();
+            byte[] got = new byte[exp.length];
+            InputStream input = socket.getInputStream();
+            int off = 0;
+            while (off < got.length) {
+                int l = input.read(got, off, got.length - off);
+                if (l < 0)
+                    throw new Exception("remote closed");
+                off += l;
+            }
+            System.out.println("received " + REQUESTS + " responses");
+            if (!Arrays.equals(exp, got))
+                throw new Exception("responses are not in the order of the requests: " + new String(got, StandardCharsets.UTF_8));
+        } finally {
+            selectorEventLoop.close();
+        }
+    }
+}
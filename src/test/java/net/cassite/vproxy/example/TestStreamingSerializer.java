@@ -0,0 +1,86 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.redis.Parser;
+import net.cassite.vproxy.redis.Serializer;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestStreamingSerializer {
+    public static void main(String[] args) throws Exception {
+        check("simple string", "hello");
+        check("utf-8 string", "\u4f60\u597d");
+        check("empty string", "");
+        check("integer", 123);
+        check("long", -1234567890123L);
+        check("null", null);
+        check("empty array", Collections.emptyList());
+        check("array", Arrays.asList("a", 1, null, "bc"));
+        check("object array", new Object[]{"a", new Object[]{2, "\u4e09"}, Collections.emptyList()});
+        check("nested array", Arrays.asList(
+            Arrays.asList(Arrays.asList("x", Collections.emptyList()), 3),
+            Collections.singletonList(Collections.singletonList(null)),
+            "end"));
+        {
+            List<Object> large = new ArrayList<>();
+            for (int i = 0; i < 1000; ++i) {
+                large.add(i % 2 == 0 ? i : "element-" + i);
+            }
+            check("large array", large);
+        }
+        check("parsed array", parse("*3\r\n+OK\r\n:5\r\n$3\r\nabc\r\n"));
+        check("array with parsed elements", Arrays.asList(parse("-ERR x\r\n"), parse("$-1\r\n"), "s"));
+
+        // unsupported objects are rejected before streaming
+        try {
+            Serializer.stream(Arrays.asList("a", new Object()));
+            throw new Exception("unsupported element should be rejected");
+        } catch (IllegalArgumentException expected) {
+            System.out.println("unsupported element rejected: " + expected.getMessage());
+        }
+    }
+
+    // the streamed bytes equal the bytes serialized at once,
+    // the buffer is small so the elements are split
+    private static void check(String name, Object o) throws Exception {
+        byte[] expected = Serializer.from(o);
+        ReadableByteChannel stream = Serializer.stream(o);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(3);
+        int n;
+        while ((n = stream.read(buf)) != -1) {
+            if (n == 0)
+                throw new Exception(name + ": read 0 bytes before the end");
+            buf.flip();
+            out.write(buf.array(), 0, buf.limit());
+            buf.clear();
+        }
+        if (stream.isOpen())
+            throw new Exception(name + ": the stream should be closed after the end");
+        if (stream.read(buf) != -1)
+            throw new Exception(name + ": reading again after the end should return -1");
+        byte[] got = out.toByteArray();
+        System.out.println(name + ": " + got.length + " bytes");
+        if (!Arrays.equals(expected, got))
+            throw new Exception(name + ": expecting " + new String(expected, StandardCharsets.UTF_8)
+                + ", but got " + new String(got, StandardCharsets.UTF_8));
+    }
+
+    private static Object parse(String str) throws Exception {
+        Parser parser = new Parser(16384);
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        RingBuffer rb = RingBuffer.allocate(bytes.length);
+        rb.storeBytesFrom(ByteArrayChannel.fromFull(bytes));
+        if (parser.feed(rb) != 0)
+            throw new Exception("parse failed " + parser.getErrorMessage());
+        return parser.getResult();
+    }
+}
@@ -0,0 +1,159 @@
+package net.cassite.vproxy.example;
+
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestWLC {
+    // nothing listens on the ports, the connections are only used for counting
+    private static final int BASE_PORT = 19200;
+
+    public static void main(String[] args) throws Exception {
+        // the group has no event loop, so health checks are not started
+        EventLoopGroup elg = new EventLoopGroup("wlc-test");
+        List<ClientConnection> conns = new ArrayList<>();
+        try {
+            scan(elg, conns);
+            closeAll(conns);
+            p2c(elg, conns);
+        } finally {
+            closeAll(conns);
+            elg.close();
+        }
+    }
+
+    // small groups check every server
+    private static void scan(EventLoopGroup elg, List<ClientConnection> conns) throws Exception {
+        ServerGroup group = newGroup(elg, "scan", new int[]{1, 2, 3});
+        List<ServerGroup.ServerHandle> servers = group.getServerHandles();
+
+        // the connections are assigned in proportion to the weights
+        for (int i = 0; i < 60; ++i) {
+            connect(group, conns);
+        }
+        for (ServerGroup.ServerHandle h : servers) {
+            System.out.println(h.alias + " weight " + h.getWeight() + " connections " + h.connectionCount());
+            if (h.connectionCount() != h.getWeight() * 10)
+                throw new Exception("wrong connection count of " + h.alias + ": " + h.connectionCount());
+        }
+
+        // the least loaded one is picked
+        ServerGroup.ServerHandle s0 = servers.get(0);
+        closeAll(conns, s0);
+        if (s0.connectionCount() != 0)
+            throw new Exception("connections of s0 are closed, but got " + s0.connectionCount());
+        if (group.nextHandle(null) != s0)
+            throw new Exception("s0 has no connection and should be picked");
+
+        // unhealthy servers are skipped
+        s0.healthy = false;
+        for (int i = 0; i < 10; ++i) {
+            if (connect(group, conns) == s0)
+                throw new Exception("unhealthy server picked");
+        }
+        for (ServerGroup.ServerHandle h : servers) {
+            h.healthy = false;
+        }
+        if (group.next() != null)
+            throw new Exception("all servers are down, should return null");
+        group.clear();
+    }
+
+    // large groups pick the less loaded one of two random servers
+    private static void p2c(EventLoopGroup elg, List<ClientConnection> conns) throws Exception {
+        int n = 20;
+        int[] weights = new int[n];
+        for (int i = 0; i < n; ++i) {
+            weights[i] = 1;
+        }
+        ServerGroup group = newGroup(elg, "p2c", weights);
+        List<ServerGroup.ServerHandle> servers = group.getServerHandles();
+
+        // the loaded server is never picked
+        ServerGroup.ServerHandle loaded = servers.get(0);
+        ServerGroup.ServerHandle down = servers.get(1);
+        down.healthy = false;
+        for (int i = 0; i < 50; ++i) {
+            conns.add(loaded.makeConnector().connect(RingBuffer.allocate(16), RingBuffer.allocate(16)));
+        }
+        for (int i = 0; i < 10_000; ++i) {
+            ServerGroup.ServerHandle h = group.nextHandle(null);
+            if (h == loaded)
+                throw new Exception("the loaded server is picked");
+            if (h == down)
+                throw new Exception("unhealthy server picked");
+        }
+
+        // the connections are spread on the other servers,
+        // two choices keep the max load close to the average (10)
+        int picks = (n - 2) * 10;
+        for (int i = 0; i < picks; ++i) {
+            connect(group, conns);
+        }
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (ServerGroup.ServerHandle h : servers) {
+            if (h == loaded || h == down)
+                continue;
+            min = Math.min(min, h.connectionCount());
+            max = Math.max(max, h.connectionCount());
+        }
+        System.out.println("p2c connections: min " + min + " max " + max + " loaded " + loaded.connectionCount());
+        if (loaded.connectionCount() != 50)
+            throw new Exception("the loaded server is picked");
+        if (max > 14 || min < 4)
+            throw new Exception("connections are not balanced: min " + min + " max " + max);
+
+        for (ServerGroup.ServerHandle h : servers) {
+            h.healthy = false;
+        }
+        if (group.next() != null)
+            throw new Exception("all servers are down, should return null");
+        group.clear();
+    }
+
+    private static ServerGroup newGroup(EventLoopGroup elg, String alias, int[] weights) throws Exception {
+        ServerGroup group = new ServerGroup(alias, elg, new HealthCheckConfig(1000, 1000, 1, 1), Method.wlc);
+        InetAddress local = InetAddress.getByName("127.0.0.1");
+        for (int i = 0; i < weights.length; ++i) {
+            group.add("s" + i, new InetSocketAddress(local, BASE_PORT + i), local, weights[i]);
+        }
+        for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+            h.healthy = true;
+        }
+        return group;
+    }
+
+    // pick a server and connect to it, the connection is counted for the server
+    private static ServerGroup.ServerHandle connect(ServerGroup group, List<ClientConnection> conns) throws Exception {
+        ServerGroup.ServerHandle h = group.nextHandle(null);
+        if (h == null)
+            throw new Exception("no server picked");
+        conns.add(h.makeConnector().connect(RingBuffer.allocate(16), RingBuffer.allocate(16)));
+        return h;
+    }
+
+    private static void closeAll(List<ClientConnection> conns) {
+        for (ClientConnection conn : conns) {
+            conn.close();
+        }
+        conns.clear();
+    }
+
+    private static void closeAll(List<ClientConnection> conns, ServerGroup.ServerHandle h) {
+        conns.removeIf(conn -> {
+            if (!conn.getRemote().equals(h.server))
+                return false;
+            conn.close();
+            return true;
+        });
+    }
+}